@@ -0,0 +1,262 @@
+package auth;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import auth.SessionStore.StoredSession;
+import play.Logger;
+
+/**
+ * 検証済みアカウントセッションのキャッシュです。
+ * セッションクッキーの UUID を {@link SessionStore} で検証した結果を保持し、
+ * 認証済みリクエスト毎の照会を省略します。
+ * 保持件数の上限を超えた場合は最も参照されていない行から破棄し、生存期間を過ぎた行は再検証します。
+ * @author mizuo
+ */
+@Singleton
+public class AccountSessionCache {
+
+	/** 保持件数の上限の設定パス */
+	private static final String MAX_SIZE_PATH = "auth.sessionCache.maxSize";
+	/** 生存期間の設定パス */
+	private static final String TTL_PATH = "auth.sessionCache.ttl";
+
+	/** セッションの保存先 */
+	private final SessionStore store;
+	/** 保持件数の上限 */
+	private final int maxSize;
+	/** 生存期間(ナノ秒) */
+	private final long ttlNanos;
+	/** 参照順に並んだ検証済みセッション(先頭が最も古い) */
+	private final LinkedHashMap<UUID, CachedSession> sessions;
+
+	/** キャッシュから取得できた回数 */
+	private final LongAdder hitCount = new LongAdder();
+	/** キャッシュから取得できなかった回数 */
+	private final LongAdder missCount = new LongAdder();
+	/** 上限超過または期限切れで破棄した回数 */
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 * @param store セッションの保存先
+	 */
+	@Inject
+	public AccountSessionCache(Config config, SessionStore store) {
+		this(config.getInt(MAX_SIZE_PATH), config.getDuration(TTL_PATH, TimeUnit.NANOSECONDS), store);
+	}
+
+	/**
+	 * @param maxSize 保持件数の上限
+	 * @param ttlNanos 生存期間(ナノ秒)
+	 * @param store セッションの保存先
+	 */
+	AccountSessionCache(int maxSize, long ttlNanos, SessionStore store) {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} maxSize = {}, ttl = {} ms, store = {}", getClass().getName(), maxSize, TimeUnit.NANOSECONDS.toMillis(ttlNanos),
+					store.getClass().getName());
+		}
+		this.store = store;
+		this.maxSize = maxSize;
+		this.ttlNanos = ttlNanos;
+		this.sessions = new LinkedHashMap<UUID, CachedSession>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, CachedSession> eldest) {
+				if (size() > AccountSessionCache.this.maxSize) {
+					evictionCount.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * セッションクッキーに保持された利用者名(セッションUUID)を検証します。
+	 * キャッシュに有効な行があればそれを返し、無ければ保存先で検証してキャッシュします。
+	 * 保存先が入出力を待たない場合は呼び出し元のスレッドで検証します。
+	 * @param username 利用者名(セッションUUID)
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @return 検証済みセッション。UUIDとして不正、または保存先に登録されていない場合は empty
+	 */
+	public CompletionStage<Optional<CachedSession>> findAsync(String username, Executor executor) {
+		final Optional<UUID> uuid = parse(username);
+		if (!uuid.isPresent()) {
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+		final Optional<CachedSession> cached = getIfPresent(uuid.get());
+		if (cached.isPresent()) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		if (!store.isBlocking()) {
+			return CompletableFuture.completedFuture(store.find(uuid.get()).map(this::put));
+		}
+		return CompletableFuture.supplyAsync(() -> store.find(uuid.get()).map(this::put), executor);
+	}
+
+	/**
+	 * キャッシュから検証済みセッションを取得します。
+	 * 保存先は照会しないので、empty の場合は {@link #findAsync(String, Executor)} で検証してください。
+	 * @param username 利用者名(セッションUUID)
+	 * @return 検証済みセッション
+	 */
+	public Optional<CachedSession> getIfPresent(String username) {
+		final Optional<UUID> uuid = parse(username);
+		if (!uuid.isPresent()) {
+			return Optional.empty();
+		}
+		return getIfPresent(uuid.get());
+	}
+
+	/**
+	 * キャッシュから検証済みセッションを取得します。
+	 * 生存期間を過ぎている場合は破棄して empty を返します。
+	 * @param uuid セッションUUID
+	 * @return 検証済みセッション
+	 */
+	Optional<CachedSession> getIfPresent(UUID uuid) {
+		final long now = System.nanoTime();
+		synchronized (sessions) {
+			final CachedSession cached = sessions.get(uuid);
+			if (cached != null) {
+				if (now - cached.cachedAtNanos < ttlNanos) {
+					hitCount.increment();
+					return Optional.of(cached);
+				}
+				sessions.remove(uuid);
+				evictionCount.increment();
+			}
+		}
+		missCount.increment();
+		return Optional.empty();
+	}
+
+	/**
+	 * 保存先で検証したセッションをキャッシュします。
+	 * @param session 保存されたセッション
+	 * @return 検証済みセッション
+	 */
+	CachedSession put(StoredSession session) {
+		final CachedSession cached = new CachedSession(session.uuid, session.individualId, session.lastSeenMillis, System.nanoTime());
+		synchronized (sessions) {
+			sessions.put(cached.uuid, cached);
+		}
+		return cached;
+	}
+
+	/**
+	 * 引数のセッションをキャッシュから破棄します。
+	 * ログアウト時に呼び出してください。
+	 * @param username 利用者名(セッションUUID)
+	 */
+	public void invalidate(String username) {
+		final Optional<UUID> uuid = parse(username);
+		if (uuid.isPresent()) {
+			synchronized (sessions) {
+				sessions.remove(uuid.get());
+			}
+		}
+	}
+
+	/**
+	 * 保存先で検証した時点の最終アクセス日時が引数より古いセッションをキャッシュから破棄します。
+	 * 保存先の最終アクセス日時は検証した時点より戻らないので、保存先から期限切れで削除したセッションは全て破棄されます。
+	 * 削除していないセッションを破棄しても、次のリクエストで保存先から検証し直すだけです。
+	 * 期限切れのセッションを保存先から削除した後に呼び出してください。
+	 * @param lastSeenBeforeMillis この日時(エポックミリ秒)より前にアクセスしたセッションを破棄する
+	 * @return 破棄した件数
+	 */
+	public int invalidateIdle(long lastSeenBeforeMillis) {
+		int invalidated = 0;
+		synchronized (sessions) {
+			final Iterator<CachedSession> cached = sessions.values().iterator();
+			while (cached.hasNext()) {
+				if (cached.next().lastSeenMillis < lastSeenBeforeMillis) {
+					cached.remove();
+					invalidated++;
+				}
+			}
+		}
+		return invalidated;
+	}
+
+	/**
+	 * 保持件数を返します。
+	 * @return 保持件数
+	 */
+	public int size() {
+		synchronized (sessions) {
+			return sessions.size();
+		}
+	}
+
+	/** @return キャッシュから取得できた回数 */
+	public long hitCount() {
+		return hitCount.sum();
+	}
+
+	/** @return キャッシュから取得できなかった回数 */
+	public long missCount() {
+		return missCount.sum();
+	}
+
+	/** @return 上限超過または期限切れで破棄した回数 */
+	public long evictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * 利用者名をセッションUUIDとして解析します。
+	 * @param username 利用者名
+	 * @return セッションUUID。UUIDとして不正な場合は empty
+	 */
+	private static Optional<UUID> parse(String username) {
+		if (username == null) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(UUID.fromString(username));
+		} catch (IllegalArgumentException e) {
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("invalid session uuid: {}", username);
+			}
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * 検証済みセッションです。
+	 * @author mizuo
+	 */
+	public static class CachedSession {
+		/** セッションUUID */
+		public final UUID uuid;
+		/** 個人ID */
+		public final Long individualId;
+		/** 保存先で検証した時点の最終アクセス日時(エポックミリ秒) */
+		public final long lastSeenMillis;
+		/** キャッシュした時刻(ナノ秒) */
+		final long cachedAtNanos;
+		CachedSession(UUID uuid, Long individualId, long lastSeenMillis, long cachedAtNanos) {
+			this.uuid = uuid;
+			this.individualId = individualId;
+			this.lastSeenMillis = lastSeenMillis;
+			this.cachedAtNanos = cachedAtNanos;
+		}
+	}
+
+}
@@ -4,10 +4,17 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
+import javax.inject.Inject;
+
+import auth.AccountSessionCache.CachedSession;
+import controllers.StaticPageCache;
+import models.DatabaseExecutionContext;
 import play.Logger;
+import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Action;
 import play.mvc.Http.Context;
 import play.mvc.Http.Request;
+import play.mvc.Http.Status;
 import play.mvc.Result;
 import play.mvc.Results;
 
@@ -17,8 +24,38 @@ import play.mvc.Results;
  */
 public class AuthenticationAction extends Action<Results> {
 
+	/** 検証済みアカウントセッションのキャッシュ */
+	private final AccountSessionCache sessionCache;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** HTTPコンテキストを引き継ぐ実行コンテキスト */
+	private final HttpExecutionContext httpContext;
+	/** 描画結果のキャッシュ */
+	private final StaticPageCache staticPages;
+	/** 最終アクセス日時の記録 */
+	private final SessionActivityTracker activityTracker;
+
+	/**
+	 * @param sessionCache 検証済みアカウントセッションのキャッシュ
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param httpContext HTTPコンテキストを引き継ぐ実行コンテキスト
+	 * @param staticPages 描画結果のキャッシュ
+	 * @param activityTracker 最終アクセス日時の記録
+	 */
+	@Inject
+	public AuthenticationAction(AccountSessionCache sessionCache, DatabaseExecutionContext dbContext, HttpExecutionContext httpContext,
+			StaticPageCache staticPages, SessionActivityTracker activityTracker) {
+		this.sessionCache = sessionCache;
+		this.dbContext = dbContext;
+		this.httpContext = httpContext;
+		this.staticPages = staticPages;
+		this.activityTracker = activityTracker;
+	}
+
 	/**
 	 * 認証済みであれば、利用者名をリクエスト属性に設定して後続の処理を実行します。
+	 * 利用者名(セッションUUID)はアカウントセッションの登録行で検証し、失効または偽造されたものは未認証として扱います。
+	 * キャッシュに無い場合のみ {@link DatabaseExecutionContext} でDBを照会します。
 	 * 未認証の場合はログインページへリダイレクトします。
 	 */
 	@Override
@@ -27,18 +64,57 @@ public class AuthenticationAction extends Action<Results> {
 			Logger.debug("{} -> {}#call", ctx.request().uri(), getClass().getName());
 		}
 		final Optional<String> username = new UsernameHelpers.UsernameSession(ctx.session()).get();
-		if (username.isPresent()) {
-			final Request usernameReq = new UsernameHelpers.UsernameRequest(ctx.request()).addAttr(username);
-			final Context usernameCtx = ctx.withRequest(usernameReq);
-			return delegate.call(usernameCtx);
+		if (!username.isPresent()) {
+			return unauthorizedResult();
+		}
+		final CompletableFuture<Optional<CachedSession>> session = sessionCache.findAsync(username.get(), dbContext).toCompletableFuture();
+		if (session.isDone()) {
+			// キャッシュで検証できた場合はスレッドを切り替えない。
+			return proceed(ctx, username, session.join());
+		}
+		return session.thenComposeAsync(stored -> proceed(ctx, username, stored), httpContext.current());
+	}
+
+	/**
+	 * 検証結果に応じて後続の処理を実行します。
+	 * 検証できた場合は最終アクセス日時を記録します。
+	 * @param ctx HTTPコンテキスト
+	 * @param username 利用者名
+	 * @param session 検証済みセッション
+	 * @return 後続の処理結果
+	 */
+	private CompletionStage<Result> proceed(Context ctx, Optional<String> username, Optional<CachedSession> session) {
+		if (session.isPresent()) {
+			activityTracker.touch(session.get());
+			return authorized(ctx, username);
 		} else {
-			final Result result = Results.unauthorized(views.html.unauthorized.render());
-			//final String path = routes.OwnerController.get().path();
-			//final Result result = new Result(Status.UNAUTHORIZED, Collections.singletonMap(LOCATION, path));
-			//final Result result = new Result(Status.SEE_OTHER, Collections.singletonMap(LOCATION, path));
-			return CompletableFuture.completedFuture(result);
-			//return delegate.call(ctx);
+			return unauthorizedResult();
 		}
 	}
 
+	/**
+	 * 利用者名をリクエスト属性に設定して後続の処理を実行します。
+	 * @param ctx HTTPコンテキスト
+	 * @param username 利用者名
+	 * @return 後続の処理結果
+	 */
+	private CompletionStage<Result> authorized(Context ctx, Optional<String> username) {
+		final Request usernameReq = new UsernameHelpers.UsernameRequest(ctx.request()).addAttr(username);
+		final Context usernameCtx = ctx.withRequest(usernameReq);
+		return delegate.call(usernameCtx);
+	}
+
+	/**
+	 * 未認証の応答を返します。
+	 * 内容は利用者によらないので、描画結果のキャッシュから返します。
+	 * @return 401 UNAUTHORIZED
+	 */
+	private CompletionStage<Result> unauthorizedResult() {
+		final Result result = staticPages.render("unauthorized", Status.UNAUTHORIZED, views.html.unauthorized::render);
+		//final String path = routes.OwnerController.get().path();
+		//final Result result = new Result(Status.UNAUTHORIZED, Collections.singletonMap(LOCATION, path));
+		//final Result result = new Result(Status.SEE_OTHER, Collections.singletonMap(LOCATION, path));
+		return CompletableFuture.completedFuture(result);
+	}
+
 }
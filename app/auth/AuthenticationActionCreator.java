@@ -2,10 +2,23 @@ package auth;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import controllers.HealthController;
 import controllers.LoginController;
+import controllers.MetricsController;
+import filters.RequestTiming;
+import jfr.FlightRecorderEvents;
 import play.Logger;
 import play.mvc.Action;
 import play.mvc.Http;
@@ -17,10 +30,57 @@ import play.mvc.Results;
  * 認証アクション生成クラスです。
  * HTTPリクエストに対応するメソッドは原則的に認証処理を経由します。
  * 認証処理を経由したくないメソッドは {@link AuthenticationAnnotations.Anybody} を注釈してください。
+ * {@link #PUBLIC_CONTROLLERS} のメソッドはセッションを参照しないので、認証アクションを一切経由しません。
+ * アクションメソッド毎の認証方針は宣言クラス単位で一度だけ解決し、以降のリクエストでは表を引くだけにします。
  * @author mizuo
  */
 public class AuthenticationActionCreator implements play.http.ActionCreator {
 
+	/**
+	 * 認証方針です。
+	 * @author mizuo
+	 */
+	enum AuthenticationPolicy {
+		/** {@link AuthenticationAnnotations} の内部注釈に従う */
+		ANNOTATED,
+		/** 認証処理を実行する */
+		AUTHENTICATED,
+		/** 注釈の無いログイン処理なので実行しない */
+		LOGIN_GUARD,
+		/** 認証アクションを経由せずに実行する */
+		PUBLIC
+	}
+
+	/** 認証アクションを経由しない制御クラス */
+	static final Set<Class<?>> PUBLIC_CONTROLLERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			MetricsController.class, HealthController.class)));
+
+	/** 認証アクションの製造 */
+	private final Provider<AuthenticationAction> authenticationActionProvider;
+
+	/** 宣言クラス毎のアクションメソッドの認証方針表 */
+	private final ClassValue<Map<Method, AuthenticationPolicy>> policies = new ClassValue<Map<Method, AuthenticationPolicy>>() {
+		@Override
+		protected Map<Method, AuthenticationPolicy> computeValue(Class<?> type) {
+			final Map<Method, AuthenticationPolicy> table = new HashMap<>();
+			for (Method method : type.getDeclaredMethods()) {
+				table.put(method, resolvePolicy(method));
+			}
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} policies of {} -> {}", AuthenticationActionCreator.class.getName(), type.getName(), table);
+			}
+			return Collections.unmodifiableMap(table);
+		}
+	};
+
+	/**
+	 * @param authenticationActionProvider 認証アクションの製造
+	 */
+	@Inject
+	public AuthenticationActionCreator(Provider<AuthenticationAction> authenticationActionProvider) {
+		this.authenticationActionProvider = authenticationActionProvider;
+	}
+
 	/**
 	 * アクションを生成します。
 	 * {@link AuthenticationAnnotations} の内部注釈が指定されている場合は、後続処理を実行します。
@@ -31,22 +91,69 @@ public class AuthenticationActionCreator implements play.http.ActionCreator {
 		if (Logger.isDebugEnabled()) {
 			Logger.debug("{}#createAction(Request {}, Method {})", getClass().getName(), request.uri(), actionMethod);
 		}
+		final FlightRecorderEvents.AuthPolicyRecording recording = FlightRecorderEvents.beginAuthPolicy();
+		final AuthenticationPolicy policy = policyOf(actionMethod);
+		recording.end(actionMethod, policy);
 		return new Action.Simple() {
 			@Override
 			public CompletionStage<Result> call(Http.Context ctx) {
-				if (hasAuthenticationAnnotation(actionMethod)) {
+				// アクションメソッドの同期部分の所要時間と資源を記録する
+				return RequestTiming.of(ctx.request()).time("action", () -> callPolicy(ctx));
+			}
+			/**
+			 * 認証方針に従ってアクションを実行します。
+			 * @param ctx HTTPコンテキスト
+			 * @return 実行結果
+			 */
+			private CompletionStage<Result> callPolicy(Http.Context ctx) {
+				switch (policy) {
+				case ANNOTATED:
+				case PUBLIC:
 					return delegate.call(ctx);
-				} else {
-					if (isLogin(actionMethod)) {
-						final Result result = Results.internalServerError();
-						return CompletableFuture.completedFuture(result);
-					}
+				case LOGIN_GUARD:
+					final Result result = Results.internalServerError();
+					return CompletableFuture.completedFuture(result);
+				default:
+					final AuthenticationAction authenticationAction = authenticationActionProvider.get();
+					authenticationAction.delegate = delegate;
+					return authenticationAction.call(ctx);
 				}
-				return new AuthenticationAction().call(ctx);
 			}
 		};
 	}
 
+	/**
+	 * アクションメソッドの認証方針を返します。
+	 * 宣言クラスの認証方針表から引くので、リクエスト毎のリフレクションは発生しません。
+	 * @param actionMethod アクションメソッド
+	 * @return 認証方針
+	 */
+	AuthenticationPolicy policyOf(Method actionMethod) {
+		final AuthenticationPolicy policy = policies.get(actionMethod.getDeclaringClass()).get(actionMethod);
+		if (policy != null) {
+			return policy;
+		} else {
+			return resolvePolicy(actionMethod);
+		}
+	}
+
+	/**
+	 * アクションメソッドの認証方針を注釈とメソッドから解決します。
+	 * @param actionMethod アクションメソッド
+	 * @return 認証方針
+	 */
+	AuthenticationPolicy resolvePolicy(Method actionMethod) {
+		if (PUBLIC_CONTROLLERS.contains(actionMethod.getDeclaringClass())) {
+			return AuthenticationPolicy.PUBLIC;
+		} else if (hasAuthenticationAnnotation(actionMethod)) {
+			return AuthenticationPolicy.ANNOTATED;
+		} else if (isLogin(actionMethod)) {
+			return AuthenticationPolicy.LOGIN_GUARD;
+		} else {
+			return AuthenticationPolicy.AUTHENTICATED;
+		}
+	}
+
 	/**
 	 * {@link AuthenticationAnnotation} の内部注釈がアクションメソッドに指定されている場合 true を返します。
 	 * @param actionMethod アクションメソッド
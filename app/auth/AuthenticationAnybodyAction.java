@@ -1,9 +1,15 @@
 package auth;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
+import javax.inject.Inject;
+
+import auth.AccountSessionCache.CachedSession;
+import models.DatabaseExecutionContext;
 import play.Logger;
+import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Action;
 import play.mvc.Http.Context;
 import play.mvc.Http.Request;
@@ -16,8 +22,34 @@ import play.mvc.Results;
  */
 public class AuthenticationAnybodyAction extends Action<Results> {
 
+	/** 検証済みアカウントセッションのキャッシュ */
+	private final AccountSessionCache sessionCache;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** HTTPコンテキストを引き継ぐ実行コンテキスト */
+	private final HttpExecutionContext httpContext;
+	/** 最終アクセス日時の記録 */
+	private final SessionActivityTracker activityTracker;
+
+	/**
+	 * @param sessionCache 検証済みアカウントセッションのキャッシュ
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param httpContext HTTPコンテキストを引き継ぐ実行コンテキスト
+	 * @param activityTracker 最終アクセス日時の記録
+	 */
+	@Inject
+	public AuthenticationAnybodyAction(AccountSessionCache sessionCache, DatabaseExecutionContext dbContext, HttpExecutionContext httpContext,
+			SessionActivityTracker activityTracker) {
+		this.sessionCache = sessionCache;
+		this.dbContext = dbContext;
+		this.httpContext = httpContext;
+		this.activityTracker = activityTracker;
+	}
+
 	/**
 	 * 認証済みであれば、利用者名をリクエスト属性に設定して後続の処理を実行します。
+	 * 利用者名(セッションUUID)はアカウントセッションの登録行で検証し、失効または偽造されたものは未認証として扱います。
+	 * キャッシュに無い場合のみ {@link DatabaseExecutionContext} でDBを照会します。
 	 * 未認証の場合は、利用者名はリクエスト属性に設定しないで後続の処理を実行します。
 	 */
 	@Override
@@ -26,13 +58,44 @@ public class AuthenticationAnybodyAction extends Action<Results> {
 			Logger.debug("{} -> {}#call", ctx.request().uri(), getClass().getName());
 		}
 		final Optional<String> username = new UsernameHelpers.UsernameSession(ctx.session()).get();
-		if (username.isPresent()) {
-			final Request usernameReq = new UsernameHelpers.UsernameRequest(ctx.request()).addAttr(username);
-			final Context usernameCtx = ctx.withRequest(usernameReq);
-			return delegate.call(usernameCtx);
+		if (!username.isPresent()) {
+			return delegate.call(ctx);
+		}
+		final CompletableFuture<Optional<CachedSession>> session = sessionCache.findAsync(username.get(), dbContext).toCompletableFuture();
+		if (session.isDone()) {
+			// キャッシュで検証できた場合はスレッドを切り替えない。
+			return proceed(ctx, username, session.join());
+		}
+		return session.thenComposeAsync(stored -> proceed(ctx, username, stored), httpContext.current());
+	}
+
+	/**
+	 * 検証結果に応じて後続の処理を実行します。
+	 * 検証できた場合は最終アクセス日時を記録します。
+	 * @param ctx HTTPコンテキスト
+	 * @param username 利用者名
+	 * @param session 検証済みセッション
+	 * @return 後続の処理結果
+	 */
+	private CompletionStage<Result> proceed(Context ctx, Optional<String> username, Optional<CachedSession> session) {
+		if (session.isPresent()) {
+			activityTracker.touch(session.get());
+			return authorized(ctx, username);
 		} else {
 			return delegate.call(ctx);
 		}
 	}
 
+	/**
+	 * 利用者名をリクエスト属性に設定して後続の処理を実行します。
+	 * @param ctx HTTPコンテキスト
+	 * @param username 利用者名
+	 * @return 後続の処理結果
+	 */
+	private CompletionStage<Result> authorized(Context ctx, Optional<String> username) {
+		final Request usernameReq = new UsernameHelpers.UsernameRequest(ctx.request()).addAttr(username);
+		final Context usernameCtx = ctx.withRequest(usernameReq);
+		return delegate.call(usernameCtx);
+	}
+
 }
@@ -0,0 +1,64 @@
+package auth;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.inject.Singleton;
+
+import models.AccountSession;
+
+/**
+ * {@code account_session} テーブルに保存するアカウントセッションの保存先です。
+ * ログイン毎に 1 行登録します。最終アクセス日時は更新日時です。
+ * @author mizuo
+ */
+@Singleton
+public class JdbcSessionStore implements SessionStore {
+
+	@Override
+	public void save(StoredSession session) {
+		final AccountSession accountSession = new AccountSession();
+		accountSession.uuid = session.uuid;
+		accountSession.individualId = session.individualId;
+		accountSession.ipAddress = session.ipAddress;
+		accountSession.save();
+	}
+
+	@Override
+	public Optional<StoredSession> find(UUID uuid) {
+		return AccountSession.findOneOrEmpty(uuid.toString()).map(JdbcSessionStore::toStoredSession);
+	}
+
+	@Override
+	public boolean delete(UUID uuid) {
+		final Optional<AccountSession> accountSession = AccountSession.findOneOrEmpty(uuid.toString());
+		return accountSession.isPresent() && accountSession.get().delete();
+	}
+
+	/**
+	 * 更新日時をJDBCバッチでまとめて更新します。
+	 */
+	@Override
+	public int touch(Map<UUID, Long> lastSeenMillis) {
+		return AccountSession.touchAll(lastSeenMillis);
+	}
+
+	@Override
+	public int deleteIdle(long lastSeenBeforeMillis, int limit) {
+		return AccountSession.deleteIdle(new Date(lastSeenBeforeMillis), limit);
+	}
+
+	/**
+	 * 保存されたセッションに変換します。
+	 * @param accountSession アカウントセッション
+	 * @return 保存されたセッション
+	 */
+	private static StoredSession toStoredSession(AccountSession accountSession) {
+		final Date lastSeen = accountSession.updatedAt != null ? accountSession.updatedAt : accountSession.createdAt;
+		return new StoredSession(accountSession.uuid, accountSession.individualId, accountSession.ipAddress,
+				lastSeen == null ? 0L : lastSeen.getTime());
+	}
+
+}
@@ -0,0 +1,579 @@
+package auth;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+/**
+ * メモリマップトファイルに保存するアカウントセッションの保存先です。
+ * ファイルはヘッダーと固定長のスロットの並びで、スロットの並びをそのままセッションUUIDをキーとする
+ * 開番地法(線形探索)のハッシュ表として使います。
+ * ログイン時にDBを更新せず、ページキャッシュへの書き込みだけで済みます。
+ * プロセスを再起動してもファイルが残っていればセッションは有効ですが、
+ * 書き込みの度に {@code force} はしないので、OS の停止時には直近の変更を失うことがあります。
+ * 保持件数が上限に達した場合は、時計の針の位置から標本にした数件のうち最終アクセス日時が最も古いセッションを破棄します。
+ * 削除したスロットは墓標として残し、墓標が増えたら表を作り直します。
+ * 表の作り直しは一時ファイルに書き込んでから原子的に置き換えるので、途中で停止してもセッションを失いません。
+ * @author mizuo
+ */
+@Singleton
+public class MappedSessionStore implements SessionStore {
+
+	/** ファイルの設定パス */
+	private static final String PATH_PATH = "session.mapped.path";
+	/** 保持件数の上限の設定パス */
+	private static final String MAX_SESSIONS_PATH = "session.mapped.maxSessions";
+
+	/** ファイルの識別子 */
+	private static final int MAGIC = 0x424c5353;
+	/** ファイルの形式の版 */
+	private static final int VERSION = 1;
+	/** ヘッダーの長さ */
+	static final int HEADER_SIZE = 64;
+	/** ヘッダー内の識別子の位置 */
+	private static final int MAGIC_OFFSET = 0;
+	/** ヘッダー内の版の位置 */
+	private static final int VERSION_OFFSET = 4;
+	/** ヘッダー内のスロット数の位置 */
+	private static final int SLOT_COUNT_OFFSET = 8;
+	/** ヘッダー内の保持件数の位置 */
+	private static final int SIZE_OFFSET = 12;
+	/** ヘッダー内の墓標数の位置 */
+	private static final int TOMBSTONES_OFFSET = 16;
+
+	/** スロットの長さ */
+	static final int SLOT_SIZE = 96;
+	/** スロット内の状態の位置 */
+	private static final int STATE = 0;
+	/** スロット内のIPアドレスの長さの位置 */
+	private static final int IP_LENGTH = 1;
+	/** スロット内のUUIDの上位の位置 */
+	private static final int UUID_MSB = 8;
+	/** スロット内のUUIDの下位の位置 */
+	private static final int UUID_LSB = 16;
+	/** スロット内の個人IDの位置 */
+	private static final int INDIVIDUAL_ID = 24;
+	/** スロット内の最終アクセス日時の位置 */
+	private static final int LAST_SEEN = 32;
+	/** スロット内のIPアドレスの位置 */
+	private static final int IP_ADDRESS = 40;
+	/** IPアドレスの最大長(バイト) */
+	static final int MAX_IP_LENGTH = SLOT_SIZE - IP_ADDRESS;
+
+	/** 空きスロット */
+	private static final byte EMPTY = 0;
+	/** 使用中のスロット */
+	private static final byte USED = 1;
+	/** 削除したスロット(墓標) */
+	private static final byte DELETED = 2;
+
+	/** 保持件数に対するスロット数の最小の比(負荷率 0.75 以下) */
+	private static final double SLOTS_PER_SESSION = 4.0 / 3.0;
+	/** 使用中と墓標のスロットの割合がこれを超えたら表を作り直す */
+	private static final double MAX_OCCUPANCY = 0.9;
+	/** 破棄するセッションを選ぶ標本の数 */
+	static final int EVICTION_SAMPLES = 8;
+	/** 一時ファイルの接尾辞 */
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	/** ファイル */
+	private final Path path;
+	/** 保持件数の上限 */
+	private final int maxSessions;
+	/** スロット数(2 の累乗) */
+	private final int slotCount;
+	/** ファイルの写像(表を作り直すと置き換わる) */
+	private MappedByteBuffer buffer;
+	/** ファイルのチャンネル(表を作り直すと置き換わる) */
+	private FileChannel channel;
+	/** 読み書きの排他(読み込みは共有) */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/** 保持件数 */
+	private int size;
+	/** 墓標数 */
+	private int tombstones;
+	/** 破棄する標本を探し始めるスロット(時計の針) */
+	private int evictionHand;
+	/** 期限切れのセッションを次に探し始めるスロット */
+	private int idleCursor;
+	/** 上限超過で破棄した回数 */
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 * @param lifecycle アプリケーションのライフサイクル
+	 */
+	@Inject
+	public MappedSessionStore(Config config, ApplicationLifecycle lifecycle) {
+		this(Paths.get(config.getString(PATH_PATH)), config.getInt(MAX_SESSIONS_PATH));
+		lifecycle.addStopHook(() -> {
+			close();
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * ファイルを開きます。
+	 * 形式の版かスロット数が異なるファイルの場合は、読み取れるセッションを最終アクセス日時の新しい順に上限の件数まで引き継いで作り直します。
+	 * @param path ファイル
+	 * @param maxSessions 保持件数の上限
+	 */
+	MappedSessionStore(Path path, int maxSessions) {
+		if (maxSessions <= 0) {
+			throw new IllegalArgumentException("maxSessions: " + maxSessions);
+		}
+		this.path = path;
+		this.maxSessions = maxSessions;
+		this.slotCount = slotCountOf(maxSessions);
+		final long fileSize = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("maxSessions: " + maxSessions);
+		}
+		try {
+			final FileChannel existing = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			final List<StoredSession> carried = readLegacy(existing);
+			if (carried == null) {
+				channel = existing;
+				buffer = existing.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+				size = buffer.getInt(SIZE_OFFSET);
+				tombstones = buffer.getInt(TOMBSTONES_OFFSET);
+			} else {
+				existing.close();
+				carried.sort(Comparator.comparingLong((StoredSession session) -> session.lastSeenMillis).reversed());
+				replace(carried.subList(0, Math.min(carried.size(), maxSessions)));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} path = {}, maxSessions = {}, slots = {}, sessions = {}", getClass().getName(), path.toAbsolutePath(), maxSessions, slotCount, size);
+		}
+	}
+
+	/**
+	 * スロット数を求めます。
+	 * @param maxSessions 保持件数の上限
+	 * @return 負荷率が 0.75 以下になる 2 の累乗
+	 */
+	static int slotCountOf(int maxSessions) {
+		final long minimum = (long) Math.ceil(maxSessions * SLOTS_PER_SESSION) + 1;
+		long slots = 16;
+		while (slots < minimum) {
+			slots <<= 1;
+		}
+		if (slots > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("maxSessions: " + maxSessions);
+		}
+		return (int) slots;
+	}
+
+	/**
+	 * 現在の形式で使えない既存のファイルからセッションを読み取ります。
+	 * @param channel ファイルのチャンネル
+	 * @return 作り直す場合は引き継ぐセッション。現在の形式で使える場合は null
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	private List<StoredSession> readLegacy(FileChannel channel) throws IOException {
+		final long fileSize = channel.size();
+		final List<StoredSession> carried = new ArrayList<>();
+		if (fileSize < HEADER_SIZE) {
+			return carried;
+		}
+		final MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+		if (existing.getInt(MAGIC_OFFSET) != MAGIC || existing.getInt(VERSION_OFFSET) != VERSION) {
+			if (Logger.isWarnEnabled()) {
+				Logger.warn("{} {} is not a session file of version {}; sessions are discarded.", getClass().getName(), path, VERSION);
+			}
+			return carried;
+		}
+		final int existingSlots = existing.getInt(SLOT_COUNT_OFFSET);
+		if (existingSlots == slotCount && fileSize == HEADER_SIZE + (long) slotCount * SLOT_SIZE) {
+			return null;
+		}
+		for (int slot = 0; slot < existingSlots && HEADER_SIZE + (long) (slot + 1) * SLOT_SIZE <= fileSize; slot++) {
+			final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+			if (existing.get(offset + STATE) == USED) {
+				carried.add(read(existing, offset));
+			}
+		}
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} resizing {} from {} to {} slots with {} sessions", getClass().getName(), path, existingSlots, slotCount, carried.size());
+		}
+		return carried;
+	}
+
+	/**
+	 * セッションを書き込んだ新しいファイルを一時ファイルとして作成し、既存のファイルと原子的に置き換えて開き直します。
+	 * 途中で停止しても、既存のファイルか新しいファイルのどちらかが完全な状態で残ります。
+	 * 失敗した場合は既存のファイルを開いたままにします。
+	 * @param sessions 書き込むセッション(保持件数の上限以下)
+	 * @throws IOException 書き込みか置き換えに失敗した場合
+	 */
+	private void replace(List<StoredSession> sessions) throws IOException {
+		final Path temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+		final FileChannel previousChannel = channel;
+		final MappedByteBuffer previousBuffer = buffer;
+		final int previousSize = size;
+		final int previousTombstones = tombstones;
+		final FileChannel next = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			buffer = next.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+			buffer.putInt(MAGIC_OFFSET, MAGIC);
+			buffer.putInt(VERSION_OFFSET, VERSION);
+			buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+			size = 0;
+			tombstones = 0;
+			evictionHand = 0;
+			idleCursor = 0;
+			for (StoredSession session : sessions) {
+				write(insertionPoint(session.uuid), session, session.ipAddress.getBytes(StandardCharsets.UTF_8));
+				size++;
+			}
+			writeCounts();
+			buffer.force();
+			Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			buffer = previousBuffer;
+			size = previousSize;
+			tombstones = previousTombstones;
+			next.close();
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		channel = next;
+		if (previousChannel != null) {
+			previousChannel.close();
+		}
+	}
+
+	/**
+	 * 保持件数の上限に達している場合は標本のうち最終アクセス日時が最も古いセッションを破棄してから登録します。
+	 * 同じUUIDのセッションがあれば置き換えます。
+	 */
+	@Override
+	public void save(StoredSession session) {
+		final byte[] ipAddress = session.ipAddress == null ? new byte[0] : session.ipAddress.getBytes(StandardCharsets.UTF_8);
+		if (ipAddress.length > MAX_IP_LENGTH) {
+			throw new IllegalArgumentException("ipAddress: " + session.ipAddress);
+		}
+		lock.writeLock().lock();
+		try {
+			int offset = locate(session.uuid);
+			if (offset < 0) {
+				if (size >= maxSessions) {
+					evictOldest();
+				}
+				if (size + tombstones + 1 > slotCount * MAX_OCCUPANCY) {
+					rehash();
+				}
+				offset = insertionPoint(session.uuid);
+				if (buffer.get(offset + STATE) == DELETED) {
+					tombstones--;
+				}
+				size++;
+			}
+			write(offset, session, ipAddress);
+			writeCounts();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Optional<StoredSession> find(UUID uuid) {
+		lock.readLock().lock();
+		try {
+			final int offset = locate(uuid);
+			return offset < 0 ? Optional.empty() : Optional.of(read(buffer, offset));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean delete(UUID uuid) {
+		lock.writeLock().lock();
+		try {
+			final int offset = locate(uuid);
+			if (offset < 0) {
+				return false;
+			}
+			buffer.put(offset + STATE, DELETED);
+			size--;
+			tombstones++;
+			writeCounts();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int touch(Map<UUID, Long> lastSeenMillis) {
+		int updated = 0;
+		lock.writeLock().lock();
+		try {
+			for (Map.Entry<UUID, Long> entry : lastSeenMillis.entrySet()) {
+				final int offset = locate(entry.getKey());
+				if (offset >= 0 && buffer.getLong(offset + LAST_SEEN) < entry.getValue()) {
+					buffer.putLong(offset + LAST_SEEN, entry.getValue());
+					updated++;
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return updated;
+	}
+
+	/**
+	 * 前回の呼び出しで走査を終えたスロットから走査して削除します。
+	 * 上限の件数に達した呼び出しの続きから走査するので、繰り返し呼び出しても走査済みのスロットを走査し直しません。
+	 * 上限の件数に満たなかった場合は全てのスロットを 1 周走査しています。
+	 * 走査の間は他の読み書きを待たせるので、上限の件数は小さくしてください。
+	 */
+	@Override
+	public int deleteIdle(long lastSeenBeforeMillis, int limit) {
+		int deleted = 0;
+		lock.writeLock().lock();
+		try {
+			int slot = idleCursor;
+			for (int probe = 0; probe < slotCount && deleted < limit; probe++) {
+				final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+				if (buffer.get(offset + STATE) == USED && buffer.getLong(offset + LAST_SEEN) < lastSeenBeforeMillis) {
+					buffer.put(offset + STATE, DELETED);
+					size--;
+					tombstones++;
+					deleted++;
+				}
+				slot = (slot + 1) & (slotCount - 1);
+			}
+			idleCursor = slot;
+			writeCounts();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return deleted;
+	}
+
+	/**
+	 * ページキャッシュへの書き込みだけなので、呼び出し元のスレッドで処理します。
+	 */
+	@Override
+	public boolean isBlocking() {
+		return false;
+	}
+
+	/**
+	 * 保持件数を返します。
+	 * @return 保持件数
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 上限超過で破棄した回数を返します。
+	 * @return 破棄した回数
+	 */
+	public long evictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * 変更をファイルに書き出します。
+	 */
+	void close() {
+		lock.writeLock().lock();
+		try {
+			buffer.force();
+			channel.close();
+		} catch (IOException e) {
+			if (Logger.isWarnEnabled()) {
+				Logger.warn(getClass().getName() + " failed to close " + path, e);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * UUIDの探索を開始するスロットを求めます。
+	 * @param uuid セッションUUID
+	 * @return スロット番号
+	 */
+	private int home(UUID uuid) {
+		long hash = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return (int) hash & (slotCount - 1);
+	}
+
+	/**
+	 * UUIDのセッションがあるスロットを探します。
+	 * @param uuid セッションUUID
+	 * @return スロットの位置。無い場合は -1
+	 */
+	private int locate(UUID uuid) {
+		final long msb = uuid.getMostSignificantBits();
+		final long lsb = uuid.getLeastSignificantBits();
+		int slot = home(uuid);
+		for (int probe = 0; probe < slotCount; probe++) {
+			final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+			final byte state = buffer.get(offset + STATE);
+			if (state == EMPTY) {
+				return -1;
+			}
+			if (state == USED && buffer.getLong(offset + UUID_MSB) == msb && buffer.getLong(offset + UUID_LSB) == lsb) {
+				return offset;
+			}
+			slot = (slot + 1) & (slotCount - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * 登録先のスロットを探します。探索の途中に墓標があればそれを再利用します。
+	 * 使用中のスロットは上限の 0.9 倍以下なので、必ず見つかります。
+	 * @param uuid セッションUUID
+	 * @return スロットの位置
+	 */
+	private int insertionPoint(UUID uuid) {
+		int slot = home(uuid);
+		while (true) {
+			final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+			if (buffer.get(offset + STATE) != USED) {
+				return offset;
+			}
+			slot = (slot + 1) & (slotCount - 1);
+		}
+	}
+
+	/**
+	 * 時計の針の位置から使用中のスロットを {@link #EVICTION_SAMPLES} 件だけ標本にし、
+	 * その中で最終アクセス日時が最も古いセッションを破棄します。
+	 * 全てのスロットを走査しないので、書き込みの排他を保持する時間は保持件数の上限によりません。
+	 * 針は標本の次のスロットに進めるので、破棄の候補は表全体を巡回します。
+	 */
+	private void evictOldest() {
+		int oldest = -1;
+		long oldestMillis = Long.MAX_VALUE;
+		int sampled = 0;
+		int slot = evictionHand;
+		for (int probe = 0; probe < slotCount && sampled < EVICTION_SAMPLES; probe++) {
+			final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+			if (buffer.get(offset + STATE) == USED) {
+				sampled++;
+				if (buffer.getLong(offset + LAST_SEEN) < oldestMillis) {
+					oldest = offset;
+					oldestMillis = buffer.getLong(offset + LAST_SEEN);
+				}
+			}
+			slot = (slot + 1) & (slotCount - 1);
+		}
+		evictionHand = slot;
+		if (oldest >= 0) {
+			buffer.put(oldest + STATE, DELETED);
+			size--;
+			tombstones++;
+			evictionCount.increment();
+		}
+	}
+
+	/**
+	 * 墓標を取り除いた表を新しいファイルに書き込み、既存のファイルと置き換えます。
+	 * @throws UncheckedIOException 書き込みか置き換えに失敗した場合。既存のファイルはそのまま使えます
+	 */
+	private void rehash() {
+		final List<StoredSession> sessions = new ArrayList<>(size);
+		for (int slot = 0; slot < slotCount; slot++) {
+			final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+			if (buffer.get(offset + STATE) == USED) {
+				sessions.add(read(buffer, offset));
+			}
+		}
+		try {
+			replace(sessions);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (Logger.isDebugEnabled()) {
+			Logger.debug("{} rehashed {} sessions", getClass().getName(), size);
+		}
+	}
+
+	/**
+	 * スロットに書き込みます。状態は最後に書き込みます。
+	 * @param offset スロットの位置
+	 * @param session セッション
+	 * @param ipAddress IPアドレス(UTF-8)
+	 */
+	private void write(int offset, StoredSession session, byte[] ipAddress) {
+		buffer.putLong(offset + UUID_MSB, session.uuid.getMostSignificantBits());
+		buffer.putLong(offset + UUID_LSB, session.uuid.getLeastSignificantBits());
+		buffer.putLong(offset + INDIVIDUAL_ID, session.individualId);
+		buffer.putLong(offset + LAST_SEEN, session.lastSeenMillis);
+		buffer.put(offset + IP_LENGTH, (byte) ipAddress.length);
+		for (int i = 0; i < ipAddress.length; i++) {
+			buffer.put(offset + IP_ADDRESS + i, ipAddress[i]);
+		}
+		buffer.put(offset + STATE, USED);
+	}
+
+	/**
+	 * スロットを読み込みます。
+	 * @param source ファイルの写像
+	 * @param offset スロットの位置
+	 * @return セッション
+	 */
+	private static StoredSession read(MappedByteBuffer source, int offset) {
+		final UUID uuid = new UUID(source.getLong(offset + UUID_MSB), source.getLong(offset + UUID_LSB));
+		final byte[] ipAddress = new byte[source.get(offset + IP_LENGTH) & 0xff];
+		for (int i = 0; i < ipAddress.length; i++) {
+			ipAddress[i] = source.get(offset + IP_ADDRESS + i);
+		}
+		return new StoredSession(uuid, source.getLong(offset + INDIVIDUAL_ID), new String(ipAddress, StandardCharsets.UTF_8),
+				source.getLong(offset + LAST_SEEN));
+	}
+
+	/**
+	 * 保持件数と墓標数をヘッダーに書き込みます。
+	 */
+	private void writeCounts() {
+		buffer.putInt(SIZE_OFFSET, size);
+		buffer.putInt(TOMBSTONES_OFFSET, tombstones);
+	}
+
+}
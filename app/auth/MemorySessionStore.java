@@ -0,0 +1,160 @@
+package auth;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.Logger;
+
+/**
+ * ヒープ上の表に保存するアカウントセッションの保存先です。
+ * 入出力を伴わないので、呼び出し元のスレッドで処理します。
+ * 再起動すると全てのセッションが失効するので、単一ノードの開発環境や試験向けです。
+ * 保持件数が上限に達した場合は、時計の針の位置から数件を標本にしてその中で最終アクセス日時が最も古いセッションを破棄します。
+ * 同時に登録すると上限を一時的に数件超えることがあります。
+ * @author mizuo
+ */
+@Singleton
+public class MemorySessionStore implements SessionStore {
+
+	/** 保持件数の上限の設定パス */
+	private static final String MAX_SESSIONS_PATH = "session.memory.maxSessions";
+
+	/** 破棄するセッションを選ぶ標本の数 */
+	private static final int EVICTION_SAMPLES = 8;
+
+	/** 保持件数の上限 */
+	private final int maxSessions;
+	/** セッションUUID毎のセッション */
+	private final ConcurrentMap<UUID, StoredSession> sessions = new ConcurrentHashMap<>();
+	/** 上限超過で破棄した回数 */
+	private final LongAdder evictionCount = new LongAdder();
+	/** 破棄する標本を探す位置(時計の針) */
+	private Iterator<StoredSession> evictionHand;
+
+	/**
+	 * @param config 設定
+	 */
+	@Inject
+	public MemorySessionStore(Config config) {
+		this(config.getInt(MAX_SESSIONS_PATH));
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} maxSessions = {}", getClass().getName(), maxSessions);
+		}
+	}
+
+	/**
+	 * @param maxSessions 保持件数の上限
+	 */
+	MemorySessionStore(int maxSessions) {
+		if (maxSessions <= 0) {
+			throw new IllegalArgumentException("maxSessions: " + maxSessions);
+		}
+		this.maxSessions = maxSessions;
+	}
+
+	/**
+	 * 保持件数の上限に達している場合は標本のうち最終アクセス日時が最も古いセッションを破棄してから登録します。
+	 */
+	@Override
+	public void save(StoredSession session) {
+		if (sessions.size() >= maxSessions && !sessions.containsKey(session.uuid)) {
+			evictOldest();
+		}
+		sessions.put(session.uuid, session);
+	}
+
+	/**
+	 * 時計の針の位置から {@link #EVICTION_SAMPLES} 件を標本にし、その中で最終アクセス日時が最も古いセッションを破棄します。
+	 * 針は標本の次に進め、表の末尾に達したら先頭に戻すので、破棄の候補は表全体を巡回します。
+	 */
+	private synchronized void evictOldest() {
+		StoredSession oldest = null;
+		for (int sampled = 0; sampled < EVICTION_SAMPLES && !sessions.isEmpty(); sampled++) {
+			if (evictionHand == null || !evictionHand.hasNext()) {
+				evictionHand = sessions.values().iterator();
+				if (!evictionHand.hasNext()) {
+					break;
+				}
+			}
+			final StoredSession candidate = evictionHand.next();
+			if (oldest == null || candidate.lastSeenMillis < oldest.lastSeenMillis) {
+				oldest = candidate;
+			}
+		}
+		if (oldest != null && sessions.remove(oldest.uuid, oldest)) {
+			evictionCount.increment();
+		}
+	}
+
+	@Override
+	public Optional<StoredSession> find(UUID uuid) {
+		return Optional.ofNullable(sessions.get(uuid));
+	}
+
+	@Override
+	public boolean delete(UUID uuid) {
+		return sessions.remove(uuid) != null;
+	}
+
+	@Override
+	public int touch(Map<UUID, Long> lastSeenMillis) {
+		final int[] updated = new int[1];
+		for (Map.Entry<UUID, Long> entry : lastSeenMillis.entrySet()) {
+			final long lastSeen = entry.getValue();
+			sessions.computeIfPresent(entry.getKey(), (uuid, session) -> {
+				if (session.lastSeenMillis >= lastSeen) {
+					return session;
+				}
+				updated[0]++;
+				return new StoredSession(uuid, session.individualId, session.ipAddress, lastSeen);
+			});
+		}
+		return updated[0];
+	}
+
+	@Override
+	public int deleteIdle(long lastSeenBeforeMillis, int limit) {
+		int deleted = 0;
+		for (StoredSession session : sessions.values()) {
+			if (deleted >= limit) {
+				break;
+			}
+			if (session.lastSeenMillis < lastSeenBeforeMillis && sessions.remove(session.uuid, session)) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public boolean isBlocking() {
+		return false;
+	}
+
+	/**
+	 * 保持件数を返します。
+	 * @return 保持件数
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * 上限超過で破棄した回数を返します。
+	 * @return 破棄した回数
+	 */
+	public long evictionCount() {
+		return evictionCount.sum();
+	}
+
+}
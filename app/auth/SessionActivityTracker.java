@@ -0,0 +1,218 @@
+package auth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.DatabaseExecutionContext;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * アカウントセッションの最終アクセス日時を遅延して書き込む常駐処理です。
+ * 認証済みリクエスト毎の最終アクセス日時はメモリ上に記録するだけで、
+ * 一定間隔で {@link SessionStore#touch(Map)} にまとめて書き込みます。
+ * 前回書き込んでから粒度の時間内のアクセスは記録しないので、
+ * 書き込みはリクエスト毎ではなく、アクセスの続くセッション毎に粒度あたり高々 1 回です。
+ * @author mizuo
+ */
+@Singleton
+public class SessionActivityTracker {
+
+	/** 書き込み間隔の設定パス */
+	private static final String FLUSH_INTERVAL_PATH = "session.activity.flushInterval";
+	/** 粒度の設定パス */
+	private static final String GRANULARITY_PATH = "session.activity.granularity";
+
+	/** セッションの保存先 */
+	private final SessionStore store;
+	/** 粒度(ミリ秒) */
+	private final long granularityMillis;
+	/** 現在日時(エポックミリ秒) */
+	private final LongSupplier clock;
+	/** セッションUUID毎のアクセス状況 */
+	private final ConcurrentMap<UUID, Activity> activities = new ConcurrentHashMap<>();
+	/** 書き込み処理の実行中 */
+	private final AtomicBoolean flushing = new AtomicBoolean();
+
+	/** 粒度の時間内のため記録しなかったアクセス数 */
+	private final LongAdder skippedCount = new LongAdder();
+	/** 書き込んだセッション数 */
+	private final LongAdder flushedCount = new LongAdder();
+	/** 書き込みに失敗した回数 */
+	private final LongAdder failedCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 * @param lifecycle 生存周期
+	 * @param actorSystem アクターシステム
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param store セッションの保存先
+	 */
+	@Inject
+	public SessionActivityTracker(Config config, ApplicationLifecycle lifecycle, ActorSystem actorSystem,
+			DatabaseExecutionContext dbContext, SessionStore store) {
+		this(store, config.getDuration(GRANULARITY_PATH, TimeUnit.MILLISECONDS), System::currentTimeMillis);
+		final FiniteDuration interval = Duration.create(config.getDuration(FLUSH_INTERVAL_PATH, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} flushInterval = {}, granularity = {} ms", getClass().getName(), interval, granularityMillis);
+		}
+		final Cancellable schedule = actorSystem.scheduler().schedule(interval, interval, this::flush, dbContext);
+		lifecycle.addStopHook(() -> {
+			schedule.cancel();
+			return CompletableFuture.runAsync(this::flush, dbContext);
+		});
+	}
+
+	/**
+	 * @param store セッションの保存先
+	 * @param granularityMillis 粒度(ミリ秒)
+	 * @param clock 現在日時(エポックミリ秒)
+	 */
+	SessionActivityTracker(SessionStore store, long granularityMillis, LongSupplier clock) {
+		this.store = store;
+		this.granularityMillis = granularityMillis;
+		this.clock = clock;
+	}
+
+	/**
+	 * 認証済みリクエストのアクセスを記録します。
+	 * 前回書き込んでから粒度の時間内であれば何もしません。
+	 * @param session 検証済みセッション
+	 */
+	public void touch(AccountSessionCache.CachedSession session) {
+		touch(session.uuid, session.lastSeenMillis);
+	}
+
+	/**
+	 * アクセスを記録します。
+	 * 前回書き込んでから粒度の時間内であれば何もしません。
+	 * @param uuid セッションUUID
+	 * @param storedLastSeenMillis 保存先で検証した時点の最終アクセス日時(エポックミリ秒)
+	 */
+	void touch(UUID uuid, long storedLastSeenMillis) {
+		final long now = clock.getAsLong();
+		Activity activity = activities.get(uuid);
+		if (activity == null) {
+			if (now - storedLastSeenMillis < granularityMillis) {
+				skippedCount.increment();
+				return;
+			}
+			activity = activities.computeIfAbsent(uuid, key -> new Activity(storedLastSeenMillis));
+		}
+		if (now - activity.writtenMillis < granularityMillis) {
+			skippedCount.increment();
+			return;
+		}
+		if (activity.seenMillis < now) {
+			activity.seenMillis = now;
+		}
+	}
+
+	/**
+	 * 書き込んでいない最終アクセス日時を保存先にまとめて書き込みます。
+	 * 粒度の時間を過ぎてもアクセスの無いセッションは記録から外します。
+	 * 前回の処理が終わっていない場合は何もしません。
+	 */
+	void flush() {
+		if (!flushing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			final long now = clock.getAsLong();
+			final Map<UUID, Long> pending = new HashMap<>();
+			for (Map.Entry<UUID, Activity> entry : activities.entrySet()) {
+				final Activity activity = entry.getValue();
+				final long seen = activity.seenMillis;
+				if (seen > activity.writtenMillis) {
+					pending.put(entry.getKey(), seen);
+				} else if (now - activity.writtenMillis >= granularityMillis) {
+					activities.remove(entry.getKey(), activity);
+				}
+			}
+			if (pending.isEmpty()) {
+				return;
+			}
+			store.touch(pending);
+			for (Map.Entry<UUID, Long> entry : pending.entrySet()) {
+				final Activity activity = activities.get(entry.getKey());
+				if (activity != null) {
+					activity.writtenMillis = entry.getValue();
+				}
+			}
+			flushedCount.add(pending.size());
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} flushed {} sessions", getClass().getName(), pending.size());
+			}
+		} catch (RuntimeException e) {
+			failedCount.increment();
+			if (Logger.isErrorEnabled()) {
+				Logger.error("最終アクセス日時の書き込みに失敗しました。", e);
+			}
+		} finally {
+			flushing.set(false);
+		}
+	}
+
+	/**
+	 * 書き込み待ちのセッション数を返します。
+	 * @return 書き込み待ちのセッション数
+	 */
+	public int pendingCount() {
+		int pending = 0;
+		for (Activity activity : activities.values()) {
+			if (activity.seenMillis > activity.writtenMillis) {
+				pending++;
+			}
+		}
+		return pending;
+	}
+
+	/** @return 粒度の時間内のため記録しなかったアクセス数 */
+	public long skippedCount() {
+		return skippedCount.sum();
+	}
+
+	/** @return 書き込んだセッション数 */
+	public long flushedCount() {
+		return flushedCount.sum();
+	}
+
+	/** @return 書き込みに失敗した回数 */
+	public long failedCount() {
+		return failedCount.sum();
+	}
+
+	/**
+	 * セッション毎のアクセス状況です。
+	 * 同じセッションへの同時アクセスで最終アクセス日時が数ミリ秒前後しても問題ないので、排他はしません。
+	 * @author mizuo
+	 */
+	private static final class Activity {
+		/** 記録した最終アクセス日時(エポックミリ秒) */
+		volatile long seenMillis;
+		/** 保存先に書き込んだ最終アクセス日時(エポックミリ秒) */
+		volatile long writtenMillis;
+		Activity(long writtenMillis) {
+			this.seenMillis = writtenMillis;
+			this.writtenMillis = writtenMillis;
+		}
+	}
+
+}
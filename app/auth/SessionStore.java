@@ -0,0 +1,97 @@
+package auth;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import models.DatabaseExecutionContext;
+import modules.SessionStoreModule;
+
+/**
+ * アカウントセッションの保存先です。
+ * 認証後のセッションUUIDに個人ID、接続元IPアドレス、最終アクセス日時を対応付けて保持します。
+ * 実装は設定 {@code session.store} に従って {@link SessionStoreModule} が選択します。
+ * <dl>
+ * <dt>jdbc</dt><dd>{@code account_session} テーブル({@link JdbcSessionStore})</dd>
+ * <dt>memory</dt><dd>ヒープ上の表。再起動すると全て失効します({@link MemorySessionStore})</dd>
+ * <dt>mapped</dt><dd>メモリマップトファイル。ログイン時にDBを更新せず、再起動後も有効です({@link MappedSessionStore})</dd>
+ * </dl>
+ * {@link #isBlocking()} が true の実装は {@link DatabaseExecutionContext} から呼び出してください。
+ * @author mizuo
+ */
+public interface SessionStore {
+
+	/**
+	 * セッションを登録します。
+	 * セッションUUIDは新たに生成したものを渡してください。
+	 * @param session セッション
+	 */
+	void save(StoredSession session);
+
+	/**
+	 * セッションを取得します。
+	 * @param uuid セッションUUID
+	 * @return セッション
+	 */
+	Optional<StoredSession> find(UUID uuid);
+
+	/**
+	 * セッションを削除します。
+	 * @param uuid セッションUUID
+	 * @return 削除した場合 true
+	 */
+	boolean delete(UUID uuid);
+
+	/**
+	 * セッションの最終アクセス日時をまとめて更新します。
+	 * 登録されていないセッションと、保存済みの日時の方が新しいセッションは無視します。
+	 * @param lastSeenMillis セッションUUID毎の最終アクセス日時(エポックミリ秒)
+	 * @return 更新した件数。JDBCバッチのように数えられない場合は送信した件数
+	 */
+	int touch(Map<UUID, Long> lastSeenMillis);
+
+	/**
+	 * 最終アクセス日時が引数より古いセッションを上限の件数まで削除します。
+	 * @param lastSeenBeforeMillis この日時(エポックミリ秒)より前にアクセスしたセッションを削除する
+	 * @param limit 削除する件数の上限
+	 * @return 削除した件数
+	 */
+	int deleteIdle(long lastSeenBeforeMillis, int limit);
+
+	/**
+	 * 呼び出し元のスレッドでDBなどの入出力を待つ場合は true を返します。
+	 * false の実装はHTTPリクエストを処理するスレッドから直接呼び出せます。
+	 * @return 入出力を待つ場合 true
+	 */
+	default boolean isBlocking() {
+		return true;
+	}
+
+	/**
+	 * 保存されたセッションです。
+	 * @author mizuo
+	 */
+	public static final class StoredSession {
+		/** セッションUUID */
+		public final UUID uuid;
+		/** 個人ID */
+		public final long individualId;
+		/** 接続元IPアドレス */
+		public final String ipAddress;
+		/** 最終アクセス日時(エポックミリ秒) */
+		public final long lastSeenMillis;
+		/**
+		 * @param uuid セッションUUID
+		 * @param individualId 個人ID
+		 * @param ipAddress 接続元IPアドレス
+		 * @param lastSeenMillis 最終アクセス日時(エポックミリ秒)
+		 */
+		public StoredSession(UUID uuid, long individualId, String ipAddress, long lastSeenMillis) {
+			this.uuid = uuid;
+			this.individualId = individualId;
+			this.ipAddress = ipAddress;
+			this.lastSeenMillis = lastSeenMillis;
+		}
+	}
+
+}
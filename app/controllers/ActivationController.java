@@ -1,28 +1,36 @@
 package controllers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 
 import auth.AuthenticationAnnotations.Anybody;
+import io.ebean.Ebean;
+import io.ebean.Transaction;
 import controllers.ControllerAuthHelpers.PasswordHelper;
 import controllers.ControllerAuthHelpers.TemporaryPasswordHelper;
 import controllers.ControllerHelpers.ConfigHelper;
+import controllers.ControllerHelpers.ResultHelper;
+import filters.RequestTiming;
 import models.Account;
 import models.Applicant;
+import models.DatabaseExecutionContext;
+import models.EmailAddressFilter;
+import models.EmailOutbox;
 import models.EmailTemplate;
 import models.Individual;
 import play.data.Form;
 import play.data.FormFactory;
 import play.data.validation.Constraints.MaxLength;
 import play.data.validation.Constraints.Required;
-import play.data.validation.Constraints.Validatable;
-import play.data.validation.Constraints.Validate;
-import play.data.validation.ValidationError;
+import play.libs.concurrent.HttpExecutionContext;
 import play.libs.mailer.Email;
-import play.libs.mailer.MailerClient;
 import play.mvc.Controller;
 import play.mvc.Result;
 
@@ -37,19 +45,37 @@ public class ActivationController extends Controller {
 	private final ConfigHelper configHelper;
 	/** フォーム製造 */
 	private final FormFactory formFactory;
-	/** メールクライアント */
-	private final MailerClient mailerClient;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** パスワード処理の実行コンテキスト */
+	private final PasswordExecutionContext passwordContext;
+	/** HTTPコンテキストを引き継ぐ実行コンテキスト */
+	private final HttpExecutionContext httpContext;
+	/** 試行回数の制限器 */
+	private final AttemptRateLimiter rateLimiter;
+	/** 使用済みメールアドレスのフィルタ */
+	private final EmailAddressFilter emailAddressFilter;
 
 	/**
 	 * @param configHelper 設定ヘルパー
 	 * @param formFactory フォーム製造
-	 * @param mailerClient メールクライアント
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param passwordContext パスワード処理の実行コンテキスト
+	 * @param httpContext HTTPコンテキストを引き継ぐ実行コンテキスト
+	 * @param rateLimiter 試行回数の制限器
+	 * @param emailAddressFilter 使用済みメールアドレスのフィルタ
 	 */
 	@Inject
-	public ActivationController(ConfigHelper configHelper, FormFactory formFactory, MailerClient mailerClient) {
+	public ActivationController(ConfigHelper configHelper, FormFactory formFactory, DatabaseExecutionContext dbContext,
+			PasswordExecutionContext passwordContext, HttpExecutionContext httpContext, AttemptRateLimiter rateLimiter,
+			EmailAddressFilter emailAddressFilter) {
 		this.configHelper = configHelper;
 		this.formFactory = formFactory;
-		this.mailerClient = mailerClient;
+		this.dbContext = dbContext;
+		this.passwordContext = passwordContext;
+		this.httpContext = httpContext;
+		this.rateLimiter = rateLimiter;
+		this.emailAddressFilter = emailAddressFilter;
 	}
 
 	/**
@@ -64,42 +90,168 @@ public class ActivationController extends Controller {
 
 	/**
 	 * POST アクセスを制御します。
+	 * 接続元IPアドレスかメールアドレスの試行回数が制限を超えた場合は、フォームを検証する前に 429 で応答します。
+	 * DBアクセスは {@link DatabaseExecutionContext}、
+	 * 仮パスワードの照合とパスワードのハッシュ化は {@link PasswordExecutionContext} で実行します。
+	 * 処理段階別の所要時間を {@link RequestTiming} に記録します。
 	 * @return 申込者の本登録ページ
 	 */
 	@Anybody
-	public Result post() {
-		final Form<ActivationParameter> activationForm = formFactory.form(ActivationParameter.class).bindFromRequest();
+	public CompletionStage<Result> post() {
+		final long waitNanos = rateLimiter.acquire(AttemptRateLimiter.ACTIVATION, request(), "emailAddress");
+		if (waitNanos > 0) {
+			return CompletableFuture.completedFuture(ResultHelper.tooManyRequests(waitNanos));
+		}
+		final RequestTiming timing = RequestTiming.of(request());
+		final Form<ActivationParameter> activationForm = timing.time("bind", () -> formFactory.form(ActivationParameter.class).bindFromRequest());
 		if (activationForm.hasErrors()) {
-			final ActivationParameter parameter = activationForm.discardingErrors().get();
-			if (parameter.storedApplicant.isPresent()) {
-				return status(CONFLICT, views.html.activation.render(activationForm));
-			} else {
-				return badRequest(views.html.activation.render(activationForm));
+			return CompletableFuture.completedFuture(badRequest(timing.time("render", () -> views.html.activation.render(activationForm))));
+		}
+		final ActivationParameter parameter = activationForm.get();
+		final String ownerEmailAddress = configHelper.getOwnerEmailAddress();
+		// アカウント本登録のシナリオ
+		final ActivationScenario<Supplier<Result>> scenario = new ActivationScenario<Supplier<Result>>(emailAddressFilter) {
+			@Override
+			Supplier<Result> failedEmail() {
+				return () -> internalServerError();
 			}
-		} else {
-			final ActivationParameter parameter = activationForm.get();
-			if (parameter.storedApplicant.isPresent()) {
-				final String ownerEmailAddress = configHelper.getOwnerEmailAddress();
-				final Applicant applicant = parameter.storedApplicant.get();
-				final String hashedPassword = PasswordHelper.hash(parameter.password);
-				// アカウント本登録のシナリオを実行する
-				return new ActivationScenario<Result>() {
-					@Override
-					void send(Email email) {
-						mailerClient.send(email);
-					}
-					@Override
-					Result failedEmail() {
-						return internalServerError();
-					}
-					@Override
-					Result success() {
-						return redirect(routes.HomeController.index());
+			@Override
+			Supplier<Result> success() {
+				return () -> redirect(routes.HomeController.index());
+			}
+		};
+		return CompletableFuture.supplyAsync(() -> timing.time("db", () -> parameter.findApplicant(emailAddressFilter)), dbContext)
+				.thenCompose(storedApplicant -> passwordContext.supplyAsync(() -> timing.time("bcrypt", () -> parameter.authenticate(storedApplicant))))
+				.thenCompose(hashedPassword -> {
+					if (hashedPassword.isPresent()) {
+						// アカウント本登録のシナリオを実行する
+						final Applicant applicant = parameter.storedApplicant.get();
+						return CompletableFuture.supplyAsync(
+								() -> timing.time("activate", () -> scenario.action(ownerEmailAddress, applicant, hashedPassword.get())), dbContext);
+					} else {
+						final Supplier<Result> failed = () -> {
+							final Form<ActivationParameter> errorForm = activationForm.withGlobalError(ActivationParameter.ERROR_MESSAGE);
+							if (parameter.storedApplicant.isPresent()) {
+								return status(CONFLICT, timing.time("render", () -> views.html.activation.render(errorForm)));
+							} else {
+								return badRequest(timing.time("render", () -> views.html.activation.render(errorForm)));
+							}
+						};
+						return CompletableFuture.completedFuture(failed);
 					}
-				}.action(ownerEmailAddress, applicant, hashedPassword);
-			} else {
-				return internalServerError();
+				})
+				.thenApplyAsync(Supplier::get, httpContext.current())
+				.exceptionally(ResultHelper::recoverOverload);
+	}
+
+	/** 本登録のトランザクションでまとめて送信するJDBCバッチの件数 */
+	private static final int BATCH_SIZE = 100;
+
+	/**
+	 * 複数の申込者からアカウントの本登録処理を 1 つのトランザクションで行います。
+	 * 移行処理などで大量に本登録する場合に使用します。
+	 * 個人、アカウント、申込者の削除、本登録完了メールの送信待ち行列への登録をそれぞれJDBCバッチで実行します。
+	 * コミットした後に、本登録したメールアドレスを使用済みメールアドレスのフィルタに追加します。
+	 * DBを照会するので {@link DatabaseExecutionContext} などの同期処理を許容するスレッドから呼び出してください。
+	 * @param fromEmailAddress Fromメールアドレス
+	 * @param activations 本登録する申込者とハッシュ化したパスワード
+	 * @param emailAddressFilter 使用済みメールアドレスのフィルタ
+	 * @return 本登録した件数
+	 * @throws IllegalStateException 本登録完了メールの雛形が無い場合
+	 */
+	public static int activateAll(String fromEmailAddress, List<Activation> activations, EmailAddressFilter emailAddressFilter) {
+		final List<Email> emails = new ArrayList<>(activations.size());
+		for (Activation activation : activations) {
+			final Optional<Email> email = EmailTemplate.createActivation(fromEmailAddress, activation.applicant.emailAddress);
+			if (!email.isPresent()) {
+				throw new IllegalStateException("本登録完了メールの雛形がありません。");
 			}
+			emails.add(email.get());
+		}
+		try (Transaction transaction = beginBatchTransaction()) {
+			activate(transaction, activations, emails);
+			transaction.commit();
+		}
+		for (Activation activation : activations) {
+			emailAddressFilter.addUsed(activation.applicant.emailAddress);
+		}
+		return activations.size();
+	}
+
+	/**
+	 * JDBCバッチを有効にしたトランザクションを開始します。
+	 * @return トランザクション
+	 */
+	private static Transaction beginBatchTransaction() {
+		final Transaction transaction = Ebean.beginTransaction();
+		transaction.setBatchMode(true);
+		transaction.setBatchSize(BATCH_SIZE);
+		return transaction;
+	}
+
+	/**
+	 * 開始済みのトランザクションで申込者からアカウントの本登録処理を行います。
+	 * アカウントは個人IDを参照するので、個人の登録だけ先に送信して個人IDを確定させます。
+	 * 残りはコミット時にまとめて送信されます。
+	 * @param transaction JDBCバッチを有効にしたトランザクション
+	 * @param activations 本登録する申込者とハッシュ化したパスワード
+	 * @param emails 申込者毎の本登録完了メール
+	 */
+	private static void activate(Transaction transaction, List<Activation> activations, List<Email> emails) {
+		final List<Individual> individuals = new ArrayList<>(activations.size());
+		for (Activation activation : activations) {
+			final Individual individual = toIndividual(activation.applicant);
+			individual.save();
+			individuals.add(individual);
+		}
+		transaction.flushBatch();
+		for (int i = 0; i < activations.size(); i++) {
+			final Activation activation = activations.get(i);
+			final Individual individual = individuals.get(i);
+			if (individual.id == null) {
+				throw new IllegalStateException("個人IDが確定していません。: " + individual.emailAddress);
+			}
+			final Account account = toAccount(activation.applicant, activation.hashedPassword);
+			account.individualId = individual.id;
+			account.save();
+			activation.applicant.delete();
+			// 本登録完了メールを送信待ち行列に登録する
+			EmailOutbox.enqueue(emails.get(i));
+		}
+	}
+
+	/** 個人に変換します。 */
+	static Individual toIndividual(Applicant applicant) {
+		final Individual individual = new Individual();
+		individual.emailAddress = applicant.emailAddress;
+		individual.appliedAt = applicant.appliedAt;
+		return individual;
+	}
+
+	/** アカウントに変換します。 */
+	static Account toAccount(Applicant applicant, String hashedPassword) {
+		final Account account = new Account();
+		account.loginId = applicant.emailAddress;
+		account.password = hashedPassword;
+		return account;
+	}
+
+	/**
+	 * 本登録する申込者とハッシュ化したパスワードです。
+	 * @author mizuo
+	 */
+	public static class Activation {
+		/** 申込者 */
+		public final Applicant applicant;
+		/** ハッシュ化したパスワード */
+		public final String hashedPassword;
+		/**
+		 * @param applicant 申込者
+		 * @param hashedPassword ハッシュ化したパスワード
+		 */
+		public Activation(Applicant applicant, String hashedPassword) {
+			this.applicant = applicant;
+			this.hashedPassword = hashedPassword;
 		}
 	}
 
@@ -108,47 +260,39 @@ public class ActivationController extends Controller {
 	 * @author mizuo
 	 */
 	static abstract class ActivationScenario<T> {
+		/** 使用済みメールアドレスのフィルタ */
+		private final EmailAddressFilter emailAddressFilter;
+		/**
+		 * @param emailAddressFilter 使用済みメールアドレスのフィルタ
+		 */
+		ActivationScenario(EmailAddressFilter emailAddressFilter) {
+			this.emailAddressFilter = emailAddressFilter;
+		}
 		/**
 		 * 申込者からアカウントの本登録処理を行います。
-		 * 処理成功時に申込者のメールアドレスに本登録完了メールが送信されます。
+		 * 処理成功時に申込者のメールアドレス宛の本登録完了メールが送信待ち行列に登録されます。
 		 * また、処理成功時は申込者の情報が削除されます。
+		 * 個人とアカウントの登録、申込者の削除、送信待ち行列への登録は
+		 * JDBCバッチを有効にした 1 つのトランザクションで行います。
+		 * コミットした後に、申込者のメールアドレスを使用済みメールアドレスのフィルタに追加します。
 		 * @param fromEmailAddress Fromメールアドレス
 		 * @param applicant 申込者
 		 * @param hashedPassword ハッシュ化したパスワード
 		 * @return
 		 */
 		T action(String fromEmailAddress, Applicant applicant, String hashedPassword) {
-			final Individual individual = toIndividual(applicant);
-			individual.save();
-			final Account account = toAccount(applicant, hashedPassword);
-			account.individualId = individual.id;
-			account.save();
-			applicant.delete();
-			// 本登録完了メールを送信する
-			final Optional<Email> email = EmailTemplate.createActivation(fromEmailAddress, individual.emailAddress);
-			if (email.isPresent()) {
-				send(email.get());
-			} else {
+			// 本登録完了メールを生成する
+			final Optional<Email> email = EmailTemplate.createActivation(fromEmailAddress, applicant.emailAddress);
+			if (!email.isPresent()) {
 				return failedEmail();
 			}
+			try (Transaction transaction = beginBatchTransaction()) {
+				activate(transaction, Collections.singletonList(new Activation(applicant, hashedPassword)), Collections.singletonList(email.get()));
+				transaction.commit();
+			}
+			emailAddressFilter.addUsed(applicant.emailAddress);
 			return success();
 		}
-		/** 個人に変換します。 */
-		Individual toIndividual(Applicant applicant) {
-			final Individual individual = new Individual();
-			individual.emailAddress = applicant.emailAddress;
-			individual.appliedAt = applicant.appliedAt;
-			return individual;
-		}
-		/** アカウントに変換します。 */
-		Account toAccount(Applicant applicant, String hashedPassword) {
-			final Account account = new Account();
-			account.loginId = applicant.emailAddress;
-			account.password = hashedPassword;
-			return account;
-		}
-		/** 本登録完了メールを送信します。 */
-		abstract void send(Email email);
 		/** メールが生成できなかった場合の結果を返します。 */
 		abstract T failedEmail();
 		/** 処理が成功した場合の結果を返します。 */
@@ -159,8 +303,9 @@ public class ActivationController extends Controller {
 	 * アカウント本登録の変数群です。
 	 * @author mizuo
 	 */
-	@Validate
-	public static class ActivationParameter implements Validatable<List<ValidationError>> {
+	public static class ActivationParameter {
+		/** 認証できなかった場合のメッセージ */
+		static final String ERROR_MESSAGE = "メールアドレス／仮登録コード／仮パスワードに誤りがあるか、既に登録済みです。";
 		/** メールアドレス */
 		@Required
 		@MaxLength(255)
@@ -176,30 +321,39 @@ public class ActivationController extends Controller {
 		@Required
 		public String password;
 		/** DBに登録されていた申込者 */
-		Optional<Applicant> storedApplicant;
-		/***
-		 * 申込者の認証を行います。
+		Optional<Applicant> storedApplicant = Optional.empty();
+		/**
+		 * 本登録の対象となる申込者を取得して {@link #storedApplicant} に設定します。
+		 * メールアドレスが使用済みの場合は empty を返します。
+		 * DBを照会するので {@link DatabaseExecutionContext} から呼び出してください。
+		 * @param emailAddressFilter 使用済みメールアドレスのフィルタ
+		 * @return DBに登録されていた申込者
 		 */
-		@Override
-		public List<ValidationError> validate() {
+		Optional<Applicant> findApplicant(EmailAddressFilter emailAddressFilter) {
 			storedApplicant = Optional.empty();
 			// メールアドレスの一意チェックをする。
 			final Individual individual = new Individual();
 			individual.emailAddress = emailAddress;
-			if (!individual.isUsedEmailAddress()) {
-				// 申込者の認証をする。
+			if (!individual.isUsedEmailAddress(emailAddressFilter)) {
 				storedApplicant = Applicant.findOneOrEmpty(emailAddress);
-				if (storedApplicant.isPresent()) {
-					final Applicant applicant = storedApplicant.get();
-					if (TemporaryPasswordHelper.equal(temporaryCode, temporaryPassword, applicant.password)) {
-						// 認証OK
-						return null;
-					}
+			}
+			return storedApplicant;
+		}
+		/***
+		 * 申込者の認証を行い、認証できた場合は新たなパスワードをハッシュ化します。
+		 * BCrypt で照合するので {@link PasswordExecutionContext} から呼び出してください。
+		 * @param storedApplicant DBに登録されていた申込者
+		 * @return 認証できた場合はハッシュ化したパスワード
+		 */
+		Optional<String> authenticate(Optional<Applicant> storedApplicant) {
+			if (storedApplicant.isPresent()) {
+				final Applicant applicant = storedApplicant.get();
+				if (TemporaryPasswordHelper.equal(temporaryCode, temporaryPassword, applicant.password)) {
+					// 認証OK
+					return Optional.of(PasswordHelper.hash(password));
 				}
 			}
-			final List<ValidationError> errors = new ArrayList<>();
-			errors.add(new ValidationError("", "メールアドレス／仮登録コード／仮パスワードに誤りがあるか、既に登録済みです。"));
-			return errors;
+			return Optional.empty();
 		}
 	}
 
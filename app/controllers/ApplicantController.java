@@ -4,7 +4,11 @@ import java.util.Optional;
 
 import auth.AuthenticationAnnotations.Anybody;
 import controllers.ControllerAuthHelpers.TemporaryPasswordHelper;
+import io.ebean.Ebean;
+import io.ebean.Transaction;
 import models.Applicant;
+import models.EmailAddressFilter;
+import models.EmailOutbox;
 import models.Individual;
 import play.libs.mailer.Email;
 import play.mvc.Controller;
@@ -42,41 +46,72 @@ public class ApplicantController extends Controller {
 	 * @author mizuo
 	 */
 	static abstract class ApplicantScenario<T> {
+		/** 使用済みメールアドレスのフィルタ */
+		private final EmailAddressFilter emailAddressFilter;
 		Optional<Applicant> savedApplicant;
+		/**
+		 * @param emailAddressFilter 使用済みメールアドレスのフィルタ
+		 */
+		ApplicantScenario(EmailAddressFilter emailAddressFilter) {
+			this.emailAddressFilter = emailAddressFilter;
+		}
 		T action(String fromEmailAddress, String toEmailAddress, String temporaryCode) {
 			savedApplicant = Optional.empty();
 			// メールアドレスの一意チェックをする。
-			final Individual individual = new Individual();
-			individual.emailAddress = toEmailAddress;
-			if (individual.isUsedEmailAddress()) {
+			if (isUsedEmailAddress(toEmailAddress)) {
 				// メールアドレスが登録済み
 				return failedExist();
 			} else {
 				// 仮パスワードを生成する。
 				final TemporaryPasswordHelper password = new TemporaryPasswordHelper();
 				final String hashed = password.hash(temporaryCode);
-				// 申込者
+				return register(fromEmailAddress, toEmailAddress, password.plainTemporary, hashed);
+			}
+		}
+		/**
+		 * メールアドレスが使用済みであるか判定します。
+		 * @param toEmailAddress 申込者のメールアドレス
+		 * @return 使用済みである場合 true
+		 */
+		boolean isUsedEmailAddress(String toEmailAddress) {
+			final Individual individual = new Individual();
+			individual.emailAddress = toEmailAddress;
+			return individual.isUsedEmailAddress(emailAddressFilter);
+		}
+		/**
+		 * ハッシュ化済みの仮パスワードで申込者を登録し、仮パスワードのメールを送信待ち行列に登録します。
+		 * 申込者と送信待ち行列は 1 つのトランザクションで登録します。
+		 * BCrypt を含まないDBアクセスのみの処理なので、
+		 * 仮パスワードのハッシュ化と分けて {@link models.DatabaseExecutionContext} で実行できます。
+		 * @param fromEmailAddress Fromメールアドレス
+		 * @param toEmailAddress 申込者のメールアドレス
+		 * @param plainTemporary 平文の仮パスワード
+		 * @param hashed ハッシュ化した仮登録パスワード
+		 * @return 処理結果
+		 */
+		T register(String fromEmailAddress, String toEmailAddress, String plainTemporary, String hashed) {
+			savedApplicant = Optional.empty();
+			// 仮パスワードの一部を記載したメールを生成する
+			final Optional<Email> email = createEmail(fromEmailAddress, toEmailAddress, plainTemporary);
+			if (!email.isPresent()) {
+				return failedEmail();
+			}
+			try (Transaction transaction = Ebean.beginTransaction()) {
+				// 申込者を登録する
 				final Applicant applicant = Applicant.findOneOrCreate(toEmailAddress);
 				applicant.password = hashed;
-				// 仮パスワードの一部をメール送信する
-				final Optional<Email> email = createEmail(fromEmailAddress, toEmailAddress, password.plainTemporary);
-				if (email.isPresent()) {
-					send(email.get());
-				} else {
-					return failedEmail();
-				}
-				// 登録する
 				applicant.save();
+				// メールを送信待ち行列に登録する
+				EmailOutbox.enqueue(email.get());
+				transaction.commit();
 				savedApplicant = Optional.of(applicant);
-				return success();
 			}
+			return success();
 		}
 		/** メールアドレスが登録済みだった場合の結果を返します。 */
 		abstract T failedExist();
 		/** メールを生成します。 */
 		abstract Optional<Email> createEmail(String fromEmailAddress, String toEmailAddress, String temporaryPassword);
-		/** 仮パスワードメールを送信します。 */
-		abstract void send(Email email);
 		/** メールが生成できなかった場合の結果を返します。 */
 		abstract T failedEmail();
 		/** 処理が成功した場合の結果を返します。 */
@@ -0,0 +1,178 @@
+package controllers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.mvc.Http.Request;
+
+/**
+ * ログインと本登録の試行回数の制限器です。
+ * 接続元IPアドレス毎と、ログインIDやメールアドレスなどのアカウント毎にトークンバケットを持ち、
+ * どちらかが空の場合はフォームの検証やDB照会、パスワードの照合を行う前に拒否します。
+ * アカウント毎のバケットは制限対象(ログイン、本登録など)毎に分けます。
+ * 送信値は検証前で長さの制限が無いので、アカウントはダイジェストにしてキーの長さを一定にします。
+ * @author mizuo
+ */
+@Singleton
+public class AttemptRateLimiter {
+
+	/** ログインの制限対象 */
+	static final String LOGIN = "login";
+	/** 本登録の制限対象 */
+	static final String ACTIVATION = "activation";
+
+	/** 接続元IPアドレス毎の満杯時のトークン数の設定パス */
+	private static final String REMOTE_CAPACITY_PATH = "rateLimit.remoteAddress.capacity";
+	/** 接続元IPアドレス毎のトークンの補充間隔の設定パス */
+	private static final String REMOTE_REFILL_PATH = "rateLimit.remoteAddress.refillInterval";
+	/** アカウント毎の満杯時のトークン数の設定パス */
+	private static final String ACCOUNT_CAPACITY_PATH = "rateLimit.account.capacity";
+	/** アカウント毎のトークンの補充間隔の設定パス */
+	private static final String ACCOUNT_REFILL_PATH = "rateLimit.account.refillInterval";
+	/** ストライプ数の設定パス */
+	private static final String STRIPES_PATH = "rateLimit.stripes";
+	/** ストライプ毎の保持件数の上限の設定パス */
+	private static final String MAX_KEYS_PER_STRIPE_PATH = "rateLimit.maxKeysPerStripe";
+
+	/** 接続元IPアドレス毎のバケット */
+	private final TokenBuckets remoteBuckets;
+	/** アカウント毎のバケット */
+	private final TokenBuckets accountBuckets;
+
+	/** 接続元IPアドレス毎の制限で拒否した回数 */
+	private final LongAdder remoteRejectedCount = new LongAdder();
+	/** アカウント毎の制限で拒否した回数 */
+	private final LongAdder accountRejectedCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 */
+	@Inject
+	public AttemptRateLimiter(Config config) {
+		this(new TokenBuckets(config.getInt(REMOTE_CAPACITY_PATH), config.getDuration(REMOTE_REFILL_PATH, TimeUnit.NANOSECONDS),
+				config.getInt(STRIPES_PATH), config.getInt(MAX_KEYS_PER_STRIPE_PATH), System::nanoTime),
+				new TokenBuckets(config.getInt(ACCOUNT_CAPACITY_PATH), config.getDuration(ACCOUNT_REFILL_PATH, TimeUnit.NANOSECONDS),
+						config.getInt(STRIPES_PATH), config.getInt(MAX_KEYS_PER_STRIPE_PATH), System::nanoTime));
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} remoteAddress = {}/{}, account = {}/{}", getClass().getName(),
+					config.getInt(REMOTE_CAPACITY_PATH), config.getString(REMOTE_REFILL_PATH),
+					config.getInt(ACCOUNT_CAPACITY_PATH), config.getString(ACCOUNT_REFILL_PATH));
+		}
+	}
+
+	/**
+	 * @param remoteBuckets 接続元IPアドレス毎のバケット
+	 * @param accountBuckets アカウント毎のバケット
+	 */
+	AttemptRateLimiter(TokenBuckets remoteBuckets, TokenBuckets accountBuckets) {
+		this.remoteBuckets = remoteBuckets;
+		this.accountBuckets = accountBuckets;
+	}
+
+	/**
+	 * リクエストの試行を 1 回分取り出します。
+	 * アカウントはフォームを検証する前の送信値から取得します。
+	 * @param target 制限対象
+	 * @param request リクエスト
+	 * @param accountField アカウントを表すフォームの項目名
+	 * @return 試行できる場合は 0、試行できない場合は再試行までの時間(ナノ秒)
+	 */
+	long acquire(String target, Request request, String accountField) {
+		return acquire(target, request.remoteAddress(), formValue(request, accountField));
+	}
+
+	/**
+	 * 接続元IPアドレスとアカウントの試行を 1 回分取り出します。
+	 * @param target 制限対象
+	 * @param remoteAddress 接続元IPアドレス
+	 * @param account アカウント(無い場合は null)
+	 * @return 試行できる場合は 0、試行できない場合は再試行までの時間(ナノ秒)
+	 */
+	long acquire(String target, String remoteAddress, String account) {
+		final long remoteWait = remoteBuckets.tryAcquire(remoteAddress);
+		if (remoteWait > 0) {
+			remoteRejectedCount.increment();
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} rejected: target = {}, remoteAddress = {}", getClass().getName(), target, remoteAddress);
+			}
+			return remoteWait;
+		}
+		if (account == null || account.trim().isEmpty()) {
+			return 0;
+		}
+		final long accountWait = accountBuckets.tryAcquire(accountKey(target, account));
+		if (accountWait > 0) {
+			accountRejectedCount.increment();
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} rejected: target = {}, account = {}", getClass().getName(), target, account);
+			}
+		}
+		return accountWait;
+	}
+
+	/**
+	 * アカウント毎のバケットのキーを求めます。
+	 * 前後の空白と大文字小文字の違いは同じアカウントとみなします。
+	 * @param target 制限対象
+	 * @param account アカウント
+	 * @return 制限対象とアカウントの SHA-256 の先頭 128 ビットの Base64URL 表現を結合したキー
+	 */
+	static String accountKey(String target, String account) {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-256")
+					.digest(account.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+			return target + ":" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, 16));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * フォームを検証せずに送信値を取得します。
+	 * @param request リクエスト
+	 * @param name 項目名
+	 * @return 送信値(無い場合は null)
+	 */
+	private static String formValue(Request request, String name) {
+		final Map<String, String[]> form = request.body().asFormUrlEncoded();
+		if (form == null) {
+			return null;
+		}
+		final String[] values = form.get(name);
+		return values == null || values.length == 0 ? null : values[0];
+	}
+
+	/** @return 保持しているバケット数 */
+	public int size() {
+		return remoteBuckets.size() + accountBuckets.size();
+	}
+
+	/** @return 保持件数の上限に達して破棄したバケット数 */
+	public long evictionCount() {
+		return remoteBuckets.evictionCount() + accountBuckets.evictionCount();
+	}
+
+	/** @return 接続元IPアドレス毎の制限で拒否した回数 */
+	public long remoteRejectedCount() {
+		return remoteRejectedCount.sum();
+	}
+
+	/** @return アカウント毎の制限で拒否した回数 */
+	public long accountRejectedCount() {
+		return accountRejectedCount.sum();
+	}
+
+}
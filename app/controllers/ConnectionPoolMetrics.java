@@ -0,0 +1,86 @@
+package controllers;
+
+import java.sql.SQLException;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import play.Logger;
+import play.db.Database;
+
+/**
+ * Ebean が使用するコネクションプール(HikariCP)の計測値です。
+ * {@link MetricsController}から最初に参照された時にインスタンス化します。
+ * 使用中と待機中のコネクション数は、取得時に {@link HikariPoolMXBean} から読み取ります。
+ * HikariCP の計測フック({@code setMetricsTrackerFactory})は開始済みのプールには設定できず、
+ * プールは Play が生成して開始するので使いません。
+ * @author mizuo
+ */
+@Singleton
+public class ConnectionPoolMetrics {
+
+	/** コネクションプール */
+	private final Optional<HikariDataSource> dataSource;
+
+	/**
+	 * @param database 既定のデータベース
+	 */
+	@Inject
+	public ConnectionPoolMetrics(Database database) {
+		this.dataSource = unwrap(database);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} pool = {}", getClass().getName(), dataSource.map(HikariDataSource::getPoolName).orElse("(not HikariCP)"));
+		}
+	}
+
+	/**
+	 * データソースを HikariCP として取り出します。
+	 * @param database データベース
+	 * @return HikariCP のデータソース。HikariCP でない場合は empty
+	 */
+	private static Optional<HikariDataSource> unwrap(Database database) {
+		try {
+			if (database.getDataSource().isWrapperFor(HikariDataSource.class)) {
+				return Optional.of(database.getDataSource().unwrap(HikariDataSource.class));
+			}
+		} catch (SQLException | IllegalStateException e) {
+			if (Logger.isWarnEnabled()) {
+				Logger.warn("コネクションプールの状態を読み取れません。: {}", e.toString());
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * プールの状態を返します。
+	 * @return プールの状態。HikariCP でない場合や開始前は empty
+	 */
+	private Optional<HikariPoolMXBean> pool() {
+		return dataSource.map(HikariDataSource::getHikariPoolMXBean);
+	}
+
+	/** @return 使用中のコネクション数 */
+	public int activeConnections() {
+		return pool().map(HikariPoolMXBean::getActiveConnections).orElse(0);
+	}
+
+	/** @return 空いているコネクション数 */
+	public int idleConnections() {
+		return pool().map(HikariPoolMXBean::getIdleConnections).orElse(0);
+	}
+
+	/** @return コネクション数 */
+	public int totalConnections() {
+		return pool().map(HikariPoolMXBean::getTotalConnections).orElse(0);
+	}
+
+	/** @return コネクションの空きを待っているスレッド数 */
+	public int threadsAwaitingConnection() {
+		return pool().map(HikariPoolMXBean::getThreadsAwaitingConnection).orElse(0);
+	}
+
+}
@@ -2,6 +2,8 @@ package controllers;
 
 import org.mindrot.jbcrypt.BCrypt;
 
+import jfr.FlightRecorderEvents;
+
 /**
  * 制御処理の認証ヘルパー群です。
  * @author mizuo
@@ -12,9 +14,60 @@ class ControllerAuthHelpers {
 
 	/**
 	 * パスワードヘルパーです。
+	 * ハッシュ化のコスト(log2 の繰り返し回数)は起動時に {@link PasswordCostCalibrator} が設定します。
 	 * @author mizuo
 	 */
 	static class PasswordHelper {
+		/** BCrypt の既定のコスト */
+		static final int DEFAULT_LOG_ROUNDS = 10;
+		/** ハッシュ化のコスト */
+		private static volatile int logRounds = DEFAULT_LOG_ROUNDS;
+		/**
+		 * ハッシュ化のコストを返します。
+		 * @return ハッシュ化のコスト
+		 */
+		static int getLogRounds() {
+			return logRounds;
+		}
+		/**
+		 * ハッシュ化のコストを設定します。
+		 * @param logRounds ハッシュ化のコスト(4 から 30)
+		 */
+		static void setLogRounds(int logRounds) {
+			if (logRounds < 4 || logRounds > 30) {
+				throw new IllegalArgumentException("logRounds: " + logRounds);
+			}
+			PasswordHelper.logRounds = logRounds;
+		}
+		/**
+		 * ハッシュ化した文字列からコストを読み取ります。
+		 * @param hashed ハッシュ化した文字列 ({@code $2a$10$...} または {@code $2$10$...})
+		 * @return コスト。読み取れない場合は -1
+		 */
+		static int logRoundsOf(String hashed) {
+			if (hashed == null || hashed.length() < 7 || hashed.charAt(0) != '$') {
+				return -1;
+			}
+			// BCrypt.hashpw と同様に、小版の文字の無い形式($2$)も読み取る。
+			final int offset = hashed.charAt(2) == '$' ? 3 : 4;
+			if (hashed.length() < offset + 3 || hashed.charAt(offset + 2) != '$') {
+				return -1;
+			}
+			final char tens = hashed.charAt(offset);
+			final char ones = hashed.charAt(offset + 1);
+			if (!Character.isDigit(tens) || !Character.isDigit(ones)) {
+				return -1;
+			}
+			return (tens - '0') * 10 + (ones - '0');
+		}
+		/**
+		 * ハッシュ化した文字列のコストが現在のコストと異なり、再ハッシュ化が必要か判定します。
+		 * @param hashed ハッシュ化した文字列
+		 * @return 再ハッシュ化が必要な場合 true
+		 */
+		static boolean needsRehash(String hashed) {
+			return logRoundsOf(hashed) != logRounds;
+		}
 		/**
 		 * 平文パスワードに salt を加えてハッシュ化します。
 		 * 32 文字を超えた平文パスワードの場合は動作保証しません。
@@ -22,9 +75,20 @@ class ControllerAuthHelpers {
 		 * @return 平文パスワードに salt を加えてハッシュ化した文字列
 		 */
 		static String hash(String plain) {
-			final String salt = BCrypt.gensalt();
-			final String hashed = BCrypt.hashpw(plain, salt);
-			return hashed;
+			return hash(plain, logRounds);
+		}
+		/**
+		 * 平文パスワードに指定したコストの salt を加えてハッシュ化します。
+		 * @param plain 平文パスワード
+		 * @param logRounds ハッシュ化のコスト
+		 * @return 平文パスワードに salt を加えてハッシュ化した文字列
+		 */
+		static String hash(String plain, int logRounds) {
+			return FlightRecorderEvents.passwordHash("hash", () -> logRounds, () -> {
+				final String salt = BCrypt.gensalt(logRounds);
+				final String hashed = BCrypt.hashpw(plain, salt);
+				return hashed;
+			});
 		}
 		/**
 		 * パスワードをハッシュ化した結果が一致するか判定します。
@@ -33,7 +97,7 @@ class ControllerAuthHelpers {
 		 * @return 一致する場合 true 
 		 */
 		static boolean equal(String plain, String hashed) {
-			return BCrypt.checkpw(plain, hashed);
+			return FlightRecorderEvents.passwordHash("verify", () -> logRoundsOf(hashed), () -> BCrypt.checkpw(plain, hashed));
 		}
 	}
 
@@ -59,7 +123,7 @@ class ControllerAuthHelpers {
 		 * @param plainTemporary 仮パスワード
 		 * @return 仮登録パスワード
 		 */
-		private static String createPlain(String temporaryCode, String plainTemporary) {
+		static String createPlain(String temporaryCode, String plainTemporary) {
 			final String plain = String.format(INITIALIZE_FORMAT, temporaryCode, plainTemporary, temporaryCode);
 			return plain;
 		}
@@ -1,6 +1,9 @@
 package controllers;
 
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -90,6 +93,31 @@ class ControllerHelpers {
 			final String uri = request.uri();
 			return status(GONE, views.html.defaultpages.gone.render(method, uri));
 		}
+		/**
+		 * 非同期処理が過負荷で受け付けられなかった場合は、HTTP ステータスコード 503 SERVICE UNAVAILABLE で応答します。
+		 * それ以外の例外はそのまま送出します。
+		 * @param e 非同期処理の例外
+		 * @return 503 SERVICE UNAVAILABLE
+		 */
+		static Result recoverOverload(Throwable e) {
+			final Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+			if (cause instanceof RejectedExecutionException) {
+				return status(SERVICE_UNAVAILABLE).withHeader(RETRY_AFTER, "1");
+			}
+			if (e instanceof CompletionException) {
+				throw (CompletionException) e;
+			}
+			throw new CompletionException(e);
+		}
+		/**
+		 * 試行回数の制限を超えた場合に、HTTP ステータスコード 429 TOO MANY REQUESTS で応答します。
+		 * @param waitNanos 再試行までの時間(ナノ秒)
+		 * @return 429 TOO MANY REQUESTS
+		 */
+		static Result tooManyRequests(long waitNanos) {
+			final long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+			return status(TOO_MANY_REQUESTS).withHeader(RETRY_AFTER, String.valueOf(seconds));
+		}
 	}
 
 }
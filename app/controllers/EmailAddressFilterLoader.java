@@ -0,0 +1,123 @@
+package controllers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import models.DatabaseExecutionContext;
+import models.EmailAddressFilter;
+import models.Individual;
+import modules.EmailAddressFilterModule;
+import play.Logger;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+import startup.StartupTask;
+
+/**
+ * 使用済みメールアドレスのフィルタの読込処理です。
+ * 起動時の処理として{@link EmailAddressFilterModule}から登録される想定です。
+ * DBのマイグレーションが終わった後に、注入されたフィルタに登録済みのメールアドレスを非同期に読み込みます。
+ * 読み込みに失敗した場合は一定時間後に読み込み直し、それまではフィルタを使わずにDBで判定します。
+ * フィルタが無くても判定できるので、必須の処理とはしません。
+ * @author mizuo
+ */
+@Singleton
+public class EmailAddressFilterLoader implements StartupTask {
+
+	/** 処理名 */
+	public static final String NAME = "emailAddressFilter";
+
+	/** 読み込み直すまでの待機時間の設定パス */
+	private static final String RETRY_INTERVAL_PATH = "individual.emailAddressFilter.retryInterval";
+
+	/** アクターシステム */
+	private final ActorSystem actorSystem;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** 読み込み直すまでの待機時間 */
+	private final FiniteDuration retryInterval;
+	/** 使用済みメールアドレスのフィルタ */
+	private final EmailAddressFilter filter;
+
+	/**
+	 * @param config 設定
+	 * @param actorSystem アクターシステム
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param filter 使用済みメールアドレスのフィルタ
+	 */
+	@Inject
+	public EmailAddressFilterLoader(Config config, ActorSystem actorSystem, DatabaseExecutionContext dbContext, EmailAddressFilter filter) {
+		this.actorSystem = actorSystem;
+		this.dbContext = dbContext;
+		this.retryInterval = Duration.create(config.getDuration(RETRY_INTERVAL_PATH, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+		this.filter = filter;
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} retryInterval = {}", getClass().getName(), retryInterval);
+		}
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	/**
+	 * 読み込めなくてもフィルタを使わずに判定できるので、準備完了を待たせません。
+	 */
+	@Override
+	public boolean required() {
+		return false;
+	}
+
+	/**
+	 * 登録済みのメールアドレスの読み込みを {@link DatabaseExecutionContext} で実行します。
+	 * 失敗した場合は失敗を報告し、読み込み直しは一定時間後に続けます。
+	 */
+	@Override
+	public CompletionStage<?> run() {
+		return CompletableFuture.runAsync(this::load, dbContext);
+	}
+
+	/**
+	 * 登録済みのメールアドレスを読み込みます。
+	 * 失敗した場合は一定時間後の読み込み直しを予約してから例外を投げます。
+	 */
+	void load() {
+		try {
+			final long started = System.nanoTime();
+			final int loaded = Individual.warmEmailAddressFilter(filter);
+			if (Logger.isInfoEnabled()) {
+				Logger.info("{}#load -> {} ({} ms)", getClass().getName(), loaded, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+			}
+		} catch (RuntimeException e) {
+			if (Logger.isWarnEnabled()) {
+				Logger.warn("使用済みメールアドレスの読み込みに失敗しました。{} 後に読み込み直します。: {}", retryInterval, e.toString());
+			}
+			actorSystem.scheduler().scheduleOnce(retryInterval, this::reload, dbContext);
+			throw e;
+		}
+	}
+
+	/**
+	 * 一定時間後に読み込み直します。
+	 */
+	private void reload() {
+		try {
+			load();
+		} catch (RuntimeException e) {
+			// 次の読み込み直しは load で予約済み。
+		}
+	}
+
+	/** @return 使用済みメールアドレスのフィルタ */
+	public EmailAddressFilter filter() {
+		return filter;
+	}
+
+}
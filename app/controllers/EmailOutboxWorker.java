@@ -0,0 +1,208 @@
+package controllers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.DatabaseExecutionContext;
+import jfr.FlightRecorderEvents;
+import models.EmailOutbox;
+import modules.EmailOutboxModule;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.mailer.Email;
+import play.libs.mailer.MailerClient;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * 電子メールの送信待ち行列を送信する常駐処理です。
+ * 起動時に{@link EmailOutboxModule}から実行される想定です。
+ * 一定間隔で送信時期に達した行をまとめて確保し、同時送信数を制限して送信します。
+ * 行は貸出期限付きで確保するので、複数のインスタンスや重なった実行で同じ電子メールを二重に送信しません。
+ * 送信に失敗した行は待機時間を延ばしながら再送し、再送の上限に達した行は送信しません。
+ * 行の確保と送信結果の書き込みは{@link DatabaseExecutionContext}で、送信は専用のスレッドプールで行い、
+ * SMTPの応答を待つ間はDBアクセスのスレッドを占有しません。
+ * @author mizuo
+ */
+@Singleton
+public class EmailOutboxWorker {
+
+	/** 送信間隔の設定パス */
+	private static final String INTERVAL_PATH = "mail.outbox.interval";
+	/** 1 回に取得する件数の設定パス */
+	private static final String BATCH_SIZE_PATH = "mail.outbox.batchSize";
+	/** 同時送信数の設定パス */
+	private static final String CONCURRENCY_PATH = "mail.outbox.concurrency";
+	/** 再送の上限の設定パス */
+	private static final String MAX_ATTEMPTS_PATH = "mail.outbox.maxAttempts";
+	/** 初回の再送までの待機時間の設定パス */
+	private static final String BACKOFF_PATH = "mail.outbox.backoff";
+	/** 再送までの待機時間の上限の設定パス */
+	private static final String MAX_BACKOFF_PATH = "mail.outbox.maxBackoff";
+	/** 送信する行の貸出期間の設定パス */
+	private static final String LEASE_PATH = "mail.outbox.lease";
+
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** メールクライアント */
+	private final MailerClient mailerClient;
+	/** 1 回に取得する件数 */
+	private final int batchSize;
+	/** 再送の上限 */
+	private final int maxAttempts;
+	/** 初回の再送までの待機時間(ミリ秒) */
+	private final long backoffMillis;
+	/** 再送までの待機時間の上限(ミリ秒) */
+	private final long maxBackoffMillis;
+	/** 送信する行の貸出期間(ミリ秒) */
+	private final long leaseMillis;
+	/** 送信用のスレッドプール(スレッド数が同時送信数) */
+	private final ExecutorService sendExecutor;
+	/** 送信処理の実行中 */
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	/** 送信した件数 */
+	private final LongAdder sentCount = new LongAdder();
+	/** 送信に失敗した件数 */
+	private final LongAdder failedCount = new LongAdder();
+	/** 再送の上限に達した件数 */
+	private final LongAdder poisonedCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 * @param lifecycle 生存周期
+	 * @param actorSystem アクターシステム
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param mailerClient メールクライアント
+	 */
+	@Inject
+	public EmailOutboxWorker(Config config, ApplicationLifecycle lifecycle, ActorSystem actorSystem,
+			DatabaseExecutionContext dbContext, MailerClient mailerClient) {
+		this.dbContext = dbContext;
+		this.mailerClient = mailerClient;
+		this.batchSize = config.getInt(BATCH_SIZE_PATH);
+		this.maxAttempts = config.getInt(MAX_ATTEMPTS_PATH);
+		this.backoffMillis = config.getDuration(BACKOFF_PATH, TimeUnit.MILLISECONDS);
+		this.maxBackoffMillis = config.getDuration(MAX_BACKOFF_PATH, TimeUnit.MILLISECONDS);
+		this.leaseMillis = config.getDuration(LEASE_PATH, TimeUnit.MILLISECONDS);
+		final int concurrency = config.getInt(CONCURRENCY_PATH);
+		final AtomicInteger number = new AtomicInteger();
+		this.sendExecutor = Executors.newFixedThreadPool(concurrency, runnable -> {
+			final Thread thread = new Thread(runnable, "email-outbox-" + number.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		final FiniteDuration interval = Duration.create(config.getDuration(INTERVAL_PATH, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} interval = {}, batchSize = {}, concurrency = {}", getClass().getName(), interval, batchSize, concurrency);
+		}
+		final Cancellable schedule = actorSystem.scheduler().schedule(interval, interval, this::tick, dbContext);
+		lifecycle.addStopHook(() -> {
+			schedule.cancel();
+			sendExecutor.shutdown();
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * 送信待ちの行が無くなるまで送信します。
+	 * 前回の処理が終わっていない場合は何もしません。
+	 * 送信の完了は待たずに戻るので、呼び出し元のスレッドを占有しません。
+	 */
+	void tick() {
+		if (!running.compareAndSet(false, true)) {
+			return;
+		}
+		drainAll().whenComplete((result, e) -> {
+			if (e != null && Logger.isErrorEnabled()) {
+				Logger.error("送信待ち行列の処理に失敗しました。", e);
+			}
+			running.set(false);
+		});
+	}
+
+	/**
+	 * 1 回で取得しきれなかった場合は、送信が終わってから続けて送信します。
+	 * @return 送信待ちの行が無くなった時点で完了する処理
+	 */
+	private CompletionStage<Void> drainAll() {
+		return drain().thenCompose(drained -> drained >= batchSize
+				? drainAll()
+				: CompletableFuture.completedFuture(null));
+	}
+
+	/**
+	 * 送信時期に達した行を 1 回分確保して送信します。
+	 * 確保と送信結果の書き込みは{@link DatabaseExecutionContext}で、送信は専用のスレッドプールで実行します。
+	 * @return 処理した件数
+	 */
+	CompletionStage<Integer> drain() {
+		return CompletableFuture.supplyAsync(() -> EmailOutbox.claimDue(batchSize, leaseMillis), dbContext).thenCompose(due -> {
+			final CompletableFuture<?>[] deliveries = new CompletableFuture<?>[due.size()];
+			for (int i = 0; i < deliveries.length; i++) {
+				final EmailOutbox outbox = due.get(i);
+				deliveries[i] = CompletableFuture.runAsync(() -> send(outbox), sendExecutor)
+						.thenRunAsync(outbox::update, dbContext);
+			}
+			return CompletableFuture.allOf(deliveries).thenApply(result -> {
+				if (!due.isEmpty() && Logger.isDebugEnabled()) {
+					Logger.debug("{}#drain -> {}", getClass().getName(), due.size());
+				}
+				return due.size();
+			});
+		});
+	}
+
+	/**
+	 * 1 件送信して結果を行に設定します。行の書き込みは呼び出し元で行います。
+	 * @param outbox 送信待ちの行
+	 */
+	void send(EmailOutbox outbox) {
+		try {
+			final Email email = outbox.toEmail();
+			FlightRecorderEvents.mailSend(outbox.id, outbox.attempts, email.getTo().size(), () -> mailerClient.send(email));
+			outbox.markSent();
+			sentCount.increment();
+		} catch (RuntimeException e) {
+			outbox.markFailed(e.toString(), maxAttempts, backoffMillis, maxBackoffMillis);
+			failedCount.increment();
+			if (outbox.status == EmailOutbox.Status.POISONED) {
+				poisonedCount.increment();
+				if (Logger.isErrorEnabled()) {
+					Logger.error("電子メールの送信を断念しました。id = {}, attempts = {}", outbox.id, outbox.attempts, e);
+				}
+			} else if (Logger.isWarnEnabled()) {
+				Logger.warn("電子メールの送信に失敗しました。id = {}, attempts = {}: {}", outbox.id, outbox.attempts, e.toString());
+			}
+		}
+	}
+
+	/** @return 送信した件数 */
+	public long sentCount() {
+		return sentCount.sum();
+	}
+
+	/** @return 送信に失敗した件数 */
+	public long failedCount() {
+		return failedCount.sum();
+	}
+
+	/** @return 再送の上限に達した件数 */
+	public long poisonedCount() {
+		return poisonedCount.sum();
+	}
+
+}
@@ -0,0 +1,110 @@
+package controllers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.DatabaseExecutionContext;
+import models.EmailTemplate;
+import modules.EmailTemplateModule;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+import startup.StartupTask;
+
+/**
+ * 解析済みの電子メールの雛形を更新する常駐処理です。
+ * 起動時の処理として{@link EmailTemplateModule}から登録される想定です。
+ * DBのマイグレーションが終わった後に全ての雛形を解析し、以降は一定間隔で更新日時の変わった雛形だけ解析し直すので、
+ * 送信毎にDBを照会しません。
+ * 解析していない雛形は送信時に解析するので、必須の処理とはしません。
+ * @author mizuo
+ */
+@Singleton
+public class EmailTemplateRefresher implements StartupTask {
+
+	/** 処理名 */
+	public static final String NAME = "emailTemplates";
+
+	/** 更新間隔の設定パス */
+	private static final String REFRESH_INTERVAL_PATH = "mail.template.refreshInterval";
+
+	/** アクターシステム */
+	private final ActorSystem actorSystem;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** 更新間隔 */
+	private final FiniteDuration interval;
+	/** 定期実行(開始前は null) */
+	private volatile Cancellable schedule;
+
+	/**
+	 * @param config 設定
+	 * @param lifecycle 生存周期
+	 * @param actorSystem アクターシステム
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 */
+	@Inject
+	public EmailTemplateRefresher(Config config, ApplicationLifecycle lifecycle, ActorSystem actorSystem, DatabaseExecutionContext dbContext) {
+		this.actorSystem = actorSystem;
+		this.dbContext = dbContext;
+		this.interval = Duration.create(config.getDuration(REFRESH_INTERVAL_PATH, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} refreshInterval = {}", getClass().getName(), interval);
+		}
+		lifecycle.addStopHook(() -> {
+			final Cancellable started = schedule;
+			if (started != null) {
+				started.cancel();
+			}
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	/**
+	 * 解析していない雛形は送信時に解析するので、準備完了を待たせません。
+	 */
+	@Override
+	public boolean required() {
+		return false;
+	}
+
+	/**
+	 * 全ての雛形の解析を {@link DatabaseExecutionContext} で実行し、以降の定期実行を開始します。
+	 * 解析に失敗した場合も定期実行は開始し、失敗を報告します。
+	 */
+	@Override
+	public CompletionStage<?> run() {
+		return CompletableFuture.runAsync(() -> {
+			schedule = actorSystem.scheduler().schedule(interval, interval, this::refresh, dbContext);
+			EmailTemplate.refreshCompiled();
+		}, dbContext);
+	}
+
+	/**
+	 * 更新日時の変わった雛形を解析し直します。
+	 */
+	void refresh() {
+		try {
+			EmailTemplate.refreshCompiled();
+		} catch (RuntimeException e) {
+			if (Logger.isWarnEnabled()) {
+				Logger.warn("電子メールの雛形の更新に失敗しました。: {}", e.toString());
+			}
+		}
+	}
+
+}
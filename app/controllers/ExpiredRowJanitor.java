@@ -0,0 +1,216 @@
+package controllers;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import auth.AccountSessionCache;
+import auth.SessionStore;
+import models.Applicant;
+import modules.ExpiredRowJanitorModule;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+/**
+ * 期限切れの行を削除する常駐処理です。
+ * 起動時に{@link ExpiredRowJanitorModule}から実行される想定です。
+ * 一定間隔で、最終アクセスから期限を過ぎたアカウントセッションと、本登録しないまま期限を過ぎた申込者を削除します。
+ * 長いロックを避けるため、1 回に削除する件数を制限し、削除する毎に休止します。
+ * 削除したアカウントセッションは検証済みアカウントセッションのキャッシュからも破棄するので、削除後に認証されることはありません。
+ * 休止の間もDBアクセスの実行コンテキストのスレッドを占有しないよう、専用のスレッドで実行します。
+ * @author mizuo
+ */
+@Singleton
+public class ExpiredRowJanitor {
+
+	/** 実行間隔の設定パス */
+	private static final String INTERVAL_PATH = "janitor.interval";
+	/** 1 回に削除する件数の設定パス */
+	private static final String CHUNK_SIZE_PATH = "janitor.chunkSize";
+	/** 休止時間の設定パス */
+	private static final String PAUSE_PATH = "janitor.pause";
+	/** アカウントセッションの期限の設定パス */
+	private static final String SESSION_IDLE_TIMEOUT_PATH = "janitor.sessionIdleTimeout";
+	/** 申込者の期限の設定パス */
+	private static final String APPLICANT_TTL_PATH = "janitor.applicantTtl";
+
+	/** アカウントセッションの計測名 */
+	public static final String ACCOUNT_SESSION = "account_session";
+	/** 申込者の計測名 */
+	public static final String APPLICANT = "applicant";
+
+	/** アカウントセッションの保存先 */
+	private final SessionStore sessionStore;
+	/** 検証済みアカウントセッションのキャッシュ */
+	private final AccountSessionCache sessionCache;
+	/** 1 回に削除する件数 */
+	private final int chunkSize;
+	/** 削除する毎の休止時間(ミリ秒) */
+	private final long pauseMillis;
+	/** アカウントセッションの期限(ミリ秒) */
+	private final long sessionIdleTimeoutMillis;
+	/** 申込者の期限(ミリ秒) */
+	private final long applicantTtlMillis;
+	/** 専用のスレッド */
+	private final ScheduledExecutorService executor;
+	/** 停止中 */
+	private volatile boolean stopping;
+
+	/** アカウントセッションの削除の集計 */
+	private final Purge sessionPurge = new Purge();
+	/** 申込者の削除の集計 */
+	private final Purge applicantPurge = new Purge();
+	/** 削除に失敗した回数 */
+	private final LongAdder failedCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 * @param lifecycle 生存周期
+	 * @param sessionStore アカウントセッションの保存先
+	 * @param sessionCache 検証済みアカウントセッションのキャッシュ
+	 */
+	@Inject
+	public ExpiredRowJanitor(Config config, ApplicationLifecycle lifecycle, SessionStore sessionStore, AccountSessionCache sessionCache) {
+		this.sessionStore = sessionStore;
+		this.sessionCache = sessionCache;
+		this.chunkSize = config.getInt(CHUNK_SIZE_PATH);
+		this.pauseMillis = config.getDuration(PAUSE_PATH, TimeUnit.MILLISECONDS);
+		this.sessionIdleTimeoutMillis = config.getDuration(SESSION_IDLE_TIMEOUT_PATH, TimeUnit.MILLISECONDS);
+		this.applicantTtlMillis = config.getDuration(APPLICANT_TTL_PATH, TimeUnit.MILLISECONDS);
+		final long intervalMillis = config.getDuration(INTERVAL_PATH, TimeUnit.MILLISECONDS);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} interval = {} ms, chunkSize = {}, pause = {} ms, sessionIdleTimeout = {}, applicantTtl = {}", getClass().getName(),
+					intervalMillis, chunkSize, pauseMillis, config.getString(SESSION_IDLE_TIMEOUT_PATH), config.getString(APPLICANT_TTL_PATH));
+		}
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "expired-row-janitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::run, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		lifecycle.addStopHook(() -> {
+			stopping = true;
+			executor.shutdownNow();
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * 期限切れの行を全て削除します。
+	 * 失敗した場合は次の実行で削除し直します。
+	 */
+	void run() {
+		final long now = System.currentTimeMillis();
+		final long idleBeforeMillis = now - sessionIdleTimeoutMillis;
+		try {
+			try {
+				purge(ACCOUNT_SESSION, sessionPurge, limit -> sessionStore.deleteIdle(idleBeforeMillis, limit));
+			} finally {
+				sessionCache.invalidateIdle(idleBeforeMillis);
+			}
+			purge(APPLICANT, applicantPurge, limit -> Applicant.deleteStale(new Date(now - applicantTtlMillis), limit));
+		} catch (RuntimeException e) {
+			failedCount.increment();
+			if (Logger.isErrorEnabled()) {
+				Logger.error("期限切れの行の削除に失敗しました。", e);
+			}
+		}
+	}
+
+	/**
+	 * 削除した件数が上限に満たなくなるまで、休止を挟んで削除を繰り返します。
+	 * 所要時間には休止時間を含めません。
+	 * @param table 計測名
+	 * @param purge 削除の集計
+	 * @param deleteChunk 上限の件数を受け取り、削除した件数を返す処理
+	 */
+	private void purge(String table, Purge purge, IntUnaryOperator deleteChunk) {
+		int total = 0;
+		long elapsedNanos = 0;
+		while (!stopping) {
+			final long start = System.nanoTime();
+			final int deleted;
+			try {
+				deleted = deleteChunk.applyAsInt(chunkSize);
+			} finally {
+				final long chunkNanos = System.nanoTime() - start;
+				elapsedNanos += chunkNanos;
+				purge.nanos.add(chunkNanos);
+			}
+			total += deleted;
+			purge.rows.add(deleted);
+			if (deleted < chunkSize) {
+				break;
+			}
+			try {
+				Thread.sleep(pauseMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (total > 0 && Logger.isInfoEnabled()) {
+			Logger.info("{} purged {} rows from {} in {} ms", getClass().getName(), total, table, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+		}
+	}
+
+	/**
+	 * 削除した件数を返します。
+	 * @param table 計測名({@link #ACCOUNT_SESSION}または{@link #APPLICANT})
+	 * @return 削除した件数
+	 */
+	public long purgedCount(String table) {
+		return purgeOf(table).rows.sum();
+	}
+
+	/**
+	 * 削除に要した時間を返します。休止時間は含みません。
+	 * @param table 計測名({@link #ACCOUNT_SESSION}または{@link #APPLICANT})
+	 * @return 削除に要した時間(ナノ秒)
+	 */
+	public long purgeNanos(String table) {
+		return purgeOf(table).nanos.sum();
+	}
+
+	/** @return 削除に失敗した回数 */
+	public long failedCount() {
+		return failedCount.sum();
+	}
+
+	/**
+	 * 計測名の集計を返します。
+	 * @param table 計測名
+	 * @return 削除の集計
+	 */
+	private Purge purgeOf(String table) {
+		switch (table) {
+		case ACCOUNT_SESSION:
+			return sessionPurge;
+		case APPLICANT:
+			return applicantPurge;
+		default:
+			throw new IllegalArgumentException("table: " + table);
+		}
+	}
+
+	/**
+	 * 削除の集計です。
+	 * @author mizuo
+	 */
+	private static final class Purge {
+		/** 削除した件数 */
+		final LongAdder rows = new LongAdder();
+		/** 削除に要した時間(ナノ秒) */
+		final LongAdder nanos = new LongAdder();
+	}
+
+}
@@ -0,0 +1,67 @@
+package controllers;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import auth.AuthenticationActionCreator;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import startup.StartupTaskRunner;
+import startup.StartupTaskRunner.TaskState;
+
+/**
+ * 死活監視コントローラーです。
+ * ロードバランサーやコンテナ基盤からの監視に応答します。
+ * 監視のたびに認証処理を経由しないよう、{@link AuthenticationActionCreator} で認証の対象外にしています。
+ * @author mizuo
+ */
+public class HealthController extends Controller {
+
+	/** 起動時の処理の実行処理 */
+	private final StartupTaskRunner startupTaskRunner;
+
+	/**
+	 * @param startupTaskRunner 起動時の処理の実行処理
+	 */
+	@Inject
+	public HealthController(StartupTaskRunner startupTaskRunner) {
+		this.startupTaskRunner = startupTaskRunner;
+	}
+
+	/**
+	 * プロセスが応答できるかを返します。
+	 * @return 200 OK
+	 */
+	public Result live() {
+		final ObjectNode body = Json.newObject().put("status", "UP");
+		return ok(body);
+	}
+
+	/**
+	 * リクエストを受け付けられるかを返します。
+	 * 必須の起動時の処理が全て成功するまでは 503 で応答します。
+	 * @return 準備完了の場合は 200 OK、それ以外は 503 SERVICE UNAVAILABLE
+	 */
+	public Result ready() {
+		final boolean ready = startupTaskRunner.isReady();
+		final ObjectNode body = Json.newObject().put("status", ready ? "UP" : "DOWN");
+		if (ready) {
+			body.put("readyMillis", TimeUnit.NANOSECONDS.toMillis(startupTaskRunner.readyNanos()));
+		}
+		final ArrayNode tasks = body.putArray("tasks");
+		for (TaskState state : startupTaskRunner.states()) {
+			tasks.addObject()
+					.put("name", state.name)
+					.put("required", state.required)
+					.put("status", state.status().name())
+					.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(state.elapsedNanos()));
+		}
+		return ready ? ok(body) : status(SERVICE_UNAVAILABLE, body);
+	}
+
+}
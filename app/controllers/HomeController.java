@@ -1,5 +1,7 @@
 package controllers;
 
+import javax.inject.Inject;
+
 import auth.AuthenticationAnnotations.Anybody;
 import play.mvc.Controller;
 import play.mvc.Result;
@@ -11,13 +13,28 @@ import play.mvc.Result;
  */
 public class HomeController extends Controller {
 
+	/** インデックスページのページ名 */
+	private static final String INDEX = "index";
+
+	/** 描画結果のキャッシュ */
+	private final StaticPageCache staticPages;
+
+	/**
+	 * @param staticPages 描画結果のキャッシュ
+	 */
+	@Inject
+	public HomeController(StaticPageCache staticPages) {
+		this.staticPages = staticPages;
+	}
+
 	/**
 	 * GET アクセスを制御します。
+	 * 内容は利用者によらないので、描画結果のキャッシュから返します。
 	 * @return インデックスページ
 	 */
 	@Anybody
 	public Result index() {
-		return ok(views.html.index.render());
+		return staticPages.render(INDEX, OK, views.html.index::render);
 	}
 
 }
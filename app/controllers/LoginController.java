@@ -1,23 +1,25 @@
 package controllers;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import javax.inject.Inject;
 
 import auth.AuthenticationAnnotations.Anybody;
+import auth.SessionStore;
+import auth.SessionStore.StoredSession;
 import auth.UsernameHelpers.UsernameSession;
 import controllers.ControllerAuthHelpers.PasswordHelper;
+import controllers.ControllerHelpers.ResultHelper;
+import filters.RequestTiming;
 import models.Account;
-import models.AccountSession;
+import models.DatabaseExecutionContext;
 import play.data.Form;
 import play.data.FormFactory;
 import play.data.validation.Constraints.Required;
-import play.data.validation.Constraints.Validatable;
-import play.data.validation.Constraints.Validate;
-import play.data.validation.ValidationError;
+import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Controller;
 import play.mvc.Http.Context;
 import play.mvc.Http.Session;
@@ -31,17 +33,43 @@ public class LoginController extends Controller {
 
 	/** フォーム製造 */
 	private final FormFactory formFactory;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** パスワード処理の実行コンテキスト */
+	private final PasswordExecutionContext passwordContext;
+	/** HTTPコンテキストを引き継ぐ実行コンテキスト */
+	private final HttpExecutionContext httpContext;
+	/** ログインの成否の計数 */
+	private final LoginMetrics loginMetrics;
+	/** 試行回数の制限器 */
+	private final AttemptRateLimiter rateLimiter;
+	/** アカウントセッションの保存先 */
+	private final SessionStore sessionStore;
 
 	/**
 	 * @param formFactory フォーム製造
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param passwordContext パスワード処理の実行コンテキスト
+	 * @param httpContext HTTPコンテキストを引き継ぐ実行コンテキスト
+	 * @param loginMetrics ログインの成否の計数
+	 * @param rateLimiter 試行回数の制限器
+	 * @param sessionStore アカウントセッションの保存先
 	 */
 	@Inject
-	public LoginController(FormFactory formFactory) {
+	public LoginController(FormFactory formFactory, DatabaseExecutionContext dbContext, PasswordExecutionContext passwordContext,
+			HttpExecutionContext httpContext, LoginMetrics loginMetrics, AttemptRateLimiter rateLimiter, SessionStore sessionStore) {
 		this.formFactory = formFactory;
+		this.dbContext = dbContext;
+		this.passwordContext = passwordContext;
+		this.httpContext = httpContext;
+		this.loginMetrics = loginMetrics;
+		this.rateLimiter = rateLimiter;
+		this.sessionStore = sessionStore;
 	}
 
 	/**
 	 * GET アクセスを制御します。
+	 * CSRF トークンを埋め込むので、{@link StaticPageCache} は使わずに毎回描画します。
 	 * @return ログインページ
 	 */
 	@Anybody
@@ -52,66 +80,96 @@ public class LoginController extends Controller {
 
 	/**
 	 * POST アクセスを制御します。
+	 * 接続元IPアドレスかログインIDの試行回数が制限を超えた場合は、フォームを検証する前に 429 で応答します。
+	 * DBアクセスは {@link DatabaseExecutionContext}、パスワードの照合は {@link PasswordExecutionContext} で実行します。
 	 * 認証が成功した場合はHTTPセッションを発行します。
+	 * 処理段階別の所要時間を {@link RequestTiming} に記録します。
 	 * @return ログインページ
 	 */
 	@Anybody
-	public Result post() {
-		final Form<LoginParameter> loginForm = formFactory.form(LoginParameter.class).bindFromRequest();
+	public CompletionStage<Result> post() {
+		final long waitNanos = rateLimiter.acquire(AttemptRateLimiter.LOGIN, request(), "loginId");
+		if (waitNanos > 0) {
+			return CompletableFuture.completedFuture(ResultHelper.tooManyRequests(waitNanos));
+		}
+		final RequestTiming timing = RequestTiming.of(request());
+		final Form<LoginParameter> loginForm = timing.time("bind", () -> formFactory.form(LoginParameter.class).bindFromRequest());
 		if (loginForm.hasErrors()) {
-			return badRequest(views.html.login.render(loginForm));
-		} else {
-			final LoginParameter parameter = loginForm.get();
-			if (parameter.storedIndividualId.isPresent()) {
-				final String remote = Context.current().request().remoteAddress();
-				final AccountSession accountSession = new AccountSession();
-				accountSession.uuid = UUID.randomUUID();
-				accountSession.ipAddress = remote;
-				accountSession.individualId = parameter.storedIndividualId.get();
-				accountSession.save();
-				//
-				final Session session = Context.current().session();
-				final UsernameSession username = new UsernameSession(session);
-				username.set(accountSession.uuid.toString());
-				return redirect(routes.HomeController.index());
-			} else {
-				return internalServerError();
-			}
+			return CompletableFuture.completedFuture(badRequest(timing.time("render", () -> views.html.login.render(loginForm))));
+		}
+		final LoginParameter parameter = loginForm.get();
+		final String remote = request().remoteAddress();
+		return CompletableFuture.supplyAsync(() -> timing.time("db", () -> Account.findOneOrEmpty(parameter.loginId)), dbContext)
+				.thenCompose(stored -> passwordContext.supplyAsync(() -> timing.time("bcrypt", () -> parameter.authenticate(stored))))
+				.thenApplyAsync(authenticated -> timing.time("session", () -> authenticated.map(account -> startSession(parameter, account, remote))), dbContext)
+				.thenApplyAsync(accountSession -> {
+					if (accountSession.isPresent()) {
+						loginMetrics.success();
+						final Session session = Context.current().session();
+						final UsernameSession username = new UsernameSession(session);
+						username.set(accountSession.get().uuid.toString());
+						return redirect(routes.HomeController.index());
+					} else {
+						loginMetrics.failure();
+						return badRequest(timing.time("render", () -> views.html.login.render(loginForm.withGlobalError("認証できません。"))));
+					}
+				}, httpContext.current())
+				.exceptionally(ResultHelper::recoverOverload);
+	}
+
+	/**
+	 * 認証済みアカウントのアカウントセッションを登録します。
+	 * DBを更新するので {@link DatabaseExecutionContext} から呼び出してください。
+	 * アカウントセッションは {@link SessionStore} に登録します。
+	 * @param parameter ログインの変数群
+	 * @param account 認証済みアカウント
+	 * @param remote 接続元のIPアドレス
+	 * @return アカウントセッション
+	 */
+	StoredSession startSession(LoginParameter parameter, Account account, String remote) {
+		if (parameter.rehashedPassword.isPresent()) {
+			// ハッシュ化のコストが変わっていれば再ハッシュ化した値で更新する。
+			account.password = parameter.rehashedPassword.get();
+			account.update();
 		}
+		final StoredSession accountSession = new StoredSession(UUID.randomUUID(), account.individualId, remote, System.currentTimeMillis());
+		sessionStore.save(accountSession);
+		return accountSession;
 	}
 
 	/**
 	 * ログインの変数群です。
 	 * @author mizuo
 	 */
-	@Validate
-	public static class LoginParameter implements Validatable<List<ValidationError>> {
+	public static class LoginParameter {
 		/** ログインID */
 		@Required
 		public String loginId;
 		/** パスワード(平文) */
 		@Required
 		public String password;
-		/** DBに登録されていた個人ID */
-		Optional<Long> storedIndividualId;
+		/** 現在のコストで再ハッシュ化したパスワード */
+		Optional<String> rehashedPassword = Optional.empty();
 		/***
 		 * 認証を行います。
+		 * 登録済みのハッシュ化コストが現在のコストと異なる場合は {@link #rehashedPassword} を設定します。
+		 * BCrypt で照合するので {@link PasswordExecutionContext} から呼び出してください。
+		 * @param stored DBに登録されていたアカウント
+		 * @return 認証できた場合はアカウント
 		 */
-		@Override
-		public List<ValidationError> validate() {
-			storedIndividualId = Optional.empty();
-			final Optional<Account> stored = Account.findOneOrEmpty(loginId);
+		Optional<Account> authenticate(Optional<Account> stored) {
+			rehashedPassword = Optional.empty();
 			if (stored.isPresent()) {
 				final Account account = stored.get();
 				if (PasswordHelper.equal(password, account.password)) {
 					// 認証OK
-					storedIndividualId = Optional.of(account.individualId);
-					return null;
+					if (PasswordHelper.needsRehash(account.password)) {
+						rehashedPassword = Optional.of(PasswordHelper.hash(password));
+					}
+					return Optional.of(account);
 				}
 			}
-			final List<ValidationError> errors = new ArrayList<>();
-			errors.add(new ValidationError("", "認証できません。"));
-			return errors;
+			return Optional.empty();
 		}
 	}
 
@@ -0,0 +1,39 @@
+package controllers;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Singleton;
+
+/**
+ * ログインの成否の計数です。
+ * @author mizuo
+ */
+@Singleton
+public class LoginMetrics {
+
+	/** 認証できた回数 */
+	private final LongAdder successCount = new LongAdder();
+	/** 認証できなかった回数 */
+	private final LongAdder failureCount = new LongAdder();
+
+	/** 認証できた回数を数えます。 */
+	void success() {
+		successCount.increment();
+	}
+
+	/** 認証できなかった回数を数えます。 */
+	void failure() {
+		failureCount.increment();
+	}
+
+	/** @return 認証できた回数 */
+	public long successCount() {
+		return successCount.sum();
+	}
+
+	/** @return 認証できなかった回数 */
+	public long failureCount() {
+		return failureCount.sum();
+	}
+
+}
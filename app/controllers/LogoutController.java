@@ -1,6 +1,18 @@
 package controllers;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.inject.Inject;
+
+import auth.AccountSessionCache;
+import auth.AccountSessionCache.CachedSession;
 import auth.AuthenticationAnnotations.Anybody;
+import auth.SessionStore;
+import auth.UsernameHelpers.UsernameSession;
+import models.DatabaseExecutionContext;
+import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Controller;
 import play.mvc.Result;
 
@@ -10,8 +22,33 @@ import play.mvc.Result;
  */
 public class LogoutController extends Controller {
 
+	/** 検証済みアカウントセッションのキャッシュ */
+	private final AccountSessionCache sessionCache;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** HTTPコンテキストを引き継ぐ実行コンテキスト */
+	private final HttpExecutionContext httpContext;
+	/** アカウントセッションの保存先 */
+	private final SessionStore sessionStore;
+
+	/**
+	 * @param sessionCache 検証済みアカウントセッションのキャッシュ
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param httpContext HTTPコンテキストを引き継ぐ実行コンテキスト
+	 * @param sessionStore アカウントセッションの保存先
+	 */
+	@Inject
+	public LogoutController(AccountSessionCache sessionCache, DatabaseExecutionContext dbContext, HttpExecutionContext httpContext,
+			SessionStore sessionStore) {
+		this.sessionCache = sessionCache;
+		this.dbContext = dbContext;
+		this.httpContext = httpContext;
+		this.sessionStore = sessionStore;
+	}
+
 	/**
 	 * GET アクセスを制御します。
+	 * CSRF トークンを埋め込むので、{@link StaticPageCache} は使わずに毎回描画します。
 	 * @return ログアウトページ
 	 */
 	@Anybody
@@ -21,13 +58,26 @@ public class LogoutController extends Controller {
 
 	/**
 	 * POST アクセスを制御します。
-	 * HTTPセッションをクリアします。
+	 * アカウントセッションを失効させ、HTTPセッションをクリアします。
+	 * アカウントセッションの削除は {@link DatabaseExecutionContext} で実行します。
 	 * @return ログインページ
 	 */
 	@Anybody
-	public Result post() {
-		session().clear();
-		return redirect(routes.HomeController.index());
+	public CompletionStage<Result> post() {
+		final Optional<String> username = new UsernameSession(session()).get();
+		final CompletionStage<Optional<CachedSession>> stored = username.isPresent()
+				? sessionCache.findAsync(username.get(), dbContext)
+				: CompletableFuture.completedFuture(Optional.empty());
+		return stored.thenApplyAsync(cached -> {
+			if (cached.isPresent()) {
+				sessionStore.delete(cached.get().uuid);
+				sessionCache.invalidate(username.get());
+			}
+			return cached;
+		}, dbContext).thenApplyAsync(cached -> {
+			session().clear();
+			return redirect(routes.HomeController.index());
+		}, httpContext.current());
 	}
 
 }
@@ -0,0 +1,298 @@
+package controllers;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import auth.AccountSessionCache;
+import auth.AuthenticationActionCreator;
+import auth.SessionActivityTracker;
+import filters.ConcurrencyLimiter;
+import filters.ResponseTimeMetrics;
+import filters.ResponseTimeMetrics.ResourceSnapshot;
+import filters.ResponseTimeMetrics.Snapshot;
+import models.DatabaseExecutionContext;
+import play.mvc.Controller;
+import play.mvc.Result;
+import startup.StartupTaskRunner;
+import startup.StartupTaskRunner.TaskState;
+
+/**
+ * 計測値コントローラーです。
+ * 計測値を Prometheus のテキスト形式で出力します。
+ * 計数は各処理がロックを取らずに加算しておき、ゲージは取得時に読み取ります。
+ * 収集のたびに認証処理を経由しないよう、{@link AuthenticationActionCreator} で認証の対象外にしています。
+ * @author mizuo
+ */
+public class MetricsController extends Controller {
+
+	/** 応答時間の計測値名 */
+	private static final String RESPONSE_TIME_NAME = "http_server_requests_seconds";
+
+	/** 応答時間の分布 */
+	private final ResponseTimeMetrics responseTimeMetrics;
+	/** 同時処理数の制限器 */
+	private final ConcurrencyLimiter concurrencyLimiter;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** コネクションプールの計測値 */
+	private final ConnectionPoolMetrics connectionPoolMetrics;
+	/** パスワード処理の実行コンテキスト */
+	private final PasswordExecutionContext passwordContext;
+	/** 電子メールの送信待ち行列の常駐処理 */
+	private final EmailOutboxWorker emailOutboxWorker;
+	/** 期限切れの行の削除の常駐処理 */
+	private final ExpiredRowJanitor janitor;
+	/** ログインの成否の計数 */
+	private final LoginMetrics loginMetrics;
+	/** 試行回数の制限器 */
+	private final AttemptRateLimiter rateLimiter;
+	/** 検証済みアカウントセッションのキャッシュ */
+	private final AccountSessionCache sessionCache;
+	/** 最終アクセス日時の記録 */
+	private final SessionActivityTracker activityTracker;
+	/** 起動時の処理の実行処理 */
+	private final StartupTaskRunner startupTaskRunner;
+	/** JIT のウォームアップ処理 */
+	private final WarmUp warmUp;
+
+	/**
+	 * @param responseTimeMetrics 応答時間の分布
+	 * @param concurrencyLimiter 同時処理数の制限器
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param connectionPoolMetrics コネクションプールの計測値
+	 * @param passwordContext パスワード処理の実行コンテキスト
+	 * @param emailOutboxWorker 電子メールの送信待ち行列の常駐処理
+	 * @param janitor 期限切れの行の削除の常駐処理
+	 * @param loginMetrics ログインの成否の計数
+	 * @param rateLimiter 試行回数の制限器
+	 * @param sessionCache 検証済みアカウントセッションのキャッシュ
+	 * @param activityTracker 最終アクセス日時の記録
+	 * @param startupTaskRunner 起動時の処理の実行処理
+	 * @param warmUp JIT のウォームアップ処理
+	 */
+	@Inject
+	public MetricsController(ResponseTimeMetrics responseTimeMetrics, ConcurrencyLimiter concurrencyLimiter,
+			DatabaseExecutionContext dbContext, ConnectionPoolMetrics connectionPoolMetrics, PasswordExecutionContext passwordContext,
+			EmailOutboxWorker emailOutboxWorker, ExpiredRowJanitor janitor, LoginMetrics loginMetrics, AttemptRateLimiter rateLimiter,
+			AccountSessionCache sessionCache, SessionActivityTracker activityTracker, StartupTaskRunner startupTaskRunner, WarmUp warmUp) {
+		this.responseTimeMetrics = responseTimeMetrics;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.dbContext = dbContext;
+		this.connectionPoolMetrics = connectionPoolMetrics;
+		this.passwordContext = passwordContext;
+		this.emailOutboxWorker = emailOutboxWorker;
+		this.janitor = janitor;
+		this.loginMetrics = loginMetrics;
+		this.rateLimiter = rateLimiter;
+		this.sessionCache = sessionCache;
+		this.activityTracker = activityTracker;
+		this.startupTaskRunner = startupTaskRunner;
+		this.warmUp = warmUp;
+	}
+
+	/**
+	 * GET アクセスを制御します。
+	 * @return 計測値
+	 */
+	public Result get() {
+		final PrometheusTextWriter writer = new PrometheusTextWriter(8192);
+		writeResponseTime(writer);
+		writeConcurrencyLimit(writer);
+		writeDatabase(writer);
+		writePassword(writer);
+		writeMail(writer);
+		writeJanitor(writer);
+		writeLogin(writer);
+		writeStartup(writer);
+		writeJvm(writer);
+		return ok(writer.toString()).as(PrometheusTextWriter.CONTENT_TYPE);
+	}
+
+	/**
+	 * ルートと応答ステータス毎の応答時間のパーセンタイル、合計とリクエスト数を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeResponseTime(PrometheusTextWriter writer) {
+		writer.header(RESPONSE_TIME_NAME, "summary", "HTTP response time by route and status.");
+		for (Snapshot snapshot : responseTimeMetrics.snapshot()) {
+			final String labels = "route=\"" + PrometheusTextWriter.escape(snapshot.route) + "\",status=\"" + snapshot.status + "\"";
+			for (int i = 0; i < snapshot.percentileNanos.length; i++) {
+				final String quantile = String.valueOf(snapshot.quantiles[i]);
+				writer.sample(RESPONSE_TIME_NAME, labels + ",quantile=\"" + quantile + "\"", seconds(snapshot.percentileNanos[i]));
+			}
+			writer.sample(RESPONSE_TIME_NAME + "_sum", labels, seconds(snapshot.sumNanos));
+			writer.sample(RESPONSE_TIME_NAME + "_count", labels, snapshot.count);
+			writer.sample(RESPONSE_TIME_NAME + "_max", labels, seconds(snapshot.maxNanos));
+		}
+		final List<ResourceSnapshot> resources = responseTimeMetrics.resourceSnapshot();
+		writer.header("http_server_request_resource_samples_total", "counter", "Requests sampled for allocation and CPU by route.");
+		for (ResourceSnapshot snapshot : resources) {
+			writer.sample("http_server_request_resource_samples_total", routeLabel(snapshot.route), snapshot.samples);
+		}
+		writer.header("http_server_request_allocated_bytes_total", "counter", "Bytes allocated by sampled requests by route.");
+		for (ResourceSnapshot snapshot : resources) {
+			writer.sample("http_server_request_allocated_bytes_total", routeLabel(snapshot.route), snapshot.allocatedBytes);
+		}
+		writer.header("http_server_request_allocated_bytes_max", "gauge", "Largest allocation by a sampled request by route.");
+		for (ResourceSnapshot snapshot : resources) {
+			writer.sample("http_server_request_allocated_bytes_max", routeLabel(snapshot.route), snapshot.maxAllocatedBytes);
+		}
+		writer.header("http_server_request_cpu_seconds_total", "counter", "CPU time used by sampled requests by route.");
+		for (ResourceSnapshot snapshot : resources) {
+			writer.sample("http_server_request_cpu_seconds_total", routeLabel(snapshot.route), seconds(snapshot.cpuNanos));
+		}
+	}
+
+	/**
+	 * ルートのラベルを返します。
+	 * @param route ルート
+	 * @return ラベル
+	 */
+	private static String routeLabel(String route) {
+		return "route=\"" + PrometheusTextWriter.escape(route) + "\"";
+	}
+
+	/**
+	 * 同時処理数の上限と拒否したリクエスト数を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeConcurrencyLimit(PrometheusTextWriter writer) {
+		writer.gauge("blogit_concurrency_limit", "Adaptive concurrency limit.", concurrencyLimiter.limit())
+				.gauge("blogit_concurrency_inflight", "Requests in flight under the limit.", concurrencyLimiter.inflight())
+				.header("blogit_concurrency_limit_changes_total", "counter", "Concurrency limit changes by direction.")
+				.sample("blogit_concurrency_limit_changes_total", "direction=\"increase\"", concurrencyLimiter.increaseCount())
+				.sample("blogit_concurrency_limit_changes_total", "direction=\"decrease\"", concurrencyLimiter.decreaseCount())
+				.header("blogit_concurrency_rejected_total", "counter", "Requests shed with 503 by priority.")
+				.sample("blogit_concurrency_rejected_total", "priority=\"high\"", concurrencyLimiter.highRejectedCount())
+				.sample("blogit_concurrency_rejected_total", "priority=\"low\"", concurrencyLimiter.lowRejectedCount());
+	}
+
+	/**
+	 * DBアクセスの実行コンテキストとコネクションプールの状態を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeDatabase(PrometheusTextWriter writer) {
+		writer.gauge("blogit_db_dispatcher_active", "Tasks running on database.dispatcher.", dbContext.activeCount())
+				.gauge("blogit_db_dispatcher_queued", "Tasks waiting for database.dispatcher.", dbContext.queuedCount())
+				.counter("blogit_db_dispatcher_completed_total", "Tasks completed on database.dispatcher.", dbContext.completedCount())
+				.gauge("blogit_db_pool_active_connections", "Connections in use.", connectionPoolMetrics.activeConnections())
+				.gauge("blogit_db_pool_idle_connections", "Idle connections.", connectionPoolMetrics.idleConnections())
+				.gauge("blogit_db_pool_total_connections", "Connections in the pool.", connectionPoolMetrics.totalConnections())
+				.gauge("blogit_db_pool_pending_threads", "Threads waiting for a connection.", connectionPoolMetrics.threadsAwaitingConnection());
+	}
+
+	/**
+	 * パスワード処理の実行コンテキストとセッションキャッシュ、最終アクセス日時の記録の状態を出力します。
+	 * @param writer 出力先
+	 */
+	private void writePassword(PrometheusTextWriter writer) {
+		writer.gauge("blogit_password_executor_active", "Password hashes running.", passwordContext.activeCount())
+				.gauge("blogit_password_executor_queued", "Password hashes waiting.", passwordContext.queueDepth())
+				.counter("blogit_password_executor_completed_total", "Password hashes completed.", passwordContext.completedCount())
+				.counter("blogit_password_executor_rejected_total", "Password hashes rejected by a full queue.", passwordContext.rejectedCount())
+				.gauge("blogit_session_cache_size", "Verified sessions cached.", sessionCache.size())
+				.counter("blogit_session_cache_hits_total", "Session cache hits.", sessionCache.hitCount())
+				.counter("blogit_session_cache_misses_total", "Session cache misses.", sessionCache.missCount())
+				.gauge("blogit_session_activity_pending", "Sessions whose last access is waiting to be written.", activityTracker.pendingCount())
+				.counter("blogit_session_activity_skipped_total", "Accesses not recorded within the granularity.", activityTracker.skippedCount())
+				.counter("blogit_session_activity_flushed_total", "Session last accesses written.", activityTracker.flushedCount())
+				.counter("blogit_session_activity_failures_total", "Failed writes of session last accesses.", activityTracker.failedCount());
+	}
+
+	/**
+	 * 電子メールの送信結果を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeMail(PrometheusTextWriter writer) {
+		writer.counter("blogit_mail_sent_total", "Emails sent by MailerClient.", emailOutboxWorker.sentCount())
+				.counter("blogit_mail_failed_total", "Email sends that failed.", emailOutboxWorker.failedCount())
+				.counter("blogit_mail_poisoned_total", "Emails given up after the retry limit.", emailOutboxWorker.poisonedCount());
+	}
+
+	/**
+	 * 期限切れの行の削除件数と所要時間を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeJanitor(PrometheusTextWriter writer) {
+		final String sessions = "table=\"" + ExpiredRowJanitor.ACCOUNT_SESSION + "\"";
+		final String applicants = "table=\"" + ExpiredRowJanitor.APPLICANT + "\"";
+		writer.header("blogit_janitor_purged_rows_total", "counter", "Expired rows deleted by table.")
+				.sample("blogit_janitor_purged_rows_total", sessions, janitor.purgedCount(ExpiredRowJanitor.ACCOUNT_SESSION))
+				.sample("blogit_janitor_purged_rows_total", applicants, janitor.purgedCount(ExpiredRowJanitor.APPLICANT))
+				.header("blogit_janitor_purge_seconds_total", "counter", "Time spent deleting expired rows by table, excluding pauses.")
+				.sample("blogit_janitor_purge_seconds_total", sessions, seconds(janitor.purgeNanos(ExpiredRowJanitor.ACCOUNT_SESSION)))
+				.sample("blogit_janitor_purge_seconds_total", applicants, seconds(janitor.purgeNanos(ExpiredRowJanitor.APPLICANT)))
+				.counter("blogit_janitor_failures_total", "Janitor runs that failed.", janitor.failedCount());
+	}
+
+	/**
+	 * ログインの成否と試行回数の制限の状態を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeLogin(PrometheusTextWriter writer) {
+		writer.header("blogit_login_total", "counter", "Login attempts by result.")
+				.sample("blogit_login_total", "result=\"success\"", loginMetrics.successCount())
+				.sample("blogit_login_total", "result=\"failure\"", loginMetrics.failureCount())
+				.header("blogit_rate_limit_rejected_total", "counter", "Login and activation attempts rejected with 429 by key.")
+				.sample("blogit_rate_limit_rejected_total", "key=\"remote_address\"", rateLimiter.remoteRejectedCount())
+				.sample("blogit_rate_limit_rejected_total", "key=\"account\"", rateLimiter.accountRejectedCount())
+				.gauge("blogit_rate_limit_buckets", "Token buckets held by the rate limiter.", rateLimiter.size())
+				.counter("blogit_rate_limit_evictions_total", "Token buckets evicted by the per-stripe bound.", rateLimiter.evictionCount());
+	}
+
+	/**
+	 * 起動時の処理の状態と所要時間を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeStartup(PrometheusTextWriter writer) {
+		writer.gauge("blogit_startup_ready", "1 once all required startup tasks have succeeded.", startupTaskRunner.isReady() ? 1 : 0);
+		writer.header("blogit_startup_task_seconds", "gauge", "Startup task duration by task and status.");
+		for (TaskState state : startupTaskRunner.states()) {
+			final String labels = "task=\"" + PrometheusTextWriter.escape(state.name) + "\",status=\"" + state.status().name().toLowerCase(Locale.ROOT) + "\"";
+			writer.sample("blogit_startup_task_seconds", labels, seconds(state.elapsedNanos()));
+		}
+		writer.gauge("blogit_warmup_iterations", "Completed JIT warm-up iterations.", warmUp.completedIterations());
+	}
+
+	/**
+	 * JVM のメモリとGCの状態を出力します。
+	 * @param writer 出力先
+	 */
+	private void writeJvm(PrometheusTextWriter writer) {
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		final MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		writer.header("jvm_memory_used_bytes", "gauge", "Used memory by area.")
+				.sample("jvm_memory_used_bytes", "area=\"heap\"", heap.getUsed())
+				.sample("jvm_memory_used_bytes", "area=\"nonheap\"", nonHeap.getUsed())
+				.header("jvm_memory_committed_bytes", "gauge", "Committed memory by area.")
+				.sample("jvm_memory_committed_bytes", "area=\"heap\"", heap.getCommitted())
+				.sample("jvm_memory_committed_bytes", "area=\"nonheap\"", nonHeap.getCommitted())
+				.gauge("jvm_memory_heap_max_bytes", "Maximum heap size.", heap.getMax());
+		writer.header("jvm_gc_collections_total", "counter", "Garbage collections by collector.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			writer.sample("jvm_gc_collections_total", "gc=\"" + PrometheusTextWriter.escape(gc.getName()) + "\"", gc.getCollectionCount());
+		}
+		writer.header("jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			writer.sample("jvm_gc_collection_seconds_total", "gc=\"" + PrometheusTextWriter.escape(gc.getName()) + "\"",
+					TimeUnit.MILLISECONDS.toNanos(gc.getCollectionTime()) / 1e9);
+		}
+		writer.gauge("jvm_threads_live", "Live threads.", ManagementFactory.getThreadMXBean().getThreadCount());
+	}
+
+	/**
+	 * ナノ秒を秒に変換します。
+	 * @param nanos ナノ秒
+	 * @return 秒
+	 */
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+}
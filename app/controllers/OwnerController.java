@@ -1,12 +1,19 @@
 package controllers;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 
 import auth.AuthenticationAnnotations.Anybody;
+import controllers.ControllerAuthHelpers.TemporaryPasswordHelper;
 import controllers.ControllerHelpers.ConfigHelper;
 import controllers.ControllerHelpers.ResultHelper;
+import filters.RequestTiming;
+import models.DatabaseExecutionContext;
+import models.EmailAddressFilter;
 import models.EmailTemplate;
 import models.Individual;
 import play.data.Form;
@@ -14,9 +21,10 @@ import play.data.FormFactory;
 import play.data.validation.Constraints.MaxLength;
 import play.data.validation.Constraints.MinLength;
 import play.data.validation.Constraints.Required;
+import play.libs.concurrent.HttpExecutionContext;
 import play.libs.mailer.Email;
-import play.libs.mailer.MailerClient;
 import play.mvc.Controller;
+import play.mvc.Http.Request;
 import play.mvc.Result;
 
 /**
@@ -31,19 +39,32 @@ public class OwnerController extends Controller {
 	private final ConfigHelper configHelper;
 	/** フォーム製造 */
 	private final FormFactory formFactory;
-	/** メールクライアント */
-	private final MailerClient mailerClient;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** パスワード処理の実行コンテキスト */
+	private final PasswordExecutionContext passwordContext;
+	/** HTTPコンテキストを引き継ぐ実行コンテキスト */
+	private final HttpExecutionContext httpContext;
+	/** 使用済みメールアドレスのフィルタ */
+	private final EmailAddressFilter emailAddressFilter;
 
 	/**
 	 * @param configHelper 設定ヘルパー
 	 * @param formFactory フォーム製造
-	 * @param mailerClient メールクライアント
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param passwordContext パスワード処理の実行コンテキスト
+	 * @param httpContext HTTPコンテキストを引き継ぐ実行コンテキスト
+	 * @param emailAddressFilter 使用済みメールアドレスのフィルタ
 	 */
 	@Inject
-	public OwnerController(ConfigHelper configHelper, FormFactory formFactory, MailerClient mailerClient) {
+	public OwnerController(ConfigHelper configHelper, FormFactory formFactory, DatabaseExecutionContext dbContext,
+			PasswordExecutionContext passwordContext, HttpExecutionContext httpContext, EmailAddressFilter emailAddressFilter) {
 		this.configHelper = configHelper;
 		this.formFactory = formFactory;
-		this.mailerClient = mailerClient;
+		this.dbContext = dbContext;
+		this.passwordContext = passwordContext;
+		this.httpContext = httpContext;
+		this.emailAddressFilter = emailAddressFilter;
 	}
 
 	/**
@@ -53,18 +74,20 @@ public class OwnerController extends Controller {
 	 * @return 所有者アカウント仮登録ページ
 	 */
 	@Anybody
-	public Result get() {
+	public CompletionStage<Result> get() {
 		final String configEmailAddress = configHelper.getOwnerEmailAddress();
 		final Individual individual = new Individual();
 		individual.emailAddress = configEmailAddress;
-		if (individual.isUsedEmailAddress()) {
-			// 所有者アカウントが登録済みであれば、このページは消滅扱いとする。
-			return new ResultHelper(request()).gone();
-		} else {
-			// 所有者アカウントが登録されていない場合のみアクセス可能とする。
-			final Form<OwnerParameter> ownerForm = formFactory.form(OwnerParameter.class);
-			return ok(views.html.owner.render(ownerForm));
-		}
+		return individual.isUsedEmailAddressAsync(emailAddressFilter, dbContext).thenApplyAsync(used -> {
+			if (used) {
+				// 所有者アカウントが登録済みであれば、このページは消滅扱いとする。
+				return new ResultHelper(request()).gone();
+			} else {
+				// 所有者アカウントが登録されていない場合のみアクセス可能とする。
+				final Form<OwnerParameter> ownerForm = formFactory.form(OwnerParameter.class);
+				return ok(views.html.owner.render(ownerForm));
+			}
+		}, httpContext.current());
 	}
 
 	/**
@@ -72,45 +95,61 @@ public class OwnerController extends Controller {
 	 * 所有者アカウントが登録されていない場合のみアクセス可能です。
 	 * 所有者アカウントが登録済みであれば、410 GONE を応答します。
 	 * 処理成功した場合はアカウントの仮登録を行います。
+	 * 申込者のシナリオは、DBアクセスを {@link DatabaseExecutionContext}、
+	 * 仮パスワードのハッシュ化を {@link PasswordExecutionContext} に分けて実行し、
+	 * 応答の生成はHTTPコンテキストを引き継いだスレッドで行います。
+	 * 処理段階別の所要時間を {@link RequestTiming} に記録します。
 	 * @return アカウント本登録ページ
 	 */
 	@Anybody
-	public Result post() {
-		final Form<OwnerParameter> ownerForm = formFactory.form(OwnerParameter.class).bindFromRequest();
+	public CompletionStage<Result> post() {
+		final RequestTiming timing = RequestTiming.of(request());
+		final Form<OwnerParameter> ownerForm = timing.time("bind", () -> formFactory.form(OwnerParameter.class).bindFromRequest());
 		if (ownerForm.hasErrors()) {
-			return badRequest(views.html.owner.render(ownerForm));
-		} else {
-			// 所有者メールアドレスを設定から取得する。
-			final String ownerEmailAddress = configHelper.getOwnerEmailAddress();
-			// 仮登録コードをリクエストから取得する。
-			final OwnerParameter parameter = ownerForm.get();
-			final String temporaryCode = parameter.temporaryCode;
-			// 申込者のシナリオを実行する
-			return new ApplicantController.ApplicantScenario<Result>() {
-				@Override
-				Result failedExist() {
-					// 所有者アカウントが登録済みであれば、このページは消滅扱いとする。
-					return new ResultHelper(request()).gone();
-				}
-				@Override
-				Optional<Email> createEmail(String fromEmailAddress, String toEmailAddress, String plainTemporaryPassword) {
-					final Optional<Email> email = EmailTemplate.createOwner(fromEmailAddress, plainTemporaryPassword);
-					return email;
-				}
-				@Override
-				void send(Email email) {
-					mailerClient.send(email);
-				}
-				@Override
-				Result failedEmail() {
-					return internalServerError();
-				}
-				@Override
-				Result success() {
-					return redirect(routes.ActivationController.get());
-				}
-			}.action(ownerEmailAddress, ownerEmailAddress, temporaryCode);
+			return CompletableFuture.completedFuture(badRequest(timing.time("render", () -> views.html.owner.render(ownerForm))));
 		}
+		// 所有者メールアドレスを設定から取得する。
+		final String ownerEmailAddress = configHelper.getOwnerEmailAddress();
+		// 仮登録コードをリクエストから取得する。
+		final OwnerParameter parameter = ownerForm.get();
+		final String temporaryCode = parameter.temporaryCode;
+		final Request request = request();
+		// 申込者のシナリオを実行する
+		final ApplicantController.ApplicantScenario<Supplier<Result>> scenario = new ApplicantController.ApplicantScenario<Supplier<Result>>(emailAddressFilter) {
+			@Override
+			Supplier<Result> failedExist() {
+				// 所有者アカウントが登録済みであれば、このページは消滅扱いとする。
+				return () -> new ResultHelper(request).gone();
+			}
+			@Override
+			Optional<Email> createEmail(String fromEmailAddress, String toEmailAddress, String plainTemporaryPassword) {
+				final Optional<Email> email = EmailTemplate.createOwner(fromEmailAddress, plainTemporaryPassword);
+				return email;
+			}
+			@Override
+			Supplier<Result> failedEmail() {
+				return () -> internalServerError();
+			}
+			@Override
+			Supplier<Result> success() {
+				return () -> redirect(routes.ActivationController.get());
+			}
+		};
+		final Individual individual = new Individual();
+		individual.emailAddress = ownerEmailAddress;
+		return CompletableFuture.supplyAsync(() -> timing.time("db", () -> individual.isUsedEmailAddress(emailAddressFilter)), dbContext)
+				.thenCompose(used -> {
+					if (used) {
+						return CompletableFuture.completedFuture(scenario.failedExist());
+					}
+					// 仮パスワードを生成する。
+					final TemporaryPasswordHelper password = new TemporaryPasswordHelper();
+					return passwordContext.supplyAsync(() -> timing.time("bcrypt", () -> password.hash(temporaryCode)))
+							.thenApplyAsync(hashed -> timing.time("register",
+									() -> scenario.register(ownerEmailAddress, ownerEmailAddress, password.plainTemporary, hashed)), dbContext);
+				})
+				.thenApplyAsync(Supplier::get, httpContext.current())
+				.exceptionally(ResultHelper::recoverOverload);
 	}
 
 	/**
@@ -1,7 +1,10 @@
 package controllers;
 
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -10,55 +13,86 @@ import controllers.ActivationController.ActivationScenario;
 import controllers.ApplicantController.ApplicantScenario;
 import controllers.ControllerHelpers.ConfigHelper;
 import models.Applicant;
+import models.DatabaseExecutionContext;
+import models.EmailAddressFilter;
 import models.EmailTemplate;
 import modules.OwnerEntryModule;
 import play.Logger;
-import play.inject.ApplicationLifecycle;
 import play.libs.mailer.Email;
-import play.libs.mailer.MailerClient;
+import startup.StartupTask;
 
 /**
  * 所有者アカウント登録処理です。
- * 起動時に{@link OwnerEntryModule}から実行される想定です。
+ * 起動時の処理として{@link OwnerEntryModule}から登録される想定です。
+ * パスワードのハッシュ化コストを較正した後に {@link DatabaseExecutionContext} で実行するので、起動を妨げません。
  * @author mizuo
  */
 @Singleton
-public class OwnerEntry {
+public class OwnerEntry implements StartupTask {
+
+	/** 処理名 */
+	public static final String NAME = "ownerEntry";
+
+	/** 設定ヘルパー */
+	private final ConfigHelper configHelper;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** 使用済みメールアドレスのフィルタ */
+	private final EmailAddressFilter emailAddressFilter;
+
 	/**
-	 * @param lifecycle 生存周期
 	 * @param configHelper 設定ヘルパー
-	 * @param mailerClient メールクライアント
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param emailAddressFilter 使用済みメールアドレスのフィルタ
 	 */
 	@Inject
-	private OwnerEntry(ApplicationLifecycle lifecycle, ConfigHelper configHelper, MailerClient mailerClient) {
+	private OwnerEntry(ConfigHelper configHelper, DatabaseExecutionContext dbContext, EmailAddressFilter emailAddressFilter) {
 		if (Logger.isInfoEnabled()) {
 			Logger.info("{}", getClass().getName());
-			Logger.info("ApplicationLifecycle lifecycle = {}", lifecycle);
 			Logger.info("ConfigHelper configHelper = {}", configHelper);
-			Logger.info("MailerClient mailerClient = {}", mailerClient);
 		}
-		lifecycle.addStopHook(() -> {
-			return CompletableFuture.completedFuture(null);
-		});
-		action(configHelper, mailerClient);
+		this.configHelper = configHelper;
+		this.dbContext = dbContext;
+		this.emailAddressFilter = emailAddressFilter;
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	/**
+	 * 所有者の仮パスワードを現在のコストでハッシュ化するよう、コストの較正を待ちます。
+	 */
+	@Override
+	public Set<String> dependencies() {
+		return Collections.singleton(PasswordCostCalibrator.NAME);
+	}
+
+	/**
+	 * 所有者アカウント登録処理を {@link DatabaseExecutionContext} で実行します。
+	 * 登録できなかった場合もログに出力するだけで、起動時の処理としては成功とします。
+	 */
+	@Override
+	public CompletionStage<?> run() {
+		return CompletableFuture.runAsync(() -> action(configHelper), dbContext);
 	}
 
 	/**
 	 * 所有者アカウント登録処理を実行します。
 	 * @param configHelper 設定ヘルパー
-	 * @param mailerClient メールクライアント
 	 */
-	void action(ConfigHelper configHelper, MailerClient mailerClient) {
+	void action(ConfigHelper configHelper) {
 		if (configHelper.getTemporaryCode().isPresent()) {
 			if (Logger.isInfoEnabled()) {
 				Logger.info("所有者アカウントの自動登録を開始します。");
 			}
 			final String ownerEmailAddress = configHelper.getOwnerEmailAddress();
 			final String temporaryCode = configHelper.getTemporaryCode().get();
-			final ApplicantScenario<Boolean> applicantScenario = createApplicantScenario(ownerEmailAddress, temporaryCode, mailerClient);
+			final ApplicantScenario<Boolean> applicantScenario = createApplicantScenario(ownerEmailAddress, temporaryCode);
 			if (applicantScenario.action(ownerEmailAddress, ownerEmailAddress, temporaryCode) ) {
 				if (applicantScenario.savedApplicant.isPresent()) {
-					final ActivationScenario<Boolean> activationScenario = createActivationScenario(mailerClient);
+					final ActivationScenario<Boolean> activationScenario = createActivationScenario();
 					final Applicant applicant = applicantScenario.savedApplicant.get();
 					if (activationScenario.action(ownerEmailAddress, applicant, applicant.password)) {
 						if (Logger.isWarnEnabled()) {
@@ -82,11 +116,10 @@ public class OwnerEntry {
 	 * 申込者のシナリオを作成します。
 	 * @param ownerEmailAddress 所有者メールアドレス
 	 * @param temporaryCode 仮登録コード
-	 * @param mailerClient メールクライアント
 	 * @return 申込者のシナリオ
 	 */
-	ApplicantScenario<Boolean> createApplicantScenario(String ownerEmailAddress, String temporaryCode, MailerClient mailerClient) {
-		final ApplicantScenario<Boolean> scenario = new ApplicantScenario<Boolean>() {
+	ApplicantScenario<Boolean> createApplicantScenario(String ownerEmailAddress, String temporaryCode) {
+		final ApplicantScenario<Boolean> scenario = new ApplicantScenario<Boolean>(emailAddressFilter) {
 			@Override
 			Boolean failedExist() {
 				return Boolean.FALSE;
@@ -97,10 +130,6 @@ public class OwnerEntry {
 				return email;
 			}
 			@Override
-			void send(Email email) {
-				mailerClient.send(email);
-			}
-			@Override
 			Boolean failedEmail() {
 				return Boolean.FALSE;
 			}
@@ -114,15 +143,10 @@ public class OwnerEntry {
 
 	/**
 	 * アカウント本登録のシナリオを作成します。
-	 * @param mailerClient メールクライアント
 	 * @return アカウント本登録のシナリオ
 	 */
-	ActivationScenario<Boolean> createActivationScenario(MailerClient mailerClient) {
-		return new ActivationScenario<Boolean>() {
-			@Override
-			void send(Email email) {
-				mailerClient.send(email);
-			}
+	ActivationScenario<Boolean> createActivationScenario() {
+		return new ActivationScenario<Boolean>(emailAddressFilter) {
 			@Override
 			Boolean failedEmail() {
 				return Boolean.FALSE;
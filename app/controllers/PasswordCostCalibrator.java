@@ -0,0 +1,145 @@
+package controllers;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import controllers.ControllerAuthHelpers.PasswordHelper;
+import modules.PasswordCostCalibratorModule;
+import play.Logger;
+import startup.StartupTask;
+
+/**
+ * パスワードのハッシュ化コストの較正処理です。
+ * 起動時の処理として{@link PasswordCostCalibratorModule}から登録される想定です。
+ * 実行環境で 1 回のハッシュ化が目標時間に最も近くなるコストを {@link PasswordExecutionContext} で計測し、{@link PasswordHelper} に設定します。
+ * 設定するまでは {@link PasswordHelper#DEFAULT_LOG_ROUNDS} でハッシュ化します。
+ * @author mizuo
+ */
+@Singleton
+public class PasswordCostCalibrator implements StartupTask {
+
+	/** 処理名 */
+	public static final String NAME = "passwordCostCalibrator";
+
+	/** 較正の有無の設定パス */
+	private static final String CALIBRATE_PATH = "password.bcrypt.calibrate";
+	/** 較正しない場合のコストの設定パス */
+	private static final String LOG_ROUNDS_PATH = "password.bcrypt.logRounds";
+	/** 目標時間の設定パス */
+	private static final String TARGET_LATENCY_PATH = "password.bcrypt.targetLatency";
+	/** コストの下限の設定パス */
+	private static final String MIN_LOG_ROUNDS_PATH = "password.bcrypt.minLogRounds";
+	/** コストの上限の設定パス */
+	private static final String MAX_LOG_ROUNDS_PATH = "password.bcrypt.maxLogRounds";
+	/** 計測回数の設定パス */
+	private static final String SAMPLES_PATH = "password.bcrypt.samples";
+	/** 計測用の平文パスワード */
+	private static final String SAMPLE_PLAIN = "calibration-password";
+
+	/** 設定 */
+	private final Config config;
+	/** パスワード処理の実行コンテキスト */
+	private final PasswordExecutionContext passwordContext;
+	/** 設定したコスト(未設定の場合は -1) */
+	private volatile int logRounds = -1;
+
+	/**
+	 * @param config 設定
+	 * @param passwordContext パスワード処理の実行コンテキスト
+	 */
+	@Inject
+	PasswordCostCalibrator(Config config, PasswordExecutionContext passwordContext) {
+		this.config = config;
+		this.passwordContext = passwordContext;
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	/**
+	 * 較正したコストを {@link PasswordHelper} に設定します。
+	 */
+	@Override
+	public CompletionStage<?> run() {
+		return passwordContext.supplyAsync(() -> {
+			final int calibrated;
+			if (config.getBoolean(CALIBRATE_PATH)) {
+				final long targetNanos = config.getDuration(TARGET_LATENCY_PATH, TimeUnit.NANOSECONDS);
+				final int minLogRounds = config.getInt(MIN_LOG_ROUNDS_PATH);
+				final int maxLogRounds = config.getInt(MAX_LOG_ROUNDS_PATH);
+				final int samples = config.getInt(SAMPLES_PATH);
+				calibrated = calibrate(targetNanos, minLogRounds, maxLogRounds, samples);
+			} else {
+				calibrated = config.getInt(LOG_ROUNDS_PATH);
+			}
+			PasswordHelper.setLogRounds(calibrated);
+			logRounds = calibrated;
+			if (Logger.isInfoEnabled()) {
+				Logger.info("{} logRounds = {}", getClass().getName(), calibrated);
+			}
+			return calibrated;
+		});
+	}
+
+	/**
+	 * 1 回のハッシュ化が目標時間に最も近くなるコストを計測します。
+	 * コストが 1 増えると所要時間は倍になるので、目標時間を超えた時点で計測を打ち切ります。
+	 * @param targetNanos 目標時間(ナノ秒)
+	 * @param minLogRounds コストの下限
+	 * @param maxLogRounds コストの上限
+	 * @param samples コスト毎の計測回数(最短時間を採用)
+	 * @return コスト
+	 */
+	static int calibrate(long targetNanos, int minLogRounds, int maxLogRounds, int samples) {
+		long previousNanos = -1;
+		for (int logRounds = minLogRounds; logRounds <= maxLogRounds; logRounds++) {
+			final long elapsedNanos = measure(logRounds, samples);
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} logRounds = {} -> {} ms", PasswordCostCalibrator.class.getName(), logRounds, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+			}
+			if (elapsedNanos >= targetNanos) {
+				if (previousNanos < 0) {
+					return logRounds;
+				}
+				// 目標時間との比が小さい方を採用する。
+				final double over = (double) elapsedNanos / targetNanos;
+				final double under = (double) targetNanos / previousNanos;
+				return over <= under ? logRounds : logRounds - 1;
+			}
+			previousNanos = elapsedNanos;
+		}
+		return maxLogRounds;
+	}
+
+	/**
+	 * 引数のコストでハッシュ化した所要時間を計測します。
+	 * @param logRounds コスト
+	 * @param samples 計測回数
+	 * @return 最短の所要時間(ナノ秒)
+	 */
+	private static long measure(int logRounds, int samples) {
+		long minNanos = Long.MAX_VALUE;
+		for (int i = 0; i < samples; i++) {
+			final long startNanos = System.nanoTime();
+			PasswordHelper.hash(SAMPLE_PLAIN, logRounds);
+			minNanos = Math.min(minNanos, System.nanoTime() - startNanos);
+		}
+		return minNanos;
+	}
+
+	/**
+	 * 設定したコストを返します。
+	 * @return コスト(未設定の場合は -1)
+	 */
+	public int getLogRounds() {
+		return logRounds;
+	}
+
+}
@@ -0,0 +1,151 @@
+package controllers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+/**
+ * パスワードのハッシュ化と照合を実行する専用の実行コンテキストです。
+ * BCrypt は CPU を占有するので、Play の既定のディスパッチャーとは別のスレッドプールで実行します。
+ * 待ち行列は有限で、溢れた処理は {@link RejectedExecutionException} で即座に失敗させます。
+ * @author mizuo
+ */
+@Singleton
+public class PasswordExecutionContext implements Executor {
+
+	/** スレッド数の設定パス(0 以下の場合はプロセッサ数) */
+	private static final String POOL_SIZE_PATH = "password.executor.poolSize";
+	/** 待ち行列の長さの設定パス */
+	private static final String QUEUE_SIZE_PATH = "password.executor.queueSize";
+
+	/** スレッドプール */
+	private final ThreadPoolExecutor executor;
+	/** 待ち行列が溢れて拒否した回数 */
+	private final LongAdder rejectedCount = new LongAdder();
+	/** 待ち行列で待機した時間の合計(ナノ秒) */
+	private final LongAdder waitNanos = new LongAdder();
+	/** 待ち行列で待機した時間の最大(ナノ秒) */
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param config 設定
+	 * @param lifecycle 生存周期
+	 */
+	@Inject
+	public PasswordExecutionContext(Config config, ApplicationLifecycle lifecycle) {
+		final int configPoolSize = config.getInt(POOL_SIZE_PATH);
+		final int poolSize = configPoolSize > 0 ? configPoolSize : Runtime.getRuntime().availableProcessors();
+		final int queueSize = config.getInt(QUEUE_SIZE_PATH);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} poolSize = {}, queueSize = {}", getClass().getName(), poolSize, queueSize);
+		}
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), new PasswordThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+		lifecycle.addStopHook(() -> {
+			executor.shutdown();
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * 処理を待ち行列に追加します。
+	 * 待ち行列が溢れている場合は {@link RejectedExecutionException} を送出します。
+	 */
+	@Override
+	public void execute(Runnable command) {
+		final long enqueuedNanos = System.nanoTime();
+		try {
+			executor.execute(() -> {
+				final long waited = System.nanoTime() - enqueuedNanos;
+				waitNanos.add(waited);
+				maxWaitNanos.accumulate(waited);
+				command.run();
+			});
+		} catch (RejectedExecutionException e) {
+			rejectedCount.increment();
+			if (Logger.isWarnEnabled()) {
+				Logger.warn("{} rejected: queueDepth = {}", getClass().getName(), queueDepth());
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * 処理を非同期に実行します。
+	 * 待ち行列が溢れている場合は {@link RejectedExecutionException} で失敗した結果を返します。
+	 * @param supplier 処理
+	 * @return 処理結果
+	 */
+	public <T> CompletionStage<T> supplyAsync(Supplier<T> supplier) {
+		try {
+			return CompletableFuture.supplyAsync(supplier, this);
+		} catch (RejectedExecutionException e) {
+			final CompletableFuture<T> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(e);
+			return rejected;
+		}
+	}
+
+	/** @return 待ち行列で待機している処理数 */
+	public int queueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/** @return 実行中の処理数 */
+	public int activeCount() {
+		return executor.getActiveCount();
+	}
+
+	/** @return 完了した処理数 */
+	public long completedCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	/** @return 待ち行列が溢れて拒否した回数 */
+	public long rejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	/** @return 待ち行列で待機した時間の合計(ナノ秒) */
+	public long waitNanos() {
+		return waitNanos.sum();
+	}
+
+	/** @return 待ち行列で待機した時間の最大(ナノ秒) */
+	public long maxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	/**
+	 * パスワード処理用のスレッド製造です。
+	 * @author mizuo
+	 */
+	private static class PasswordThreadFactory implements ThreadFactory {
+		/** スレッド番号 */
+		private final AtomicInteger number = new AtomicInteger();
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "password-executor-" + number.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package controllers;
+
+import java.util.Locale;
+
+/**
+ * 計測値を Prometheus のテキスト形式で書き出す補助クラスです。
+ * @author mizuo
+ */
+final class PrometheusTextWriter {
+
+	/** 出力形式 */
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/** 出力先 */
+	private final StringBuilder builder;
+
+	/**
+	 * @param capacity 出力先の初期容量
+	 */
+	PrometheusTextWriter(int capacity) {
+		this.builder = new StringBuilder(capacity);
+	}
+
+	/**
+	 * 計測値の説明と種類を書き出します。
+	 * @param name 計測値名
+	 * @param type 種類({@code counter}、{@code gauge}、{@code summary})
+	 * @param help 説明
+	 * @return this
+	 */
+	PrometheusTextWriter header(String name, String type, String help) {
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		return this;
+	}
+
+	/**
+	 * ラベルの無いカウンターを書き出します。
+	 * @param name 計測値名
+	 * @param help 説明
+	 * @param value 値
+	 * @return this
+	 */
+	PrometheusTextWriter counter(String name, String help, long value) {
+		return header(name, "counter", help).sample(name, null, value);
+	}
+
+	/**
+	 * ラベルの無いゲージを書き出します。
+	 * @param name 計測値名
+	 * @param help 説明
+	 * @param value 値
+	 * @return this
+	 */
+	PrometheusTextWriter gauge(String name, String help, long value) {
+		return header(name, "gauge", help).sample(name, null, value);
+	}
+
+	/**
+	 * 1 行書き出します。
+	 * @param name 計測値名
+	 * @param labels ラベル({@code key="value",...})。無い場合は null
+	 * @param value 値
+	 * @return this
+	 */
+	PrometheusTextWriter sample(String name, String labels, long value) {
+		name(name, labels);
+		builder.append(' ').append(value).append('\n');
+		return this;
+	}
+
+	/**
+	 * 1 行書き出します。
+	 * @param name 計測値名
+	 * @param labels ラベル({@code key="value",...})。無い場合は null
+	 * @param value 値
+	 * @return this
+	 */
+	PrometheusTextWriter sample(String name, String labels, double value) {
+		name(name, labels);
+		builder.append(' ').append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+		return this;
+	}
+
+	/**
+	 * 計測値名とラベルを書き出します。
+	 * @param name 計測値名
+	 * @param labels ラベル
+	 */
+	private void name(String name, String labels) {
+		builder.append(name);
+		if (labels != null && !labels.isEmpty()) {
+			builder.append('{').append(labels).append('}');
+		}
+	}
+
+	/**
+	 * ラベル値をエスケープします。
+	 * @param value ラベル値
+	 * @return エスケープしたラベル値
+	 */
+	static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	@Override
+	public String toString() {
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,250 @@
+package controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.mvc.Http.Context;
+import play.mvc.Http.HeaderNames;
+import play.mvc.Http.RequestHeader;
+import play.mvc.Http.Status;
+import play.mvc.Result;
+import play.mvc.Results;
+import play.twirl.api.Html;
+
+/**
+ * 利用者によらず同じ内容になるページの描画結果のキャッシュです。
+ * 初回のリクエストで Twirl のテンプレートを描画し、バイト列と gzip で圧縮したバイト列を言語毎に保持します。
+ * 以降は描画せずに保持したバイト列を強い ETag 付きで返し、{@code If-None-Match} が一致する場合は 304 で応答します。
+ * CSRF トークンを埋め込むページはリクエスト毎に内容が変わるので対象にできません。
+ * 描画結果に CSRF トークンの項目が含まれる場合は保持せず、そのまま返します。
+ * @author mizuo
+ */
+@Singleton
+public class StaticPageCache {
+
+	/** CSRF トークンの項目名の設定パス */
+	private static final String CSRF_TOKEN_NAME_PATH = "play.filters.csrf.token.name";
+	/** HTML の Content-Type */
+	private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+	/** gzip の符号化名 */
+	private static final String GZIP = "gzip";
+	/** 再検証を要求する Cache-Control */
+	private static final String NO_CACHE = "no-cache";
+
+	/** CSRF トークンの項目 */
+	private final String csrfField;
+	/** ページ名と言語毎の描画結果 */
+	private final ConcurrentMap<String, StaticPage> pages = new ConcurrentHashMap<>();
+
+	/**
+	 * @param config 設定
+	 */
+	@Inject
+	public StaticPageCache(Config config) {
+		this.csrfField = "name=\"" + config.getString(CSRF_TOKEN_NAME_PATH) + "\"";
+	}
+
+	/**
+	 * 描画結果を返します。
+	 * 初回はテンプレートを描画して保持します。
+	 * 描画には現在のHTTPコンテキストの言語を使うので、HTTPコンテキストを引き継いだスレッドから呼び出してください。
+	 * @param name ページ名
+	 * @param status 応答ステータス
+	 * @param template テンプレートの描画
+	 * @return 応答
+	 */
+	public Result render(String name, int status, Supplier<Html> template) {
+		final Context ctx = Context.current();
+		final String key = name + ":" + ctx.lang().code();
+		StaticPage page = pages.get(key);
+		if (page == null) {
+			final Html html = template.get();
+			if (html.body().contains(csrfField)) {
+				if (Logger.isWarnEnabled()) {
+					Logger.warn("{} {} contains a CSRF token and is not cached.", getClass().getName(), name);
+				}
+				return Results.status(status, html);
+			}
+			page = pages.computeIfAbsent(key, k -> StaticPage.of(html.body().getBytes(StandardCharsets.UTF_8)));
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} cached {}: {} bytes, {} bytes gzipped", getClass().getName(), key, page.identity.length, page.gzipped.length);
+			}
+		}
+		return page.toResult(status, ctx.request());
+	}
+
+	/**
+	 * 描画結果を保持しているページ数を返します。
+	 * @return ページ数(言語毎)
+	 */
+	public int size() {
+		return pages.size();
+	}
+
+	/**
+	 * {@code Accept-Encoding} が gzip を受け付けるかを判定します。
+	 * @param acceptEncoding {@code Accept-Encoding} ヘッダー
+	 * @return 受け付ける場合 true
+	 */
+	static boolean acceptsGzip(Optional<String> acceptEncoding) {
+		if (!acceptEncoding.isPresent()) {
+			return false;
+		}
+		for (String coding : acceptEncoding.get().split(",")) {
+			final String[] parameters = coding.split(";");
+			final String name = parameters[0].trim();
+			if (name.equalsIgnoreCase(GZIP) || name.equals("*")) {
+				for (int i = 1; i < parameters.length; i++) {
+					final String parameter = parameters[i].trim();
+					if (parameter.startsWith("q=") && !isPositive(parameter.substring(2))) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 品質値が正かを判定します。
+	 * @param quality 品質値
+	 * @return 正の場合 true。解析できない場合は false
+	 */
+	private static boolean isPositive(String quality) {
+		try {
+			return Double.parseDouble(quality) > 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * {@code If-None-Match} が ETag に一致するかを判定します。
+	 * 弱い比較なので {@code W/} の接頭辞は無視します。
+	 * @param ifNoneMatch {@code If-None-Match} ヘッダー
+	 * @param etag ETag
+	 * @return 一致する場合 true
+	 */
+	static boolean matches(Optional<String> ifNoneMatch, String etag) {
+		if (!ifNoneMatch.isPresent()) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.get().split(",")) {
+			final String trimmed = tag.trim();
+			if (trimmed.equals("*")) {
+				return true;
+			}
+			final String opaque = trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed;
+			if (opaque.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 描画済みのページです。
+	 * 圧縮の有無で表現が異なるので、それぞれに別の強い ETag を付けます。
+	 * @author mizuo
+	 */
+	static final class StaticPage {
+		/** 描画結果 */
+		final byte[] identity;
+		/** gzip で圧縮した描画結果 */
+		final byte[] gzipped;
+		/** 描画結果の ETag */
+		final String identityEtag;
+		/** gzip で圧縮した描画結果の ETag */
+		final String gzippedEtag;
+
+		private StaticPage(byte[] identity, byte[] gzipped, String digest) {
+			this.identity = identity;
+			this.gzipped = gzipped;
+			this.identityEtag = "\"" + digest + "\"";
+			this.gzippedEtag = "\"" + digest + "-" + GZIP + "\"";
+		}
+
+		/**
+		 * 描画結果を圧縮して ETag を求めます。
+		 * @param identity 描画結果
+		 * @return 描画済みのページ
+		 */
+		static StaticPage of(byte[] identity) {
+			return new StaticPage(identity, gzip(identity), digest(identity));
+		}
+
+		/**
+		 * 応答を生成します。
+		 * 200 の場合だけ {@code If-None-Match} を判定し、一致すれば本文の無い 304 で応答します。
+		 * @param status 応答ステータス
+		 * @param request リクエストヘッダー
+		 * @return 応答
+		 */
+		Result toResult(int status, RequestHeader request) {
+			final boolean gzip = acceptsGzip(request.header(HeaderNames.ACCEPT_ENCODING));
+			final String etag = gzip ? gzippedEtag : identityEtag;
+			if (status == Status.OK && matches(request.header(HeaderNames.IF_NONE_MATCH), etag)) {
+				return Results.status(Status.NOT_MODIFIED)
+						.withHeader(HeaderNames.ETAG, etag)
+						.withHeader(HeaderNames.VARY, HeaderNames.ACCEPT_ENCODING);
+			}
+			Result result = Results.status(status, gzip ? gzipped : identity).as(CONTENT_TYPE)
+					.withHeader(HeaderNames.VARY, HeaderNames.ACCEPT_ENCODING);
+			if (gzip) {
+				result = result.withHeader(HeaderNames.CONTENT_ENCODING, GZIP);
+			}
+			if (status == Status.OK) {
+				result = result.withHeader(HeaderNames.ETAG, etag).withHeader(HeaderNames.CACHE_CONTROL, NO_CACHE);
+			}
+			return result;
+		}
+
+		/**
+		 * gzip で圧縮します。
+		 * @param bytes バイト列
+		 * @return 圧縮したバイト列
+		 */
+		private static byte[] gzip(byte[] bytes) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 32);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+				gzip.write(bytes);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out.toByteArray();
+		}
+
+		/**
+		 * 内容のダイジェストを求めます。
+		 * @param bytes バイト列
+		 * @return SHA-256 の先頭 128 ビットの Base64URL 表現
+		 */
+		private static String digest(byte[] bytes) {
+			try {
+				final byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+				return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, 16));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+}
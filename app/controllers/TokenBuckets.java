@@ -0,0 +1,124 @@
+package controllers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * キー毎のトークンバケットです。
+ * バケットは次のトークンが満杯に戻る理論上の時刻(GCRA の TAT)を 1 つの long で表します。
+ * キーはハッシュ値でストライプに振り分け、ストライプ毎にロックを取ります。
+ * ストライプはアクセス順の {@link LinkedHashMap} で、保持件数の上限を超えたら最も長くアクセスの無いバケットを
+ * 定数時間で破棄します。長くアクセスの無いバケットはほぼ満杯に戻っているので、破棄しても結果はほとんど変わりません。
+ * @author mizuo
+ */
+final class TokenBuckets {
+
+	/** 満杯時のトークン数 */
+	private final int capacity;
+	/** トークン 1 個が補充される間隔(ナノ秒) */
+	private final long refillNanos;
+	/** 時刻(ナノ秒) */
+	private final LongSupplier clock;
+	/** ストライプ */
+	private final Stripe[] stripes;
+	/** 保持件数の上限に達して破棄した件数 */
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * @param capacity 満杯時のトークン数
+	 * @param refillNanos トークン 1 個が補充される間隔(ナノ秒)
+	 * @param stripeCount ストライプ数
+	 * @param maxKeysPerStripe ストライプ毎の保持件数の上限
+	 * @param clock 時刻(ナノ秒)
+	 */
+	TokenBuckets(int capacity, long refillNanos, int stripeCount, int maxKeysPerStripe, LongSupplier clock) {
+		this.capacity = capacity;
+		this.refillNanos = refillNanos;
+		this.clock = clock;
+		this.stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe(maxKeysPerStripe, evictionCount);
+		}
+	}
+
+	/**
+	 * キーのバケットからトークンを 1 個取り出します。
+	 * バケットが無い場合は満杯のバケットを追加します。
+	 * @param key キー
+	 * @return 取り出せた場合は 0、取り出せない場合は次のトークンが補充されるまでの時間(ナノ秒)
+	 */
+	long tryAcquire(String key) {
+		final long now = clock.getAsLong();
+		// TAT が now + (capacity - 1) * refillNanos を超えない範囲でトークンを取り出せる。
+		final long burstNanos = (capacity - 1) * refillNanos;
+		final Stripe stripe = stripes[stripeIndex(key)];
+		synchronized (stripe) {
+			final Long tat = stripe.get(key);
+			final long base = tat == null || tat - now < 0 ? now : tat;
+			final long wait = base - now - burstNanos;
+			if (wait > 0) {
+				return wait;
+			}
+			stripe.put(key, base + refillNanos);
+			return 0;
+		}
+	}
+
+	/**
+	 * キーのストライプ番号を求めます。
+	 * @param key キー
+	 * @return ストライプ番号
+	 */
+	private int stripeIndex(String key) {
+		final int hash = key.hashCode();
+		return ((hash ^ (hash >>> 16)) & 0x7fffffff) % stripes.length;
+	}
+
+	/**
+	 * 保持件数を返します。
+	 * @return 保持件数
+	 */
+	int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/** @return 保持件数の上限に達して破棄した件数 */
+	long evictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * キー毎の TAT(ナノ秒)をアクセス順に保持するストライプです。
+	 * 操作はストライプのロックを取って行います。
+	 * @author mizuo
+	 */
+	private static final class Stripe extends LinkedHashMap<String, Long> {
+		private static final long serialVersionUID = 1L;
+		/** 保持件数の上限 */
+		private final int maxKeys;
+		/** 破棄した件数 */
+		private final transient LongAdder evictionCount;
+		Stripe(int maxKeys, LongAdder evictionCount) {
+			super(16, 0.75f, true);
+			this.maxKeys = maxKeys;
+			this.evictionCount = evictionCount;
+		}
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			if (size() > maxKeys) {
+				evictionCount.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,466 @@
+package controllers;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import auth.AccountSessionCache;
+import auth.AuthenticationAction;
+import auth.AuthenticationActionCreator;
+import auth.SessionStore;
+import auth.UsernameHelpers.UsernameSession;
+import controllers.ActivationController.ActivationParameter;
+import controllers.ControllerAuthHelpers.PasswordHelper;
+import controllers.ControllerAuthHelpers.TemporaryPasswordHelper;
+import controllers.ControllerHelpers.ConfigHelper;
+import models.Account;
+import models.Applicant;
+import models.DatabaseExecutionContext;
+import models.EmailAddressFilter;
+import models.EmailTemplate;
+import models.Individual;
+import modules.WarmUpModule;
+import play.Logger;
+import play.core.j.JavaContextComponents;
+import play.data.FormFactory;
+import play.inject.ApplicationLifecycle;
+import play.libs.concurrent.HttpExecutionContext;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Http.Context;
+import play.mvc.Result;
+import play.mvc.Results;
+import startup.StartupTask;
+
+/**
+ * JIT のウォームアップ処理です。
+ * 起動時の処理として{@link WarmUpModule}から登録される想定です。
+ * 使い捨てのアカウントを登録し、ログイン、認証アクション、本登録の検証、本登録完了メールの描画を
+ * プロセス内の模擬リクエストで設定の回数か時間に達するまで繰り返した後、使い捨てのデータを削除します。
+ * 必須の起動時の処理なので、終わるまで {@code /health/ready} は準備完了になりません。
+ * アプリケーションの停止時は次の繰り返しを開始せず、使い捨てのデータを削除してから停止します。
+ * ウォームアップは応答時間を改善するだけなので、途中で失敗してもログに出力して終了します。
+ * @author mizuo
+ */
+@Singleton
+public class WarmUp implements StartupTask {
+
+	/** 処理名 */
+	public static final String NAME = "warmUp";
+
+	/** 有効無効の設定パス */
+	private static final String ENABLED_PATH = "warmUp.enabled";
+	/** 繰り返し回数の上限の設定パス */
+	private static final String ITERATIONS_PATH = "warmUp.iterations";
+	/** 繰り返し時間の上限の設定パス */
+	private static final String DURATION_PATH = "warmUp.duration";
+	/** 既定の制限時間の設定パス */
+	private static final String STARTUP_TIMEOUT_PATH = "startup.timeout";
+	/** 模擬リクエストの接続元IPアドレス */
+	private static final String REMOTE_ADDRESS = "127.0.0.1";
+	/** 使い捨てのアカウントの仮登録コード */
+	private static final String TEMPORARY_CODE = "warmup";
+	/** 認証アクションを経由するアクションメソッド */
+	private static final Method INDEX_METHOD = indexMethod();
+
+	/** 有効な場合 true */
+	private final boolean enabled;
+	/** 繰り返し回数の上限 */
+	private final int iterations;
+	/** 繰り返し時間の上限(ナノ秒) */
+	private final long durationNanos;
+	/** 制限時間 */
+	private final Duration timeout;
+	/** 設定ヘルパー */
+	private final ConfigHelper configHelper;
+	/** DBアクセスの実行コンテキスト */
+	private final DatabaseExecutionContext dbContext;
+	/** パスワード処理の実行コンテキスト */
+	private final PasswordExecutionContext passwordContext;
+	/** HTTPコンテキストの構成要素 */
+	private final JavaContextComponents contextComponents;
+	/** 認証アクション生成 */
+	private final AuthenticationActionCreator actionCreator;
+	/** 認証アクションの製造 */
+	private final Provider<AuthenticationAction> authenticationActionProvider;
+	/** 検証済みアカウントセッションのキャッシュ */
+	private final AccountSessionCache sessionCache;
+	/** アカウントセッションの保存先 */
+	private final SessionStore sessionStore;
+	/** ウォームアップ専用のログインコントローラー */
+	private final LoginController loginController;
+	/** ウォームアップ専用のアカウント本登録コントローラー */
+	private final ActivationController activationController;
+
+	/** 完了した繰り返し回数 */
+	private volatile int completedIterations;
+	/** 中断された場合 true */
+	private volatile boolean cancelled;
+	/** 実行中の処理結果(使い捨てのデータを削除すると完了する) */
+	private volatile CompletableFuture<?> running = CompletableFuture.completedFuture(null);
+
+	/**
+	 * ログインと本登録のコントローラーは、計数と試行回数の制限を本番と共有しないようウォームアップ専用に生成します。
+	 * ウォームアップ専用の制限器は 1 ナノ秒毎に回復するので、実質的に制限しません。
+	 * 使用済みメールアドレスのフィルタも、使い捨てのメールアドレスを本番のフィルタに残さないようウォームアップ専用とし、
+	 * 読込完了にしないので常にDBで判定します。
+	 * @param config 設定
+	 * @param lifecycle 生存周期
+	 * @param configHelper 設定ヘルパー
+	 * @param formFactory フォーム製造
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param passwordContext パスワード処理の実行コンテキスト
+	 * @param httpContext HTTPコンテキストを引き継ぐ実行コンテキスト
+	 * @param contextComponents HTTPコンテキストの構成要素
+	 * @param actionCreator 認証アクション生成
+	 * @param authenticationActionProvider 認証アクションの製造
+	 * @param sessionCache 検証済みアカウントセッションのキャッシュ
+	 * @param sessionStore アカウントセッションの保存先
+	 */
+	@Inject
+	WarmUp(Config config, ApplicationLifecycle lifecycle, ConfigHelper configHelper, FormFactory formFactory, DatabaseExecutionContext dbContext,
+			PasswordExecutionContext passwordContext, HttpExecutionContext httpContext, JavaContextComponents contextComponents,
+			AuthenticationActionCreator actionCreator, Provider<AuthenticationAction> authenticationActionProvider,
+			AccountSessionCache sessionCache, SessionStore sessionStore) {
+		this.enabled = config.getBoolean(ENABLED_PATH);
+		this.iterations = config.getInt(ITERATIONS_PATH);
+		this.durationNanos = config.getDuration(DURATION_PATH, TimeUnit.NANOSECONDS);
+		this.timeout = config.getDuration(STARTUP_TIMEOUT_PATH).plusNanos(durationNanos);
+		this.configHelper = configHelper;
+		this.dbContext = dbContext;
+		this.passwordContext = passwordContext;
+		this.contextComponents = contextComponents;
+		this.actionCreator = actionCreator;
+		this.authenticationActionProvider = authenticationActionProvider;
+		this.sessionCache = sessionCache;
+		this.sessionStore = sessionStore;
+		final AttemptRateLimiter rateLimiter = new AttemptRateLimiter(new TokenBuckets(1, 1, 1, 1, System::nanoTime),
+				new TokenBuckets(1, 1, 1, 1, System::nanoTime));
+		this.loginController = new LoginController(formFactory, dbContext, passwordContext, httpContext, new LoginMetrics(), rateLimiter, sessionStore);
+		this.activationController = new ActivationController(configHelper, formFactory, dbContext, passwordContext, httpContext, rateLimiter,
+				new EmailAddressFilter(1, 0.5));
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} enabled = {}, iterations = {}, duration = {}", getClass().getName(), enabled, iterations, config.getString(DURATION_PATH));
+		}
+		lifecycle.addStopHook(() -> {
+			cancel();
+			return running.handle((result, e) -> null);
+		});
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	/**
+	 * 本番と同じコストで BCrypt を実行するよう、コストの較正を待ちます。
+	 */
+	@Override
+	public Set<String> dependencies() {
+		return Collections.singleton(PasswordCostCalibrator.NAME);
+	}
+
+	/**
+	 * 繰り返し時間の上限に {@code startup.timeout} を加えた時間です。
+	 */
+	@Override
+	public Optional<Duration> timeout() {
+		return Optional.of(timeout);
+	}
+
+	/**
+	 * 使い捨てのアカウントを登録してウォームアップを繰り返し、最後に使い捨てのデータを削除します。
+	 */
+	@Override
+	public CompletionStage<?> run() {
+		if (!enabled) {
+			if (Logger.isInfoEnabled()) {
+				Logger.info("{} is disabled.", getClass().getName());
+			}
+			return CompletableFuture.completedFuture(null);
+		}
+		final long startNanos = System.nanoTime();
+		final long deadlineNanos = startNanos + durationNanos;
+		final CompletableFuture<Object> warmUp = passwordContext.supplyAsync(Throwaway::create)
+				.thenApplyAsync(Throwaway::save, dbContext)
+				.thenCompose(throwaway -> iterate(throwaway, deadlineNanos)
+						.exceptionally(e -> {
+							if (Logger.isWarnEnabled()) {
+								Logger.warn(getClass().getName() + " stopped after " + completedIterations + " iterations.", e);
+							}
+							return null;
+						})
+						.thenRunAsync(() -> throwaway.delete(sessionCache, sessionStore), dbContext))
+				.handle((result, e) -> {
+					final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+					if (e != null) {
+						if (Logger.isWarnEnabled()) {
+							Logger.warn(getClass().getName() + " failed in " + elapsedMillis + " ms.", e);
+						}
+					} else if (Logger.isInfoEnabled()) {
+						Logger.info("{} {} iterations in {} ms", getClass().getName(), completedIterations, elapsedMillis);
+					}
+					return null;
+				}).toCompletableFuture();
+		running = warmUp;
+		// 制限時間切れで取り消されても、停止時は使い捨てのデータの削除まで待てるよう別の結果を返す。
+		return warmUp.thenApply(result -> result);
+	}
+
+	/**
+	 * 次の繰り返しを開始せずに、使い捨てのデータを削除して終了します。
+	 */
+	@Override
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * 完了した繰り返し回数を返します。
+	 * @return 繰り返し回数
+	 */
+	public int completedIterations() {
+		return completedIterations;
+	}
+
+	/**
+	 * 繰り返し回数か時間の上限に達するか中断されるまで、前回が完了してから次を開始します。
+	 * @param throwaway 使い捨てのデータ
+	 * @param deadlineNanos 繰り返しを終える時刻({@link System#nanoTime()})
+	 * @return 処理結果
+	 */
+	private CompletionStage<Void> iterate(Throwaway throwaway, long deadlineNanos) {
+		if (cancelled || completedIterations >= iterations || System.nanoTime() - deadlineNanos >= 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return iteration(throwaway).thenCompose(result -> {
+			completedIterations++;
+			return iterate(throwaway, deadlineNanos);
+		});
+	}
+
+	/**
+	 * 1 回分のウォームアップを行います。
+	 * @param throwaway 使い捨てのデータ
+	 * @return 処理結果
+	 */
+	private CompletionStage<Void> iteration(Throwaway throwaway) {
+		return login(throwaway.account.loginId, throwaway.plainPassword)
+				.thenCompose(username -> {
+					username.ifPresent(throwaway.usernames::add);
+					return authenticate(username);
+				})
+				.thenCompose(result -> login(throwaway.account.loginId, throwaway.plainTemporary))
+				.thenCompose(username -> activate(throwaway))
+				.thenCompose(result -> passwordContext.supplyAsync(() -> throwaway.activationParameter().authenticate(Optional.of(throwaway.applicant))))
+				.thenAcceptAsync(hashedPassword -> EmailTemplate.createActivation(configHelper.getOwnerEmailAddress(), throwaway.applicant.emailAddress), dbContext);
+	}
+
+	/**
+	 * ログインの POST を模擬します。
+	 * @param loginId ログインID
+	 * @param password パスワード(平文)
+	 * @return 認証できた場合は利用者名(セッションUUID)
+	 */
+	private CompletionStage<Optional<String>> login(String loginId, String password) {
+		final Map<String, String> form = new HashMap<>();
+		form.put("loginId", loginId);
+		form.put("password", password);
+		final Context ctx = context(new Http.RequestBuilder().method("POST").uri(routes.LoginController.post().url()).bodyForm(form));
+		return invoke(ctx, loginController::post).thenApply(result -> new UsernameSession(ctx.session()).get());
+	}
+
+	/**
+	 * 認証済みの GET を模擬します。
+	 * 認証アクション生成が解決した方針のアクションと、セッションを検証する認証アクションを順に実行します。
+	 * @param username 利用者名(セッションUUID)
+	 * @return 処理結果
+	 */
+	private CompletionStage<Result> authenticate(Optional<String> username) {
+		final Context ctx = context(new Http.RequestBuilder().method("GET").uri(routes.HomeController.index().url()));
+		username.ifPresent(new UsernameSession(ctx.session())::set);
+		final Action<Void> action = actionCreator.createAction(ctx.request(), INDEX_METHOD);
+		action.delegate = new Ok();
+		final AuthenticationAction authenticationAction = authenticationActionProvider.get();
+		authenticationAction.delegate = new Ok();
+		return invoke(ctx, () -> action.call(ctx)).thenCompose(result -> invoke(ctx, () -> authenticationAction.call(ctx)));
+	}
+
+	/**
+	 * アカウント本登録の POST を模擬します。
+	 * 使い捨てのアカウントのメールアドレスは使用済みなので、検証で拒否されます。
+	 * @param throwaway 使い捨てのデータ
+	 * @return 処理結果
+	 */
+	private CompletionStage<Result> activate(Throwaway throwaway) {
+		final ActivationParameter parameter = throwaway.activationParameter();
+		final Map<String, String> form = new HashMap<>();
+		form.put("emailAddress", parameter.emailAddress);
+		form.put("temporaryCode", parameter.temporaryCode);
+		form.put("temporaryPassword", parameter.temporaryPassword);
+		form.put("password", parameter.password);
+		final Context ctx = context(new Http.RequestBuilder().method("POST").uri(routes.ActivationController.post().url()).bodyForm(form));
+		return invoke(ctx, activationController::post);
+	}
+
+	/**
+	 * 模擬リクエストのHTTPコンテキストを生成します。
+	 * @param builder リクエストの生成
+	 * @return HTTPコンテキスト
+	 */
+	private Context context(Http.RequestBuilder builder) {
+		return new Context(builder.remoteAddress(REMOTE_ADDRESS), contextComponents);
+	}
+
+	/**
+	 * HTTPコンテキストを現在のスレッドに設定してアクションを呼び出します。
+	 * 同期部分で発生した例外は失敗した処理結果として返します。
+	 * @param ctx HTTPコンテキスト
+	 * @param action アクション
+	 * @return 処理結果
+	 */
+	private static CompletionStage<Result> invoke(Context ctx, Supplier<CompletionStage<Result>> action) {
+		final Context previous = Context.current.get();
+		Context.current.set(ctx);
+		try {
+			return action.get();
+		} catch (RuntimeException e) {
+			final CompletableFuture<Result> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		} finally {
+			Context.current.set(previous);
+		}
+	}
+
+	/**
+	 * 認証アクションを経由するアクションメソッドを取得します。
+	 * @return {@link HomeController#index()}
+	 */
+	private static Method indexMethod() {
+		try {
+			return HomeController.class.getMethod("index");
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 後続の処理として常に 200 を返すアクションです。
+	 * @author mizuo
+	 */
+	private static final class Ok extends Action.Simple {
+		@Override
+		public CompletionStage<Result> call(Context ctx) {
+			return CompletableFuture.completedFuture(Results.ok());
+		}
+	}
+
+	/**
+	 * 使い捨てのデータです。
+	 * 申込者は登録せずに保持し、個人とアカウントだけ登録します。
+	 * @author mizuo
+	 */
+	static final class Throwaway {
+		/** 申込者(未登録) */
+		final Applicant applicant = new Applicant();
+		/** 仮パスワード */
+		final String plainTemporary;
+		/** パスワード(平文) */
+		final String plainPassword = UUID.randomUUID().toString();
+		/** ハッシュ化したパスワード */
+		final String hashedPassword;
+		/** 個人 */
+		Individual individual;
+		/** アカウント */
+		Account account;
+		/** ログインで発行された利用者名(セッションUUID) */
+		final List<String> usernames = Collections.synchronizedList(new ArrayList<>());
+
+		private Throwaway() {
+			applicant.emailAddress = "warmup-" + UUID.randomUUID() + "@warmup.invalid";
+			applicant.appliedAt = new Date();
+			final TemporaryPasswordHelper temporaryPasswordHelper = new TemporaryPasswordHelper();
+			applicant.password = temporaryPasswordHelper.hash(TEMPORARY_CODE);
+			plainTemporary = temporaryPasswordHelper.plainTemporary;
+			hashedPassword = PasswordHelper.hash(plainPassword);
+		}
+
+		/**
+		 * パスワードをハッシュ化して使い捨てのデータを生成します。
+		 * BCrypt でハッシュ化するので {@link PasswordExecutionContext} から呼び出してください。
+		 * @return 使い捨てのデータ
+		 */
+		static Throwaway create() {
+			return new Throwaway();
+		}
+
+		/**
+		 * 個人とアカウントを登録します。
+		 * DBを更新するので {@link DatabaseExecutionContext} から呼び出してください。
+		 * @return 使い捨てのデータ
+		 */
+		Throwaway save() {
+			individual = ActivationController.toIndividual(applicant);
+			individual.save();
+			account = ActivationController.toAccount(applicant, hashedPassword);
+			account.individualId = individual.id;
+			account.save();
+			return this;
+		}
+
+		/**
+		 * 本登録の変数群を生成します。
+		 * @return 本登録の変数群
+		 */
+		ActivationParameter activationParameter() {
+			final ActivationParameter parameter = new ActivationParameter();
+			parameter.emailAddress = applicant.emailAddress;
+			parameter.temporaryCode = TEMPORARY_CODE;
+			parameter.temporaryPassword = plainTemporary;
+			parameter.password = plainPassword;
+			return parameter;
+		}
+
+		/**
+		 * ログインで発行されたアカウントセッションと、個人とアカウントを削除します。
+		 * DBを更新するので {@link DatabaseExecutionContext} から呼び出してください。
+		 * @param sessionCache 検証済みアカウントセッションのキャッシュ
+		 * @param sessionStore アカウントセッションの保存先
+		 */
+		void delete(AccountSessionCache sessionCache, SessionStore sessionStore) {
+			int sessions = 0;
+			for (String username : usernames) {
+				sessionCache.invalidate(username);
+				if (sessionStore.delete(UUID.fromString(username))) {
+					sessions++;
+				}
+			}
+			account.delete();
+			individual.delete();
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} deleted {} and {} sessions", WarmUp.class.getName(), applicant.emailAddress, sessions);
+			}
+		}
+	}
+
+}
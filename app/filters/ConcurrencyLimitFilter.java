@@ -0,0 +1,117 @@
+package filters;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import com.typesafe.config.Config;
+
+import filters.ConcurrencyLimiter.Priority;
+import play.Logger;
+import play.libs.streams.Accumulator;
+import play.mvc.EssentialAction;
+import play.mvc.EssentialFilter;
+import play.mvc.Http.HeaderNames;
+import play.mvc.Http.RequestHeader;
+import play.mvc.Http.Status;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * 同時処理数制限フィルターです。
+ * ルート毎に優先度を決め、{@link ConcurrencyLimiter} の上限を超えるリクエストは
+ * HTTP ステータスコード 503 SERVICE UNAVAILABLE と {@code Retry-After} ヘッダーで即座に応答します。
+ * 優先度は {@link ResponseTimeFilter#routeOf(RequestHeader)} と同じくルーターのハンドラー定義のルートで決めます。
+ * ログインや本登録など重いルートは低優先度として先に拒否するので、混雑時も画面表示や静的資源は応答を続けます。
+ * @author mizuo
+ */
+public class ConcurrencyLimitFilter extends EssentialFilter {
+
+	/** 有効無効の設定パス */
+	private static final String ENABLED_PATH = "concurrencyLimit.enabled";
+	/** 制限の対象外とするルートの設定パス */
+	private static final String EXEMPT_ROUTES_PATH = "concurrencyLimit.exemptRoutes";
+	/** 低優先度とするルートの設定パス */
+	private static final String LOW_PRIORITY_ROUTES_PATH = "concurrencyLimit.lowPriorityRoutes";
+	/** 再試行までの待機時間の設定パス */
+	private static final String RETRY_AFTER_PATH = "concurrencyLimit.retryAfter";
+
+	private final Executor executor;
+	/** 同時処理数の制限器 */
+	private final ConcurrencyLimiter limiter;
+	/** 制限する場合 true */
+	private final boolean enabled;
+	/** 制限の対象外とするルート */
+	private final Set<String> exemptRoutes;
+	/** 低優先度とするルート */
+	private final Set<String> lowPriorityRoutes;
+	/** 再試行までの待機時間(秒) */
+	private final String retryAfterSeconds;
+
+	@Inject
+	public ConcurrencyLimitFilter(Executor executor, ConcurrencyLimiter limiter, Config config) {
+		this.executor = executor;
+		this.limiter = limiter;
+		this.enabled = config.getBoolean(ENABLED_PATH);
+		this.exemptRoutes = new HashSet<>(config.getStringList(EXEMPT_ROUTES_PATH));
+		this.lowPriorityRoutes = new HashSet<>(config.getStringList(LOW_PRIORITY_ROUTES_PATH));
+		this.retryAfterSeconds = String.valueOf(Math.max(1, config.getDuration(RETRY_AFTER_PATH, TimeUnit.SECONDS)));
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} enabled = {}, exemptRoutes = {}, lowPriorityRoutes = {}", getClass().getName(), enabled, exemptRoutes, lowPriorityRoutes);
+		}
+	}
+
+	/**
+	 * 上限内のリクエストだけを処理し、完了時の応答時間を制限器に記録します。
+	 */
+	@Override
+	public EssentialAction apply(EssentialAction next) {
+		if (!enabled) {
+			return next;
+		}
+		return EssentialAction.of(requestHeader -> {
+			final String route = ResponseTimeFilter.routeOf(requestHeader);
+			final Priority priority = priorityOf(route);
+			if (!limiter.tryAcquire(priority)) {
+				if (Logger.isDebugEnabled()) {
+					Logger.debug("{} rejected: {} {}; priority = {}, limit = {}", getClass().getName(),
+							requestHeader.method(), requestHeader.uri(), priority, limiter.limit());
+				}
+				return Accumulator.done(Results.status(Status.SERVICE_UNAVAILABLE).withHeader(HeaderNames.RETRY_AFTER, retryAfterSeconds));
+			}
+			if (priority == Priority.EXEMPT) {
+				return next.apply(requestHeader);
+			}
+			final long startNanos = System.nanoTime();
+			return next.apply(requestHeader).map(result -> {
+				limiter.release(route, System.nanoTime() - startNanos, result.status() >= Status.INTERNAL_SERVER_ERROR);
+				return result;
+			}, executor).recoverWith(e -> {
+				limiter.release(route, System.nanoTime() - startNanos, true);
+				final CompletableFuture<Result> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				return failed;
+			}, executor);
+		});
+	}
+
+	/**
+	 * ルートから優先度を決めます。
+	 * @param route ルート(例: {@code POST /login.html})
+	 * @return 優先度
+	 */
+	Priority priorityOf(String route) {
+		if (exemptRoutes.contains(route)) {
+			return Priority.EXEMPT;
+		}
+		if (lowPriorityRoutes.contains(route)) {
+			return Priority.LOW;
+		}
+		return Priority.HIGH;
+	}
+
+}
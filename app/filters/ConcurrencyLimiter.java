@@ -0,0 +1,283 @@
+package filters;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.Logger;
+
+/**
+ * 応答時間から同時処理数の上限を自動調整する制限器です。
+ * 上限は AIMD で調整します。ルート毎の平常時の応答時間(直近の区間の最小値)に対して
+ * 応答時間が {@code tolerance} 倍を超えた、または 5xx で応答した場合は上限を {@code backoffRatio} 倍に減らし、
+ * それ以外で上限の半分以上を処理中の場合は上限を 1 増やします。
+ * 減らす前に受け付けたリクエストの遅い応答で続けて減らさないよう、減らすのは {@code sampleWindow} 毎に高々 1 回です。
+ * 低優先度のリクエストは上限の {@code lowPriorityShare} の割合までしか受け付けないので、
+ * 混雑時は低優先度から先に拒否されます。
+ * @author mizuo
+ */
+@Singleton
+public class ConcurrencyLimiter {
+
+	/** 上限の初期値の設定パス */
+	private static final String INITIAL_LIMIT_PATH = "concurrencyLimit.initialLimit";
+	/** 上限の最小値の設定パス */
+	private static final String MIN_LIMIT_PATH = "concurrencyLimit.minLimit";
+	/** 上限の最大値の設定パス */
+	private static final String MAX_LIMIT_PATH = "concurrencyLimit.maxLimit";
+	/** 混雑時に上限に掛ける比率の設定パス */
+	private static final String BACKOFF_RATIO_PATH = "concurrencyLimit.backoffRatio";
+	/** 平常時の応答時間に対して混雑とみなす倍率の設定パス */
+	private static final String TOLERANCE_PATH = "concurrencyLimit.tolerance";
+	/** 混雑とみなす応答時間の下限の設定パス */
+	private static final String LATENCY_FLOOR_PATH = "concurrencyLimit.latencyFloor";
+	/** 平常時の応答時間を求める区間のリクエスト数の設定パス */
+	private static final String BASELINE_WINDOW_PATH = "concurrencyLimit.baselineWindow";
+	/** 低優先度のリクエストに割り当てる上限の割合の設定パス */
+	private static final String LOW_PRIORITY_SHARE_PATH = "concurrencyLimit.lowPriorityShare";
+	/** 上限を減らす間隔の設定パス */
+	private static final String SAMPLE_WINDOW_PATH = "concurrencyLimit.sampleWindow";
+
+	/** 上限の最小値 */
+	private final int minLimit;
+	/** 上限の最大値 */
+	private final int maxLimit;
+	/** 混雑時に上限に掛ける比率 */
+	private final double backoffRatio;
+	/** 平常時の応答時間に対して混雑とみなす倍率 */
+	private final double tolerance;
+	/** 混雑とみなす応答時間の下限(ナノ秒) */
+	private final long latencyFloorNanos;
+	/** 平常時の応答時間を求める区間のリクエスト数 */
+	private final int baselineWindow;
+	/** 低優先度のリクエストに割り当てる上限の割合 */
+	private final double lowPriorityShare;
+	/** 上限を減らす間隔(ナノ秒) */
+	private final long sampleWindowNanos;
+	/** 現在時刻(ナノ秒) */
+	private final LongSupplier nanoClock;
+
+	/** 同時処理数の上限 */
+	private volatile int limit;
+	/** 処理中のリクエスト数(対象外のリクエストは含まない) */
+	private final AtomicInteger inflight = new AtomicInteger();
+	/** ルート毎の平常時の応答時間 */
+	private final ConcurrentMap<String, Baseline> baselines = new ConcurrentHashMap<>();
+	/** 最後に上限を減らした時刻(ナノ秒) */
+	private long decreasedNanos;
+
+	/** 上限を増やした回数 */
+	private final LongAdder increaseCount = new LongAdder();
+	/** 上限を減らした回数 */
+	private final LongAdder decreaseCount = new LongAdder();
+	/** 拒否した高優先度のリクエスト数 */
+	private final LongAdder highRejectedCount = new LongAdder();
+	/** 拒否した低優先度のリクエスト数 */
+	private final LongAdder lowRejectedCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 */
+	@Inject
+	public ConcurrencyLimiter(Config config) {
+		this(config.getInt(INITIAL_LIMIT_PATH), config.getInt(MIN_LIMIT_PATH), config.getInt(MAX_LIMIT_PATH),
+				config.getDouble(BACKOFF_RATIO_PATH), config.getDouble(TOLERANCE_PATH),
+				config.getDuration(LATENCY_FLOOR_PATH, TimeUnit.NANOSECONDS), config.getInt(BASELINE_WINDOW_PATH),
+				config.getDouble(LOW_PRIORITY_SHARE_PATH), config.getDuration(SAMPLE_WINDOW_PATH, TimeUnit.NANOSECONDS), System::nanoTime);
+	}
+
+	/**
+	 * @param initialLimit 上限の初期値
+	 * @param minLimit 上限の最小値
+	 * @param maxLimit 上限の最大値
+	 * @param backoffRatio 混雑時に上限に掛ける比率
+	 * @param tolerance 平常時の応答時間に対して混雑とみなす倍率
+	 * @param latencyFloorNanos 混雑とみなす応答時間の下限(ナノ秒)
+	 * @param baselineWindow 平常時の応答時間を求める区間のリクエスト数
+	 * @param lowPriorityShare 低優先度のリクエストに割り当てる上限の割合
+	 * @param sampleWindowNanos 上限を減らす間隔(ナノ秒)
+	 * @param nanoClock 現在時刻(ナノ秒)
+	 */
+	ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double tolerance,
+			long latencyFloorNanos, int baselineWindow, double lowPriorityShare, long sampleWindowNanos, LongSupplier nanoClock) {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} initialLimit = {}, minLimit = {}, maxLimit = {}, backoffRatio = {}, tolerance = {}, lowPriorityShare = {}, sampleWindow = {} ms",
+					getClass().getName(), initialLimit, minLimit, maxLimit, backoffRatio, tolerance, lowPriorityShare,
+					TimeUnit.NANOSECONDS.toMillis(sampleWindowNanos));
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.tolerance = tolerance;
+		this.latencyFloorNanos = latencyFloorNanos;
+		this.baselineWindow = baselineWindow;
+		this.lowPriorityShare = lowPriorityShare;
+		this.sampleWindowNanos = sampleWindowNanos;
+		this.nanoClock = nanoClock;
+		this.decreasedNanos = nanoClock.getAsLong() - sampleWindowNanos;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	/**
+	 * リクエストの受け付けを試みます。
+	 * 受け付けた場合は処理の完了後に必ず {@link #release(String, long, boolean)} を呼び出してください。
+	 * {@link Priority#EXEMPT} は常に受け付け、処理中のリクエスト数にも含めません。
+	 * @param priority 優先度
+	 * @return 受け付けた場合 true
+	 */
+	public boolean tryAcquire(Priority priority) {
+		if (priority == Priority.EXEMPT) {
+			return true;
+		}
+		final int current = limit;
+		final int allowed = priority == Priority.LOW ? Math.max(1, (int) (current * lowPriorityShare)) : current;
+		while (true) {
+			final int count = inflight.get();
+			if (count >= allowed) {
+				if (priority == Priority.LOW) {
+					lowRejectedCount.increment();
+				} else {
+					highRejectedCount.increment();
+				}
+				return false;
+			}
+			if (inflight.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 受け付けたリクエストの完了を記録し、応答時間から上限を調整します。
+	 * @param route ルート
+	 * @param nanos 応答時間(ナノ秒)
+	 * @param dropped 5xx で応答したか失敗した場合 true
+	 */
+	public void release(String route, long nanos, boolean dropped) {
+		final int count = inflight.getAndDecrement();
+		Baseline baseline = baselines.get(route);
+		if (baseline == null) {
+			baseline = baselines.computeIfAbsent(route, key -> new Baseline());
+		}
+		final long baselineNanos = baseline.update(nanos, baselineWindow);
+		final boolean congested = nanos > latencyFloorNanos && nanos > baselineNanos * tolerance;
+		if (dropped || congested) {
+			decrease();
+		} else if (count * 2 >= limit) {
+			increase();
+		}
+	}
+
+	/**
+	 * 上限を {@code backoffRatio} 倍に減らします。
+	 * 前回減らしてから {@code sampleWindow} 以内の場合は減らしません。
+	 */
+	private synchronized void decrease() {
+		final long now = nanoClock.getAsLong();
+		if (now - decreasedNanos < sampleWindowNanos) {
+			return;
+		}
+		final int next = Math.max(minLimit, (int) (limit * backoffRatio));
+		if (next != limit) {
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("{} limit: {} -> {}", getClass().getName(), limit, next);
+			}
+			limit = next;
+			decreasedNanos = now;
+			decreaseCount.increment();
+		}
+	}
+
+	/**
+	 * 上限を 1 増やします。
+	 */
+	private synchronized void increase() {
+		if (limit < maxLimit) {
+			limit++;
+			increaseCount.increment();
+		}
+	}
+
+	/** @return 同時処理数の上限 */
+	public int limit() {
+		return limit;
+	}
+
+	/** @return 処理中のリクエスト数 */
+	public int inflight() {
+		return inflight.get();
+	}
+
+	/** @return 上限を増やした回数 */
+	public long increaseCount() {
+		return increaseCount.sum();
+	}
+
+	/** @return 上限を減らした回数 */
+	public long decreaseCount() {
+		return decreaseCount.sum();
+	}
+
+	/** @return 拒否した高優先度のリクエスト数 */
+	public long highRejectedCount() {
+		return highRejectedCount.sum();
+	}
+
+	/** @return 拒否した低優先度のリクエスト数 */
+	public long lowRejectedCount() {
+		return lowRejectedCount.sum();
+	}
+
+	/**
+	 * リクエストの優先度です。
+	 * @author mizuo
+	 */
+	public enum Priority {
+		/** 制限の対象外(計測値の収集など) */
+		EXEMPT,
+		/** 高優先度(画面表示や静的資源) */
+		HIGH,
+		/** 低優先度(混雑時に先に拒否する重いルート) */
+		LOW
+	}
+
+	/**
+	 * ルートの平常時の応答時間です。
+	 * 直近の区間と 1 つ前の区間の最小値を平常時とし、区間毎に古い値を捨てるので負荷の変化に追従します。
+	 * @author mizuo
+	 */
+	private static class Baseline {
+		/** 1 つ前の区間の最小値(ナノ秒) */
+		private long previousMin = Long.MAX_VALUE;
+		/** 現在の区間の最小値(ナノ秒) */
+		private long currentMin = Long.MAX_VALUE;
+		/** 現在の区間のリクエスト数 */
+		private int count;
+
+		/**
+		 * 応答時間を記録して平常時の応答時間を返します。
+		 * @param nanos 応答時間(ナノ秒)
+		 * @param window 区間のリクエスト数
+		 * @return 平常時の応答時間(ナノ秒)
+		 */
+		synchronized long update(long nanos, int window) {
+			currentMin = Math.min(currentMin, nanos);
+			final long baseline = Math.min(previousMin, currentMin);
+			if (++count >= window) {
+				previousMin = currentMin;
+				currentMin = Long.MAX_VALUE;
+				count = 0;
+			}
+			return baseline;
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package filters;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import play.libs.typedmap.TypedKey;
+import play.mvc.Http.RequestHeader;
+
+/**
+ * リクエスト毎の処理段階別の所要時間です。
+ * {@link ResponseTimeFilter} が有効な場合だけリクエストの属性に設定し、
+ * 応答時に {@code Server-Timing} ヘッダーと 1 行のログに出力します。
+ * 無効な場合は {@link #of(RequestHeader)} が共有の無効なインスタンスを返し、記録は何もしません。
+ * 非同期処理では、HTTPコンテキストのあるスレッドで取得したインスタンスをラムダに捕捉して記録してください。
+ * 資源の計測対象のリクエストでは、{@link #time(String, Supplier)} の間に現在のスレッドが確保したメモリ量と
+ * 使用したCPU時間も合算します。入れ子になった段階は外側の段階で数えるので二重には数えません。
+ * @author mizuo
+ */
+public final class RequestTiming {
+
+	/** リクエストの属性キー */
+	static final TypedKey<RequestTiming> ATTR = TypedKey.create("requestTiming");
+	/** 無効なインスタンス */
+	static final RequestTiming DISABLED = new RequestTiming(false);
+	/** 記録できる段階数 */
+	private static final int MAX_PHASES = 16;
+	/** スレッド毎の資源計測中の段階の深さ */
+	private static final ThreadLocal<int[]> RESOURCE_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+	/** 有効である場合 true */
+	private final boolean enabled;
+	/** 段階名 */
+	private final String[] names;
+	/** 段階毎の所要時間(ナノ秒) */
+	private final long[] nanos;
+	/** 記録した段階数 */
+	private int size;
+	/** 確保したメモリ量と使用したCPU時間を計測する場合 true */
+	private final boolean sampleResources;
+	/** 確保したメモリ量の合計(バイト) */
+	private long allocatedBytes;
+	/** 使用したCPU時間の合計(ナノ秒) */
+	private long cpuNanos;
+
+	/**
+	 * @param enabled 有効である場合 true
+	 */
+	RequestTiming(boolean enabled) {
+		this(enabled, false);
+	}
+
+	/**
+	 * @param enabled 有効である場合 true
+	 * @param sampleResources 確保したメモリ量と使用したCPU時間を計測する場合 true
+	 */
+	RequestTiming(boolean enabled, boolean sampleResources) {
+		this.enabled = enabled;
+		this.sampleResources = enabled && sampleResources && ThreadResources.SUPPORTED;
+		this.names = enabled ? new String[MAX_PHASES] : null;
+		this.nanos = enabled ? new long[MAX_PHASES] : null;
+	}
+
+	/**
+	 * リクエストの所要時間の記録先を返します。
+	 * @param request リクエスト
+	 * @return 記録先。無効な場合は記録しないインスタンス
+	 */
+	public static RequestTiming of(RequestHeader request) {
+		if (request.attrs().containsKey(ATTR)) {
+			return request.attrs().get(ATTR);
+		}
+		return DISABLED;
+	}
+
+	/**
+	 * 段階の開始時刻を返します。
+	 * @return 開始時刻(ナノ秒)。無効な場合は 0
+	 */
+	public long begin() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * 段階の終了を記録します。
+	 * @param name 段階名
+	 * @param beganNanos {@link #begin()} の戻り値
+	 */
+	public void end(String name, long beganNanos) {
+		if (enabled) {
+			record(name, System.nanoTime() - beganNanos);
+		}
+	}
+
+	/**
+	 * 処理を実行して所要時間を記録します。
+	 * @param name 段階名
+	 * @param supplier 処理
+	 * @return 処理結果
+	 */
+	public <T> T time(String name, Supplier<T> supplier) {
+		if (!enabled) {
+			return supplier.get();
+		}
+		final int[] depth = sampleResources ? RESOURCE_DEPTH.get() : null;
+		final boolean outermost = depth != null && depth[0]++ == 0;
+		final long beganBytes = outermost ? ThreadResources.allocatedBytes() : 0L;
+		final long beganCpuNanos = outermost ? ThreadResources.cpuNanos() : 0L;
+		final long began = System.nanoTime();
+		try {
+			return supplier.get();
+		} finally {
+			record(name, System.nanoTime() - began);
+			if (depth != null) {
+				depth[0]--;
+			}
+			if (outermost) {
+				addResources(ThreadResources.allocatedBytes() - beganBytes, ThreadResources.cpuNanos() - beganCpuNanos);
+			}
+		}
+	}
+
+	/**
+	 * 確保したメモリ量と使用したCPU時間を合算します。
+	 * @param bytes 確保したメモリ量(バイト)
+	 * @param cpu 使用したCPU時間(ナノ秒)
+	 */
+	private synchronized void addResources(long bytes, long cpu) {
+		allocatedBytes += bytes;
+		cpuNanos += cpu;
+	}
+
+	/** @return 確保したメモリ量と使用したCPU時間を計測する場合 true */
+	public boolean isSamplingResources() {
+		return sampleResources;
+	}
+
+	/** @return 確保したメモリ量の合計(バイト) */
+	synchronized long allocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/** @return 使用したCPU時間の合計(ナノ秒) */
+	synchronized long cpuNanos() {
+		return cpuNanos;
+	}
+
+	/**
+	 * 所要時間を記録します。同じ段階名は合算します。
+	 * @param name 段階名
+	 * @param elapsedNanos 所要時間(ナノ秒)
+	 */
+	synchronized void record(String name, long elapsedNanos) {
+		for (int i = 0; i < size; i++) {
+			if (names[i].equals(name)) {
+				nanos[i] += elapsedNanos;
+				return;
+			}
+		}
+		if (size < MAX_PHASES) {
+			names[size] = name;
+			nanos[size] = elapsedNanos;
+			size++;
+		}
+	}
+
+	/** @return 有効である場合 true */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * {@code Server-Timing} ヘッダーの値を返します。
+	 * @param totalNanos リクエスト全体の所要時間(ナノ秒)
+	 * @return ヘッダーの値(例: {@code db;dur=1.234, total;dur=5.678})
+	 */
+	synchronized String toServerTiming(long totalNanos) {
+		final StringBuilder builder = new StringBuilder(32 * (size + 1));
+		for (int i = 0; i < size; i++) {
+			builder.append(names[i]).append(";dur=").append(millis(nanos[i])).append(", ");
+		}
+		return builder.append("total;dur=").append(millis(totalNanos)).toString();
+	}
+
+	/**
+	 * ログに出力する {@code 段階名=ミリ秒} の並びを返します。
+	 * @param totalNanos リクエスト全体の所要時間(ナノ秒)
+	 * @return ログの項目(例: {@code db=1.234 total=5.678})
+	 */
+	synchronized String toLogFields(long totalNanos) {
+		final StringBuilder builder = new StringBuilder(24 * (size + 1));
+		for (int i = 0; i < size; i++) {
+			builder.append(names[i]).append('=').append(millis(nanos[i])).append(' ');
+		}
+		builder.append("total=").append(millis(totalNanos));
+		if (sampleResources) {
+			builder.append(" allocatedBytes=").append(allocatedBytes).append(" cpu=").append(millis(cpuNanos));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * ナノ秒をミリ秒の表記に変換します。
+	 * @param nanos ナノ秒
+	 * @return ミリ秒
+	 */
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+}
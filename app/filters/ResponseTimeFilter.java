@@ -1,38 +1,80 @@
 package filters;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import com.typesafe.config.Config;
+
+import jfr.FlightRecorderEvents;
+import jfr.FlightRecorderEvents.RequestRecording;
 import play.Logger;
+import play.api.routing.HandlerDef;
 import play.mvc.EssentialAction;
 import play.mvc.EssentialFilter;
+import play.mvc.Http;
+import play.mvc.Http.RequestHeader;
+import play.mvc.Result;
+import play.routing.Router;
 
 /**
  * 応答時間フィルターです。
+ * 応答時間はルートと応答ステータス毎に {@link ResponseTimeMetrics} に記録します。
+ * アクションが例外で終わった場合も、エラーハンドラーが応答する 500 として記録します。
+ * {@code timing.enabled} が有効な場合は処理段階別の所要時間({@link RequestTiming})を
+ * {@code Server-Timing} ヘッダーと 1 行のログに出力します。
+ * {@code timing.resourceSampleRate} の割合のリクエストでは、処理段階の間にスレッドが確保したメモリ量と
+ * 使用したCPU時間をルート毎に {@link ResponseTimeMetrics} に記録します。
+ * また、例外で終わったリクエストも含めて、リクエスト毎に Java Flight Recorder のイベントを記録します。
  * @author mizuo
  */
 public class ResponseTimeFilter extends EssentialFilter {
 
-	/** デバッグレベルで出力するミリ秒の閾値 */
-	private static final long DEBUG_LIMIT_MILLISECONDS = 1000;
 	/** 情報レベルで出力するミリ秒の閾値 */
-	private static final long INFO_LIMIT_MILLISECONDS = 2000;
+	private static final long INFO_LIMIT_MILLISECONDS = 1000;
+	/** 警告レベルで出力するミリ秒の閾値 */
+	private static final long WARN_LIMIT_MILLISECONDS = 4000;
+	/** ルーティングされなかったリクエストのルート */
+	static final String UNROUTED = "unrouted";
 	/** リクエストログに出力するメッセージ */
 	private static final String REQUEST_LOG_MESSAGE = "request: {} {}";
 	/** レスポンスログに出力するメッセージ */
 	private static final String RESPONSE_LOG_MESSAGE = "request: {} {} -> speed: {} ms; status: {}";
+	/** 処理段階別の所要時間のログに出力するメッセージ */
+	private static final String TIMING_LOG_MESSAGE = "timing: route=\"{}\" status={} {}";
+	/** 処理段階別の所要時間の出力有無の設定パス */
+	private static final String TIMING_ENABLED_PATH = "timing.enabled";
+	/** 資源を計測するリクエストの割合の設定パス */
+	private static final String RESOURCE_SAMPLE_RATE_PATH = "timing.resourceSampleRate";
+	/** 処理段階別の所要時間の応答ヘッダー */
+	static final String SERVER_TIMING = "Server-Timing";
 
 	private final Executor executor;
+	/** 応答時間の分布 */
+	private final ResponseTimeMetrics metrics;
+	/** 処理段階別の所要時間を出力する場合 true */
+	private final boolean timingEnabled;
+	/** 資源を計測するリクエストの割合(0 の場合は計測しない) */
+	private final double resourceSampleRate;
 
 	@Inject
-	public ResponseTimeFilter(Executor executor) {
+	public ResponseTimeFilter(Executor executor, ResponseTimeMetrics metrics, Config config) {
 		this.executor = executor;
+		this.metrics = metrics;
+		this.timingEnabled = config.getBoolean(TIMING_ENABLED_PATH);
+		this.resourceSampleRate = ThreadResources.SUPPORTED ? config.getDouble(RESOURCE_SAMPLE_RATE_PATH) : 0.0;
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} timing = {}, resourceSampleRate = {}", getClass().getName(), timingEnabled, resourceSampleRate);
+		}
 	}
 
 	/**
-	 * 処理開始から応答終了までの処理時間を計測しログ出力します。
-	 * 応答時間が想定内の場合は情報レベルで出力し、応答時間が遅い場合は警告レベルで出力します。
+	 * 処理開始から応答終了までの処理時間を計測して記録します。
+	 * 応答時間が遅い場合だけ情報レベルまたは警告レベルでログ出力します。
 	 */
 	@Override
 	public EssentialAction apply(EssentialAction next) {
@@ -43,28 +85,77 @@ public class ResponseTimeFilter extends EssentialFilter {
 			if (Logger.isDebugEnabled()) {
 				Logger.debug(REQUEST_LOG_MESSAGE, requestHeader.method(), requestHeader.uri());
 			}
-			final long startTimeMillis = System.currentTimeMillis();
-			return next.apply(requestHeader).map(result -> {
-				final long endTimeMillis = System.currentTimeMillis();
-				long responseimeMillis = endTimeMillis - startTimeMillis;
-				if (responseimeMillis < (DEBUG_LIMIT_MILLISECONDS)) {
-					if (Logger.isDebugEnabled()) {
-						Logger.debug(RESPONSE_LOG_MESSAGE, requestHeader.method(), requestHeader.uri(), responseimeMillis, result.status());
-					}
-				} else {
-					if (responseimeMillis < INFO_LIMIT_MILLISECONDS * 2) {
-						if (Logger.isInfoEnabled()) {
-							Logger.info(RESPONSE_LOG_MESSAGE, requestHeader.method(), requestHeader.uri(), responseimeMillis, result.status());
-						}
-					} else {
-						if (Logger.isWarnEnabled()) {
-							Logger.warn(RESPONSE_LOG_MESSAGE, requestHeader.method(), requestHeader.uri(), responseimeMillis, result.status());
-						}
+			final long startNanos = System.nanoTime();
+			final RequestRecording recording = FlightRecorderEvents.beginRequest(requestHeader.method(), requestHeader.uri());
+			final boolean sampled = resourceSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < resourceSampleRate;
+			final RequestTiming timing = timingEnabled || sampled ? new RequestTiming(true, sampled) : RequestTiming.DISABLED;
+			final RequestHeader timedHeader = timing.isEnabled() ? requestHeader.addAttr(RequestTiming.ATTR, timing) : requestHeader;
+			return next.apply(timedHeader).recoverWith(e -> {
+				// 例外は後段のエラーハンドラーが 500 で応答するので、同じステータスで記録して例外のまま返す。
+				final String route = record(requestHeader, Http.Status.INTERNAL_SERVER_ERROR, System.nanoTime() - startNanos, timing);
+				recording.end(route, Http.Status.INTERNAL_SERVER_ERROR);
+				final CompletableFuture<Result> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				return failed;
+			}, executor).map(result -> {
+				final long responseNanos = System.nanoTime() - startNanos;
+				final String route = record(requestHeader, result.status(), responseNanos, timing);
+				recording.end(route, result.status());
+				if (timingEnabled) {
+					if (Logger.isInfoEnabled()) {
+						Logger.info(TIMING_LOG_MESSAGE, route, result.status(), timing.toLogFields(responseNanos));
 					}
+					return result.withHeader(SERVER_TIMING, timing.toServerTiming(responseNanos));
 				}
 				return result;
 			}, executor);
 		});
 	}
 
+	/**
+	 * 応答時間と資源の使用量を記録し、遅い場合はログ出力します。
+	 * 応答した場合も例外で終わった場合も呼び出します。
+	 * @param requestHeader リクエストヘッダー
+	 * @param status 応答ステータス
+	 * @param responseNanos 応答時間(ナノ秒)
+	 * @param timing 処理段階別の所要時間
+	 * @return ルート
+	 */
+	private String record(RequestHeader requestHeader, int status, long responseNanos, RequestTiming timing) {
+		final String route = routeOf(requestHeader);
+		metrics.record(route, status, responseNanos);
+		if (timing.isSamplingResources()) {
+			metrics.recordResources(route, timing.allocatedBytes(), timing.cpuNanos());
+		}
+		final long responseMillis = TimeUnit.NANOSECONDS.toMillis(responseNanos);
+		if (responseMillis < INFO_LIMIT_MILLISECONDS) {
+			if (Logger.isDebugEnabled()) {
+				Logger.debug(RESPONSE_LOG_MESSAGE, requestHeader.method(), requestHeader.uri(), responseMillis, status);
+			}
+		} else if (responseMillis < WARN_LIMIT_MILLISECONDS) {
+			if (Logger.isInfoEnabled()) {
+				Logger.info(RESPONSE_LOG_MESSAGE, requestHeader.method(), requestHeader.uri(), responseMillis, status);
+			}
+		} else {
+			if (Logger.isWarnEnabled()) {
+				Logger.warn(RESPONSE_LOG_MESSAGE, requestHeader.method(), requestHeader.uri(), responseMillis, status);
+			}
+		}
+		return route;
+	}
+
+	/**
+	 * ルーターのハンドラー定義からルートを求めます。
+	 * URIをそのまま使うと経路変数毎に分布が分かれるので、ルート定義のパスを使います。
+	 * @param requestHeader リクエストヘッダー
+	 * @return ルート(例: {@code GET /login.html})
+	 */
+	static String routeOf(RequestHeader requestHeader) {
+		final Optional<HandlerDef> handlerDef = requestHeader.attrs().getOptional(Router.Attrs.HANDLER_DEF);
+		if (handlerDef.isPresent()) {
+			return handlerDef.get().verb() + " " + handlerDef.get().path();
+		}
+		return UNROUTED;
+	}
+
 }
@@ -0,0 +1,237 @@
+package filters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Singleton;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * ルートと応答ステータス毎の応答時間の分布です。
+ * 記録はロックを取らない {@link Recorder} に行い、集計時だけ累積の {@link Histogram} に移します。
+ * Prometheus の summary の {@code _sum} を出力できるよう、応答時間の合計は分布とは別に正確に合算します。
+ * 資源の計測対象になったリクエストは、ルート毎に確保したメモリ量と使用したCPU時間も合算します。
+ * @author mizuo
+ */
+@Singleton
+public class ResponseTimeMetrics {
+
+	/** 有効桁数 */
+	private static final int SIGNIFICANT_DIGITS = 3;
+	/** 出力するパーセンタイル */
+	private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+	/** ルートと応答ステータス毎の応答時間 */
+	private final ConcurrentMap<Key, RouteHistogram> histograms = new ConcurrentHashMap<>();
+	/** ルート毎の資源の使用量 */
+	private final ConcurrentMap<String, RouteResources> resources = new ConcurrentHashMap<>();
+
+	/**
+	 * 応答時間を記録します。
+	 * @param route ルート
+	 * @param status 応答ステータス
+	 * @param nanos 応答時間(ナノ秒)
+	 */
+	public void record(String route, int status, long nanos) {
+		final Key key = new Key(route, status);
+		RouteHistogram histogram = histograms.get(key);
+		if (histogram == null) {
+			histogram = histograms.computeIfAbsent(key, RouteHistogram::new);
+		}
+		final long value = Math.max(0, nanos);
+		histogram.recorder.recordValue(value);
+		histogram.sumNanos.add(value);
+	}
+
+	/**
+	 * 1 リクエストで確保したメモリ量と使用したCPU時間を記録します。
+	 * @param route ルート
+	 * @param allocatedBytes 確保したメモリ量(バイト)
+	 * @param cpuNanos 使用したCPU時間(ナノ秒)
+	 */
+	public void recordResources(String route, long allocatedBytes, long cpuNanos) {
+		RouteResources routeResources = resources.get(route);
+		if (routeResources == null) {
+			routeResources = resources.computeIfAbsent(route, RouteResources::new);
+		}
+		routeResources.samples.increment();
+		routeResources.allocatedBytes.add(allocatedBytes);
+		routeResources.maxAllocatedBytes.accumulate(allocatedBytes);
+		routeResources.cpuNanos.add(cpuNanos);
+	}
+
+	/**
+	 * ルート毎の資源の使用量を返します。
+	 * @return 資源の使用量
+	 */
+	public List<ResourceSnapshot> resourceSnapshot() {
+		final List<ResourceSnapshot> snapshots = new ArrayList<>(resources.size());
+		for (RouteResources routeResources : resources.values()) {
+			snapshots.add(new ResourceSnapshot(routeResources.route, routeResources.samples.sum(),
+					routeResources.allocatedBytes.sum(), routeResources.maxAllocatedBytes.get(), routeResources.cpuNanos.sum()));
+		}
+		snapshots.sort((a, b) -> a.route.compareTo(b.route));
+		return snapshots;
+	}
+
+	/**
+	 * ルートと応答ステータス毎の集計結果を返します。
+	 * @return 集計結果
+	 */
+	public List<Snapshot> snapshot() {
+		final List<Snapshot> snapshots = new ArrayList<>(histograms.size());
+		for (RouteHistogram histogram : histograms.values()) {
+			snapshots.add(histogram.snapshot());
+		}
+		snapshots.sort((a, b) -> {
+			final int compared = a.route.compareTo(b.route);
+			return compared != 0 ? compared : Integer.compare(a.status, b.status);
+		});
+		return snapshots;
+	}
+
+	/**
+	 * ルートと応答ステータスの組です。
+	 * @author mizuo
+	 */
+	private static final class Key {
+		/** ルート */
+		final String route;
+		/** 応答ステータス */
+		final int status;
+		Key(String route, int status) {
+			this.route = route;
+			this.status = status;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return status == other.status && route.equals(other.route);
+		}
+		@Override
+		public int hashCode() {
+			return Objects.hash(route, status);
+		}
+	}
+
+	/**
+	 * 1 つのルートと応答ステータスの応答時間です。
+	 * @author mizuo
+	 */
+	private static final class RouteHistogram {
+		/** ルートと応答ステータス */
+		private final Key key;
+		/** 記録用(ロックを取らない) */
+		private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+		/** 集計用(累積) */
+		private final Histogram accumulated = new Histogram(SIGNIFICANT_DIGITS);
+		/** 応答時間の合計(ナノ秒) */
+		private final LongAdder sumNanos = new LongAdder();
+		/** 再利用する区間の分布 */
+		private Histogram interval;
+		RouteHistogram(Key key) {
+			this.key = key;
+		}
+		/**
+		 * 前回の集計以降の記録を累積に移して集計します。
+		 * @return 集計結果
+		 */
+		synchronized Snapshot snapshot() {
+			interval = recorder.getIntervalHistogram(interval);
+			accumulated.add(interval);
+			final long[] percentileNanos = new long[PERCENTILES.length];
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				percentileNanos[i] = accumulated.getValueAtPercentile(PERCENTILES[i]);
+			}
+			return new Snapshot(key.route, key.status, accumulated.getTotalCount(), sumNanos.sum(), accumulated.getMaxValue(), percentileNanos);
+		}
+	}
+
+	/**
+	 * 1 つのルートの資源の使用量です。
+	 * @author mizuo
+	 */
+	private static final class RouteResources {
+		/** ルート */
+		private final String route;
+		/** 計測したリクエスト数 */
+		private final LongAdder samples = new LongAdder();
+		/** 確保したメモリ量の合計(バイト) */
+		private final LongAdder allocatedBytes = new LongAdder();
+		/** 1 リクエストで確保したメモリ量の最大(バイト) */
+		private final LongAccumulator maxAllocatedBytes = new LongAccumulator(Math::max, 0);
+		/** 使用したCPU時間の合計(ナノ秒) */
+		private final LongAdder cpuNanos = new LongAdder();
+		RouteResources(String route) {
+			this.route = route;
+		}
+	}
+
+	/**
+	 * 1 つのルートの資源の使用量の集計結果です。
+	 * @author mizuo
+	 */
+	public static final class ResourceSnapshot {
+		/** ルート */
+		public final String route;
+		/** 計測したリクエスト数 */
+		public final long samples;
+		/** 確保したメモリ量の合計(バイト) */
+		public final long allocatedBytes;
+		/** 1 リクエストで確保したメモリ量の最大(バイト) */
+		public final long maxAllocatedBytes;
+		/** 使用したCPU時間の合計(ナノ秒) */
+		public final long cpuNanos;
+		ResourceSnapshot(String route, long samples, long allocatedBytes, long maxAllocatedBytes, long cpuNanos) {
+			this.route = route;
+			this.samples = samples;
+			this.allocatedBytes = allocatedBytes;
+			this.maxAllocatedBytes = maxAllocatedBytes;
+			this.cpuNanos = cpuNanos;
+		}
+	}
+
+	/**
+	 * 1 つのルートと応答ステータスの集計結果です。
+	 * @author mizuo
+	 */
+	public static final class Snapshot {
+		/** ルート */
+		public final String route;
+		/** 応答ステータス */
+		public final int status;
+		/** リクエスト数 */
+		public final long count;
+		/** 応答時間の合計(ナノ秒) */
+		public final long sumNanos;
+		/** 最大の応答時間(ナノ秒) */
+		public final long maxNanos;
+		/** 出力する分位数(0 から 1 の範囲) */
+		public final double[] quantiles;
+		/** {@link #quantiles} 毎の応答時間(ナノ秒) */
+		public final long[] percentileNanos;
+		Snapshot(String route, int status, long count, long sumNanos, long maxNanos, long[] percentileNanos) {
+			this.quantiles = new double[PERCENTILES.length];
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				quantiles[i] = PERCENTILES[i] / 100.0;
+			}
+			this.route = route;
+			this.status = status;
+			this.count = count;
+			this.sumNanos = sumNanos;
+			this.maxNanos = maxNanos;
+			this.percentileNanos = percentileNanos;
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package filters;
+
+import java.lang.management.ManagementFactory;
+
+import play.Logger;
+
+/**
+ * 現在のスレッドが確保したメモリ量とCPU時間の読み取りです。
+ * {@code com.sun.management.ThreadMXBean} を使うので、HotSpot 以外の実行環境では使えません。
+ * @author mizuo
+ */
+final class ThreadResources {
+
+	/** スレッドの計測 */
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+	/** 使える場合 true */
+	static final boolean SUPPORTED = THREAD_MX_BEAN != null;
+
+	private ThreadResources() {}
+
+	/**
+	 * 確保したメモリ量とCPU時間を計測できるスレッドの計測を返します。
+	 * @return スレッドの計測。使えない場合は null
+	 */
+	private static com.sun.management.ThreadMXBean threadMXBean() {
+		try {
+			final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+				if (sunBean.isThreadAllocatedMemorySupported() && bean.isCurrentThreadCpuTimeSupported()) {
+					if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+						sunBean.setThreadAllocatedMemoryEnabled(true);
+					}
+					if (!bean.isThreadCpuTimeEnabled()) {
+						bean.setThreadCpuTimeEnabled(true);
+					}
+					return sunBean;
+				}
+			}
+		} catch (UnsupportedOperationException | SecurityException e) {
+			if (Logger.isInfoEnabled()) {
+				Logger.info("{} thread resources are not available: {}", ThreadResources.class.getName(), e.toString());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 現在のスレッドがこれまでに確保したメモリ量を返します。
+	 * @return バイト数
+	 */
+	static long allocatedBytes() {
+		return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * 現在のスレッドがこれまでに使用したCPU時間を返します。
+	 * @return CPU時間(ナノ秒)
+	 */
+	static long cpuNanos() {
+		return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+	}
+
+}
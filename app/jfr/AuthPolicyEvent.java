@@ -0,0 +1,47 @@
+package jfr;
+
+import java.lang.reflect.Method;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * アクションメソッドの認証方針の解決のイベントです。
+ * {@link FlightRecorderEvents#beginAuthPolicy()} から記録します。
+ * @author mizuo
+ */
+@Name("blogit.AuthPolicy")
+@Label("Authentication Policy")
+@Category({"blogit", "Auth"})
+@Description("Authentication policy resolution in AuthenticationActionCreator")
+@StackTrace(false)
+class AuthPolicyEvent extends Event implements FlightRecorderEvents.AuthPolicyRecording {
+
+	/** 記録中か判定するための共有のインスタンスです。記録には使いません。 */
+	static final AuthPolicyEvent ENABLED_PROBE = new AuthPolicyEvent();
+
+	@Label("Controller")
+	String controller;
+
+	@Label("Action")
+	String action;
+
+	@Label("Policy")
+	String policy;
+
+	@Override
+	public void end(Method actionMethod, Object policy) {
+		end();
+		if (shouldCommit()) {
+			this.controller = actionMethod.getDeclaringClass().getName();
+			this.action = actionMethod.getName();
+			this.policy = String.valueOf(policy);
+			commit();
+		}
+	}
+
+}
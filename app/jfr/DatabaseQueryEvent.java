@@ -0,0 +1,31 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Ebean による照会のイベントです。
+ * {@link FlightRecorderEvents#query(String, String, java.util.function.Supplier)} から記録します。
+ * @author mizuo
+ */
+@Name("blogit.DatabaseQuery")
+@Label("Database Query")
+@Category({"blogit", "Database"})
+@Description("Ebean query issued by a model finder")
+@StackTrace(false)
+class DatabaseQueryEvent extends Event {
+
+	/** 記録中か判定するための共有のインスタンスです。記録には使いません。 */
+	static final DatabaseQueryEvent ENABLED_PROBE = new DatabaseQueryEvent();
+
+	@Label("Model")
+	String model;
+
+	@Label("Finder")
+	String finder;
+
+}
@@ -0,0 +1,187 @@
+package jfr;
+
+import java.lang.reflect.Method;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import play.Logger;
+
+/**
+ * Java Flight Recorder のイベントを記録する窓口です。
+ * {@code jdk.jfr} は OpenJDK 8u272 以降でしか使えないので、イベントクラスはこのクラスからだけ参照し、
+ * 使えない実行環境では処理をそのまま実行します。
+ * 記録中でないイベントは、イベントクラス毎の共有のインスタンスで判定し、リクエスト毎にイベントを生成しません。
+ * 本番環境では次のように常時記録しておき、遅延が発生した時刻のGCやロック競合と突き合わせます。
+ * <pre>
+ *     -XX:StartFlightRecording=disk=true,maxage=6h,settings=default,dumponexit=true,filename=logs/blogit.jfr
+ * </pre>
+ * @author mizuo
+ */
+public final class FlightRecorderEvents {
+
+	/** {@code jdk.jfr} が使える場合 true */
+	static final boolean AVAILABLE = isAvailable();
+
+	/** 記録しないリクエストの記録 */
+	private static final RequestRecording NOOP = (route, status) -> {};
+	/** 記録しない認証方針の解決の記録 */
+	private static final AuthPolicyRecording NOOP_AUTH_POLICY = (actionMethod, policy) -> {};
+
+	private FlightRecorderEvents() {}
+
+	/**
+	 * {@code jdk.jfr} が使えるか判定します。
+	 * @return 使える場合 true
+	 */
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			if (Logger.isInfoEnabled()) {
+				Logger.info("{} jdk.jfr is not available: {}", FlightRecorderEvents.class.getName(), e.toString());
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * リクエストの記録を開始します。
+	 * @param method HTTPメソッド
+	 * @param uri URI
+	 * @return リクエストの記録
+	 */
+	public static RequestRecording beginRequest(String method, String uri) {
+		if (!AVAILABLE || !HttpRequestEvent.ENABLED_PROBE.isEnabled()) {
+			return NOOP;
+		}
+		final HttpRequestEvent event = new HttpRequestEvent();
+		event.method = method;
+		event.uri = uri;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * アクションメソッドの認証方針の解決の記録を開始します。
+	 * 記録中でなければイベントを生成せず、共有の何もしない記録を返します。
+	 * @return 認証方針の解決の記録
+	 */
+	public static AuthPolicyRecording beginAuthPolicy() {
+		if (!AVAILABLE || !AuthPolicyEvent.ENABLED_PROBE.isEnabled()) {
+			return NOOP_AUTH_POLICY;
+		}
+		final AuthPolicyEvent event = new AuthPolicyEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * BCrypt によるハッシュ化または照合を記録します。
+	 * コストはイベントを記録する場合だけ求めます。
+	 * @param operation 処理({@code hash} または {@code verify})
+	 * @param logRounds コスト
+	 * @param supplier ハッシュ化または照合の処理
+	 * @return 処理結果
+	 */
+	public static <T> T passwordHash(String operation, IntSupplier logRounds, Supplier<T> supplier) {
+		if (!AVAILABLE || !PasswordHashEvent.ENABLED_PROBE.isEnabled()) {
+			return supplier.get();
+		}
+		final PasswordHashEvent event = new PasswordHashEvent();
+		event.begin();
+		try {
+			return supplier.get();
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.operation = operation;
+				event.logRounds = logRounds.getAsInt();
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Ebean による照会を記録します。
+	 * @param model モデル名
+	 * @param finder 照会メソッド名
+	 * @param query 照会処理
+	 * @return 照会結果
+	 */
+	public static <T> T query(String model, String finder, Supplier<T> query) {
+		if (!AVAILABLE || !DatabaseQueryEvent.ENABLED_PROBE.isEnabled()) {
+			return query.get();
+		}
+		final DatabaseQueryEvent event = new DatabaseQueryEvent();
+		event.begin();
+		try {
+			return query.get();
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.model = model;
+				event.finder = finder;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * 電子メールの送信を記録します。
+	 * @param outboxId 送信待ち行列のID
+	 * @param attempts これまでの送信回数
+	 * @param recipients 宛先数
+	 * @param send 送信処理
+	 */
+	public static void mailSend(Long outboxId, int attempts, int recipients, Runnable send) {
+		if (!AVAILABLE) {
+			send.run();
+			return;
+		}
+		final MailSendEvent event = new MailSendEvent();
+		event.begin();
+		boolean success = false;
+		try {
+			send.run();
+			success = true;
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.outboxId = outboxId == null ? 0L : outboxId;
+				event.attempts = attempts;
+				event.recipients = recipients;
+				event.success = success;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * リクエストの記録です。
+	 * 開始と終了は別のスレッドでも構いません。
+	 * @author mizuo
+	 */
+	public interface RequestRecording {
+		/**
+		 * リクエストの記録を終了します。
+		 * @param route ルート
+		 * @param status 応答ステータス
+		 */
+		void end(String route, int status);
+	}
+
+	/**
+	 * 認証方針の解決の記録です。
+	 * @author mizuo
+	 */
+	public interface AuthPolicyRecording {
+		/**
+		 * 認証方針の解決の記録を終了します。
+		 * @param actionMethod アクションメソッド
+		 * @param policy 認証方針
+		 */
+		void end(Method actionMethod, Object policy);
+	}
+
+}
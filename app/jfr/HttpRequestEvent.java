@@ -0,0 +1,47 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * HTTPリクエストの処理のイベントです。
+ * {@link FlightRecorderEvents#beginRequest(String, String)} から記録します。
+ * @author mizuo
+ */
+@Name("blogit.HttpRequest")
+@Label("HTTP Request")
+@Category({"blogit", "HTTP"})
+@Description("Request handling measured by ResponseTimeFilter")
+@StackTrace(false)
+class HttpRequestEvent extends Event implements FlightRecorderEvents.RequestRecording {
+
+	/** 記録中か判定するための共有のインスタンスです。記録には使いません。 */
+	static final HttpRequestEvent ENABLED_PROBE = new HttpRequestEvent();
+
+	@Label("Method")
+	String method;
+
+	@Label("URI")
+	String uri;
+
+	@Label("Route")
+	String route;
+
+	@Label("Status")
+	int status;
+
+	@Override
+	public void end(String route, int status) {
+		end();
+		if (shouldCommit()) {
+			this.route = route;
+			this.status = status;
+			commit();
+		}
+	}
+
+}
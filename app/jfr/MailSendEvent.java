@@ -0,0 +1,34 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 電子メールの送信のイベントです。
+ * {@link FlightRecorderEvents#mailSend(Long, int, int, Runnable)} から記録します。
+ * @author mizuo
+ */
+@Name("blogit.MailSend")
+@Label("Mail Send")
+@Category({"blogit", "Mail"})
+@Description("MailerClient.send called by EmailOutboxWorker")
+@StackTrace(false)
+class MailSendEvent extends Event {
+
+	@Label("Outbox ID")
+	long outboxId;
+
+	@Label("Attempts")
+	int attempts;
+
+	@Label("Recipients")
+	int recipients;
+
+	@Label("Success")
+	boolean success;
+
+}
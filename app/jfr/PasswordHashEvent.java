@@ -0,0 +1,31 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * BCrypt によるハッシュ化と照合のイベントです。
+ * {@link FlightRecorderEvents#passwordHash(String, int, java.util.function.Supplier)} から記録します。
+ * @author mizuo
+ */
+@Name("blogit.PasswordHash")
+@Label("Password Hash")
+@Category({"blogit", "Auth"})
+@Description("BCrypt hashing or verification in PasswordHelper")
+@StackTrace(false)
+class PasswordHashEvent extends Event {
+
+	/** 記録中か判定するための共有のインスタンスです。記録には使いません。 */
+	static final PasswordHashEvent ENABLED_PROBE = new PasswordHashEvent();
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Log Rounds")
+	int logRounds;
+
+}
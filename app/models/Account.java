@@ -1,12 +1,17 @@
 package models;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.validation.constraints.NotNull;
 
+import jfr.FlightRecorderEvents;
+
 /**
  * アカウントです。
  * @author mizuo
@@ -36,8 +41,19 @@ public class Account extends TimestampModel {
 	 * @return アカウント
 	 */
 	public static Optional<Account> findOneOrEmpty(String loginId) {
-		final Optional<Account> stored = db().find(Account.class).where().eq("login_id", loginId).findOneOrEmpty();
+		final Optional<Account> stored = FlightRecorderEvents.query("Account", "findOneOrEmpty",
+				() -> db().find(Account.class).where().eq("login_id", loginId).findOneOrEmpty());
 		return stored;
 	}
 
+	/**
+	 * 引数のログインIDの登録行を非同期に取得します。
+	 * @param loginId ログインID
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @return アカウント
+	 */
+	public static CompletionStage<Optional<Account>> findOneOrEmptyAsync(String loginId, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> findOneOrEmpty(loginId), executor);
+	}
+
 }
@@ -1,6 +1,12 @@
 package models;
 
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.UUID;
 
 import javax.persistence.Column;
@@ -8,6 +14,9 @@ import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.validation.constraints.NotNull;
 
+import io.ebean.Transaction;
+import jfr.FlightRecorderEvents;
+
 /**
  * アカウントセッションです。認証後のID管理を行います。
  * @author mizuo
@@ -29,14 +38,75 @@ public class AccountSession extends TimestampModel {
 	@Column(unique = false)
 	public Long individualId;
 
+	/** 1 回のJDBCバッチで送信する件数の上限 */
+	private static final int BATCH_SIZE = 100;
+
+	/** 最終アクセス日時で更新日時を進めるSQLです。更新日時は版を兼ねるので、古い日時で戻すことはしません。 */
+	private static final String TOUCH_SQL = " UPDATE account_session SET updated_at = :lastSeen"
+			+ " WHERE uuid = :uuid AND updated_at < :lastSeen";
+
+	/** 更新日時が古い行から上限の件数まで削除するSQLです。 */
+	private static final String DELETE_IDLE_SQL = " DELETE FROM account_session WHERE uuid IN ("
+			+ " SELECT uuid FROM account_session WHERE updated_at < :before ORDER BY updated_at LIMIT :limit)";
+
 	/**
 	 * 引数のUUIDの登録行を取得します。
 	 * @param uuid UUID
 	 * @return アカウントセッション
 	 */
 	public static Optional<AccountSession> findOneOrEmpty(String uuid) {
-		final Optional<AccountSession> stored = db().find(AccountSession.class).where().eq("uuid", uuid).findOneOrEmpty();
+		final Optional<AccountSession> stored = FlightRecorderEvents.query("AccountSession", "findOneOrEmpty",
+				() -> db().find(AccountSession.class).where().eq("uuid", uuid).findOneOrEmpty());
 		return stored;
 	}
 
+	/**
+	 * 引数のUUIDの登録行を非同期に取得します。
+	 * @param uuid UUID
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @return アカウントセッション
+	 */
+	public static CompletionStage<Optional<AccountSession>> findOneOrEmptyAsync(String uuid, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> findOneOrEmpty(uuid), executor);
+	}
+
+	/**
+	 * 引数のUUIDの登録行の更新日時を最終アクセス日時までまとめて進めます。
+	 * JDBCバッチを有効にしたトランザクションで送信するので、往復は {@value #BATCH_SIZE} 件毎に 1 回です。
+	 * 更新日時は版を兼ねるので、モデルを経由せずに更新します。
+	 * @param lastSeenMillis UUID毎の最終アクセス日時(エポックミリ秒)
+	 * @return 送信した件数
+	 */
+	public static int touchAll(Map<UUID, Long> lastSeenMillis) {
+		if (lastSeenMillis.isEmpty()) {
+			return 0;
+		}
+		return FlightRecorderEvents.query("AccountSession", "touchAll", () -> {
+			try (Transaction transaction = db().beginTransaction()) {
+				transaction.setBatchMode(true);
+				transaction.setBatchSize(BATCH_SIZE);
+				for (Map.Entry<UUID, Long> entry : lastSeenMillis.entrySet()) {
+					db().createSqlUpdate(TOUCH_SQL)
+							.setParameter("uuid", entry.getKey())
+							.setParameter("lastSeen", new Timestamp(entry.getValue()))
+							.execute();
+				}
+				transaction.commit();
+			}
+			return lastSeenMillis.size();
+		});
+	}
+
+	/**
+	 * 更新日時(最終アクセス日時)が引数より古い行を、古いものから上限の件数まで削除します。
+	 * 長いロックを避けるため、上限の件数は小さくして繰り返し呼び出してください。
+	 * @param before この日時より前に更新された行を削除する
+	 * @param limit 削除する件数の上限
+	 * @return 削除した件数
+	 */
+	public static int deleteIdle(Date before, int limit) {
+		return FlightRecorderEvents.query("AccountSession", "deleteIdle",
+				() -> db().createSqlUpdate(DELETE_IDLE_SQL).setParameter("before", new Timestamp(before.getTime())).setParameter("limit", limit).execute());
+	}
+
 }
@@ -1,7 +1,11 @@
 package models;
 
+import java.sql.Timestamp;
 import java.util.Date;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -10,6 +14,7 @@ import javax.validation.constraints.NotNull;
 
 import io.ebean.Model;
 import io.ebean.annotation.CreatedTimestamp;
+import jfr.FlightRecorderEvents;
 
 /**
  * 申込者です。
@@ -34,16 +39,31 @@ public class Applicant extends Model {
 	@CreatedTimestamp
 	public Date appliedAt;
 
+	/** 申込日時が古い行から上限の件数まで削除するSQLです。 */
+	private static final String DELETE_STALE_SQL = " DELETE FROM applicant WHERE email_address IN ("
+			+ " SELECT email_address FROM applicant WHERE applied_at < :before ORDER BY applied_at LIMIT :limit)";
+
 	/**
 	 * 引数のメールアドレスの登録行を取得します。
 	 * @param emailAddress メールアドレス
 	 * @return 申込者
 	 */
 	public static Optional<Applicant> findOneOrEmpty(String emailAddress) {
-		final Optional<Applicant> stored = db().find(Applicant.class).where().eq("email_address", emailAddress).findOneOrEmpty();
+		final Optional<Applicant> stored = FlightRecorderEvents.query("Applicant", "findOneOrEmpty",
+				() -> db().find(Applicant.class).where().eq("email_address", emailAddress).findOneOrEmpty());
 		return stored;
 	}
 
+	/**
+	 * 引数のメールアドレスの登録行を非同期に取得します。
+	 * @param emailAddress メールアドレス
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @return 申込者
+	 */
+	public static CompletionStage<Optional<Applicant>> findOneOrEmptyAsync(String emailAddress, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> findOneOrEmpty(emailAddress), executor);
+	}
+
 	/**
 	 * 引数のメールアドレスの登録行を取得します。
 	 * 未登録の場合は引数のメールアドレスをセットした申込者を生成して返します。
@@ -61,4 +81,16 @@ public class Applicant extends Model {
 		}
 	}
 
+	/**
+	 * 申込日時が引数より古い(本登録しないまま放置された)行を、古いものから上限の件数まで削除します。
+	 * 長いロックを避けるため、上限の件数は小さくして繰り返し呼び出してください。
+	 * @param before この日時より前に申し込んだ行を削除する
+	 * @param limit 削除する件数の上限
+	 * @return 削除した件数
+	 */
+	public static int deleteStale(Date before, int limit) {
+		return FlightRecorderEvents.query("Applicant", "deleteStale",
+				() -> db().createSqlUpdate(DELETE_STALE_SQL).setParameter("before", new Timestamp(before.getTime())).setParameter("limit", limit).execute());
+	}
+
 }
@@ -0,0 +1,215 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import play.libs.mailer.Email;
+
+/**
+ * 解析済みの電子メールの雛形です。
+ * 件名と本文を固定文字列と差し込み項目({@code :名前})に分解して保持するので、
+ * 送信毎の正規表現のコンパイルや文字列の走査は発生しません。
+ * 不変なので複数スレッドから共有できます。
+ * @author mizuo
+ */
+public final class CompiledEmailTemplate {
+
+	/** 差し込み項目の接頭辞 */
+	private static final char PLACEHOLDER_PREFIX = ':';
+
+	/** 雛形コード */
+	public final String code;
+	/** 雛形の版(更新日時のミリ秒) */
+	public final long version;
+	/** 件名 */
+	private final Segments subject;
+	/** 本文 */
+	private final Segments body;
+	/** 件名と本文に含まれる差し込み項目名 */
+	private final Set<String> placeholders;
+
+	/**
+	 * @param code 雛形コード
+	 * @param version 雛形の版
+	 * @param subject 件名
+	 * @param body 本文
+	 */
+	private CompiledEmailTemplate(String code, long version, Segments subject, Segments body) {
+		this.code = code;
+		this.version = version;
+		this.subject = subject;
+		this.body = body;
+		final Set<String> names = new LinkedHashSet<>();
+		Collections.addAll(names, subject.names);
+		Collections.addAll(names, body.names);
+		this.placeholders = Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * 電子メールの雛形を解析します。
+	 * @param template 電子メールの雛形
+	 * @return 解析済みの電子メールの雛形
+	 */
+	static CompiledEmailTemplate compile(EmailTemplate template) {
+		final long version = template.updatedAt == null ? 0L : template.updatedAt.getTime();
+		return compile(template.code, version, template.subject, template.body);
+	}
+
+	/**
+	 * 件名と本文を解析します。
+	 * @param code 雛形コード
+	 * @param version 雛形の版
+	 * @param subject 件名
+	 * @param body 本文
+	 * @return 解析済みの電子メールの雛形
+	 */
+	public static CompiledEmailTemplate compile(String code, long version, String subject, String body) {
+		return new CompiledEmailTemplate(code, version, Segments.parse(subject), Segments.parse(body));
+	}
+
+	/**
+	 * 件名と本文に含まれる差し込み項目名を返します。
+	 * @return 差し込み項目名
+	 */
+	public Set<String> placeholders() {
+		return placeholders;
+	}
+
+	/**
+	 * 件名に差し込み項目の値を差し込みます。
+	 * @param parameters 差し込み項目名と値
+	 * @return 件名
+	 */
+	public String renderSubject(Map<String, String> parameters) {
+		return subject.render(parameters);
+	}
+
+	/**
+	 * 本文に差し込み項目の値を差し込みます。
+	 * @param parameters 差し込み項目名と値
+	 * @return 本文
+	 */
+	public String renderBody(Map<String, String> parameters) {
+		return body.render(parameters);
+	}
+
+	/**
+	 * 電子メールを生成します。
+	 * @param fromEmailAddress Fromメールアドレス
+	 * @param toEmailAddress 宛先メールアドレス
+	 * @param parameters 差し込み項目名と値
+	 * @return 電子メール
+	 */
+	public Email render(String fromEmailAddress, String toEmailAddress, Map<String, String> parameters) {
+		return new Email()
+				.setSubject(renderSubject(parameters))
+				.setFrom(fromEmailAddress)
+				.addTo(toEmailAddress)
+				.setBodyText(renderBody(parameters));
+	}
+
+	/**
+	 * 固定文字列と差し込み項目の並びです。
+	 * {@code literals[0] names[0] literals[1] names[1] ... literals[n]} の順に連結します。
+	 * @author mizuo
+	 */
+	private static final class Segments {
+		/** 固定文字列(差し込み項目数 + 1 個) */
+		private final String[] literals;
+		/** 差し込み項目名 */
+		private final String[] names;
+		/** 固定文字列の長さの合計 */
+		private final int literalLength;
+
+		private Segments(String[] literals, String[] names) {
+			this.literals = literals;
+			this.names = names;
+			int length = 0;
+			for (String literal : literals) {
+				length += literal.length();
+			}
+			this.literalLength = length;
+		}
+
+		/**
+		 * 文字列を解析します。
+		 * {@code :} の直後に英字で始まる英数字(ASCII)が続く部分を差し込み項目とします。
+		 * @param text 文字列
+		 * @return 固定文字列と差し込み項目の並び
+		 */
+		static Segments parse(String text) {
+			final List<String> literals = new ArrayList<>();
+			final List<String> names = new ArrayList<>();
+			if (text == null) {
+				literals.add("");
+				return new Segments(literals.toArray(new String[0]), names.toArray(new String[0]));
+			}
+			int literalStart = 0;
+			int i = 0;
+			while (i < text.length()) {
+				if (text.charAt(i) == PLACEHOLDER_PREFIX && i + 1 < text.length() && isAsciiLetter(text.charAt(i + 1))) {
+					int end = i + 2;
+					while (end < text.length() && isAsciiLetterOrDigit(text.charAt(end))) {
+						end++;
+					}
+					literals.add(text.substring(literalStart, i));
+					names.add(text.substring(i + 1, end));
+					literalStart = end;
+					i = end;
+				} else {
+					i++;
+				}
+			}
+			literals.add(text.substring(literalStart));
+			return new Segments(literals.toArray(new String[0]), names.toArray(new String[0]));
+		}
+
+		/**
+		 * 英字(ASCII)か判定します。
+		 * 日本語の文字は差し込み項目名に含めないので、{@code :temporaryPasswordです} の差し込み項目名は {@code temporaryPassword} です。
+		 * @param c 文字
+		 * @return 英字の場合 true
+		 */
+		private static boolean isAsciiLetter(char c) {
+			return ('A' <= c && c <= 'Z') || ('a' <= c && c <= 'z');
+		}
+
+		/**
+		 * 英数字(ASCII)か判定します。
+		 * @param c 文字
+		 * @return 英数字の場合 true
+		 */
+		private static boolean isAsciiLetterOrDigit(char c) {
+			return isAsciiLetter(c) || ('0' <= c && c <= '9');
+		}
+
+		/**
+		 * 差し込み項目の値を差し込みます。
+		 * 値の無い差し込み項目はそのまま残します。
+		 * @param parameters 差し込み項目名と値
+		 * @return 文字列
+		 */
+		String render(Map<String, String> parameters) {
+			if (names.length == 0) {
+				return literals[0];
+			}
+			final StringBuilder builder = new StringBuilder(literalLength + names.length * 16);
+			for (int i = 0; i < names.length; i++) {
+				builder.append(literals[i]);
+				final String value = parameters.get(names[i]);
+				if (value != null) {
+					builder.append(value);
+				} else {
+					builder.append(PLACEHOLDER_PREFIX).append(names[i]);
+				}
+			}
+			builder.append(literals[names.length]);
+			return builder.toString();
+		}
+	}
+
+}
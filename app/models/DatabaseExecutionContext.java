@@ -0,0 +1,67 @@
+package models;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+
+/**
+ * DBアクセス専用の実行コンテキストです。
+ * {@code database.dispatcher} のスレッド数はコネクションプールの大きさと揃えてあるので、
+ * Ebean の照会と更新はこの実行コンテキストで行い、HTTP のスレッドを JDBC で塞がないようにします。
+ * 投入、開始、完了した処理数を数えるので、待機中と実行中の処理数を求められます。
+ * @author mizuo
+ */
+@Singleton
+public class DatabaseExecutionContext extends CustomExecutionContext {
+
+	/** ディスパッチャーの設定パス */
+	static final String DISPATCHER_PATH = "database.dispatcher";
+
+	/** 投入した処理数 */
+	private final LongAdder submittedCount = new LongAdder();
+	/** 開始した処理数 */
+	private final LongAdder startedCount = new LongAdder();
+	/** 完了した処理数 */
+	private final LongAdder completedCount = new LongAdder();
+
+	/**
+	 * @param actorSystem アクターシステム
+	 */
+	@Inject
+	public DatabaseExecutionContext(ActorSystem actorSystem) {
+		super(actorSystem, DISPATCHER_PATH);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		submittedCount.increment();
+		super.execute(() -> {
+			startedCount.increment();
+			try {
+				command.run();
+			} finally {
+				completedCount.increment();
+			}
+		});
+	}
+
+	/** @return 待機している処理数 */
+	public long queuedCount() {
+		return Math.max(0, submittedCount.sum() - startedCount.sum());
+	}
+
+	/** @return 実行中の処理数 */
+	public long activeCount() {
+		return Math.max(0, startedCount.sum() - completedCount.sum());
+	}
+
+	/** @return 完了した処理数 */
+	public long completedCount() {
+		return completedCount.sum();
+	}
+
+}
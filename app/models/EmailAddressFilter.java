@@ -0,0 +1,196 @@
+package models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+/**
+ * 使用済みメールアドレスのブルームフィルタです。
+ * 「未使用」と判定したメールアドレスは確実に未使用なので、メールアドレスの一意チェックでDBの照会を省略できます。
+ * 「使用済みかもしれない」と判定した場合は DB で確認してください。
+ * シングルトンとして注入し、{@link Individual#warmEmailAddressFilter(EmailAddressFilter)}で
+ * 登録済みのメールアドレスを読み込んだ後に {@link #markReady()} で有効にします。
+ * 有効になるまでは常に「使用済みかもしれない」と判定します。
+ * @author mizuo
+ */
+@Singleton
+public class EmailAddressFilter {
+
+	/** 想定件数の設定パス */
+	private static final String EXPECTED_INSERTIONS_PATH = "individual.emailAddressFilter.expectedInsertions";
+	/** 偽陽性率の設定パス */
+	private static final String FALSE_POSITIVE_PROBABILITY_PATH = "individual.emailAddressFilter.falsePositiveProbability";
+
+	/** ビット列 */
+	private final AtomicLongArray bits;
+	/** ビット数 */
+	private final long bitSize;
+	/** ハッシュ関数の数 */
+	private final int hashCount;
+	/** 登録済みのメールアドレスの読込完了 */
+	private volatile boolean ready;
+
+	/** 追加した件数 */
+	private final LongAdder putCount = new LongAdder();
+	/** DBの照会を省略した回数 */
+	private final LongAdder negativeCount = new LongAdder();
+	/** DBの照会が必要だった回数 */
+	private final LongAdder positiveCount = new LongAdder();
+
+	/**
+	 * @param config 設定
+	 */
+	@Inject
+	public EmailAddressFilter(Config config) {
+		this(config.getLong(EXPECTED_INSERTIONS_PATH), config.getDouble(FALSE_POSITIVE_PROBABILITY_PATH));
+	}
+
+	/**
+	 * 注入せずに生成したフィルタは本番のフィルタと共有されません。
+	 * ウォームアップなど、本番のフィルタに追加したくない処理で使用します。
+	 * @param expectedInsertions 想定件数
+	 * @param falsePositiveProbability 偽陽性率
+	 */
+	public EmailAddressFilter(long expectedInsertions, double falsePositiveProbability) {
+		final long n = Math.max(1, expectedInsertions);
+		final long m = Math.max(64, (long) (-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2))));
+		final int words = (int) Math.min(Integer.MAX_VALUE, (m + 63) / 64);
+		this.bits = new AtomicLongArray(words);
+		this.bitSize = (long) words * 64;
+		this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+	}
+
+	/**
+	 * 使用済みのメールアドレスを追加します。
+	 * @param emailAddress メールアドレス
+	 */
+	public void addUsed(String emailAddress) {
+		put(emailAddress);
+	}
+
+	/**
+	 * メールアドレスが使用済みかもしれないか判定します。
+	 * 読込中の場合は常に true です。
+	 * @param emailAddress メールアドレス
+	 * @return 使用済みかもしれない場合 true、確実に未使用の場合 false
+	 */
+	public boolean mightBeUsed(String emailAddress) {
+		if (!ready) {
+			return true;
+		}
+		if (mightContain(emailAddress)) {
+			positiveCount.increment();
+			return true;
+		}
+		negativeCount.increment();
+		return false;
+	}
+
+	/**
+	 * メールアドレスを追加します。
+	 * @param emailAddress メールアドレス
+	 */
+	void put(String emailAddress) {
+		if (emailAddress == null) {
+			return;
+		}
+		final long hash = hash(emailAddress);
+		final int hash1 = (int) hash;
+		final int hash2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashCount; i++) {
+			final long index = indexOf(hash1 + i * hash2);
+			final int word = (int) (index >>> 6);
+			final long mask = 1L << index;
+			long bitsOfWord;
+			while (((bitsOfWord = bits.get(word)) & mask) == 0) {
+				if (bits.compareAndSet(word, bitsOfWord, bitsOfWord | mask)) {
+					break;
+				}
+			}
+		}
+		putCount.increment();
+	}
+
+	/**
+	 * メールアドレスが追加済みかもしれないか判定します。
+	 * @param emailAddress メールアドレス
+	 * @return 追加済みかもしれない場合 true
+	 */
+	boolean mightContain(String emailAddress) {
+		if (emailAddress == null) {
+			return true;
+		}
+		final long hash = hash(emailAddress);
+		final int hash1 = (int) hash;
+		final int hash2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashCount; i++) {
+			final long index = indexOf(hash1 + i * hash2);
+			if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 登録済みのメールアドレスの読込完了としてフィルタを有効にします。
+	 */
+	public void markReady() {
+		ready = true;
+	}
+
+	/** @return 有効である場合 true */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/** @return 追加した件数 */
+	public long putCount() {
+		return putCount.sum();
+	}
+
+	/** @return DBの照会を省略した回数 */
+	public long negativeCount() {
+		return negativeCount.sum();
+	}
+
+	/** @return DBの照会が必要だった回数 */
+	public long positiveCount() {
+		return positiveCount.sum();
+	}
+
+	/**
+	 * 合成したハッシュ値をビット位置に変換します。
+	 * @param combinedHash 合成したハッシュ値
+	 * @return ビット位置
+	 */
+	private long indexOf(int combinedHash) {
+		return (combinedHash & 0x7fffffffL) % bitSize;
+	}
+
+	/**
+	 * メールアドレスの 64 ビットハッシュ値(FNV-1a)を計算します。
+	 * @param emailAddress メールアドレス
+	 * @return ハッシュ値
+	 */
+	private static long hash(String emailAddress) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : emailAddress.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+		// 上位と下位を十分に混ぜる(MurmurHash3 の fmix64)
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
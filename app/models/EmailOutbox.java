@@ -0,0 +1,197 @@
+package models;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.validation.constraints.NotNull;
+
+import jfr.FlightRecorderEvents;
+import play.libs.mailer.Email;
+
+/**
+ * 電子メールの送信待ち行列です。
+ * 業務データと同じトランザクションで登録し、送信はバックグラウンドで行います。
+ * 送信する行は {@link #claimDue(int, long)} で貸出期限付きで確保するので、複数のインスタンスで同じ行を送信することはありません。
+ * @author mizuo
+ */
+@Entity
+public class EmailOutbox extends CrudModel {
+
+	/** 宛先の区切り文字 */
+	private static final String RECIPIENT_SEPARATOR = ",";
+
+	/**
+	 * 送信状態です。
+	 * @author mizuo
+	 */
+	public enum Status {
+		/** 送信待ち */
+		PENDING,
+		/** 送信中(貸出期限を過ぎたら送信待ちと同様に扱う) */
+		SENDING,
+		/** 送信済み */
+		SENT,
+		/** 再送の上限に達したので送信しない */
+		POISONED
+	}
+
+	/** Fromメールアドレス */
+	@Column(length=255)
+	@NotNull
+	public String sender;
+
+	/** 宛先メールアドレス(カンマ区切り) */
+	@Column(length=1024)
+	@NotNull
+	public String recipients;
+
+	/** 件名 */
+	@Column(length=255)
+	@NotNull
+	public String subject;
+
+	/** 本文 */
+	@Column(length=1024)
+	@NotNull
+	public String body;
+
+	/** 送信状態 */
+	@Column(length=16)
+	@NotNull
+	@Enumerated(EnumType.STRING)
+	public Status status;
+
+	/** 送信を試みた回数 */
+	@NotNull
+	public Integer attempts;
+
+	/** 次に送信を試みる日時(送信中の場合は貸出期限) */
+	@NotNull
+	public Date nextAttemptAt;
+
+	/** 送信中の行を確保した処理の識別子 */
+	@Column(length=36)
+	public String claimToken;
+
+	/** 直近の送信失敗の内容 */
+	@Column(length=1024)
+	public String lastError;
+
+	/**
+	 * 電子メールを送信待ち行列に登録します。
+	 * 実行中のトランザクションがあれば、そのトランザクションで登録されます。
+	 * @param email 電子メール
+	 * @return 登録した行
+	 */
+	public static EmailOutbox enqueue(Email email) {
+		final EmailOutbox outbox = new EmailOutbox();
+		outbox.sender = email.getFrom();
+		outbox.recipients = String.join(RECIPIENT_SEPARATOR, email.getTo());
+		outbox.subject = email.getSubject();
+		outbox.body = email.getBodyText();
+		outbox.status = Status.PENDING;
+		outbox.attempts = 0;
+		outbox.nextAttemptAt = new Date();
+		outbox.save();
+		return outbox;
+	}
+
+	/**
+	 * 送信時期に達した行を確保するSQLです。
+	 * 貸出期限を過ぎた送信中の行(確保したインスタンスが停止した行)も確保し直します。
+	 * 外側の条件は、同時に確保しようとした他の処理が先に更新した行を除くためのものです。
+	 */
+	private static final String CLAIM_SQL = " UPDATE email_outbox"
+			+ " SET status = 'SENDING', claim_token = :token, next_attempt_at = :leaseUntil, updated_at = :now"
+			+ " WHERE id IN ("
+			+ " SELECT id FROM email_outbox WHERE status IN ('PENDING', 'SENDING') AND next_attempt_at <= :now ORDER BY id LIMIT :limit)"
+			+ " AND status IN ('PENDING', 'SENDING') AND next_attempt_at <= :now";
+
+	/**
+	 * 送信時期に達した行を確保し、登録順に取得します。
+	 * 確保した行は貸出期限まで他の処理から確保されません。
+	 * @param limit 確保する件数の上限
+	 * @param leaseMillis 貸出期間(ミリ秒)
+	 * @return 確保した行
+	 */
+	public static List<EmailOutbox> claimDue(int limit, long leaseMillis) {
+		final String token = UUID.randomUUID().toString();
+		final long now = System.currentTimeMillis();
+		final int claimed = FlightRecorderEvents.query("EmailOutbox", "claimDue", () -> db().createSqlUpdate(CLAIM_SQL)
+				.setParameter("token", token)
+				.setParameter("leaseUntil", new Timestamp(now + leaseMillis))
+				.setParameter("now", new Timestamp(now))
+				.setParameter("limit", limit)
+				.execute());
+		if (claimed == 0) {
+			return Collections.emptyList();
+		}
+		return FlightRecorderEvents.query("EmailOutbox", "findClaimed", () -> db().find(EmailOutbox.class).where()
+				.eq("claimToken", token)
+				.orderBy("id")
+				.findList());
+	}
+
+	/**
+	 * 引数のIDの登録行を取得します。
+	 * @param id ID
+	 * @return 送信待ち行列の行
+	 */
+	public static EmailOutbox findOne(Long id) {
+		return FlightRecorderEvents.query("EmailOutbox", "findOne", () -> db().find(EmailOutbox.class, id));
+	}
+
+	/**
+	 * 登録内容から電子メールを生成します。
+	 * @return 電子メール
+	 */
+	public Email toEmail() {
+		final Email email = new Email()
+				.setSubject(subject)
+				.setFrom(sender)
+				.setBodyText(body);
+		for (String recipient : recipients.split(RECIPIENT_SEPARATOR)) {
+			email.addTo(recipient);
+		}
+		return email;
+	}
+
+	/**
+	 * 送信済みにします。
+	 */
+	public void markSent() {
+		attempts = attempts + 1;
+		status = Status.SENT;
+		claimToken = null;
+		lastError = null;
+	}
+
+	/**
+	 * 送信失敗を記録します。
+	 * 再送の上限に達した場合は {@link Status#POISONED} とし、そうでない場合は待機時間を倍々に延ばして再送します。
+	 * @param error 送信失敗の内容
+	 * @param maxAttempts 再送の上限
+	 * @param backoffMillis 初回の再送までの待機時間(ミリ秒)
+	 * @param maxBackoffMillis 再送までの待機時間の上限(ミリ秒)
+	 */
+	public void markFailed(String error, int maxAttempts, long backoffMillis, long maxBackoffMillis) {
+		attempts = attempts + 1;
+		lastError = error == null ? null : error.substring(0, Math.min(error.length(), 1024));
+		claimToken = null;
+		if (attempts >= maxAttempts) {
+			status = Status.POISONED;
+		} else {
+			status = Status.PENDING;
+			final long delayMillis = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempts - 1, 20));
+			nextAttemptAt = new Date(System.currentTimeMillis() + delayMillis);
+		}
+	}
+
+}
@@ -1,21 +1,48 @@
 package models;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.validation.constraints.NotNull;
 
+import jfr.FlightRecorderEvents;
+import play.Logger;
 import play.libs.mailer.Email;
 
 /**
  * 電子メールの雛形です。
+ * 解析済みの雛形を雛形コード毎にキャッシュし、更新日時(版)が変わった行だけ
+ * {@link #refreshCompiled()}で解析し直します。
+ * 登録されていない雛形コードも記録し、次の{@link #refreshCompiled()}までDBを照会しません。
  * @author mizuo
  */
 @Entity
 public class EmailTemplate extends TimestampModel {
 
+	/** サイト名の差し込み項目名 */
+	public static final String BLOGIT = "blogit";
+	/** サイト名 */
+	public static final String BLOGIT_NAME = "blogit";
+	/** 仮パスワードの差し込み項目名 */
+	public static final String TEMPORARY_PASSWORD = "temporaryPassword";
+
+	/** 雛形コード毎の解析済みの雛形 */
+	private static final ConcurrentMap<String, CompiledEmailTemplate> COMPILED = new ConcurrentHashMap<>();
+	/** 登録されていなかった雛形コード */
+	private static final Set<String> MISSING = ConcurrentHashMap.newKeySet();
+
 	/** 雛形コード */
 	@Id
 	@Column(length=64)
@@ -38,10 +65,90 @@ public class EmailTemplate extends TimestampModel {
 	 * @return 電子メールの雛形
 	 */
 	private static Optional<EmailTemplate> findOneOrEmpty(String code) {
-		final Optional<EmailTemplate> stored = db().find(EmailTemplate.class).where().eq("code", code).findOneOrEmpty();
+		final Optional<EmailTemplate> stored = FlightRecorderEvents.query("EmailTemplate", "findOneOrEmpty",
+				() -> db().find(EmailTemplate.class).where().eq("code", code).findOneOrEmpty());
 		return stored;
 	}
 
+	/**
+	 * 引数の雛形コードの解析済みの雛形を取得します。
+	 * キャッシュに無い場合だけDBから取得して解析します。
+	 * 登録されていなかった雛形コードは、次の{@link #refreshCompiled()}までDBを照会せずに empty を返します。
+	 * @param code 雛形コード
+	 * @return 解析済みの雛形
+	 */
+	static Optional<CompiledEmailTemplate> findCompiled(String code) {
+		final CompiledEmailTemplate cached = COMPILED.get(code);
+		if (cached != null) {
+			return Optional.of(cached);
+		}
+		if (MISSING.contains(code)) {
+			return Optional.empty();
+		}
+		final Optional<CompiledEmailTemplate> compiled = findOneOrEmpty(code).map(EmailTemplate::compile);
+		if (!compiled.isPresent()) {
+			MISSING.add(code);
+		}
+		return compiled;
+	}
+
+	/**
+	 * 雛形を解析してキャッシュします。
+	 * 既により新しい版がキャッシュされている場合はそちらを返します。
+	 * @param template 電子メールの雛形
+	 * @return 解析済みの雛形
+	 */
+	private static CompiledEmailTemplate compile(EmailTemplate template) {
+		final CompiledEmailTemplate compiled = CompiledEmailTemplate.compile(template);
+		return COMPILED.merge(template.code, compiled, (current, next) -> current.version >= next.version ? current : next);
+	}
+
+	/**
+	 * 登録行の更新日時とキャッシュの版を比較し、変わった雛形を解析し直します。
+	 * 削除された雛形はキャッシュから破棄し、登録されていなかった雛形コードの記録は消去します。
+	 * @return 解析し直した件数
+	 */
+	public static int refreshCompiled() {
+		final List<EmailTemplate> stored = FlightRecorderEvents.query("EmailTemplate", "refreshCompiled",
+				() -> db().find(EmailTemplate.class).findList());
+		final Set<String> codes = new HashSet<>();
+		int compiled = 0;
+		for (EmailTemplate template : stored) {
+			codes.add(template.code);
+			final CompiledEmailTemplate cached = COMPILED.get(template.code);
+			final long version = template.updatedAt == null ? 0L : template.updatedAt.getTime();
+			if (cached == null || cached.version != version) {
+				COMPILED.put(template.code, CompiledEmailTemplate.compile(template));
+				compiled++;
+			}
+		}
+		COMPILED.keySet().retainAll(codes);
+		MISSING.clear();
+		if (compiled > 0 && Logger.isInfoEnabled()) {
+			Logger.info("EmailTemplate#refreshCompiled -> {}", compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * 引数の雛形コードの解析済みの雛形をキャッシュから破棄します。
+	 * @param code 雛形コード
+	 */
+	public static void invalidateCompiled(String code) {
+		COMPILED.remove(code);
+		MISSING.remove(code);
+	}
+
+	/**
+	 * 全ての雛形に共通する差し込み項目を生成します。
+	 * @return 差し込み項目名と値
+	 */
+	private static Map<String, String> createParameters() {
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put(BLOGIT, BLOGIT_NAME);
+		return parameters;
+	}
+
 	/**
 	 * 所有者仮登録メールを生成します。
 	 * @param ownerEmailAddress 所有者メールアドレス
@@ -49,18 +156,20 @@ public class EmailTemplate extends TimestampModel {
 	 * @return 仮登録メール
 	 */
 	public static Optional<Email> createOwner(String ownerEmailAddress, String plainTemporaryPassword) {
-		final Optional<EmailTemplate> stored = findOneOrEmpty("owner");
-		if (stored.isPresent()) {
-			final EmailTemplate template = stored.get();
-			final Email email = new Email()
-					.setSubject(template.subject)
-					.setFrom(ownerEmailAddress)
-					.addTo(ownerEmailAddress)
-					.setBodyText(template.body.replaceAll(":temporaryPassword", plainTemporaryPassword));
-			return Optional.of(email);
-		} else {
-			return Optional.empty();
-		}
+		final Map<String, String> parameters = createParameters();
+		parameters.put(TEMPORARY_PASSWORD, plainTemporaryPassword);
+		return findCompiled("owner").map(template -> template.render(ownerEmailAddress, ownerEmailAddress, parameters));
+	}
+
+	/**
+	 * 所有者仮登録メールを非同期に生成します。
+	 * @param ownerEmailAddress 所有者メールアドレス
+	 * @param plainTemporaryPassword 平分の仮パスワード
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @return 仮登録メール
+	 */
+	public static CompletionStage<Optional<Email>> createOwnerAsync(String ownerEmailAddress, String plainTemporaryPassword, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> createOwner(ownerEmailAddress, plainTemporaryPassword), executor);
 	}
 
 	/**
@@ -70,18 +179,19 @@ public class EmailTemplate extends TimestampModel {
 	 * @return 本登録完了メール
 	 */
 	public static Optional<Email> createActivation(String fromEmailAddress, String individualEmailAddress) {
-		final Optional<EmailTemplate> stored = findOneOrEmpty("activation");
-		if (stored.isPresent()) {
-			final EmailTemplate template = stored.get();
-			final Email email = new Email()
-					.setSubject(template.subject)
-					.setFrom(fromEmailAddress)
-					.addTo(individualEmailAddress)
-					.setBodyText(template.body);
-			return Optional.of(email);
-		} else {
-			return Optional.empty();
-		}
+		final Map<String, String> parameters = createParameters();
+		return findCompiled("activation").map(template -> template.render(fromEmailAddress, individualEmailAddress, parameters));
+	}
+
+	/**
+	 * 本登録完了メールを非同期に生成します。
+	 * @param fromEmailAddress Fromメールアドレス
+	 * @param individualEmailAddress 個人メールアドレス
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @return 本登録完了メール
+	 */
+	public static CompletionStage<Optional<Email>> createActivationAsync(String fromEmailAddress, String individualEmailAddress, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> createActivation(fromEmailAddress, individualEmailAddress), executor);
 	}
 
 }
@@ -2,6 +2,9 @@ package models;
 
 import java.util.Date;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -9,6 +12,7 @@ import javax.validation.constraints.NotNull;
 
 import io.ebean.SqlRow;
 import io.ebean.annotation.CreatedTimestamp;
+import jfr.FlightRecorderEvents;
 
 /**
  * 個人です。
@@ -18,7 +22,7 @@ import io.ebean.annotation.CreatedTimestamp;
 public class Individual extends CrudModel {
 
 	/** メールアドレス */
-	@Column(length=255)
+	@Column(length=255, unique=true)
 	@NotNull
 	public String emailAddress;
 
@@ -37,25 +41,70 @@ public class Individual extends CrudModel {
 	 * @return 個人
 	 */
 	public static Optional<Individual> findOneOrEmpty(Long id) {
-		final Optional<Individual> stored = db().find(Individual.class).where().eq("id", id).findOneOrEmpty();
+		final Optional<Individual> stored = FlightRecorderEvents.query("Individual", "findOneOrEmpty",
+				() -> db().find(Individual.class).where().eq("id", id).findOneOrEmpty());
 		return stored;
 	}
 
-	/** アカウントテーブルと個人テーブルでのメールアドレス登録件数を取得するSQLです。 */
-	private static final String UNIQUE_EMAIL_ADDRESS_SQL = " SELECT COUNT(*) AS counter FROM ("
-			+ " SELECT email_address FROM individual WHERE email_address = :emailAddress"
-			+ " UNION ALL "
-			+ " SELECT login_id FROM account WHERE login_id = :emailAddress"
-			+ ") A";
+	/**
+	 * 引数のIDの登録行を非同期に取得します。
+	 * @param id ID
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @return 個人
+	 */
+	public static CompletionStage<Optional<Individual>> findOneOrEmptyAsync(Long id, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> findOneOrEmpty(id), executor);
+	}
+
+	/** アカウントテーブルと個人テーブルでのメールアドレスの登録有無を取得するSQLです。 */
+	private static final String UNIQUE_EMAIL_ADDRESS_SQL = " SELECT CASE WHEN"
+			+ " EXISTS (SELECT 1 FROM individual WHERE email_address = :emailAddress)"
+			+ " OR EXISTS (SELECT 1 FROM account WHERE login_id = :emailAddress)"
+			+ " THEN 1 ELSE 0 END AS used";
+
+	/** アカウントテーブルと個人テーブルの登録済みメールアドレスを取得するSQLです。 */
+	private static final String USED_EMAIL_ADDRESSES_SQL = " SELECT email_address FROM individual"
+			+ " UNION "
+			+ " SELECT login_id AS email_address FROM account";
 
 	/**
 	 * 保持しているメールアドレスが使用済みであるか判定します。
+	 * {@link EmailAddressFilter}で確実に未使用と判定できた場合はDBを照会しません。
+	 * @param filter 使用済みメールアドレスのフィルタ
+	 * @return 使用済みである場合 true
+	 */
+	public boolean isUsedEmailAddress(EmailAddressFilter filter) {
+		if (!filter.mightBeUsed(emailAddress)) {
+			return false;
+		}
+		final SqlRow result = FlightRecorderEvents.query("Individual", "isUsedEmailAddress",
+				() -> db().createSqlQuery(UNIQUE_EMAIL_ADDRESS_SQL).setParameter("emailAddress", emailAddress).findOne());
+		return result.getInteger("used") > 0;
+	}
+
+	/**
+	 * 登録済みのメールアドレスを全てフィルタに追加し、フィルタを有効にします。
+	 * @param filter 使用済みメールアドレスのフィルタ
+	 * @return 追加した件数
+	 */
+	public static int warmEmailAddressFilter(EmailAddressFilter filter) {
+		final int[] counter = new int[1];
+		db().createSqlQuery(USED_EMAIL_ADDRESSES_SQL).findEach(row -> {
+			filter.put(row.getString("email_address"));
+			counter[0]++;
+		});
+		filter.markReady();
+		return counter[0];
+	}
+
+	/**
+	 * 保持しているメールアドレスが使用済みであるか非同期に判定します。
+	 * @param filter 使用済みメールアドレスのフィルタ
+	 * @param executor DBアクセスの実行コンテキスト
 	 * @return 使用済みである場合 true
 	 */
-	public boolean isUsedEmailAddress() {
-		final SqlRow result = db().createSqlQuery(UNIQUE_EMAIL_ADDRESS_SQL).setParameter("emailAddress", emailAddress).findOne();
-		final long counter = result.getLong("counter");
-		return counter > 0;
+	public CompletionStage<Boolean> isUsedEmailAddressAsync(EmailAddressFilter filter, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> isUsedEmailAddress(filter), executor);
 	}
 
 }
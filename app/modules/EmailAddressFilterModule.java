@@ -0,0 +1,27 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+
+import controllers.EmailAddressFilterLoader;
+import play.Logger;
+import startup.StartupTask;
+
+/**
+ * 使用済みメールアドレスのフィルタモジュールです。
+ * @see EmailAddressFilterLoader
+ * @author mizuo
+ */
+public class EmailAddressFilterModule extends AbstractModule {
+
+	/**
+	 * {@link EmailAddressFilterLoader}を起動時の処理として登録します。
+	 */
+	protected void configure() {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure", getClass().getName());
+		}
+		Multibinder.newSetBinder(binder(), StartupTask.class).addBinding().to(EmailAddressFilterLoader.class);
+	}
+
+}
@@ -0,0 +1,25 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+
+import controllers.EmailOutboxWorker;
+import play.Logger;
+
+/**
+ * 電子メールの送信待ち行列モジュールです。
+ * @see EmailOutboxWorker
+ * @author mizuo
+ */
+public class EmailOutboxModule extends AbstractModule {
+
+	/**
+	 * {@link EmailOutboxWorker}をシングルトンでインスタンス化します。
+	 */
+	protected void configure() {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure", getClass().getName());
+		}
+		bind(EmailOutboxWorker.class).asEagerSingleton();
+	}
+
+}
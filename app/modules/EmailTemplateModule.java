@@ -0,0 +1,27 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+
+import controllers.EmailTemplateRefresher;
+import play.Logger;
+import startup.StartupTask;
+
+/**
+ * 解析済みの電子メールの雛形モジュールです。
+ * @see EmailTemplateRefresher
+ * @author mizuo
+ */
+public class EmailTemplateModule extends AbstractModule {
+
+	/**
+	 * {@link EmailTemplateRefresher}を起動時の処理として登録します。
+	 */
+	protected void configure() {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure", getClass().getName());
+		}
+		Multibinder.newSetBinder(binder(), StartupTask.class).addBinding().to(EmailTemplateRefresher.class);
+	}
+
+}
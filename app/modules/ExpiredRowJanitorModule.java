@@ -0,0 +1,25 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+
+import controllers.ExpiredRowJanitor;
+import play.Logger;
+
+/**
+ * 期限切れの行の削除モジュールです。
+ * @see ExpiredRowJanitor
+ * @author mizuo
+ */
+public class ExpiredRowJanitorModule extends AbstractModule {
+
+	/**
+	 * {@link ExpiredRowJanitor}をシングルトンでインスタンス化します。
+	 */
+	protected void configure() {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure", getClass().getName());
+		}
+		bind(ExpiredRowJanitor.class).asEagerSingleton();
+	}
+
+}
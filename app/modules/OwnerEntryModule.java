@@ -1,9 +1,11 @@
 package modules;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
 
 import controllers.OwnerEntry;
 import play.Logger;
+import startup.StartupTask;
 
 /**
  * 所有者アカウント登録モジュールです。
@@ -13,13 +15,13 @@ import play.Logger;
 public class OwnerEntryModule extends AbstractModule {
 
 	/**
-	 * {@link OwnerEntry}をシングルトンでインスタンス化します。
+	 * {@link OwnerEntry}を起動時の処理として登録します。
 	 */
 	protected void configure() {
 		if (Logger.isInfoEnabled()) {
 			Logger.info("{}#configure", getClass().getName());
 		}
-		bind(OwnerEntry.class).asEagerSingleton();
+		Multibinder.newSetBinder(binder(), StartupTask.class).addBinding().to(OwnerEntry.class);
 	}
 
 }
@@ -0,0 +1,27 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+
+import controllers.PasswordCostCalibrator;
+import play.Logger;
+import startup.StartupTask;
+
+/**
+ * パスワードのハッシュ化コストの較正モジュールです。
+ * @see PasswordCostCalibrator
+ * @author mizuo
+ */
+public class PasswordCostCalibratorModule extends AbstractModule {
+
+	/**
+	 * {@link PasswordCostCalibrator}を起動時の処理として登録します。
+	 */
+	protected void configure() {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure", getClass().getName());
+		}
+		Multibinder.newSetBinder(binder(), StartupTask.class).addBinding().to(PasswordCostCalibrator.class);
+	}
+
+}
@@ -0,0 +1,61 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import com.typesafe.config.Config;
+
+import auth.JdbcSessionStore;
+import auth.MappedSessionStore;
+import auth.MemorySessionStore;
+import auth.SessionActivityTracker;
+import auth.SessionStore;
+import play.Environment;
+import play.Logger;
+
+/**
+ * アカウントセッションの保存先モジュールです。
+ * @see SessionStore
+ * @see SessionActivityTracker
+ * @author mizuo
+ */
+public class SessionStoreModule extends AbstractModule {
+
+	/** 保存先の設定パス */
+	private static final String STORE_PATH = "session.store";
+
+	/** 設定 */
+	private final Config config;
+
+	/**
+	 * @param environment 環境
+	 * @param config 設定
+	 */
+	public SessionStoreModule(Environment environment, Config config) {
+		this.config = config;
+	}
+
+	/**
+	 * 設定 {@code session.store} に従って{@link SessionStore}の実装を選択し、
+	 * {@link SessionActivityTracker}をシングルトンでインスタンス化します。
+	 */
+	protected void configure() {
+		final String store = config.getString(STORE_PATH);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure store = {}", getClass().getName(), store);
+		}
+		switch (store) {
+		case "jdbc":
+			bind(SessionStore.class).to(JdbcSessionStore.class);
+			break;
+		case "memory":
+			bind(SessionStore.class).to(MemorySessionStore.class);
+			break;
+		case "mapped":
+			bind(SessionStore.class).to(MappedSessionStore.class);
+			break;
+		default:
+			throw new IllegalArgumentException(STORE_PATH + ": " + store);
+		}
+		bind(SessionActivityTracker.class).asEagerSingleton();
+	}
+
+}
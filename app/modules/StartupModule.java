@@ -0,0 +1,30 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+
+import play.Logger;
+import startup.StartupTask;
+import startup.StartupTaskRunner;
+
+/**
+ * 起動時の処理の実行モジュールです。
+ * 各モジュールが登録した {@link StartupTask} を実行します。
+ * @see StartupTaskRunner
+ * @author mizuo
+ */
+public class StartupModule extends AbstractModule {
+
+	/**
+	 * {@link StartupTaskRunner}をシングルトンでインスタンス化します。
+	 * 起動時の処理が 1 件も登録されていなくても実行できるよう、空の集合も定義しておきます。
+	 */
+	protected void configure() {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure", getClass().getName());
+		}
+		Multibinder.newSetBinder(binder(), StartupTask.class);
+		bind(StartupTaskRunner.class).asEagerSingleton();
+	}
+
+}
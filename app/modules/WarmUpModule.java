@@ -0,0 +1,27 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+
+import controllers.WarmUp;
+import play.Logger;
+import startup.StartupTask;
+
+/**
+ * JIT のウォームアップモジュールです。
+ * @see WarmUp
+ * @author mizuo
+ */
+public class WarmUpModule extends AbstractModule {
+
+	/**
+	 * {@link WarmUp}を起動時の処理として登録します。
+	 */
+	protected void configure() {
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{}#configure", getClass().getName());
+		}
+		Multibinder.newSetBinder(binder(), StartupTask.class).addBinding().to(WarmUp.class);
+	}
+
+}
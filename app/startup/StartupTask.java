@@ -0,0 +1,63 @@
+package startup;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 起動時に非同期で実行する処理です。
+ * モジュールで {@code Multibinder.newSetBinder(binder(), StartupTask.class).addBinding().to(...)} として登録すると、
+ * {@link StartupTaskRunner} がDBの準備ができた後に、依存する処理が全て成功したものから並行して実行します。
+ * @author mizuo
+ */
+public interface StartupTask {
+
+	/**
+	 * 処理名を返します。
+	 * 他の処理の {@link #dependencies()} から参照されます。
+	 * @return 処理名
+	 */
+	String name();
+
+	/**
+	 * 先に成功している必要がある処理名を返します。
+	 * @return 処理名
+	 */
+	default Set<String> dependencies() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * 成功するまで準備完了({@code /health/ready})としない場合は true を返します。
+	 * @return 必須の場合 true
+	 */
+	default boolean required() {
+		return true;
+	}
+
+	/**
+	 * 制限時間を返します。
+	 * @return 制限時間。empty の場合は {@code startup.timeout}
+	 */
+	default Optional<Duration> timeout() {
+		return Optional.empty();
+	}
+
+	/**
+	 * 処理を開始します。
+	 * 呼び出し元のスレッドを占有しないよう、時間のかかる処理は実行コンテキストに渡して結果を返してください。
+	 * @return 処理結果
+	 */
+	CompletionStage<?> run();
+
+	/**
+	 * 制限時間を過ぎた処理を中断します。
+	 * {@link StartupTaskRunner} が制限時間切れにした時に呼び出します。
+	 * 繰り返しのある処理は、次の繰り返しを開始せずに後始末をして終了してください。
+	 */
+	default void cancel() {
+	}
+
+}
@@ -0,0 +1,378 @@
+package startup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import models.DatabaseExecutionContext;
+import modules.StartupModule;
+import play.Logger;
+import play.api.db.evolutions.ApplicationEvolutions;
+import play.db.Database;
+import scala.concurrent.duration.Duration;
+
+/**
+ * 起動時の処理({@link StartupTask})の実行処理です。
+ * 起動時に{@link StartupModule}から実行される想定です。
+ * DBの進化(evolutions)を適用し、DBに接続できることを確認した後、依存関係の順に処理を並行して実行します。
+ * 進化は {@link ApplicationEvolutions} の生成時に適用されるので、それに依存することで適用前のテーブルで処理を始めません。
+ * 依存する処理が失敗した処理は実行しません。
+ * 必須の処理が全て成功するまでは {@link #isReady()} が false になります。
+ * @author mizuo
+ */
+@Singleton
+public class StartupTaskRunner {
+
+	/** 既定の制限時間の設定パス */
+	private static final String TIMEOUT_PATH = "startup.timeout";
+	/** DBの接続確認を再試行する間隔の設定パス */
+	private static final String DATABASE_RETRY_INTERVAL_PATH = "startup.databaseRetryInterval";
+	/** DBの接続確認の制限時間(秒) */
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	/** 処理名毎の状態(依存関係の順) */
+	private final Map<String, TaskState> states;
+	/** 必須の処理が全て成功した時に完了する結果 */
+	private final CompletableFuture<Void> ready;
+	/** 実行を開始した時刻(ナノ秒) */
+	private final long startedNanos = System.nanoTime();
+	/** 必須の処理が全て成功するまでの所要時間(ナノ秒、未完了の場合は -1) */
+	private volatile long readyNanos = -1;
+
+	/**
+	 * @param config 設定
+	 * @param tasks 起動時の処理
+	 * @param database DB
+	 * @param dbContext DBアクセスの実行コンテキスト
+	 * @param actorSystem アクターシステム
+	 * @param evolutions 適用済みのDBの進化(依存関係のためだけに受け取る)
+	 */
+	@Inject
+	public StartupTaskRunner(Config config, Set<StartupTask> tasks, Database database, DatabaseExecutionContext dbContext, ActorSystem actorSystem,
+			ApplicationEvolutions evolutions) {
+		this(tasks, config.getDuration(TIMEOUT_PATH, TimeUnit.MILLISECONDS), dbContext, timerOf(actorSystem, dbContext),
+				awaitDatabase(database, dbContext, timerOf(actorSystem, dbContext), config.getDuration(DATABASE_RETRY_INTERVAL_PATH, TimeUnit.MILLISECONDS)));
+	}
+
+	/**
+	 * @param tasks 起動時の処理
+	 * @param defaultTimeoutMillis 既定の制限時間(ミリ秒)
+	 * @param executor 処理を開始する実行コンテキスト
+	 * @param timer 制限時間の計時
+	 * @param databaseReady DBの準備ができた時に完了する結果
+	 * @throws IllegalStateException 処理名の重複、未登録の処理への依存、循環する依存がある場合
+	 */
+	StartupTaskRunner(Collection<StartupTask> tasks, long defaultTimeoutMillis, Executor executor, Timer timer, CompletionStage<?> databaseReady) {
+		final List<StartupTask> ordered = order(tasks);
+		if (Logger.isInfoEnabled()) {
+			Logger.info("{} tasks = {}", getClass().getName(), ordered.stream().map(StartupTask::name).collect(Collectors.toList()));
+		}
+		final Map<String, TaskState> states = new LinkedHashMap<>();
+		final Map<String, CompletableFuture<?>> results = new HashMap<>();
+		final List<CompletableFuture<?>> required = new ArrayList<>();
+		for (StartupTask task : ordered) {
+			final TaskState state = new TaskState(task.name(), task.required());
+			final long timeoutMillis = task.timeout().map(java.time.Duration::toMillis).orElse(defaultTimeoutMillis);
+			final CompletableFuture<?>[] dependencies = task.dependencies().stream().map(results::get).toArray(CompletableFuture<?>[]::new);
+			final CompletableFuture<Object> result = databaseReady.toCompletableFuture()
+					.thenCompose(v -> CompletableFuture.allOf(dependencies))
+					.thenComposeAsync(v -> {
+						state.start();
+						return withTimeout(task, timeoutMillis, timer);
+					}, executor);
+			result.whenComplete((value, e) -> state.finish(e));
+			states.put(task.name(), state);
+			results.put(task.name(), result);
+			if (task.required()) {
+				required.add(result);
+			}
+		}
+		this.states = Collections.unmodifiableMap(states);
+		this.ready = CompletableFuture.allOf(required.toArray(new CompletableFuture<?>[0]));
+		ready.whenComplete((v, e) -> {
+			if (e == null) {
+				readyNanos = System.nanoTime() - startedNanos;
+				if (Logger.isInfoEnabled()) {
+					Logger.info("{} ready in {} ms", getClass().getName(), TimeUnit.NANOSECONDS.toMillis(readyNanos));
+				}
+			} else if (Logger.isErrorEnabled()) {
+				Logger.error("必須の起動時の処理が失敗したので準備完了になりません。: {}", e.toString());
+			}
+		});
+	}
+
+	/**
+	 * 処理を依存関係の順に並べます。
+	 * @param tasks 起動時の処理
+	 * @return 依存する処理が先になる順の処理
+	 */
+	static List<StartupTask> order(Collection<StartupTask> tasks) {
+		final Map<String, StartupTask> byName = new LinkedHashMap<>();
+		for (StartupTask task : tasks) {
+			if (byName.put(task.name(), task) != null) {
+				throw new IllegalStateException("起動時の処理名が重複しています。: " + task.name());
+			}
+		}
+		final List<StartupTask> ordered = new ArrayList<>(byName.size());
+		final Map<String, Boolean> visited = new HashMap<>();
+		for (StartupTask task : byName.values()) {
+			visit(task, byName, visited, ordered);
+		}
+		return ordered;
+	}
+
+	/**
+	 * 依存する処理を先に並べてから処理を並べます。
+	 * @param task 起動時の処理
+	 * @param byName 処理名毎の処理
+	 * @param visited 処理名毎の訪問状態(false は訪問中、true は並べ済み)
+	 * @param ordered 並べた処理
+	 */
+	private static void visit(StartupTask task, Map<String, StartupTask> byName, Map<String, Boolean> visited, List<StartupTask> ordered) {
+		final Boolean state = visited.get(task.name());
+		if (Boolean.TRUE.equals(state)) {
+			return;
+		}
+		if (Boolean.FALSE.equals(state)) {
+			throw new IllegalStateException("起動時の処理の依存関係が循環しています。: " + task.name());
+		}
+		visited.put(task.name(), Boolean.FALSE);
+		for (String dependency : task.dependencies()) {
+			final StartupTask depended = byName.get(dependency);
+			if (depended == null) {
+				throw new IllegalStateException("起動時の処理 " + task.name() + " が未登録の処理に依存しています。: " + dependency);
+			}
+			visit(depended, byName, visited, ordered);
+		}
+		visited.put(task.name(), Boolean.TRUE);
+		ordered.add(task);
+	}
+
+	/**
+	 * 処理を開始し、制限時間を過ぎたら {@link TimeoutException} で失敗させます。
+	 * 制限時間を過ぎた処理は {@link StartupTask#cancel()} で中断し、処理結果も取り消します。
+	 * @param task 起動時の処理
+	 * @param timeoutMillis 制限時間(ミリ秒)
+	 * @param timer 制限時間の計時
+	 * @return 処理結果
+	 */
+	private static CompletableFuture<Object> withTimeout(StartupTask task, long timeoutMillis, Timer timer) {
+		final CompletableFuture<Object> result = new CompletableFuture<>();
+		final CompletableFuture<?> running = task.run().toCompletableFuture();
+		timer.schedule(timeoutMillis, () -> {
+			if (result.completeExceptionally(new TimeoutException(task.name() + " did not finish in " + timeoutMillis + " ms"))) {
+				task.cancel();
+				running.cancel(true);
+			}
+		});
+		running.whenComplete((value, e) -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+			} else {
+				result.complete(value);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * DBに接続できるまで一定間隔で確認します。
+	 * @param database DB
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @param timer 再試行の計時
+	 * @param retryMillis 再試行する間隔(ミリ秒)
+	 * @return DBに接続できた時に完了する結果
+	 */
+	private static CompletionStage<Void> awaitDatabase(Database database, Executor executor, Timer timer, long retryMillis) {
+		final CompletableFuture<Void> ready = new CompletableFuture<>();
+		probeDatabase(database, executor, timer, retryMillis, ready);
+		return ready;
+	}
+
+	/**
+	 * DBに接続できるか確認し、できない場合は再試行を予約します。
+	 * @param database DB
+	 * @param executor DBアクセスの実行コンテキスト
+	 * @param timer 再試行の計時
+	 * @param retryMillis 再試行する間隔(ミリ秒)
+	 * @param ready DBに接続できた時に完了させる結果
+	 */
+	private static void probeDatabase(Database database, Executor executor, Timer timer, long retryMillis, CompletableFuture<Void> ready) {
+		executor.execute(() -> {
+			try (Connection connection = database.getConnection()) {
+				if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+					ready.complete(null);
+					return;
+				}
+			} catch (SQLException | RuntimeException e) {
+				if (Logger.isWarnEnabled()) {
+					Logger.warn("DBに接続できません。{} ms 後に再試行します。: {}", retryMillis, e.toString());
+				}
+			}
+			timer.schedule(retryMillis, () -> probeDatabase(database, executor, timer, retryMillis, ready));
+		});
+	}
+
+	/**
+	 * アクターシステムのスケジューラーで計時します。
+	 * @param actorSystem アクターシステム
+	 * @param executor 実行コンテキスト
+	 * @return 計時
+	 */
+	private static Timer timerOf(ActorSystem actorSystem, DatabaseExecutionContext executor) {
+		return (delayMillis, runnable) -> actorSystem.scheduler().scheduleOnce(Duration.create(delayMillis, TimeUnit.MILLISECONDS), runnable, executor);
+	}
+
+	/**
+	 * 必須の処理が全て成功したか判定します。
+	 * @return 成功した場合 true
+	 */
+	public boolean isReady() {
+		return ready.isDone() && !ready.isCompletedExceptionally();
+	}
+
+	/**
+	 * 必須の処理が全て成功した時に完了する結果を返します。
+	 * @return 処理結果
+	 */
+	public CompletionStage<Void> ready() {
+		return ready;
+	}
+
+	/**
+	 * 必須の処理が全て成功するまでの所要時間を返します。
+	 * @return 所要時間(ナノ秒、未完了の場合は -1)
+	 */
+	public long readyNanos() {
+		return readyNanos;
+	}
+
+	/**
+	 * 処理毎の状態を依存関係の順に返します。
+	 * @return 処理毎の状態
+	 */
+	public Collection<TaskState> states() {
+		return states.values();
+	}
+
+	/**
+	 * 計時です。
+	 * @author mizuo
+	 */
+	@FunctionalInterface
+	interface Timer {
+		/**
+		 * 一定時間後に処理を実行します。
+		 * @param delayMillis 待機時間(ミリ秒)
+		 * @param runnable 処理
+		 */
+		void schedule(long delayMillis, Runnable runnable);
+	}
+
+	/**
+	 * 処理の状態です。
+	 * @author mizuo
+	 */
+	public enum Status {
+		/** 開始待ち */
+		PENDING,
+		/** 実行中 */
+		RUNNING,
+		/** 成功 */
+		SUCCEEDED,
+		/** 失敗 */
+		FAILED,
+		/** 制限時間切れ */
+		TIMED_OUT,
+		/** 依存する処理が失敗したので実行しなかった */
+		SKIPPED
+	}
+
+	/**
+	 * 処理毎の状態です。
+	 * @author mizuo
+	 */
+	public static class TaskState {
+		/** 処理名 */
+		public final String name;
+		/** 必須の場合 true */
+		public final boolean required;
+		/** 状態 */
+		private volatile Status status = Status.PENDING;
+		/** 開始した時刻(ナノ秒) */
+		private volatile long startedNanos;
+		/** 所要時間(ナノ秒) */
+		private volatile long elapsedNanos;
+
+		TaskState(String name, boolean required) {
+			this.name = name;
+			this.required = required;
+		}
+
+		/**
+		 * 開始を記録します。
+		 */
+		void start() {
+			startedNanos = System.nanoTime();
+			status = Status.RUNNING;
+		}
+
+		/**
+		 * 完了を記録します。
+		 * @param e 失敗した場合は例外、成功した場合は null
+		 */
+		void finish(Throwable e) {
+			final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			if (status == Status.PENDING) {
+				status = Status.SKIPPED;
+				if (Logger.isWarnEnabled()) {
+					Logger.warn("起動時の処理 {} は依存する処理が失敗したので実行しません。", name);
+				}
+				return;
+			}
+			elapsedNanos = System.nanoTime() - startedNanos;
+			if (cause == null) {
+				status = Status.SUCCEEDED;
+				if (Logger.isInfoEnabled()) {
+					Logger.info("起動時の処理 {} が完了しました。({} ms)", name, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+				}
+			} else {
+				status = cause instanceof TimeoutException ? Status.TIMED_OUT : Status.FAILED;
+				if (Logger.isErrorEnabled()) {
+					Logger.error("起動時の処理 {} が失敗しました。({} ms)", name, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), cause);
+				}
+			}
+		}
+
+		/** @return 状態 */
+		public Status status() {
+			return status;
+		}
+
+		/** @return 所要時間(ナノ秒、実行中の場合は経過時間) */
+		public long elapsedNanos() {
+			return status == Status.RUNNING ? System.nanoTime() - startedNanos : elapsedNanos;
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package auth;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import auth.AuthenticationActionCreator.AuthenticationPolicy;
+import auth.SessionStore.StoredSession;
+import controllers.HomeController;
+import controllers.LoginController;
+import play.core.j.JavaHelpers$;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Http.Context;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * 認証方針の解決のベンチマークです。
+ * リクエスト毎に注釈を走査する従来の解決と、方針表を引く解決を比較します。
+ * また、アクションの生成と、生成したアクションの呼び出しを計測します。
+ * 認証処理は検証済みアカウントセッションのキャッシュに有る場合(DBを照会しない場合)を計測します。
+ * <pre>
+ *     sbt "benchmarks/jmh:run -prof gc .*AuthenticationActionCreatorBenchmark.*"
+ * </pre>
+ * @author mizuo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationActionCreatorBenchmark {
+
+	/** 認証方針の解決対象 */
+	private AuthenticationActionCreator creator;
+	/** 注釈付きのアクションメソッド */
+	private Method annotated;
+	/** ログイン制御クラスのアクションメソッド */
+	private Method login;
+	/** 注釈の無いアクションメソッド */
+	private Method authenticated;
+	/** 認証済みのHTTPコンテキスト */
+	private Context ctx;
+	/** 後続の処理 */
+	private Action<?> ok;
+
+	/** 注釈の無いアクションメソッドのダミーです。 */
+	public void dummy() {}
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		final AccountSessionCache sessionCache = new AccountSessionCache(16, TimeUnit.HOURS.toNanos(1), new MemorySessionStore(16));
+		final StoredSession accountSession = new StoredSession(UUID.randomUUID(), 1L, "127.0.0.1", System.currentTimeMillis());
+		sessionCache.put(accountSession);
+		// キャッシュに有る場合はDBアクセスの実行コンテキストなどを使用しない。
+		final SessionActivityTracker activityTracker = new SessionActivityTracker(new MemorySessionStore(16), TimeUnit.MINUTES.toMillis(1),
+				System::currentTimeMillis);
+		creator = new AuthenticationActionCreator(() -> new AuthenticationAction(sessionCache, null, null, null, activityTracker));
+		ctx = new Context(new Http.RequestBuilder().uri("/"), JavaHelpers$.MODULE$.createContextComponents());
+		new UsernameHelpers.UsernameSession(ctx.session()).set(accountSession.uuid.toString());
+		ok = new Action.Simple() {
+			@Override
+			public CompletionStage<Result> call(Context ctx) {
+				return CompletableFuture.completedFuture(Results.ok());
+			}
+		};
+		annotated = HomeController.class.getMethod("index");
+		login = LoginController.class.getMethod("post");
+		authenticated = AuthenticationActionCreatorBenchmark.class.getMethod("dummy");
+	}
+
+	/**
+	 * 従来の解決です。リクエスト毎に注釈を走査します。
+	 */
+	private AuthenticationPolicy legacy(Method actionMethod) {
+		if (creator.hasAuthenticationAnnotation(actionMethod)) {
+			return AuthenticationPolicy.ANNOTATED;
+		} else if (creator.isLogin(actionMethod)) {
+			return AuthenticationPolicy.LOGIN_GUARD;
+		} else {
+			return AuthenticationPolicy.AUTHENTICATED;
+		}
+	}
+
+	@Benchmark
+	public AuthenticationPolicy legacyAnnotated() {
+		return legacy(annotated);
+	}
+
+	@Benchmark
+	public AuthenticationPolicy legacyLogin() {
+		return legacy(login);
+	}
+
+	@Benchmark
+	public AuthenticationPolicy legacyAuthenticated() {
+		return legacy(authenticated);
+	}
+
+	@Benchmark
+	public AuthenticationPolicy tableAnnotated() {
+		return creator.policyOf(annotated);
+	}
+
+	@Benchmark
+	public AuthenticationPolicy tableLogin() {
+		return creator.policyOf(login);
+	}
+
+	@Benchmark
+	public AuthenticationPolicy tableAuthenticated() {
+		return creator.policyOf(authenticated);
+	}
+
+	@Benchmark
+	public Action<Void> createAction() {
+		return creator.createAction(ctx.request(), authenticated);
+	}
+
+	/**
+	 * 注釈付きのアクションメソッドのアクションの生成と呼び出しです。
+	 */
+	@Benchmark
+	public Result callAnnotated() {
+		return call(annotated);
+	}
+
+	/**
+	 * 注釈の無いアクションメソッドのアクションの生成と呼び出しです。認証処理を経由します。
+	 */
+	@Benchmark
+	public Result callAuthenticated() {
+		return call(authenticated);
+	}
+
+	/**
+	 * アクションを生成して呼び出します。
+	 * @param actionMethod アクションメソッド
+	 * @return 実行結果
+	 */
+	private Result call(Method actionMethod) {
+		final Action<Void> action = creator.createAction(ctx.request(), actionMethod);
+		action.delegate = ok;
+		return action.call(ctx).toCompletableFuture().join();
+	}
+
+}
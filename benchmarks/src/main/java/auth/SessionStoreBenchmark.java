@@ -0,0 +1,129 @@
+package auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import auth.SessionStore.StoredSession;
+import io.ebean.EbeanServer;
+import io.ebean.EbeanServerFactory;
+import io.ebean.config.ServerConfig;
+import models.AccountSession;
+
+/**
+ * アカウントセッションの保存先のベンチマークです。
+ * 認証時のキャッシュに無いセッションの取得と、ログインからログアウトまでの登録、取得、削除を保存先毎に計測します。
+ * jdbc は H2 のインメモリDBに {@code account_session} テーブルを生成して計測します。
+ * <pre>
+ *     sbt "benchmarks/jmh:run -prof gc .*SessionStoreBenchmark.*"
+ * </pre>
+ * @author mizuo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionStoreBenchmark {
+
+	/** 保存先 */
+	@Param({ "memory", "mapped", "jdbc" })
+	public String store;
+
+	/** 事前に登録しておくセッション数 */
+	private static final int SESSIONS = 10000;
+
+	/** 計測対象の保存先 */
+	private SessionStore sessionStore;
+	/** 登録済みのセッションUUID */
+	private UUID[] uuids;
+	/** 次に取得するセッションの位置 */
+	private int next;
+	/** mapped のファイル */
+	private File file;
+	/** jdbc のDB */
+	private EbeanServer server;
+
+	@Setup
+	public void setup() throws IOException {
+		switch (store) {
+		case "memory":
+			sessionStore = new MemorySessionStore(SESSIONS * 2);
+			break;
+		case "mapped":
+			file = File.createTempFile("sessions", ".dat");
+			file.delete();
+			sessionStore = new MappedSessionStore(file.toPath(), SESSIONS * 2);
+			break;
+		case "jdbc":
+			final JdbcDataSource dataSource = new JdbcDataSource();
+			dataSource.setURL("jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1");
+			final ServerConfig config = new ServerConfig();
+			config.setName("default");
+			config.setDefaultServer(true);
+			config.setRegister(true);
+			config.setDataSource(dataSource);
+			config.setDdlGenerate(true);
+			config.setDdlRun(true);
+			config.addClass(AccountSession.class);
+			server = EbeanServerFactory.create(config);
+			sessionStore = new JdbcSessionStore();
+			break;
+		default:
+			throw new IllegalArgumentException("store: " + store);
+		}
+		uuids = new UUID[SESSIONS];
+		for (int i = 0; i < SESSIONS; i++) {
+			uuids[i] = UUID.randomUUID();
+			sessionStore.save(new StoredSession(uuids[i], i, "192.0.2.1", System.currentTimeMillis()));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (sessionStore instanceof MappedSessionStore) {
+			((MappedSessionStore) sessionStore).close();
+			file.delete();
+		}
+		if (server != null) {
+			server.shutdown(false, false);
+		}
+	}
+
+	/**
+	 * 登録済みのセッションの取得です。
+	 */
+	@Benchmark
+	public Optional<StoredSession> find() {
+		next = (next + 1) % SESSIONS;
+		return sessionStore.find(uuids[next]);
+	}
+
+	/**
+	 * ログインからログアウトまでの登録、取得、削除です。
+	 */
+	@Benchmark
+	public boolean saveFindDelete() {
+		final UUID uuid = UUID.randomUUID();
+		sessionStore.save(new StoredSession(uuid, 1L, "192.0.2.1", System.currentTimeMillis()));
+		return sessionStore.find(uuid).isPresent() && sessionStore.delete(uuid);
+	}
+
+}
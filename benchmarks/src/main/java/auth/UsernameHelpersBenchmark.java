@@ -0,0 +1,82 @@
+package auth;
+
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import auth.UsernameHelpers.UsernameRequest;
+import auth.UsernameHelpers.UsernameSession;
+import play.mvc.Http;
+import play.mvc.Http.Request;
+
+/**
+ * 利用者名のセッションとリクエスト属性の読み書きのベンチマークです。
+ * 認証済みリクエスト毎に発生する設定と取得の往復を計測します。
+ * <pre>
+ *     sbt "benchmarks/jmh:run -prof gc .*UsernameHelpersBenchmark.*"
+ * </pre>
+ * @author mizuo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsernameHelpersBenchmark {
+
+	/** 利用者名(セッションUUID) */
+	private final String username = UUID.randomUUID().toString();
+
+	/** リクエスト */
+	private Request request;
+	/** 利用者名を設定済みのHTTPセッション */
+	private Http.Session session;
+
+	@Setup
+	public void setup() {
+		request = new Http.RequestBuilder().uri("/").build();
+		session = new Http.Session(new HashMap<>());
+		new UsernameSession(session).set(username);
+	}
+
+	/**
+	 * HTTPセッションからの取得です。
+	 */
+	@Benchmark
+	public Optional<String> sessionGet() {
+		return new UsernameSession(session).get();
+	}
+
+	/**
+	 * HTTPセッションへの設定と取得の往復です。
+	 */
+	@Benchmark
+	public Optional<String> sessionRoundTrip() {
+		final Http.Session session = new Http.Session(new HashMap<>());
+		new UsernameSession(session).set(username);
+		return new UsernameSession(session).get();
+	}
+
+	/**
+	 * リクエスト属性への設定と取得の往復です。
+	 */
+	@Benchmark
+	public String requestAttrRoundTrip() {
+		final Request usernameReq = new UsernameRequest(request).addAttr(Optional.of(username));
+		return new UsernameRequest(usernameReq).get();
+	}
+
+}
@@ -0,0 +1,60 @@
+package controllers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import controllers.ControllerAuthHelpers.PasswordHelper;
+
+/**
+ * パスワードのハッシュ化と照合のベンチマークです。
+ * コスト毎の所要時間を計測し、{@code password.bcrypt.targetLatency} の妥当性を確認します。
+ * <pre>
+ *     sbt "benchmarks/jmh:run .*PasswordHelperBenchmark.* -p logRounds=10,12"
+ * </pre>
+ * @author mizuo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHelperBenchmark {
+
+	/** 平文パスワード */
+	private static final String PLAIN = "benchmark-password";
+
+	/** ハッシュ化のコスト */
+	@Param({"4", "8", "10", "12"})
+	public int logRounds;
+
+	/** ハッシュ化したパスワード */
+	private String hashed;
+
+	@Setup
+	public void setup() {
+		hashed = PasswordHelper.hash(PLAIN, logRounds);
+	}
+
+	@Benchmark
+	public String hash() {
+		return PasswordHelper.hash(PLAIN, logRounds);
+	}
+
+	@Benchmark
+	public boolean equal() {
+		return PasswordHelper.equal(PLAIN, hashed);
+	}
+
+}
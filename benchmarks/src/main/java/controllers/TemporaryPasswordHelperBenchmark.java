@@ -0,0 +1,92 @@
+package controllers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import controllers.ControllerAuthHelpers.PasswordHelper;
+import controllers.ControllerAuthHelpers.TemporaryPasswordHelper;
+
+/**
+ * 仮パスワードのハッシュ化と照合のベンチマークです。
+ * BCrypt 以外の処理(仮パスワードの生成、{@code String.format} による仮登録パスワードの生成)の割合は
+ * 最小のコストの結果と {@link #createPlain()}、{@link #concat()} を比較して確認します。
+ * <pre>
+ *     sbt "benchmarks/jmh:run .*TemporaryPasswordHelperBenchmark.*"
+ * </pre>
+ * @author mizuo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemporaryPasswordHelperBenchmark {
+
+	/** 仮登録コード */
+	private static final String TEMPORARY_CODE = "0123456789abcdef";
+
+	/** ハッシュ化のコスト */
+	@Param({"4", "10"})
+	public int logRounds;
+
+	/** 仮パスワード */
+	private String plainTemporary;
+	/** 仮登録パスワードをハッシュ化した文字列 */
+	private String hashed;
+
+	@Setup
+	public void setup() {
+		PasswordHelper.setLogRounds(logRounds);
+		final TemporaryPasswordHelper helper = new TemporaryPasswordHelper();
+		hashed = helper.hash(TEMPORARY_CODE);
+		plainTemporary = helper.plainTemporary;
+	}
+
+	@TearDown
+	public void tearDown() {
+		PasswordHelper.setLogRounds(PasswordHelper.DEFAULT_LOG_ROUNDS);
+	}
+
+	/**
+	 * 仮パスワードの生成、仮登録パスワードの生成、ハッシュ化です。
+	 */
+	@Benchmark
+	public String hash() {
+		return new TemporaryPasswordHelper().hash(TEMPORARY_CODE);
+	}
+
+	@Benchmark
+	public boolean equal() {
+		return TemporaryPasswordHelper.equal(TEMPORARY_CODE, plainTemporary, hashed);
+	}
+
+	/**
+	 * {@code String.format} による仮登録パスワードの生成です。
+	 */
+	@Benchmark
+	public String createPlain() {
+		return TemporaryPasswordHelper.createPlain(TEMPORARY_CODE, plainTemporary);
+	}
+
+	/**
+	 * 文字列結合による仮登録パスワードの生成です。{@link #createPlain()} の比較対象です。
+	 */
+	@Benchmark
+	public String concat() {
+		return TEMPORARY_CODE + plainTemporary + TEMPORARY_CODE;
+	}
+
+}
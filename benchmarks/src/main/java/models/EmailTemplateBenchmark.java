@@ -0,0 +1,79 @@
+package models;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import play.libs.mailer.Email;
+
+/**
+ * 電子メールの雛形の差し込みのベンチマークです。
+ * 送信毎に正規表現で置換する従来の生成と、解析済みの雛形による生成を比較します。
+ * 従来の生成は送信毎のDB照会も伴いますが、ここでは差し込み処理だけを計測します。
+ * <pre>
+ *     sbt "benchmarks/jmh:run -prof gc .*EmailTemplateBenchmark.*"
+ * </pre>
+ * @author mizuo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailTemplateBenchmark {
+
+	/** メールアドレス */
+	private static final String EMAIL_ADDRESS = "owner@example.com";
+	/** 平文の仮パスワード */
+	private static final String TEMPORARY_PASSWORD = "0123456789abcdef";
+
+	/** 電子メールの雛形 */
+	private EmailTemplate template;
+	/** 解析済みの雛形 */
+	private CompiledEmailTemplate compiled;
+
+	@Setup
+	public void setup() {
+		template = new EmailTemplate();
+		template.code = "owner";
+		template.subject = "[:blogit]owner temporary registration";
+		template.body = "temporaryPassword: :temporaryPassword";
+		compiled = CompiledEmailTemplate.compile(template);
+	}
+
+	/**
+	 * 従来の生成です。送信毎に正規表現をコンパイルして本文だけを置換します。
+	 */
+	@Benchmark
+	public Email legacy() {
+		return new Email()
+				.setSubject(template.subject)
+				.setFrom(EMAIL_ADDRESS)
+				.addTo(EMAIL_ADDRESS)
+				.setBodyText(template.body.replaceAll(":temporaryPassword", TEMPORARY_PASSWORD));
+	}
+
+	/**
+	 * 解析済みの雛形による生成です。件名と本文の両方に差し込みます。
+	 */
+	@Benchmark
+	public Email compiled() {
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put(EmailTemplate.BLOGIT, EmailTemplate.BLOGIT_NAME);
+		parameters.put(EmailTemplate.TEMPORARY_PASSWORD, TEMPORARY_PASSWORD);
+		return compiled.render(EMAIL_ADDRESS, EMAIL_ADDRESS, parameters);
+	}
+
+}
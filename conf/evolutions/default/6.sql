@@ -0,0 +1,26 @@
+
+# --- !Ups
+
+create table email_outbox (
+  id                            bigint auto_increment not null,
+  sender                        varchar(255) not null,
+  recipients                    varchar(1024) not null,
+  subject                       varchar(255) not null,
+  body                          varchar(1024) not null,
+  status                        varchar(16) not null,
+  attempts                      integer not null,
+  next_attempt_at               timestamp not null,
+  last_error                    varchar(1024),
+  created_at                    timestamp not null,
+  updated_at                    timestamp not null,
+  constraint pk_email_outbox primary key (id)
+);
+
+create index ix_email_outbox_status_next_attempt_at on email_outbox (status, next_attempt_at);
+
+
+# --- !Downs
+
+drop index if exists ix_email_outbox_status_next_attempt_at;
+
+drop table if exists email_outbox;
@@ -0,0 +1,8 @@
+# --- !Ups
+
+create unique index uq_individual_email_address on individual (email_address);
+
+
+# --- !Downs
+
+drop index if exists uq_individual_email_address;
@@ -0,0 +1,12 @@
+# --- !Ups
+
+create index ix_account_session_updated_at on account_session (updated_at);
+
+create index ix_applicant_applied_at on applicant (applied_at);
+
+
+# --- !Downs
+
+drop index if exists ix_applicant_applied_at;
+
+drop index if exists ix_account_session_updated_at;
@@ -0,0 +1,12 @@
+# --- !Ups
+
+alter table email_outbox add column claim_token varchar(36);
+
+create index ix_email_outbox_claim_token on email_outbox (claim_token);
+
+
+# --- !Downs
+
+drop index if exists ix_email_outbox_claim_token;
+
+alter table email_outbox drop column if exists claim_token;
@@ -0,0 +1,109 @@
+package auth;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import auth.SessionStore.StoredSession;
+
+/**
+ * 検証済みアカウントセッションのキャッシュのテストクラスです。
+ * @author mizuo
+ */
+public class AccountSessionCacheTest {
+
+	/**
+	 * テスト用のアカウントセッションを生成します。
+	 * @return アカウントセッション
+	 */
+	private StoredSession createSession() {
+		return new StoredSession(UUID.randomUUID(), 1L, "127.0.0.1", System.currentTimeMillis());
+	}
+
+	/**
+	 * 保持件数の上限を超えた場合のテストを行います。
+	 */
+	@Test
+	public void evictBySize() {
+		final AccountSessionCache cache = new AccountSessionCache(2, TimeUnit.MINUTES.toNanos(1), new MemorySessionStore(100));
+		final StoredSession first = createSession();
+		final StoredSession second = createSession();
+		final StoredSession third = createSession();
+		cache.put(first);
+		cache.put(second);
+		Assert.assertTrue("参照した行は最新として扱われる。", cache.getIfPresent(first.uuid).isPresent());
+		cache.put(third);
+		Assert.assertEquals("上限を超えた分は破棄される。", 2, cache.size());
+		Assert.assertFalse("最も参照されていない行が破棄される。", cache.getIfPresent(second.uuid).isPresent());
+		Assert.assertTrue(cache.getIfPresent(first.uuid).isPresent());
+		Assert.assertTrue(cache.getIfPresent(third.uuid).isPresent());
+		Assert.assertEquals(1, cache.evictionCount());
+		Assert.assertEquals(3, cache.hitCount());
+		Assert.assertEquals(1, cache.missCount());
+	}
+
+	/**
+	 * 生存期間を過ぎた場合のテストを行います。
+	 */
+	@Test
+	public void expire() {
+		final AccountSessionCache cache = new AccountSessionCache(10, 0, new MemorySessionStore(100));
+		final StoredSession session = createSession();
+		cache.put(session);
+		Assert.assertFalse("生存期間を過ぎた行は取得できない。", cache.getIfPresent(session.uuid).isPresent());
+		Assert.assertEquals("生存期間を過ぎた行は破棄される。", 0, cache.size());
+		Assert.assertEquals(1, cache.evictionCount());
+	}
+
+	/**
+	 * 破棄と不正な利用者名のテストを行います。
+	 */
+	@Test
+	public void invalidate() {
+		final AccountSessionCache cache = new AccountSessionCache(10, TimeUnit.MINUTES.toNanos(1), new MemorySessionStore(100));
+		final StoredSession session = createSession();
+		cache.put(session);
+		cache.invalidate("not-a-uuid");
+		Assert.assertEquals("UUIDとして不正な利用者名は無視される。", 1, cache.size());
+		cache.invalidate(session.uuid.toString());
+		Assert.assertFalse("ログアウトした行は取得できない。", cache.getIfPresent(session.uuid).isPresent());
+		Assert.assertFalse("UUIDとして不正な利用者名はDBを照会せず未認証となる。", cache.findAsync("not-a-uuid", Runnable::run).toCompletableFuture().join().isPresent());
+	}
+
+	/**
+	 * 保存先での検証のテストを行います。
+	 */
+	@Test
+	public void findFromStore() {
+		final MemorySessionStore store = new MemorySessionStore(100);
+		final AccountSessionCache cache = new AccountSessionCache(10, TimeUnit.MINUTES.toNanos(1), store);
+		final StoredSession session = createSession();
+		store.save(session);
+		final Executor rejected = command -> {
+			throw new AssertionError("入出力を待たない保存先は呼び出し元のスレッドで検証する。");
+		};
+		Assert.assertTrue("保存先に有るセッションは認証済みとなる。", cache.findAsync(session.uuid.toString(), rejected).toCompletableFuture().join().isPresent());
+		Assert.assertTrue("検証したセッションはキャッシュされる。", cache.getIfPresent(session.uuid).isPresent());
+		Assert.assertFalse("保存先に無いセッションは未認証となる。",
+				cache.findAsync(UUID.randomUUID().toString(), rejected).toCompletableFuture().join().isPresent());
+	}
+
+	/**
+	 * 期限切れのセッションの破棄のテストを行います。
+	 */
+	@Test
+	public void invalidateIdle() {
+		final AccountSessionCache cache = new AccountSessionCache(10, TimeUnit.MINUTES.toNanos(1), new MemorySessionStore(100));
+		final StoredSession idle = new StoredSession(UUID.randomUUID(), 1L, "127.0.0.1", 1000L);
+		final StoredSession active = new StoredSession(UUID.randomUUID(), 1L, "127.0.0.1", 3000L);
+		cache.put(idle);
+		cache.put(active);
+		Assert.assertEquals("検証した時点の最終アクセス日時が古いセッションを破棄する。", 1, cache.invalidateIdle(2000L));
+		Assert.assertFalse(cache.getIfPresent(idle.uuid).isPresent());
+		Assert.assertTrue("最終アクセス日時が新しいセッションは残る。", cache.getIfPresent(active.uuid).isPresent());
+	}
+
+}
@@ -7,8 +7,11 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import auth.AuthenticationAnnotations.Anybody;
+import auth.AuthenticationActionCreator.AuthenticationPolicy;
 import auth.AuthenticationAnnotations.Authenticated;
 import controllers.LoginController;
+import controllers.HealthController;
+import controllers.MetricsController;
 
 /**
  * 認証アクション生成のテストクラスです。
@@ -31,7 +34,7 @@ public class AuthenticationActionCreatorTest {
 	 */
 	@Test
 	public void hasAuthenticationAnnotation() throws NoSuchMethodException, SecurityException {
-		final AuthenticationActionCreator creator = new AuthenticationActionCreator();
+		final AuthenticationActionCreator creator = new AuthenticationActionCreator(() -> null);
 		Assert.assertFalse("AuthenticationAnnotation の内部注釈定義以外は false となる。", creator.hasAuthenticationAnnotation(AuthenticationActionCreatorTest.class.getDeclaredMethod("dummy")));
 		Assert.assertTrue("AuthenticationAnnotation の内部注釈定義は true となる。", creator.hasAuthenticationAnnotation(AuthenticationActionCreatorTest.class.getDeclaredMethod("dummyAnybody")));
 		Assert.assertTrue("AuthenticationAnnotation の内部注釈定義は true となる。", creator.hasAuthenticationAnnotation(AuthenticationActionCreatorTest.class.getDeclaredMethod("dummyAuthenticated")));
@@ -42,7 +45,7 @@ public class AuthenticationActionCreatorTest {
 	 */
 	@Test
 	public void isLogin() throws NoSuchMethodException, SecurityException {
-		final AuthenticationActionCreator creator = new AuthenticationActionCreator();
+		final AuthenticationActionCreator creator = new AuthenticationActionCreator(() -> null);
 		for (Method method : getClass().getMethods()) {
 			Assert.assertFalse(String.format("対象外クラスのメソッドは認証ありとする。-> %s#%s", method.getDeclaringClass().getName(), method.getName()), creator.isLogin(method));
 		}
@@ -50,4 +53,22 @@ public class AuthenticationActionCreatorTest {
 		Assert.assertFalse("ログイン制御クラスの get メソッド以外は認証ありとする", creator.isLogin(LoginController.class.getMethod("post")));
 	}
 
+	/**
+	 * 認証方針表のテストを行います。
+	 */
+	@Test
+	public void policyOf() throws NoSuchMethodException, SecurityException {
+		final AuthenticationActionCreator creator = new AuthenticationActionCreator(() -> null);
+		Assert.assertEquals(AuthenticationPolicy.AUTHENTICATED, creator.policyOf(AuthenticationActionCreatorTest.class.getDeclaredMethod("dummy")));
+		Assert.assertEquals(AuthenticationPolicy.ANNOTATED, creator.policyOf(AuthenticationActionCreatorTest.class.getDeclaredMethod("dummyAnybody")));
+		Assert.assertEquals(AuthenticationPolicy.ANNOTATED, creator.policyOf(AuthenticationActionCreatorTest.class.getDeclaredMethod("dummyAuthenticated")));
+		Assert.assertEquals("注釈済みのログイン処理は注釈に従う。", AuthenticationPolicy.ANNOTATED, creator.policyOf(LoginController.class.getMethod("get")));
+		Assert.assertEquals(AuthenticationPolicy.ANNOTATED, creator.policyOf(LoginController.class.getMethod("post")));
+		Assert.assertEquals("計測値は認証アクションを経由しない。", AuthenticationPolicy.PUBLIC, creator.policyOf(MetricsController.class.getMethod("get")));
+		Assert.assertEquals("死活監視は認証アクションを経由しない。", AuthenticationPolicy.PUBLIC, creator.policyOf(HealthController.class.getMethod("ready")));
+		for (Method method : getClass().getDeclaredMethods()) {
+			Assert.assertEquals(String.format("方針表と都度解決の結果は一致する。-> %s", method.getName()), creator.resolvePolicy(method), creator.policyOf(method));
+		}
+	}
+
 }
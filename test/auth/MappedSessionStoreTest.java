@@ -0,0 +1,204 @@
+package auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import auth.SessionStore.StoredSession;
+
+/**
+ * メモリマップトファイルに保存するアカウントセッションの保存先のテストクラスです。
+ * @author mizuo
+ */
+public class MappedSessionStoreTest {
+
+	/** 一時ディレクトリ */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * テスト用のアカウントセッションを生成します。
+	 * @param lastSeenMillis 最終アクセス日時
+	 * @return アカウントセッション
+	 */
+	private StoredSession createSession(long lastSeenMillis) {
+		return new StoredSession(UUID.randomUUID(), lastSeenMillis, "192.0.2." + (lastSeenMillis % 256), lastSeenMillis);
+	}
+
+	/**
+	 * 登録、取得、削除のテストを行います。
+	 * @throws IOException 一時ファイルを作成できない場合
+	 */
+	@Test
+	public void saveFindDelete() throws IOException {
+		final MappedSessionStore store = new MappedSessionStore(new File(folder.getRoot(), "sessions.dat").toPath(), 10);
+		try {
+			final StoredSession session = createSession(1L);
+			store.save(session);
+			final StoredSession found = store.find(session.uuid).get();
+			Assert.assertEquals("登録したセッションを取得できる。", session.uuid, found.uuid);
+			Assert.assertEquals(session.individualId, found.individualId);
+			Assert.assertEquals(session.ipAddress, found.ipAddress);
+			Assert.assertEquals(session.lastSeenMillis, found.lastSeenMillis);
+			Assert.assertFalse("登録していないセッションは取得できない。", store.find(UUID.randomUUID()).isPresent());
+			Assert.assertTrue("登録したセッションは削除できる。", store.delete(session.uuid));
+			Assert.assertFalse("削除したセッションは取得できない。", store.find(session.uuid).isPresent());
+			Assert.assertFalse("削除済みのセッションは削除できない。", store.delete(session.uuid));
+			Assert.assertEquals(0, store.size());
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * 開き直した場合のテストを行います。
+	 * @throws IOException 一時ファイルを作成できない場合
+	 */
+	@Test
+	public void reopen() throws IOException {
+		final Path path = new File(folder.getRoot(), "sessions.dat").toPath();
+		final StoredSession kept = createSession(1L);
+		final StoredSession deleted = createSession(2L);
+		final MappedSessionStore store = new MappedSessionStore(path, 10);
+		store.save(kept);
+		store.save(deleted);
+		store.delete(deleted.uuid);
+		store.close();
+		final MappedSessionStore reopened = new MappedSessionStore(path, 10);
+		try {
+			Assert.assertTrue("開き直してもセッションは有効である。", reopened.find(kept.uuid).isPresent());
+			Assert.assertFalse("削除したセッションは開き直しても取得できない。", reopened.find(deleted.uuid).isPresent());
+			Assert.assertEquals(1, reopened.size());
+		} finally {
+			reopened.close();
+		}
+		final MappedSessionStore resized = new MappedSessionStore(path, 1000);
+		try {
+			Assert.assertTrue("保持件数の上限を変えてもセッションは引き継がれる。", resized.find(kept.uuid).isPresent());
+			Assert.assertEquals(1, resized.size());
+		} finally {
+			resized.close();
+		}
+	}
+
+	/**
+	 * 保持件数の上限を超えた場合と、墓標の再利用のテストを行います。
+	 * @throws IOException 一時ファイルを作成できない場合
+	 */
+	@Test
+	public void evictAndReuse() throws IOException {
+		final MappedSessionStore store = new MappedSessionStore(new File(folder.getRoot(), "sessions.dat").toPath(), 3);
+		try {
+			final StoredSession oldest = createSession(1L);
+			store.save(oldest);
+			store.save(createSession(2L));
+			store.save(createSession(3L));
+			final StoredSession newest = createSession(4L);
+			store.save(newest);
+			Assert.assertEquals("上限を超えた分は破棄される。", 3, store.size());
+			Assert.assertFalse("最終アクセス日時が最も古いセッションが破棄される。", store.find(oldest.uuid).isPresent());
+			Assert.assertTrue(store.find(newest.uuid).isPresent());
+			Assert.assertEquals(1, store.evictionCount());
+			for (int i = 0; i < MappedSessionStore.slotCountOf(3) * 4; i++) {
+				final StoredSession session = createSession(10L + i);
+				store.save(session);
+				Assert.assertTrue("削除を繰り返しても登録できる。", store.delete(session.uuid));
+			}
+			Assert.assertEquals(2, store.size());
+			Assert.assertTrue(store.find(newest.uuid).isPresent());
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * 表の作り直しのテストを行います。
+	 * @throws IOException 一時ファイルを作成できない場合
+	 */
+	@Test
+	public void rehash() throws IOException {
+		final Path path = new File(folder.getRoot(), "sessions.dat").toPath();
+		final StoredSession kept = createSession(1L);
+		final MappedSessionStore store = new MappedSessionStore(path, 3);
+		try {
+			store.save(kept);
+			for (int i = 0; i < MappedSessionStore.slotCountOf(3) * 4; i++) {
+				final StoredSession session = createSession(10L + i);
+				store.save(session);
+				store.delete(session.uuid);
+			}
+			Assert.assertTrue("作り直してもセッションは有効である。", store.find(kept.uuid).isPresent());
+			Assert.assertFalse("一時ファイルは置き換えで残らない。", new File(folder.getRoot(), "sessions.dat.tmp").exists());
+		} finally {
+			store.close();
+		}
+		final MappedSessionStore reopened = new MappedSessionStore(path, 3);
+		try {
+			Assert.assertTrue("作り直したファイルを開き直してもセッションは有効である。", reopened.find(kept.uuid).isPresent());
+			Assert.assertEquals(1, reopened.size());
+		} finally {
+			reopened.close();
+		}
+	}
+
+	/**
+	 * 標本による破棄のテストを行います。
+	 * 新しいセッションは古いセッションの 1 割なので、標本が全て新しいセッションになることは事実上ありません。
+	 * @throws IOException 一時ファイルを作成できない場合
+	 */
+	@Test
+	public void evictSampled() throws IOException {
+		final int maxSessions = 1000;
+		final MappedSessionStore store = new MappedSessionStore(new File(folder.getRoot(), "sessions.dat").toPath(), maxSessions);
+		try {
+			for (int i = 0; i < maxSessions; i++) {
+				store.save(createSession(1000L + i));
+			}
+			final List<StoredSession> newer = new ArrayList<>();
+			for (int i = 0; i < maxSessions / 10; i++) {
+				final StoredSession session = createSession(1000000L + i);
+				store.save(session);
+				newer.add(session);
+			}
+			Assert.assertEquals("上限を超えた分は破棄される。", maxSessions, store.size());
+			Assert.assertEquals(maxSessions / 10, store.evictionCount());
+			for (StoredSession session : newer) {
+				Assert.assertTrue("標本の中で古いセッションが破棄される。", store.find(session.uuid).isPresent());
+			}
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * 期限切れのセッションの削除のテストを行います。
+	 * @throws IOException 一時ファイルを作成できない場合
+	 */
+	@Test
+	public void deleteIdle() throws IOException {
+		final MappedSessionStore store = new MappedSessionStore(new File(folder.getRoot(), "sessions.dat").toPath(), 10);
+		try {
+			final StoredSession active = createSession(100L);
+			store.save(active);
+			for (int i = 0; i < 5; i++) {
+				store.save(createSession(10L + i));
+			}
+			Assert.assertEquals("上限の件数まで削除する。", 3, store.deleteIdle(100L, 3));
+			Assert.assertEquals("残りの期限切れのセッションを削除する。", 2, store.deleteIdle(100L, 3));
+			Assert.assertEquals("期限切れのセッションが無ければ削除しない。", 0, store.deleteIdle(100L, 3));
+			Assert.assertTrue("期限内のセッションは残る。", store.find(active.uuid).isPresent());
+			Assert.assertEquals(1, store.size());
+		} finally {
+			store.close();
+		}
+	}
+
+}
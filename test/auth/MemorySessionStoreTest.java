@@ -0,0 +1,73 @@
+package auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import auth.SessionStore.StoredSession;
+
+/**
+ * ヒープ上の表に保存するアカウントセッションの保存先のテストクラスです。
+ * @author mizuo
+ */
+public class MemorySessionStoreTest {
+
+	/**
+	 * テスト用のアカウントセッションを生成します。
+	 * @param lastSeenMillis 最終アクセス日時
+	 * @return アカウントセッション
+	 */
+	private StoredSession createSession(long lastSeenMillis) {
+		return new StoredSession(UUID.randomUUID(), lastSeenMillis, "192.0.2.1", lastSeenMillis);
+	}
+
+	/**
+	 * 保持件数の上限を超えた場合のテストを行います。
+	 * 新しいセッションは古いセッションの 1 割なので、標本が全て新しいセッションになることは事実上ありません。
+	 */
+	@Test
+	public void evict() {
+		final int maxSessions = 1000;
+		final MemorySessionStore store = new MemorySessionStore(maxSessions);
+		for (int i = 0; i < maxSessions; i++) {
+			store.save(createSession(1000L + i));
+		}
+		final List<StoredSession> newer = new ArrayList<>();
+		for (int i = 0; i < maxSessions / 10; i++) {
+			final StoredSession session = createSession(1000000L + i);
+			store.save(session);
+			newer.add(session);
+		}
+		Assert.assertEquals("上限を超えた分は破棄される。", maxSessions, store.size());
+		Assert.assertEquals(maxSessions / 10, store.evictionCount());
+		for (StoredSession session : newer) {
+			Assert.assertTrue("標本の中で古いセッションが破棄される。", store.find(session.uuid).isPresent());
+		}
+		final StoredSession replaced = newer.get(0);
+		store.save(new StoredSession(replaced.uuid, replaced.individualId, replaced.ipAddress, 2000000L));
+		Assert.assertEquals("同じUUIDの置き換えでは破棄しない。", maxSessions / 10, store.evictionCount());
+	}
+
+	/**
+	 * 期限切れのセッションの削除のテストを行います。
+	 */
+	@Test
+	public void deleteIdle() {
+		final MemorySessionStore store = new MemorySessionStore(10);
+		final StoredSession active = createSession(100L);
+		store.save(active);
+		for (int i = 0; i < 5; i++) {
+			store.save(createSession(10L + i));
+		}
+		Assert.assertEquals("上限の件数まで削除する。", 3, store.deleteIdle(100L, 3));
+		Assert.assertEquals(3, store.size());
+		Assert.assertEquals("残りの期限切れのセッションを削除する。", 2, store.deleteIdle(100L, 3));
+		Assert.assertEquals("期限切れのセッションが無ければ削除しない。", 0, store.deleteIdle(100L, 3));
+		Assert.assertTrue("期限内のセッションは残る。", store.find(active.uuid).isPresent());
+		Assert.assertEquals(1, store.size());
+	}
+
+}
@@ -0,0 +1,99 @@
+package auth;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import auth.SessionStore.StoredSession;
+
+/**
+ * 最終アクセス日時の遅延書き込みのテストクラスです。
+ * @author mizuo
+ */
+public class SessionActivityTrackerTest {
+
+	/** 粒度(ミリ秒) */
+	private static final long GRANULARITY = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * 粒度の時間内のアクセスをまとめるテストを行います。
+	 */
+	@Test
+	public void coalesce() {
+		final AtomicInteger touches = new AtomicInteger();
+		final MemorySessionStore store = new MemorySessionStore(100) {
+			@Override
+			public int touch(Map<UUID, Long> lastSeenMillis) {
+				touches.incrementAndGet();
+				return super.touch(lastSeenMillis);
+			}
+		};
+		final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+		final SessionActivityTracker tracker = new SessionActivityTracker(store, GRANULARITY, now::get);
+		final StoredSession session = new StoredSession(UUID.randomUUID(), 1L, "127.0.0.1", now.get());
+		store.save(session);
+
+		tracker.touch(session.uuid, session.lastSeenMillis);
+		tracker.flush();
+		Assert.assertEquals("ログイン直後のアクセスは記録しない。", 1, tracker.skippedCount());
+		Assert.assertEquals("書き込むものが無ければ保存先を呼び出さない。", 0, touches.get());
+
+		now.addAndGet(GRANULARITY);
+		for (int i = 0; i < 100; i++) {
+			tracker.touch(session.uuid, session.lastSeenMillis);
+			now.incrementAndGet();
+		}
+		Assert.assertEquals(1, tracker.pendingCount());
+		tracker.flush();
+		Assert.assertEquals("粒度の時間内のアクセスは 1 回の書き込みにまとめる。", 1, touches.get());
+		final long written = store.find(session.uuid).get().lastSeenMillis;
+		Assert.assertEquals("最後のアクセスの日時を書き込む。", now.get() - 1, written);
+		Assert.assertEquals(0, tracker.pendingCount());
+
+		tracker.touch(session.uuid, session.lastSeenMillis);
+		tracker.flush();
+		Assert.assertEquals("書き込んでから粒度の時間内のアクセスは記録しない。", 1, touches.get());
+
+		now.addAndGet(GRANULARITY);
+		tracker.touch(session.uuid, session.lastSeenMillis);
+		tracker.flush();
+		Assert.assertEquals("粒度の時間を過ぎたら再び書き込む。", 2, touches.get());
+		Assert.assertEquals(now.get(), store.find(session.uuid).get().lastSeenMillis);
+		Assert.assertEquals(2, tracker.flushedCount());
+	}
+
+	/**
+	 * 書き込みに失敗した場合のテストを行います。
+	 */
+	@Test
+	public void retryAfterFailure() {
+		final AtomicInteger failures = new AtomicInteger(1);
+		final MemorySessionStore store = new MemorySessionStore(100) {
+			@Override
+			public int touch(Map<UUID, Long> lastSeenMillis) {
+				if (failures.getAndDecrement() > 0) {
+					throw new IllegalStateException("test");
+				}
+				return super.touch(lastSeenMillis);
+			}
+		};
+		final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+		final SessionActivityTracker tracker = new SessionActivityTracker(store, GRANULARITY, now::get);
+		final StoredSession session = new StoredSession(UUID.randomUUID(), 1L, "127.0.0.1", now.get() - GRANULARITY);
+		store.save(session);
+
+		tracker.touch(session.uuid, session.lastSeenMillis);
+		tracker.flush();
+		Assert.assertEquals(1, tracker.failedCount());
+		Assert.assertEquals("失敗した分は書き込み待ちのまま残る。", 1, tracker.pendingCount());
+		tracker.flush();
+		Assert.assertEquals("次の書き込みで再送する。", now.get(), store.find(session.uuid).get().lastSeenMillis);
+		Assert.assertEquals(0, tracker.pendingCount());
+	}
+
+}
@@ -0,0 +1,62 @@
+package controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import controllers.ActivationController.Activation;
+import controllers.ControllerAuthHelpers.PasswordHelper;
+import io.ebean.Ebean;
+import models.Account;
+import models.Applicant;
+import models.EmailAddressFilter;
+import models.EmailOutbox;
+import models.Individual;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.WithApplication;
+
+/**
+ * アカウント本登録コントローラーのテストクラスです。
+ * @author mizuo
+ */
+public class ActivationControllerTest extends WithApplication {
+
+	@Override
+	protected Application provideApplication() {
+		return new GuiceApplicationBuilder()
+				.configure("play.evolutions.db.default.autoApply", true)
+				.configure("mail.outbox.interval", "1 hour")
+				.build();
+	}
+
+	/**
+	 * 複数の申込者を 1 つのトランザクションで本登録するテストを行います。
+	 */
+	@Test
+	public void activateAll() {
+		final String hashedPassword = PasswordHelper.hash("password", 4);
+		final List<Activation> activations = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			final Applicant applicant = Applicant.findOneOrCreate("bulk" + i + "@example.com");
+			applicant.password = hashedPassword;
+			applicant.save();
+			activations.add(new Activation(applicant, hashedPassword));
+		}
+		final int outboxCount = Ebean.find(EmailOutbox.class).findCount();
+		final EmailAddressFilter filter = new EmailAddressFilter(100, 0.01);
+		filter.markReady();
+		Assert.assertEquals(3, ActivationController.activateAll("owner@example.com", activations, filter));
+		for (Activation activation : activations) {
+			final String emailAddress = activation.applicant.emailAddress;
+			final Account account = Account.findOneOrEmpty(emailAddress).get();
+			Assert.assertEquals("アカウントは登録した個人を参照する。", emailAddress, Individual.findOneOrEmpty(account.individualId).get().emailAddress);
+			Assert.assertFalse("本登録した申込者は削除される。", Applicant.findOneOrEmpty(emailAddress).isPresent());
+			Assert.assertTrue("本登録したメールアドレスはフィルタに追加される。", filter.mightBeUsed(emailAddress));
+		}
+		Assert.assertEquals("本登録完了メールが送信待ち行列に登録される。", outboxCount + 3, Ebean.find(EmailOutbox.class).findCount());
+	}
+
+}
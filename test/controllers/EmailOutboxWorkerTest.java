@@ -0,0 +1,105 @@
+package controllers;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import models.EmailOutbox;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.libs.mailer.Email;
+import play.test.WithApplication;
+
+/**
+ * 電子メールの送信待ち行列の常駐処理のテストクラスです。
+ * メールクライアントは設定 {@code play.mailer.mock} のモックを使用します。
+ * @author mizuo
+ */
+public class EmailOutboxWorkerTest extends WithApplication {
+
+	/** 宛先 */
+	private static final String ADDRESS = "success@example.com";
+
+	/**
+	 * 定期実行は行わず、テストから直接送信処理を呼び出します。
+	 */
+	@Override
+	protected Application provideApplication() {
+		return new GuiceApplicationBuilder()
+				.configure("play.evolutions.db.default.autoApply", true)
+				.configure("play.mailer.mock", true)
+				.configure("mail.outbox.interval", "1 hour")
+				.build();
+	}
+
+	/**
+	 * テスト用の電子メールを送信待ち行列に登録します。
+	 * @return 登録した行
+	 */
+	private EmailOutbox enqueue() {
+		final Email email = new Email()
+				.setSubject("subject")
+				.setFrom("owner@example.com")
+				.addTo(ADDRESS)
+				.setBodyText("body");
+		return EmailOutbox.enqueue(email);
+	}
+
+	/**
+	 * 送信のテストを行います。
+	 */
+	@Test
+	public void drain() {
+		final EmailOutbox first = enqueue();
+		final EmailOutbox second = enqueue();
+		final EmailOutboxWorker worker = app.injector().instanceOf(EmailOutboxWorker.class);
+		Assert.assertEquals("送信時期に達した行はすべて処理される。", 2, worker.drain().toCompletableFuture().join().intValue());
+		Assert.assertEquals(EmailOutbox.Status.SENT, EmailOutbox.findOne(first.id).status);
+		Assert.assertEquals(EmailOutbox.Status.SENT, EmailOutbox.findOne(second.id).status);
+		Assert.assertNull("送信済みの行は確保を解除する。", EmailOutbox.findOne(first.id).claimToken);
+		Assert.assertEquals("送信済みの行は再送しない。", 0, worker.drain().toCompletableFuture().join().intValue());
+		Assert.assertEquals(2, worker.sentCount());
+		Assert.assertEquals(0, worker.failedCount());
+	}
+
+	/**
+	 * 送信する行の確保のテストを行います。
+	 */
+	@Test
+	public void claimDue() {
+		final EmailOutbox outbox = enqueue();
+		final List<EmailOutbox> claimed = EmailOutbox.claimDue(10, TimeUnit.HOURS.toMillis(1));
+		Assert.assertEquals(1, claimed.size());
+		Assert.assertEquals(EmailOutbox.Status.SENDING, claimed.get(0).status);
+		Assert.assertNotNull(claimed.get(0).claimToken);
+		Assert.assertTrue("確保した行は他の処理から確保されない。", EmailOutbox.claimDue(10, TimeUnit.HOURS.toMillis(1)).isEmpty());
+		final EmailOutbox expired = EmailOutbox.findOne(outbox.id);
+		expired.nextAttemptAt = new Date(0);
+		expired.update();
+		final List<EmailOutbox> reclaimed = EmailOutbox.claimDue(10, TimeUnit.HOURS.toMillis(1));
+		Assert.assertEquals("貸出期限を過ぎた行は確保し直す。", 1, reclaimed.size());
+		Assert.assertNotEquals(claimed.get(0).claimToken, reclaimed.get(0).claimToken);
+	}
+
+	/**
+	 * 送信失敗の記録のテストを行います。
+	 */
+	@Test
+	public void markFailed() {
+		final EmailOutbox outbox = enqueue();
+		final long before = System.currentTimeMillis();
+		outbox.status = EmailOutbox.Status.SENDING;
+		outbox.markFailed("SMTP unavailable", 2, 1000, 10000);
+		Assert.assertEquals("送信に失敗した行は再送される。", EmailOutbox.Status.PENDING, outbox.status);
+		Assert.assertEquals(1, outbox.attempts.intValue());
+		Assert.assertNotNull(outbox.lastError);
+		Assert.assertNull(outbox.claimToken);
+		Assert.assertTrue("再送の時期は待機時間の後となる。", outbox.nextAttemptAt.getTime() >= before + 1000);
+		outbox.markFailed("SMTP unavailable", 2, 1000, 10000);
+		Assert.assertEquals("再送の上限に達した行は送信を断念する。", EmailOutbox.Status.POISONED, outbox.status);
+	}
+
+}
@@ -0,0 +1,152 @@
+package controllers;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import auth.AccountSessionCache;
+import auth.SessionStore;
+import auth.SessionStore.StoredSession;
+import io.ebean.Ebean;
+import models.AccountSession;
+import models.Applicant;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.WithApplication;
+
+/**
+ * 期限切れの行を削除する常駐処理のテストクラスです。
+ * H2 のインメモリDBで、1 回に削除する件数の上限と、古い行から削除されることを確認します。
+ * @author mizuo
+ */
+public class ExpiredRowJanitorTest extends WithApplication {
+
+	/** 1 回に削除する件数 */
+	private static final int CHUNK_SIZE = 2;
+	/** 削除する毎の休止時間(ミリ秒) */
+	private static final long PAUSE_MILLIS = 50;
+
+	/**
+	 * 定期実行は行わず、テストから直接削除処理を呼び出します。
+	 */
+	@Override
+	protected Application provideApplication() {
+		return new GuiceApplicationBuilder()
+				.configure("play.evolutions.db.default.autoApply", true)
+				.configure("mail.outbox.interval", "1 hour")
+				.configure("session.store", "jdbc")
+				.configure("janitor.interval", "1 hour")
+				.configure("janitor.chunkSize", CHUNK_SIZE)
+				.configure("janitor.pause", PAUSE_MILLIS + " ms")
+				.build();
+	}
+
+	/**
+	 * 最終アクセス日時を指定してアカウントセッションを登録します。
+	 * @param lastSeenMillis 最終アクセス日時(エポックミリ秒)
+	 * @return セッションUUID
+	 */
+	private UUID saveSession(long lastSeenMillis) {
+		final UUID uuid = UUID.randomUUID();
+		app.injector().instanceOf(SessionStore.class).save(new StoredSession(uuid, 1L, "127.0.0.1", lastSeenMillis));
+		Ebean.createSqlUpdate("UPDATE account_session SET updated_at = :lastSeen WHERE uuid = :uuid")
+				.setParameter("lastSeen", new Timestamp(lastSeenMillis))
+				.setParameter("uuid", uuid)
+				.execute();
+		return uuid;
+	}
+
+	/**
+	 * 申込日時を指定して申込者を登録します。
+	 * @param emailAddress メールアドレス
+	 * @param appliedAtMillis 申込日時(エポックミリ秒)
+	 * @return メールアドレス
+	 */
+	private String saveApplicant(String emailAddress, long appliedAtMillis) {
+		final Applicant applicant = Applicant.findOneOrCreate(emailAddress);
+		applicant.password = "password";
+		applicant.save();
+		Ebean.createSqlUpdate("UPDATE applicant SET applied_at = :appliedAt WHERE email_address = :emailAddress")
+				.setParameter("appliedAt", new Timestamp(appliedAtMillis))
+				.setParameter("emailAddress", emailAddress)
+				.execute();
+		return emailAddress;
+	}
+
+	/**
+	 * 期限切れのアカウントセッションの削除のテストを行います。
+	 */
+	@Test
+	public void accountSessionDeleteIdle() {
+		final UUID third = saveSession(3000L);
+		final UUID first = saveSession(1000L);
+		final UUID fourth = saveSession(4000L);
+		final UUID second = saveSession(2000L);
+		final UUID active = saveSession(System.currentTimeMillis());
+		Assert.assertEquals("上限の件数まで削除する。", CHUNK_SIZE, AccountSession.deleteIdle(new Date(5000L), CHUNK_SIZE));
+		Assert.assertFalse("最終アクセス日時が古い行から削除する。", AccountSession.findOneOrEmpty(first.toString()).isPresent());
+		Assert.assertFalse(AccountSession.findOneOrEmpty(second.toString()).isPresent());
+		Assert.assertTrue(AccountSession.findOneOrEmpty(third.toString()).isPresent());
+		Assert.assertTrue(AccountSession.findOneOrEmpty(fourth.toString()).isPresent());
+		Assert.assertEquals("残りの期限切れの行を削除する。", CHUNK_SIZE, AccountSession.deleteIdle(new Date(5000L), CHUNK_SIZE));
+		Assert.assertEquals("期限切れの行が無ければ削除しない。", 0, AccountSession.deleteIdle(new Date(5000L), CHUNK_SIZE));
+		Assert.assertTrue("期限内の行は残る。", AccountSession.findOneOrEmpty(active.toString()).isPresent());
+	}
+
+	/**
+	 * 期限切れの申込者の削除のテストを行います。
+	 */
+	@Test
+	public void applicantDeleteStale() {
+		final String third = saveApplicant("third@example.com", 3000L);
+		final String first = saveApplicant("first@example.com", 1000L);
+		final String second = saveApplicant("second@example.com", 2000L);
+		final String fresh = saveApplicant("fresh@example.com", System.currentTimeMillis());
+		Assert.assertEquals("上限の件数まで削除する。", CHUNK_SIZE, Applicant.deleteStale(new Date(5000L), CHUNK_SIZE));
+		Assert.assertFalse("申込日時が古い行から削除する。", Applicant.findOneOrEmpty(first).isPresent());
+		Assert.assertFalse(Applicant.findOneOrEmpty(second).isPresent());
+		Assert.assertTrue(Applicant.findOneOrEmpty(third).isPresent());
+		Assert.assertEquals("残りの期限切れの行を削除する。", 1, Applicant.deleteStale(new Date(5000L), CHUNK_SIZE));
+		Assert.assertTrue("期限内の行は残る。", Applicant.findOneOrEmpty(fresh).isPresent());
+	}
+
+	/**
+	 * 休止を挟んだ繰り返しの削除と、キャッシュからの破棄のテストを行います。
+	 * アカウントセッションは 2, 2, 1 件、申込者は 2, 1 件に分けて削除するので、休止は 3 回です。
+	 */
+	@Test
+	public void run() {
+		UUID cached = null;
+		for (int i = 1; i <= 5; i++) {
+			cached = saveSession(1000L * i);
+		}
+		final UUID active = saveSession(System.currentTimeMillis());
+		for (int i = 1; i <= 3; i++) {
+			saveApplicant("stale" + i + "@example.com", 1000L * i);
+		}
+		final String fresh = saveApplicant("fresh@example.com", System.currentTimeMillis());
+		final AccountSessionCache sessionCache = app.injector().instanceOf(AccountSessionCache.class);
+		Assert.assertTrue(sessionCache.findAsync(cached.toString(), Runnable::run).toCompletableFuture().join().isPresent());
+
+		final ExpiredRowJanitor janitor = app.injector().instanceOf(ExpiredRowJanitor.class);
+		final long start = System.nanoTime();
+		janitor.run();
+		final long elapsedNanos = System.nanoTime() - start;
+
+		Assert.assertEquals("期限切れのアカウントセッションは全て削除する。", 5, janitor.purgedCount(ExpiredRowJanitor.ACCOUNT_SESSION));
+		Assert.assertEquals("期限切れの申込者は全て削除する。", 3, janitor.purgedCount(ExpiredRowJanitor.APPLICANT));
+		Assert.assertEquals(0, janitor.failedCount());
+		Assert.assertTrue("期限内のアカウントセッションは残る。", AccountSession.findOneOrEmpty(active.toString()).isPresent());
+		Assert.assertTrue("期限内の申込者は残る。", Applicant.findOneOrEmpty(fresh).isPresent());
+		final long pauseNanos = TimeUnit.MILLISECONDS.toNanos(PAUSE_MILLIS * 3);
+		Assert.assertTrue("上限の件数を削除する毎に休止する。", elapsedNanos >= pauseNanos);
+		Assert.assertTrue("所要時間には休止時間を含めない。",
+				janitor.purgeNanos(ExpiredRowJanitor.ACCOUNT_SESSION) + janitor.purgeNanos(ExpiredRowJanitor.APPLICANT) <= elapsedNanos - pauseNanos);
+		Assert.assertFalse("削除したアカウントセッションはキャッシュからも破棄する。", sessionCache.getIfPresent(cached.toString()).isPresent());
+	}
+
+}
@@ -0,0 +1,341 @@
+package controllers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import controllers.ControllerAuthHelpers.TemporaryPasswordHelper;
+import io.ebean.Ebean;
+import io.ebean.Transaction;
+import models.Applicant;
+import models.EmailOutbox;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.mvc.Http.Status;
+import play.test.Helpers;
+import play.test.TestServer;
+
+/**
+ * 登録とログインの負荷試験です。
+ * H2 のインメモリDBを使うテストサーバーをこのJVMで起動し、準備完了になってから負荷をかけます。
+ * <pre>
+ *     sbt "loadTest rate=50 duration=60s"
+ * </pre>
+ * 所有者は 1 人しか登録できないので、所有者の仮登録から本登録、ログイン、ログアウトまでは
+ * 計測前に 1 回だけ実行して確認します。
+ * 計測中は、仮登録済みの申込者を事前にDBに登録しておき、次のシナリオを開ループ(ポアソン到着)で実行します。
+ * <dl>
+ * <dt>activation</dt><dd>本登録、ログイン、ログアウト</dd>
+ * <dt>login</dt><dd>本登録済みのアカウントでログイン、ログアウト</dd>
+ * </dl>
+ * ルートには認証済みのセッションを必要とするページが無いので、ログイン後はページを表示せず、
+ * アカウントセッションを検証して削除するログアウトの POST で認証済みのリクエストを計測します。
+ * 到着は前のシナリオの完了を待たないので、サーバーが遅くなってもリクエストの発生は減りません。
+ * 応答時間は予定開始時刻から計測するので、待たされた時間も含みます({@link LoadTestClient})。
+ * 引数は HOCON 形式で {@link #DEFAULTS} の値を上書きします。
+ * @author mizuo
+ */
+public class LoadTest {
+
+	/** 既定の設定 */
+	static final String DEFAULTS = String.join("\n",
+			"# 1 秒あたりのシナリオの平均到着数",
+			"rate = 20",
+			"# 計測時間",
+			"duration = 60 seconds",
+			"# 計測前に負荷をかける時間(記録しない)",
+			"warmUp = 15 seconds",
+			"# 到着したシナリオが activation である割合",
+			"activationShare = 0.2",
+			"# 同時に実行する仮想利用者の上限(超えた到着は待たされ、その時間も応答時間に含まれる)",
+			"maxUsers = 256",
+			"# リクエスト間の思考時間",
+			"thinkTime = 0 ms",
+			"# 通信の制限時間",
+			"timeout = 30 seconds",
+			"# 準備完了を待つ時間",
+			"readyTimeout = 5 minutes",
+			"port = 19001",
+			"# 到着間隔の乱数の種",
+			"seed = 1",
+			"# HdrHistogram のパーセンタイル分布の出力先",
+			"output = target/loadtest");
+
+	/** 所有者メールアドレス */
+	private static final String OWNER_EMAIL_ADDRESS = "owner@loadtest.invalid";
+	/** 仮登録コード */
+	private static final String TEMPORARY_CODE = "loadtest";
+	/** 本登録で設定するパスワード */
+	private static final String PASSWORD = "load-test-password";
+	/** 仮登録メールの仮パスワード */
+	private static final Pattern TEMPORARY_PASSWORD = Pattern.compile("temporaryPassword: (\\S+)");
+	/** 申込者を登録するトランザクションの件数 */
+	private static final int SEED_BATCH_SIZE = 500;
+
+	/** 設定 */
+	private final Config options;
+	/** 接続先 */
+	private final String baseUrl;
+	/** 集計 */
+	private final LoadTestReport report = new LoadTestReport();
+	/** 本登録前の申込者のメールアドレス */
+	private final ConcurrentLinkedQueue<String> applicants = new ConcurrentLinkedQueue<>();
+	/** 本登録済みのアカウントのログインID */
+	private final ConcurrentLinkedQueue<String> accounts = new ConcurrentLinkedQueue<>();
+	/** 申込者の仮パスワード(全員共通) */
+	private String temporaryPassword;
+
+	/**
+	 * @param options 設定
+	 * @param baseUrl 接続先
+	 */
+	LoadTest(Config options, String baseUrl) {
+		this.options = options;
+		this.baseUrl = baseUrl;
+	}
+
+	/**
+	 * テストサーバーを起動して負荷試験を実行します。
+	 * @param args {@code rate=50} などの HOCON 形式の設定
+	 * @throws Exception 負荷試験に失敗した場合
+	 */
+	public static void main(String[] args) throws Exception {
+		final Config options = ConfigFactory.parseString(String.join("\n", args))
+				.withFallback(ConfigFactory.parseString(DEFAULTS)).resolve();
+		final int port = options.getInt("port");
+		final TestServer server = Helpers.testServer(port, application());
+		server.start();
+		try {
+			new LoadTest(options, "http://localhost:" + port).run();
+		} finally {
+			server.stop();
+		}
+	}
+
+	/**
+	 * 負荷試験用のアプリケーションを生成します。
+	 * 全ての負荷が同じ接続元IPアドレスから来るので、試行回数の制限は実質的に無効にします。
+	 * 所有者の自動登録は行わず、負荷試験から所有者を登録します。
+	 * @return アプリケーション
+	 */
+	static Application application() {
+		return new GuiceApplicationBuilder()
+				.configure("play.evolutions.db.default.autoApply", true)
+				.configure("play.filters.hosts.allowed", Collections.singletonList("."))
+				.configure("owner.emailAddress", OWNER_EMAIL_ADDRESS)
+				.configure("rateLimit.remoteAddress.capacity", Integer.MAX_VALUE / 2)
+				.configure("rateLimit.remoteAddress.refillInterval", "1 ms")
+				.configure("rateLimit.account.capacity", Integer.MAX_VALUE / 2)
+				.configure("rateLimit.account.refillInterval", "1 ms")
+				.build();
+	}
+
+	/**
+	 * 準備完了を待ち、所有者の登録を確認してから計測します。
+	 * @throws Exception 負荷試験に失敗した場合
+	 */
+	void run() throws Exception {
+		awaitReady();
+		registerOwner();
+		final long warmUpNanos = options.getDuration("warmUp", TimeUnit.NANOSECONDS);
+		final long durationNanos = options.getDuration("duration", TimeUnit.NANOSECONDS);
+		final double rate = options.getDouble("rate");
+		seedApplicants((int) Math.ceil(rate * TimeUnit.NANOSECONDS.toSeconds(warmUpNanos + durationNanos) * options.getDouble("activationShare") * 1.5) + 10);
+		System.out.printf("rate = %s/s, warmUp = %s, duration = %s, activationShare = %s, maxUsers = %d%n", rate,
+				options.getString("warmUp"), options.getString("duration"), options.getDouble("activationShare"), options.getInt("maxUsers"));
+		final ExecutorService users = Executors.newFixedThreadPool(options.getInt("maxUsers"));
+		final Random random = new Random(options.getLong("seed"));
+		final double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		final long startNanos = System.nanoTime();
+		final long recordFromNanos = startNanos + warmUpNanos;
+		final long endNanos = recordFromNanos + durationNanos;
+		long arrivalNanos = startNanos;
+		while (true) {
+			// ポアソン到着(指数分布の到着間隔)
+			arrivalNanos += (long) (-Math.log(1.0 - random.nextDouble()) * meanIntervalNanos);
+			if (arrivalNanos - endNanos >= 0) {
+				break;
+			}
+			final boolean activation = random.nextDouble() < options.getDouble("activationShare");
+			final long arrival = arrivalNanos;
+			final LoadTestReport recordTo = arrival - recordFromNanos >= 0 ? report : null;
+			final long waitNanos = arrival - System.nanoTime();
+			if (waitNanos > 0) {
+				LockSupport.parkNanos(waitNanos);
+			}
+			users.execute(() -> runFlow(activation, client(recordTo, arrival), recordTo));
+		}
+		users.shutdown();
+		if (!users.awaitTermination(options.getDuration("timeout", TimeUnit.NANOSECONDS) * 10, TimeUnit.NANOSECONDS)) {
+			users.shutdownNow();
+		}
+		report.print(System.out, durationNanos);
+		final File output = new File(options.getString("output"));
+		report.writeHistograms(output);
+		System.out.println("histograms: " + output.getAbsolutePath());
+	}
+
+	/**
+	 * シナリオを実行します。
+	 * activation の申込者が残っていない場合と、login のアカウントがまだ無い場合はもう一方を実行します。
+	 * @param activation activation の場合 true
+	 * @param client HTTPクライアント
+	 * @param recordTo 記録先(記録しない場合は null)
+	 */
+	private void runFlow(boolean activation, LoadTestClient client, LoadTestReport recordTo) {
+		final String applicant = activation || accounts.isEmpty() ? applicants.poll() : null;
+		final String flow;
+		final boolean succeeded;
+		if (applicant != null) {
+			flow = "activation";
+			succeeded = activate(client, applicant, temporaryPassword) && loginAndLogout(client, applicant);
+			if (succeeded) {
+				accounts.add(applicant);
+			}
+		} else {
+			final String account = accounts.poll();
+			if (account == null) {
+				return;
+			}
+			flow = "login";
+			succeeded = loginAndLogout(client, account);
+			accounts.add(account);
+		}
+		if (recordTo != null) {
+			recordTo.flow(flow, succeeded);
+		}
+	}
+
+	/**
+	 * 本登録ページを表示して本登録します。
+	 * @param client HTTPクライアント
+	 * @param emailAddress メールアドレス
+	 * @param temporaryPassword 仮パスワード
+	 * @return 全てのリクエストが期待した応答ステータスだった場合 true
+	 */
+	private boolean activate(LoadTestClient client, String emailAddress, String temporaryPassword) {
+		final Map<String, String> form = new LinkedHashMap<>();
+		form.put("emailAddress", emailAddress);
+		form.put("temporaryCode", TEMPORARY_CODE);
+		form.put("temporaryPassword", temporaryPassword);
+		form.put("password", PASSWORD);
+		return client.get("/activation.html", Status.OK)
+				&& client.post("/activation.html", form, Status.SEE_OTHER);
+	}
+
+	/**
+	 * ログインし、ログアウトします。
+	 * ログアウトの POST はHTTPセッションのアカウントセッションを検証して削除するので、ログインで発行したセッションを使います。
+	 * @param client HTTPクライアント
+	 * @param loginId ログインID
+	 * @return 全てのリクエストが期待した応答ステータスだった場合 true
+	 */
+	private boolean loginAndLogout(LoadTestClient client, String loginId) {
+		final Map<String, String> form = new LinkedHashMap<>();
+		form.put("loginId", loginId);
+		form.put("password", PASSWORD);
+		return client.get("/login.html", Status.OK)
+				&& client.post("/login.html", form, Status.SEE_OTHER)
+				&& client.get("/logout.html", Status.OK)
+				&& client.post("/logout.html", new HashMap<>(), Status.SEE_OTHER);
+	}
+
+	/**
+	 * HTTPクライアントを生成します。
+	 * @param recordTo 記録先(記録しない場合は null)
+	 * @param arrivalNanos 到着予定時刻
+	 * @return HTTPクライアント
+	 */
+	private LoadTestClient client(LoadTestReport recordTo, long arrivalNanos) {
+		return new LoadTestClient(baseUrl, (int) options.getDuration("timeout", TimeUnit.MILLISECONDS),
+				options.getDuration("thinkTime", TimeUnit.NANOSECONDS), recordTo, arrivalNanos);
+	}
+
+	/**
+	 * {@code /health/ready} が 200 を返すまで待ちます。
+	 * @throws IllegalStateException 待つ時間を過ぎた場合
+	 */
+	private void awaitReady() {
+		final long deadlineNanos = System.nanoTime() + options.getDuration("readyTimeout", TimeUnit.NANOSECONDS);
+		while (!client(null, System.nanoTime()).get("/health/ready", Status.OK)) {
+			if (System.nanoTime() - deadlineNanos >= 0) {
+				throw new IllegalStateException("/health/ready did not return 200.");
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));
+		}
+	}
+
+	/**
+	 * 所有者の仮登録から本登録、ログイン、ログアウトまでを 1 回実行して確認します。
+	 * 仮パスワードは送信待ち行列に登録された仮登録メールから取得します。
+	 * @throws IllegalStateException 期待した応答ステータスでなかった場合
+	 */
+	private void registerOwner() {
+		final LoadTestClient client = client(null, System.nanoTime());
+		final Map<String, String> form = new HashMap<>();
+		form.put("temporaryCode", TEMPORARY_CODE);
+		if (!client.get("/owner.html", Status.OK) || !client.post("/owner.html", form, Status.SEE_OTHER)) {
+			throw new IllegalStateException("Owner registration failed.");
+		}
+		final Optional<String> ownerTemporaryPassword = Ebean.find(EmailOutbox.class).where().eq("recipients", OWNER_EMAIL_ADDRESS)
+				.findList().stream()
+				.map(outbox -> TEMPORARY_PASSWORD.matcher(outbox.body))
+				.filter(Matcher::find)
+				.map(matcher -> matcher.group(1))
+				.findFirst();
+		if (!ownerTemporaryPassword.isPresent()) {
+			throw new IllegalStateException("Owner registration mail not found.");
+		}
+		if (!activate(client, OWNER_EMAIL_ADDRESS, ownerTemporaryPassword.get()) || !loginAndLogout(client, OWNER_EMAIL_ADDRESS)) {
+			throw new IllegalStateException("Owner activation or login failed.");
+		}
+		System.out.println("owner registration -> activation -> login -> logout: ok");
+	}
+
+	/**
+	 * 仮登録済みの申込者をDBに登録します。
+	 * 仮登録の結果と同じ行を作りますが、BCrypt のハッシュ化は 1 回だけ行い全員で共有します。
+	 * @param count 件数
+	 */
+	private void seedApplicants(int count) {
+		final TemporaryPasswordHelper helper = new TemporaryPasswordHelper();
+		final String hashed = helper.hash(TEMPORARY_CODE);
+		temporaryPassword = helper.plainTemporary;
+		for (int from = 0; from < count; from += SEED_BATCH_SIZE) {
+			final List<Applicant> batch = new ArrayList<>(SEED_BATCH_SIZE);
+			for (int i = from; i < Math.min(count, from + SEED_BATCH_SIZE); i++) {
+				final Applicant applicant = new Applicant();
+				applicant.emailAddress = "user" + i + "@loadtest.invalid";
+				applicant.password = hashed;
+				batch.add(applicant);
+			}
+			try (Transaction transaction = Ebean.beginTransaction()) {
+				transaction.setBatchMode(true);
+				transaction.setBatchSize(SEED_BATCH_SIZE);
+				Ebean.saveAll(batch);
+				transaction.commit();
+			}
+			for (Applicant applicant : batch) {
+				applicants.add(applicant.emailAddress);
+			}
+		}
+		System.out.println("seeded applicants: " + count);
+	}
+
+}
@@ -0,0 +1,217 @@
+package controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 負荷試験の仮想利用者毎のHTTPクライアントです。
+ * Cookie(HTTPセッション)を保持し、直近に取得したページの CSRF トークンを POST に付けます。
+ * リダイレクトは追跡しません。
+ * 応答時間は予定開始時刻から計測するので、送信が遅れた時間も含みます(coordinated omission の補正)。
+ * 予定開始時刻は、最初のリクエストは到着予定時刻、以降は前のリクエストの完了時刻に思考時間を加えた時刻です。
+ * @author mizuo
+ */
+class LoadTestClient {
+
+	/** CSRF トークンの項目 */
+	private static final Pattern CSRF_TOKEN = Pattern.compile("name=\"csrfToken\" value=\"([^\"]*)\"");
+	/** 通信に失敗した場合の応答ステータス */
+	static final int FAILED = -1;
+
+	/** 接続先 */
+	private final String baseUrl;
+	/** 通信の制限時間(ミリ秒) */
+	private final int timeoutMillis;
+	/** 思考時間(ナノ秒) */
+	private final long thinkTimeNanos;
+	/** 記録先(記録しない場合は null) */
+	private final LoadTestReport report;
+	/** 保持している Cookie */
+	private final Map<String, String> cookies = new LinkedHashMap<>();
+	/** 直近に取得したページの CSRF トークン */
+	private String csrfToken = "";
+	/** 次のリクエストの予定開始時刻({@link System#nanoTime()}) */
+	private long intendedNanos;
+
+	/**
+	 * @param baseUrl 接続先
+	 * @param timeoutMillis 通信の制限時間(ミリ秒)
+	 * @param thinkTimeNanos 思考時間(ナノ秒)
+	 * @param report 記録先(記録しない場合は null)
+	 * @param arrivalNanos 到着予定時刻({@link System#nanoTime()})
+	 */
+	LoadTestClient(String baseUrl, int timeoutMillis, long thinkTimeNanos, LoadTestReport report, long arrivalNanos) {
+		this.baseUrl = baseUrl;
+		this.timeoutMillis = timeoutMillis;
+		this.thinkTimeNanos = thinkTimeNanos;
+		this.report = report;
+		this.intendedNanos = arrivalNanos;
+	}
+
+	/**
+	 * GET リクエストを送信します。
+	 * @param path パス
+	 * @param expected 期待する応答ステータス
+	 * @return 期待した応答ステータスの場合 true
+	 */
+	boolean get(String path, int expected) {
+		return send("GET", path, null, expected) == expected;
+	}
+
+	/**
+	 * 直近に取得したページの CSRF トークンを付けてフォームを POST します。
+	 * @param path パス
+	 * @param form フォームの項目
+	 * @param expected 期待する応答ステータス
+	 * @return 期待した応答ステータスの場合 true
+	 */
+	boolean post(String path, Map<String, String> form, int expected) {
+		final StringBuilder body = new StringBuilder();
+		body.append("csrfToken=").append(encode(csrfToken));
+		for (Map.Entry<String, String> entry : form.entrySet()) {
+			body.append('&').append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+		}
+		return send("POST", path, body.toString(), expected) == expected;
+	}
+
+	/**
+	 * 予定開始時刻まで待ってからリクエストを送信し、応答時間を記録します。
+	 * @param method HTTPメソッド
+	 * @param path パス
+	 * @param form フォーム(無い場合は null)
+	 * @param expected 期待する応答ステータス
+	 * @return 応答ステータス。通信に失敗した場合は {@link #FAILED}
+	 */
+	private int send(String method, String path, String form, int expected) {
+		final long waitNanos = intendedNanos - System.nanoTime();
+		if (waitNanos > 0) {
+			LockSupport.parkNanos(waitNanos);
+		}
+		final long startNanos = System.nanoTime();
+		int status;
+		try {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(timeoutMillis);
+			connection.setReadTimeout(timeoutMillis);
+			connection.setRequestMethod(method);
+			if (!cookies.isEmpty()) {
+				connection.setRequestProperty("Cookie", cookieHeader());
+			}
+			if (form != null) {
+				final byte[] bytes = form.getBytes(StandardCharsets.UTF_8);
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(bytes);
+				}
+			}
+			status = connection.getResponseCode();
+			final String body = read(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+			storeCookies(connection.getHeaderFields());
+			final Matcher matcher = CSRF_TOKEN.matcher(body);
+			if (matcher.find()) {
+				csrfToken = matcher.group(1);
+			}
+		} catch (IOException e) {
+			status = FAILED;
+		}
+		final long endNanos = System.nanoTime();
+		if (report != null) {
+			report.record(method + " " + path, intendedNanos, startNanos, endNanos, status, expected);
+		}
+		intendedNanos = endNanos + thinkTimeNanos;
+		return status;
+	}
+
+	/**
+	 * 保持している Cookie を Cookie ヘッダーの形式で返します。
+	 * @return Cookie ヘッダー
+	 */
+	private String cookieHeader() {
+		final StringBuilder header = new StringBuilder();
+		for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+			if (header.length() > 0) {
+				header.append("; ");
+			}
+			header.append(cookie.getKey()).append('=').append(cookie.getValue());
+		}
+		return header.toString();
+	}
+
+	/**
+	 * Set-Cookie ヘッダーを保持します。値が空か期限切れの Cookie は破棄します。
+	 * @param headers 応答ヘッダー
+	 */
+	private void storeCookies(Map<String, List<String>> headers) {
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (header.getKey() == null || !header.getKey().equalsIgnoreCase("Set-Cookie")) {
+				continue;
+			}
+			for (String setCookie : header.getValue()) {
+				final String pair = setCookie.split(";", 2)[0];
+				final int separator = pair.indexOf('=');
+				if (separator <= 0) {
+					continue;
+				}
+				final String name = pair.substring(0, separator).trim();
+				final String value = pair.substring(separator + 1).trim();
+				final String attributes = setCookie.toLowerCase(Locale.ROOT);
+				if (value.isEmpty() || attributes.contains("max-age=0") || attributes.contains("expires=thu, 01 jan 1970")) {
+					cookies.remove(name);
+				} else {
+					cookies.put(name, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 応答本文を読み込みます。
+	 * @param in 応答本文(無い場合は null)
+	 * @return 応答本文
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	private static String read(InputStream in) throws IOException {
+		if (in == null) {
+			return "";
+		}
+		try (InputStream input = in) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * フォームの値を URL エンコードします。
+	 * @param value 値
+	 * @return エンコードした値
+	 */
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package controllers;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * 負荷試験の集計です。
+ * ルート毎に、予定開始時刻から計測した(coordinated omission を補正した)応答時間と、
+ * 実際の送信時刻から計測した(補正しない)応答時間の分布、応答ステータス毎の件数を記録します。
+ * 応答時間はマイクロ秒単位で記録します。
+ * @author mizuo
+ */
+class LoadTestReport {
+
+	/** 出力するパーセンタイル */
+	private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+	/** 有効桁数 */
+	private static final int SIGNIFICANT_DIGITS = 3;
+
+	/** ルート毎の集計 */
+	private final ConcurrentMap<String, RouteStats> routes = new ConcurrentHashMap<>();
+	/** シナリオ毎の完了数 */
+	private final ConcurrentMap<String, LongAdder> completedFlows = new ConcurrentHashMap<>();
+	/** シナリオ毎の失敗数 */
+	private final ConcurrentMap<String, LongAdder> failedFlows = new ConcurrentHashMap<>();
+
+	/**
+	 * 1 リクエスト分を記録します。
+	 * @param route ルート(HTTPメソッドとパス)
+	 * @param intendedNanos 予定開始時刻
+	 * @param startNanos 送信時刻
+	 * @param endNanos 完了時刻
+	 * @param status 応答ステータス
+	 * @param expected 期待する応答ステータス
+	 */
+	void record(String route, long intendedNanos, long startNanos, long endNanos, int status, int expected) {
+		final RouteStats stats = routes.computeIfAbsent(route, key -> new RouteStats());
+		stats.corrected.recordValue(TimeUnit.NANOSECONDS.toMicros(endNanos - Math.min(intendedNanos, startNanos)));
+		stats.uncorrected.recordValue(TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos));
+		stats.statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+		if (status != expected) {
+			stats.errors.increment();
+		}
+	}
+
+	/**
+	 * シナリオの完了を記録します。
+	 * @param flow シナリオ名
+	 * @param succeeded 全てのリクエストが期待した応答ステータスだった場合 true
+	 */
+	void flow(String flow, boolean succeeded) {
+		(succeeded ? completedFlows : failedFlows).computeIfAbsent(flow, key -> new LongAdder()).increment();
+	}
+
+	/**
+	 * 集計結果を出力します。
+	 * 応答時間はミリ秒単位で、補正済みのパーセンタイルと、括弧内に補正しない 99 パーセンタイルを出力します。
+	 * @param out 出力先
+	 * @param elapsedNanos 計測時間(ナノ秒)
+	 */
+	void print(PrintStream out, long elapsedNanos) {
+		final double seconds = elapsedNanos / 1e9;
+		long total = 0;
+		long errors = 0;
+		out.printf(Locale.ROOT, "%-24s %8s %9s %7s %9s %9s %9s %9s %9s %12s  %s%n",
+				"route", "count", "req/s", "error%", "p50", "p90", "p99", "p99.9", "max", "(raw p99)", "statuses");
+		for (Map.Entry<String, RouteStats> entry : new TreeMap<>(routes).entrySet()) {
+			final RouteStats stats = entry.getValue();
+			final Histogram corrected = stats.corrected.copy();
+			final long count = corrected.getTotalCount();
+			total += count;
+			errors += stats.errors.sum();
+			out.printf(Locale.ROOT, "%-24s %8d %9.1f %6.2f%%", entry.getKey(), count, count / seconds, percent(stats.errors.sum(), count));
+			for (double percentile : PERCENTILES) {
+				out.printf(Locale.ROOT, " %9.1f", millis(corrected.getValueAtPercentile(percentile)));
+			}
+			out.printf(Locale.ROOT, " %9.1f %12s  %s%n", millis(corrected.getMaxValue()),
+					String.format(Locale.ROOT, "(%.1f)", millis(stats.uncorrected.copy().getValueAtPercentile(99.0))), statuses(stats));
+		}
+		out.printf(Locale.ROOT, "total: %d requests in %.1f s, %.1f req/s, %.2f%% errors%n", total, seconds, total / seconds, percent(errors, total));
+		final Map<String, LongAdder> flows = new TreeMap<>(completedFlows);
+		for (String flow : failedFlows.keySet()) {
+			flows.putIfAbsent(flow, new LongAdder());
+		}
+		for (Map.Entry<String, LongAdder> entry : flows.entrySet()) {
+			final LongAdder failed = failedFlows.get(entry.getKey());
+			out.printf(Locale.ROOT, "flow %s: %d completed, %d failed, %.1f flows/s%n", entry.getKey(),
+					entry.getValue().sum(), failed == null ? 0 : failed.sum(), entry.getValue().sum() / seconds);
+		}
+	}
+
+	/**
+	 * ルート毎の補正済みと補正しない応答時間の分布を HdrHistogram のパーセンタイル分布の形式(ミリ秒単位)で出力します。
+	 * ファイル名はルートの英数字以外を {@code _} に置き換えたものです。
+	 * @param directory 出力先のディレクトリ
+	 * @throws FileNotFoundException ファイルを作成できない場合
+	 */
+	void writeHistograms(File directory) throws FileNotFoundException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new FileNotFoundException(directory.getPath());
+		}
+		for (Map.Entry<String, RouteStats> entry : routes.entrySet()) {
+			final String name = entry.getKey().replaceAll("[^A-Za-z0-9]+", "_");
+			try (PrintStream out = new PrintStream(new File(directory, name + ".hgrm"))) {
+				entry.getValue().corrected.copy().outputPercentileDistribution(out, 1000.0);
+			}
+			try (PrintStream out = new PrintStream(new File(directory, name + ".raw.hgrm"))) {
+				entry.getValue().uncorrected.copy().outputPercentileDistribution(out, 1000.0);
+			}
+		}
+	}
+
+	/**
+	 * 応答ステータス毎の件数を {@code 200=10 303=5} の形式で返します。
+	 * 通信に失敗した件数は {@code -1} に集計されます。
+	 * @param stats ルート毎の集計
+	 * @return 応答ステータス毎の件数
+	 */
+	private static String statuses(RouteStats stats) {
+		final StringBuilder builder = new StringBuilder();
+		for (Map.Entry<Integer, LongAdder> entry : new TreeMap<>(stats.statuses).entrySet()) {
+			if (builder.length() > 0) {
+				builder.append(' ');
+			}
+			builder.append(entry.getKey()).append('=').append(entry.getValue().sum());
+		}
+		return builder.toString();
+	}
+
+	/** マイクロ秒をミリ秒に変換します。 */
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	/** 百分率を求めます。 */
+	private static double percent(long part, long total) {
+		return total == 0 ? 0.0 : part * 100.0 / total;
+	}
+
+	/**
+	 * ルート毎の集計です。
+	 * @author mizuo
+	 */
+	private static final class RouteStats {
+		/** 予定開始時刻から計測した応答時間(マイクロ秒) */
+		final ConcurrentHistogram corrected = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+		/** 送信時刻から計測した応答時間(マイクロ秒) */
+		final ConcurrentHistogram uncorrected = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+		/** 応答ステータス毎の件数 */
+		final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+		/** 期待しない応答ステータスの件数 */
+		final LongAdder errors = new LongAdder();
+	}
+
+}
@@ -69,4 +69,22 @@ public class PasswordUtilTest {
 		Assert.assertTrue(PasswordHelper.equal("1234", "$2a$10$3XpST0mKF96zNmmQrNKVF.xHZPTPMxLH3YMmN.SAhZZOu18gRGWTe"));
 	}
 
+	/**
+	 * ハッシュ化した文字列からコストを読み取るテストを行います。
+	 */
+	@Test
+	public void logRoundsOf() {
+		Assert.assertEquals(10, PasswordHelper.logRoundsOf("$2a$10$KSULr3dVkTqAd1Bl9mBuD.oXHhv35Wz1j0A0WwpmXbeEawLmSwEGu"));
+		Assert.assertEquals(4, PasswordHelper.logRoundsOf(PasswordHelper.hash("password", 4)));
+		Assert.assertEquals(12, PasswordHelper.logRoundsOf("$2$12$KSULr3dVkTqAd1Bl9mBuD.oXHhv35Wz1j0A0WwpmXbeEawLmSwEGu"));
+		Assert.assertEquals("小版の文字の無い形式でコストが 1 桁目から読める。", 4, PasswordHelper.logRoundsOf("$2$04$KSULr3dVkTqAd1Bl9mBuD.oXHhv35Wz1j0A0WwpmXbeEawLmSwEGu"));
+		Assert.assertEquals("コストが数字でない場合は -1 となる。", -1, PasswordHelper.logRoundsOf("$2$1x$KSULr3dVkTqAd1Bl9mBuD.oXHhv35Wz1j0A0WwpmXbeEawLmSwEGu"));
+		final String current = String.format("$2$%02d$KSULr3dVkTqAd1Bl9mBuD.oXHhv35Wz1j0A0WwpmXbeEawLmSwEGu", PasswordHelper.getLogRounds());
+		Assert.assertFalse("小版の文字の無い形式もコストが同じ場合は再ハッシュ化は不要となる。", PasswordHelper.needsRehash(current));
+		Assert.assertEquals("ハッシュ化した文字列でない場合は -1 となる。", -1, PasswordHelper.logRoundsOf("password"));
+		Assert.assertEquals(-1, PasswordHelper.logRoundsOf(null));
+		Assert.assertTrue("コストが異なる場合は再ハッシュ化が必要となる。", PasswordHelper.needsRehash(PasswordHelper.hash("password", 4)));
+		Assert.assertFalse("コストが同じ場合は再ハッシュ化は不要となる。", PasswordHelper.needsRehash(PasswordHelper.hash("password")));
+	}
+
 }
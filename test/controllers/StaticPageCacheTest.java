@@ -0,0 +1,80 @@
+package controllers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import controllers.StaticPageCache.StaticPage;
+
+/**
+ * 描画結果のキャッシュのテストクラスです。
+ * @author mizuo
+ */
+public class StaticPageCacheTest {
+
+	/**
+	 * {@code Accept-Encoding} の判定のテストを行います。
+	 */
+	@Test
+	public void acceptsGzip() {
+		Assert.assertFalse(StaticPageCache.acceptsGzip(Optional.empty()));
+		Assert.assertTrue(StaticPageCache.acceptsGzip(Optional.of("gzip, deflate, br")));
+		Assert.assertTrue(StaticPageCache.acceptsGzip(Optional.of("br;q=1.0, GZIP;q=0.5")));
+		Assert.assertTrue(StaticPageCache.acceptsGzip(Optional.of("*")));
+		Assert.assertFalse("品質値が 0 の場合は受け付けない。", StaticPageCache.acceptsGzip(Optional.of("gzip;q=0")));
+		Assert.assertFalse(StaticPageCache.acceptsGzip(Optional.of("gzip;q=x")));
+		Assert.assertFalse(StaticPageCache.acceptsGzip(Optional.of("identity")));
+	}
+
+	/**
+	 * {@code If-None-Match} の判定のテストを行います。
+	 */
+	@Test
+	public void matches() {
+		final String etag = "\"abc\"";
+		Assert.assertFalse(StaticPageCache.matches(Optional.empty(), etag));
+		Assert.assertTrue(StaticPageCache.matches(Optional.of("\"abc\""), etag));
+		Assert.assertTrue(StaticPageCache.matches(Optional.of("\"xyz\", W/\"abc\""), etag));
+		Assert.assertTrue(StaticPageCache.matches(Optional.of("*"), etag));
+		Assert.assertFalse(StaticPageCache.matches(Optional.of("\"abc-gzip\""), etag));
+	}
+
+	/**
+	 * 描画済みのページのテストを行います。
+	 * @throws IOException 展開に失敗した場合
+	 */
+	@Test
+	public void staticPage() throws IOException {
+		final byte[] html = "<!DOCTYPE html><html><body>ブログ</body></html>".getBytes(StandardCharsets.UTF_8);
+		final StaticPage page = StaticPage.of(html);
+		Assert.assertArrayEquals("gzip で展開すると元の描画結果に戻る。", html, gunzip(page.gzipped));
+		Assert.assertNotEquals("表現毎に ETag が異なる。", page.identityEtag, page.gzippedEtag);
+		Assert.assertEquals("内容が同じなら ETag も同じ。", page.identityEtag, StaticPage.of(html.clone()).identityEtag);
+		Assert.assertTrue(page.identityEtag.startsWith("\"") && page.identityEtag.endsWith("\""));
+	}
+
+	/**
+	 * gzip で展開します。
+	 * @param bytes 圧縮したバイト列
+	 * @return 展開したバイト列
+	 * @throws IOException 展開に失敗した場合
+	 */
+	private static byte[] gunzip(byte[] bytes) throws IOException {
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[256];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package controllers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * キー毎のトークンバケットのテストクラスです。
+ * @author mizuo
+ */
+public class TokenBucketsTest {
+
+	/** トークン 1 個が補充される間隔 */
+	private static final long REFILL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * 取り出しと補充のテストを行います。
+	 */
+	@Test
+	public void acquireAndRefill() {
+		final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+		final TokenBuckets buckets = new TokenBuckets(3, REFILL_NANOS, 4, 100, clock::get);
+		Assert.assertEquals(0, buckets.tryAcquire("a"));
+		Assert.assertEquals(0, buckets.tryAcquire("a"));
+		Assert.assertEquals(0, buckets.tryAcquire("a"));
+		Assert.assertEquals("満杯時のトークン数を超えたら補充までの時間を返す。", REFILL_NANOS, buckets.tryAcquire("a"));
+		Assert.assertEquals("キー毎に独立している。", 0, buckets.tryAcquire("b"));
+		clock.addAndGet(REFILL_NANOS / 2);
+		Assert.assertEquals(REFILL_NANOS / 2, buckets.tryAcquire("a"));
+		clock.addAndGet(REFILL_NANOS / 2);
+		Assert.assertEquals("補充間隔毎に 1 個回復する。", 0, buckets.tryAcquire("a"));
+		Assert.assertEquals(REFILL_NANOS, buckets.tryAcquire("a"));
+	}
+
+	/**
+	 * 保持件数の上限のテストを行います。
+	 */
+	@Test
+	public void evict() {
+		final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+		final TokenBuckets buckets = new TokenBuckets(2, REFILL_NANOS, 1, 2, clock::get);
+		buckets.tryAcquire("a");
+		buckets.tryAcquire("b");
+		buckets.tryAcquire("a");
+		buckets.tryAcquire("c");
+		Assert.assertEquals("上限を超える場合は最も長くアクセスの無いバケットを破棄する。", 2, buckets.size());
+		Assert.assertEquals(1, buckets.evictionCount());
+		Assert.assertEquals("破棄されなかったバケットは状態を保つ。", REFILL_NANOS, buckets.tryAcquire("a"));
+		Assert.assertEquals("破棄したバケットは満杯から数え直す。", 0, buckets.tryAcquire("b"));
+		Assert.assertEquals(0, buckets.tryAcquire("b"));
+		Assert.assertEquals(2, buckets.size());
+		Assert.assertEquals(2, buckets.evictionCount());
+		Assert.assertEquals("アクセスしたバケットは破棄されない。", REFILL_NANOS, buckets.tryAcquire("a"));
+	}
+
+}
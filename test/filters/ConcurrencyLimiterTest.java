@@ -0,0 +1,92 @@
+package filters;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import filters.ConcurrencyLimiter.Priority;
+
+/**
+ * 同時処理数の制限器のテストクラスです。
+ * @author mizuo
+ */
+public class ConcurrencyLimiterTest {
+
+	/** ルート */
+	private static final String ROUTE = "POST /login.html";
+	/** 上限を減らす間隔(ナノ秒) */
+	private static final long SAMPLE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/** テスト用の現在時刻(ナノ秒) */
+	private long nowNanos;
+
+	/**
+	 * テスト用の制限器を生成します。
+	 * @param initialLimit 上限の初期値
+	 * @return 制限器
+	 */
+	private ConcurrencyLimiter createLimiter(int initialLimit) {
+		return new ConcurrencyLimiter(initialLimit, 2, 10, 0.5, 2.0, TimeUnit.MILLISECONDS.toNanos(1), 100, 0.5,
+				SAMPLE_WINDOW_NANOS, () -> nowNanos);
+	}
+
+	/**
+	 * 優先度毎の受け付けのテストを行います。
+	 */
+	@Test
+	public void acquireByPriority() {
+		final ConcurrencyLimiter limiter = createLimiter(4);
+		Assert.assertTrue(limiter.tryAcquire(Priority.LOW));
+		Assert.assertTrue(limiter.tryAcquire(Priority.LOW));
+		Assert.assertFalse("低優先度は上限の半分までしか受け付けない。", limiter.tryAcquire(Priority.LOW));
+		Assert.assertTrue("高優先度は上限まで受け付ける。", limiter.tryAcquire(Priority.HIGH));
+		Assert.assertTrue(limiter.tryAcquire(Priority.HIGH));
+		Assert.assertFalse(limiter.tryAcquire(Priority.HIGH));
+		Assert.assertTrue("対象外は常に受け付ける。", limiter.tryAcquire(Priority.EXEMPT));
+		Assert.assertEquals("対象外は処理中に含めない。", 4, limiter.inflight());
+		Assert.assertEquals(1, limiter.lowRejectedCount());
+		Assert.assertEquals(1, limiter.highRejectedCount());
+	}
+
+	/**
+	 * 応答時間による上限の調整のテストを行います。
+	 */
+	@Test
+	public void adjustByLatency() {
+		final ConcurrencyLimiter limiter = createLimiter(4);
+		limiter.tryAcquire(Priority.HIGH);
+		limiter.tryAcquire(Priority.HIGH);
+		limiter.release(ROUTE, TimeUnit.MILLISECONDS.toNanos(10), false);
+		Assert.assertEquals("上限の半分以上を処理中に平常の応答時間なら上限を増やす。", 5, limiter.limit());
+		limiter.release(ROUTE, TimeUnit.MILLISECONDS.toNanos(30), false);
+		Assert.assertEquals("平常時の倍率を超えたら上限を減らす。", 2, limiter.limit());
+		Assert.assertEquals(1, limiter.increaseCount());
+		Assert.assertEquals(1, limiter.decreaseCount());
+		nowNanos += SAMPLE_WINDOW_NANOS;
+		limiter.tryAcquire(Priority.HIGH);
+		limiter.release(ROUTE, TimeUnit.MILLISECONDS.toNanos(10), true);
+		Assert.assertEquals("上限は最小値を下回らない。", 2, limiter.limit());
+		Assert.assertEquals(0, limiter.inflight());
+	}
+
+	/**
+	 * 上限を減らす間隔のテストを行います。
+	 */
+	@Test
+	public void decreaseOncePerWindow() {
+		final ConcurrencyLimiter limiter = createLimiter(10);
+		for (int i = 0; i < 3; i++) {
+			limiter.tryAcquire(Priority.HIGH);
+		}
+		limiter.release(ROUTE, TimeUnit.MILLISECONDS.toNanos(10), true);
+		Assert.assertEquals(5, limiter.limit());
+		limiter.release(ROUTE, TimeUnit.MILLISECONDS.toNanos(10), true);
+		Assert.assertEquals("間隔内は続けて減らさない。", 5, limiter.limit());
+		nowNanos += SAMPLE_WINDOW_NANOS;
+		limiter.release(ROUTE, TimeUnit.MILLISECONDS.toNanos(10), true);
+		Assert.assertEquals("間隔を過ぎたら再び減らす。", 2, limiter.limit());
+		Assert.assertEquals(2, limiter.decreaseCount());
+	}
+
+}
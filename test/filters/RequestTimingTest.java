@@ -0,0 +1,49 @@
+package filters;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * リクエスト毎の処理段階別の所要時間のテストクラスです。
+ * @author mizuo
+ */
+public class RequestTimingTest {
+
+	/**
+	 * 記録と出力のテストを行います。
+	 */
+	@Test
+	public void serverTiming() {
+		final RequestTiming timing = new RequestTiming(true);
+		timing.record("db", 1_000_000);
+		timing.record("bcrypt", 50_000_000);
+		timing.record("db", 500_000);
+		Assert.assertEquals("同じ段階名は合算する。", "db;dur=1.500, bcrypt;dur=50.000, total;dur=60.000", timing.toServerTiming(60_000_000));
+		Assert.assertEquals("db=1.500 bcrypt=50.000 total=60.000", timing.toLogFields(60_000_000));
+	}
+
+	/**
+	 * 無効な場合のテストを行います。
+	 */
+	@Test
+	public void disabled() {
+		final RequestTiming timing = RequestTiming.DISABLED;
+		Assert.assertFalse(timing.isEnabled());
+		Assert.assertEquals("無効な場合は時刻を取得しない。", 0L, timing.begin());
+		Assert.assertEquals("処理は実行される。", "result", timing.time("db", () -> "result"));
+	}
+
+	/**
+	 * 資源の計測のテストを行います。
+	 */
+	@Test
+	public void sampleResources() {
+		final RequestTiming timing = new RequestTiming(true, true);
+		Assume.assumeTrue(timing.isSamplingResources());
+		timing.time("action", () -> timing.time("bind", () -> new byte[64 * 1024]));
+		Assert.assertTrue("確保したメモリ量が計測される。", timing.allocatedBytes() >= 64 * 1024);
+		Assert.assertTrue("入れ子の段階は二重に数えない。", timing.allocatedBytes() < 2 * 64 * 1024 + 16 * 1024);
+	}
+
+}
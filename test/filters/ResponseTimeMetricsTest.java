@@ -0,0 +1,41 @@
+package filters;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import filters.ResponseTimeMetrics.Snapshot;
+
+/**
+ * 応答時間の分布のテストクラスです。
+ * @author mizuo
+ */
+public class ResponseTimeMetricsTest {
+
+	/**
+	 * ルートと応答ステータス毎の集計のテストを行います。
+	 */
+	@Test
+	public void snapshot() {
+		final ResponseTimeMetrics metrics = new ResponseTimeMetrics();
+		for (int i = 1; i <= 100; i++) {
+			metrics.record("GET /login.html", 200, TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		metrics.record("GET /login.html", 500, TimeUnit.SECONDS.toNanos(3));
+		final List<Snapshot> snapshots = metrics.snapshot();
+		Assert.assertEquals("応答ステータス毎に分かれる。", 2, snapshots.size());
+		final Snapshot ok = snapshots.get(0);
+		Assert.assertEquals(200, ok.status);
+		Assert.assertEquals(100, ok.count);
+		Assert.assertEquals("合計は正確に合算する。", TimeUnit.MILLISECONDS.toNanos(5050), ok.sumNanos);
+		Assert.assertEquals("分位数は応答時間と同じ順に並ぶ。", ok.percentileNanos.length, ok.quantiles.length);
+		Assert.assertEquals(0.5, ok.quantiles[0], 0.0);
+		Assert.assertEquals("p50 は有効桁数の範囲で一致する。", TimeUnit.MILLISECONDS.toNanos(50), ok.percentileNanos[0], TimeUnit.MILLISECONDS.toNanos(50) / 100);
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), ok.maxNanos, TimeUnit.MILLISECONDS.toNanos(100) / 100);
+		metrics.record("GET /login.html", 200, TimeUnit.MILLISECONDS.toNanos(1));
+		Assert.assertEquals("集計結果は累積する。", 101, metrics.snapshot().get(0).count);
+	}
+
+}
@@ -0,0 +1,57 @@
+package models;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 解析済みの電子メールの雛形のテストクラスです。
+ * @author mizuo
+ */
+public class CompiledEmailTemplateTest {
+
+	/**
+	 * 件名と本文への差し込みのテストを行います。
+	 */
+	@Test
+	public void render() {
+		final CompiledEmailTemplate template = CompiledEmailTemplate.compile("owner", 1L,
+				"[:blogit]owner temporary registration", "temporaryPassword: :temporaryPassword");
+		Assert.assertEquals(new HashSet<>(Arrays.asList("blogit", "temporaryPassword")), template.placeholders());
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put("blogit", "blogit");
+		parameters.put("temporaryPassword", "$1\\x");
+		Assert.assertEquals("件名も差し込まれる。", "[blogit]owner temporary registration", template.renderSubject(parameters));
+		Assert.assertEquals("値は正規表現の置換文字列として解釈されない。", "temporaryPassword: $1\\x", template.renderBody(parameters));
+	}
+
+	/**
+	 * 差し込み項目の直後に日本語が続く場合のテストを行います。
+	 */
+	@Test
+	public void japanese() {
+		final CompiledEmailTemplate template = CompiledEmailTemplate.compile("japanese", 1L,
+				"件名:blogit", "仮パスワード：:temporaryPasswordです。:日本語");
+		Assert.assertEquals("差し込み項目名は英数字(ASCII)のみとなる。", new HashSet<>(Arrays.asList("blogit", "temporaryPassword")), template.placeholders());
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put("temporaryPassword", "secret");
+		Assert.assertEquals("直後の日本語は固定文字列となる。", "仮パスワード：secretです。:日本語", template.renderBody(parameters));
+	}
+
+	/**
+	 * 差し込み項目に当たらない文字列のテストを行います。
+	 */
+	@Test
+	public void literal() {
+		final CompiledEmailTemplate template = CompiledEmailTemplate.compile("literal", 1L,
+				"http://example.com/ :", ":unknown end");
+		Assert.assertTrue(template.placeholders().contains("unknown"));
+		Assert.assertEquals("コロンの後が英字でなければ固定文字列となる。", "http://example.com/ :", template.renderSubject(new HashMap<>()));
+		Assert.assertEquals("値の無い差し込み項目はそのまま残る。", ":unknown end", template.renderBody(new HashMap<>()));
+	}
+
+}
@@ -0,0 +1,58 @@
+package models;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 使用済みメールアドレスのフィルタのテストクラスです。
+ * @author mizuo
+ */
+public class EmailAddressFilterTest {
+
+	/** テスト毎に生成するフィルタ */
+	private EmailAddressFilter filter;
+
+	/**
+	 * テスト間で状態を共有しないよう、フィルタを生成し直します。
+	 */
+	@Before
+	public void setUp() {
+		filter = new EmailAddressFilter(1000, 0.01);
+	}
+
+	/**
+	 * 追加と判定のテストを行います。
+	 */
+	@Test
+	public void mightContain() {
+		for (int i = 0; i < 1000; i++) {
+			filter.put("used" + i + "@example.com");
+		}
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertTrue("追加したメールアドレスは必ず使用済みかもしれないと判定される。", filter.mightContain("used" + i + "@example.com"));
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain("unused" + i + "@example.com")) {
+				falsePositives++;
+			}
+		}
+		Assert.assertTrue("偽陽性率は想定の範囲に収まる。: " + falsePositives, falsePositives < 300);
+	}
+
+	/**
+	 * 読込完了前の判定のテストを行います。
+	 */
+	@Test
+	public void ready() {
+		Assert.assertTrue("読込完了前はDBで判定する。", filter.mightBeUsed("owner@example.com"));
+		filter.markReady();
+		Assert.assertFalse("読込完了後は未使用と判定できる。", filter.mightBeUsed("owner@example.com"));
+		filter.addUsed("owner@example.com");
+		Assert.assertTrue("登録後は使用済みかもしれないと判定される。", filter.mightBeUsed("owner@example.com"));
+		Assert.assertEquals(1, filter.negativeCount());
+		Assert.assertEquals(1, filter.positiveCount());
+	}
+
+}
@@ -0,0 +1,148 @@
+package startup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import startup.StartupTaskRunner.Status;
+import startup.StartupTaskRunner.TaskState;
+
+/**
+ * 起動時の処理の実行処理のテストクラスです。
+ * @author mizuo
+ */
+public class StartupTaskRunnerTest {
+
+	/**
+	 * テスト用の起動時の処理です。
+	 * @author mizuo
+	 */
+	private static class TestTask implements StartupTask {
+		private final String name;
+		private final boolean required;
+		private final Set<String> dependencies;
+		/** 処理結果(完了させるまで実行中) */
+		final CompletableFuture<Object> result = new CompletableFuture<>();
+		/** 開始した場合 true */
+		boolean started;
+		/** 中断された場合 true */
+		boolean cancelled;
+		TestTask(String name, boolean required, String... dependencies) {
+			this.name = name;
+			this.required = required;
+			this.dependencies = new HashSet<>(Arrays.asList(dependencies));
+		}
+		@Override
+		public String name() {
+			return name;
+		}
+		@Override
+		public Set<String> dependencies() {
+			return dependencies;
+		}
+		@Override
+		public boolean required() {
+			return required;
+		}
+		@Override
+		public CompletionStage<?> run() {
+			started = true;
+			return result;
+		}
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	/**
+	 * 状態を処理名で取得します。
+	 * @param runner 実行処理
+	 * @param name 処理名
+	 * @return 状態
+	 */
+	private static Status statusOf(StartupTaskRunner runner, String name) {
+		for (TaskState state : runner.states()) {
+			if (state.name.equals(name)) {
+				return state.status();
+			}
+		}
+		throw new AssertionError(name);
+	}
+
+	/**
+	 * 依存関係と準備完了のテストを行います。
+	 */
+	@Test
+	public void dependencies() {
+		final TestTask calibrate = new TestTask("calibrate", true);
+		final TestTask owner = new TestTask("owner", true, "calibrate");
+		final TestTask optional = new TestTask("optional", false);
+		final CompletableFuture<Void> database = new CompletableFuture<>();
+		final StartupTaskRunner runner = new StartupTaskRunner(Arrays.asList(owner, optional, calibrate), 60000, Runnable::run,
+				(delayMillis, runnable) -> {}, database);
+		Assert.assertFalse("DBの準備ができるまでは開始しない。", calibrate.started);
+		database.complete(null);
+		Assert.assertTrue(calibrate.started);
+		Assert.assertTrue(optional.started);
+		Assert.assertFalse("依存する処理が完了するまでは開始しない。", owner.started);
+		calibrate.result.complete(10);
+		Assert.assertTrue(owner.started);
+		Assert.assertEquals(Status.RUNNING, statusOf(runner, "owner"));
+		optional.result.completeExceptionally(new IllegalStateException("optional"));
+		Assert.assertFalse(runner.isReady());
+		owner.result.complete(null);
+		Assert.assertTrue("必須でない処理が失敗しても必須の処理が全て成功すれば準備完了になる。", runner.isReady());
+		Assert.assertEquals(Status.FAILED, statusOf(runner, "optional"));
+		Assert.assertTrue(runner.readyNanos() >= 0);
+	}
+
+	/**
+	 * 失敗と制限時間切れのテストを行います。
+	 */
+	@Test
+	public void failure() {
+		final TestTask slow = new TestTask("slow", true);
+		final TestTask dependent = new TestTask("dependent", true, "slow");
+		final List<Runnable> timeouts = new ArrayList<>();
+		final StartupTaskRunner runner = new StartupTaskRunner(Arrays.asList(slow, dependent), 10, Runnable::run,
+				(delayMillis, runnable) -> timeouts.add(runnable), CompletableFuture.completedFuture(null));
+		Assert.assertEquals(1, timeouts.size());
+		timeouts.get(0).run();
+		Assert.assertEquals(Status.TIMED_OUT, statusOf(runner, "slow"));
+		Assert.assertTrue("制限時間切れの処理は中断する。", slow.cancelled);
+		Assert.assertTrue("制限時間切れの処理結果は取り消す。", slow.result.isCancelled());
+		Assert.assertEquals("依存する処理が失敗した処理は実行しない。", Status.SKIPPED, statusOf(runner, "dependent"));
+		Assert.assertFalse(dependent.started);
+		Assert.assertFalse(runner.isReady());
+		Assert.assertEquals(-1, runner.readyNanos());
+	}
+
+	/**
+	 * 依存関係の誤りのテストを行います。
+	 */
+	@Test
+	public void invalidDependencies() {
+		try {
+			StartupTaskRunner.order(Arrays.asList(new TestTask("a", true, "b"), new TestTask("b", true, "a")));
+			Assert.fail("循環する依存は登録できない。");
+		} catch (IllegalStateException e) {
+			// 期待通り
+		}
+		try {
+			StartupTaskRunner.order(Collections.singletonList(new TestTask("a", true, "missing")));
+			Assert.fail("未登録の処理には依存できない。");
+		} catch (IllegalStateException e) {
+			// 期待通り
+		}
+	}
+
+}